@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.hibernate.annotations.GenerationTime;
+import org.hibernate.annotations.ValueGenerationType;
+
+/**
+ * This annotation marks a timestamp property whose column is set to the commit timestamp of the
+ * Spanner transaction which writes the row.
+ *
+ * <p>The inserts and updates of the entity write {@code PENDING_COMMIT_TIMESTAMP()} to the
+ * column, so the value is assigned by Spanner instead of the clock of the client. The values are
+ * therefore consistent with the commit order of the transactions. When the schema is generated,
+ * the column is created with {@code OPTIONS (allow_commit_timestamp=true)}.
+ *
+ * <pre>
+ * &#64;Entity
+ * public class Singer {
+ *   &#64;Id
+ *   private Long id;
+ *
+ *   &#64;CommitTimestamp
+ *   private Timestamp updatedAt;
+ *   ...
+ * }
+ * </pre>
+ *
+ * <p>The commit timestamp is only known once the transaction is committed. The property is
+ * therefore not refreshed after the entity is written, and Spanner does not allow the transaction
+ * to read the table after it has written a pending commit timestamp to it.
+ */
+@Documented
+@ValueGenerationType(generatedBy = CommitTimestampGeneration.class)
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CommitTimestamp {
+
+  /**
+   * When the column is set to the commit timestamp: {@link GenerationTime#ALWAYS} on every insert
+   * and update of the row, or {@link GenerationTime#INSERT} only when the row is inserted.
+   */
+  GenerationTime value() default GenerationTime.ALWAYS;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import org.hibernate.tuple.AnnotationValueGeneration;
+import org.hibernate.tuple.GenerationTiming;
+import org.hibernate.tuple.ValueGenerator;
+
+/**
+ * The value generation of {@link CommitTimestamp} properties, which writes
+ * {@code PENDING_COMMIT_TIMESTAMP()} to their columns in the insert and update statements.
+ */
+public class CommitTimestampGeneration implements AnnotationValueGeneration<CommitTimestamp> {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The SQL function which Spanner replaces with the commit timestamp of the transaction.
+   */
+  public static final String PENDING_COMMIT_TIMESTAMP = "PENDING_COMMIT_TIMESTAMP()";
+
+  private GenerationTiming timing = GenerationTiming.ALWAYS;
+
+  @Override
+  public void initialize(CommitTimestamp annotation, Class<?> propertyType) {
+    this.timing = annotation.value().getEquivalent();
+  }
+
+  @Override
+  public GenerationTiming getGenerationTiming() {
+    return this.timing;
+  }
+
+  @Override
+  public ValueGenerator<?> getValueGenerator() {
+    // The value is generated by Spanner.
+    return null;
+  }
+
+  @Override
+  public boolean referenceColumnInSql() {
+    return true;
+  }
+
+  @Override
+  public String getDatabaseGeneratedReferencedColumnValue() {
+    return PENDING_COMMIT_TIMESTAMP;
+  }
+}
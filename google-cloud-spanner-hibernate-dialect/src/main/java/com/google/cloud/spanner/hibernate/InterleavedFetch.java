@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation marks a one-to-many association with an {@link Interleaved} child entity whose
+ * fetch joins should be read from Spanner as nested arrays of the co-located child rows.
+ *
+ * <pre>
+ * &#64;Entity
+ * public class Singer {
+ *   &#64;OneToMany(mappedBy = "singer")
+ *   &#64;InterleavedFetch
+ *   private Set&lt;Album&gt; albums;
+ *   ...
+ * }
+ * </pre>
+ *
+ * <p>When the association is fetched with a join, e.g. with
+ * {@code from Singer s left join fetch s.albums} or {@code @Fetch(FetchMode.JOIN)}, the join is
+ * replaced by the subquery
+ * {@code ARRAY(SELECT AS STRUCT ... FROM Album a WHERE a.singer_id = s.id)}. Each singer is then
+ * read once together with all of its albums, instead of once per album. The joins which are
+ * referenced outside of the fetched columns, e.g. in the {@code WHERE} clause, are not replaced.
+ *
+ * <p>The child entity must be {@link Interleaved} in the entity which owns the association.
+ * Interleaved fetches are executed by the
+ * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerConnectionProvider}, see
+ * {@link SpannerSettings#USE_INTERLEAVED_FETCH}.
+ */
+@Documented
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface InterleavedFetch {
+}
@@ -18,9 +18,13 @@
 
 package com.google.cloud.spanner.hibernate;
 
+import com.google.cloud.spanner.hibernate.jdbc.SpannerSnapshotCache;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerStaleReads;
 import com.google.cloud.spanner.hibernate.schema.SpannerForeignKeyExporter;
 import java.io.Serializable;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import org.hibernate.LockMode;
 import org.hibernate.LockOptions;
@@ -514,6 +518,35 @@ public class SpannerDialect extends Dialect {
     return true;
   }
 
+  /* Query hints */
+
+  /**
+   * Places the Spanner statement, table and join hints of a query in its SQL. See
+   * {@link SpannerQueryHints}.
+   */
+  @Override
+  public String getQueryHintString(String query, List<String> hintList) {
+    String stalenessHint = null;
+    String snapshotHint = null;
+    List<String> hints = new ArrayList<>();
+    for (String hint : hintList) {
+      if (SpannerStaleReads.getStaleness(hint) != null) {
+        stalenessHint = hint;
+      } else if (SpannerSnapshotCache.getGranularity(hint) != null) {
+        snapshotHint = hint;
+      } else {
+        hints.add(hint);
+      }
+    }
+    String sql = SpannerQueryHints.apply(query, hints);
+    // The staleness and the snapshot are applied by the connection, which reads them from these
+    // comments.
+    if (stalenessHint != null) {
+      sql = prependComment(sql, stalenessHint);
+    }
+    return snapshotHint == null ? sql : prependComment(sql, snapshotHint);
+  }
+
   /* Type conversion and casting */
 
   @Override
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import com.google.cloud.spanner.hibernate.jdbc.SpannerBatchBuilder;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerConnectionProvider;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerTransactionCoordinatorBuilder;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.jdbc.batch.spi.BatchBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.resource.transaction.spi.TransactionCoordinatorBuilder;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * An implementation of a Hibernate {@link Integrator} which hooks the Spanner-specific features
+ * of the dialect into the session factory once it is built.
+ */
+public class SpannerIntegrator implements Integrator {
+
+  @Override
+  public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+    if (!(sessionFactory.getJdbcServices().getDialect() instanceof SpannerDialect)) {
+      return;
+    }
+
+    BatchBuilder batchBuilder = serviceRegistry.getService(BatchBuilder.class);
+    if (batchBuilder instanceof SpannerBatchBuilder) {
+      ((SpannerBatchBuilder) batchBuilder).registerTables(metadata);
+    }
+
+    TransactionCoordinatorBuilder transactionCoordinatorBuilder =
+        serviceRegistry.getService(TransactionCoordinatorBuilder.class);
+    if (transactionCoordinatorBuilder instanceof SpannerTransactionCoordinatorBuilder) {
+      ((SpannerTransactionCoordinatorBuilder) transactionCoordinatorBuilder)
+          .registerEventListeners(serviceRegistry.getService(EventListenerRegistry.class));
+    }
+
+    ConnectionProvider connectionProvider = serviceRegistry.getService(ConnectionProvider.class);
+    if (connectionProvider instanceof SpannerConnectionProvider) {
+      ((SpannerConnectionProvider) connectionProvider).registerTables(metadata);
+      ((SpannerConnectionProvider) connectionProvider)
+          .registerEventListeners(serviceRegistry.getService(EventListenerRegistry.class));
+      // The entity persisters are only available once the session factory has been created.
+      sessionFactory.addObserver(new SessionFactoryObserver() {
+        @Override
+        public void sessionFactoryCreated(SessionFactory factory) {
+          ((SpannerConnectionProvider) connectionProvider)
+              .registerMutationStatements((SessionFactoryImplementor) factory);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void disintegrate(SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+  }
+}
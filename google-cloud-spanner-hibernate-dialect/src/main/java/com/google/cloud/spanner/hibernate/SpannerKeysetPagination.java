@@ -0,0 +1,358 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.Type;
+
+/**
+ * Reads the results of an HQL query page by page, ordered by the primary key of the entity,
+ * with keyset pagination instead of {@code LIMIT} and {@code OFFSET}.
+ *
+ * <p>Spanner has to read and discard all rows which are skipped with an {@code OFFSET}, so deep
+ * pages get more and more expensive. A keyset page instead starts after the primary key of the
+ * last entity of the previous page, with {@code WHERE (k1 > @k1) OR (k1 = @k1 AND k2 > @k2)
+ * ORDER BY k1, k2 LIMIT @n}, which Spanner reads as a range of the primary key. The cost of a
+ * page therefore does not depend on its position.
+ *
+ * <pre>
+ * SpannerKeysetPagination&lt;Singer&gt; pagination = SpannerKeysetPagination
+ *     .of(session, "from Singer s where s.active = :active", Singer.class)
+ *     .setParameter("active", true);
+ * SpannerKeysetPagination.Page&lt;Singer&gt; page = pagination.getFirstPage(100);
+ * while (page.hasNext()) {
+ *   page = pagination.getNextPage(page);
+ * }
+ * </pre>
+ *
+ * <p>The query must have the form {@code [select alias] from Entity [alias] [where ...]}, without
+ * joins or an {@code ORDER BY} clause. The key of the last entity of a page is returned by
+ * {@link Page#getNextKey()}, and can be passed to {@link #getPage(Object[], int)} in a later
+ * request, e.g. as the continuation token of a REST API.
+ */
+public class SpannerKeysetPagination<T> {
+
+  private static final Pattern QUERY = Pattern.compile(
+      "\\s*(?:select\\s+(\\w+)\\s+)?from\\s+([\\w.$]+)(?:\\s+(?:as\\s+)?(?!where\\b)(\\w+))?"
+          + "(?:\\s+where\\s+(.*?))?\\s*",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private static final Pattern ORDER_BY =
+      Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final String DEFAULT_ALIAS = "keyset_";
+
+  private static final String KEY_PARAMETER = "keyset_";
+
+  private final Session session;
+
+  private final Class<T> entityClass;
+
+  private final EntityPersister persister;
+
+  private final String from;
+
+  private final String where;
+
+  private final List<String> keyPaths;
+
+  private final List<Integer> keyOrder;
+
+  private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+  private SpannerKeysetPagination(Session session, String hql, Class<T> entityClass) {
+    Matcher matcher = QUERY.matcher(hql);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Invalid keyset query '" + hql
+          + "', expected [select alias] from Entity [alias] [where ...] without joins");
+    }
+    String alias = matcher.group(3) == null ? DEFAULT_ALIAS : matcher.group(3);
+    if (matcher.group(1) != null && !matcher.group(1).equals(alias)) {
+      throw new IllegalArgumentException(
+          "The keyset query '" + hql + "' must select the entity " + alias);
+    }
+    if (matcher.group(4) != null && ORDER_BY.matcher(matcher.group(4)).find()) {
+      throw new IllegalArgumentException("The keyset query '" + hql
+          + "' must not have an ORDER BY clause, as it is ordered by the primary key");
+    }
+    this.session = session;
+    this.entityClass = entityClass;
+    this.persister = session.unwrap(SessionImplementor.class).getFactory().getMetamodel()
+        .entityPersister(entityClass);
+    this.from = "select " + alias + " from " + matcher.group(2) + " " + alias;
+    this.where = matcher.group(4);
+    this.keyOrder = getKeyOrder(this.persister);
+    this.keyPaths = getKeyPaths(this.persister, alias, this.keyOrder);
+  }
+
+  /**
+   * Returns the keyset pagination of the given HQL query in the given session.
+   */
+  public static <T> SpannerKeysetPagination<T> of(
+      Session session, String hql, Class<T> entityClass) {
+    return new SpannerKeysetPagination<>(session, hql, entityClass);
+  }
+
+  /**
+   * Returns the keyset pagination of the given HQL query in the session of the given entity
+   * manager, e.g. in a custom Spring Data repository.
+   */
+  public static <T> SpannerKeysetPagination<T> of(
+      EntityManager entityManager, String hql, Class<T> entityClass) {
+    return of(entityManager.unwrap(Session.class), hql, entityClass);
+  }
+
+  /**
+   * Binds a value to a named parameter of the query.
+   */
+  public SpannerKeysetPagination<T> setParameter(String name, Object value) {
+    this.parameters.put(name, value);
+    return this;
+  }
+
+  /**
+   * Returns the first page of the query.
+   */
+  public Page<T> getFirstPage(int pageSize) {
+    return getPage(null, pageSize);
+  }
+
+  /**
+   * Returns the page which follows the given page, which has no content if the given page is the
+   * last one.
+   */
+  public Page<T> getNextPage(Page<T> page) {
+    if (!page.hasNext()) {
+      return new Page<>(Collections.emptyList(), false, null);
+    }
+    return getPage(page.getNextKey(), page.getContent().size());
+  }
+
+  /**
+   * Returns the page of the query which starts after the given primary key, or the first page if
+   * the key is null. The key has one value per primary key column, as returned by
+   * {@link Page#getNextKey()}.
+   */
+  public Page<T> getPage(Object[] afterKey, int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("The page size must be positive: " + pageSize);
+    }
+    if (afterKey != null && afterKey.length != this.keyPaths.size()) {
+      throw new IllegalArgumentException("The key must have " + this.keyPaths.size()
+          + " values, but has " + afterKey.length);
+    }
+    List<String> restrictions = new ArrayList<>();
+    if (this.where != null) {
+      restrictions.add("(" + this.where + ")");
+    }
+    if (afterKey != null) {
+      restrictions.add("(" + getKeysetRestriction() + ")");
+    }
+    String hql = this.from
+        + (restrictions.isEmpty() ? "" : " where " + String.join(" and ", restrictions))
+        + " order by " + String.join(", ", this.keyPaths);
+
+    Query<T> query = this.session.createQuery(hql, this.entityClass);
+    this.parameters.forEach(query::setParameter);
+    if (afterKey != null) {
+      for (int i = 0; i < afterKey.length; i++) {
+        query.setParameter(KEY_PARAMETER + i, afterKey[i]);
+      }
+    }
+    // One more entity is read to find out whether there is a next page.
+    List<T> results = query.setMaxResults(pageSize + 1).list();
+    boolean hasNext = results.size() > pageSize;
+    List<T> content = hasNext ? results.subList(0, pageSize) : results;
+    Object[] nextKey = content.isEmpty() ? null : getKey(content.get(content.size() - 1));
+    return new Page<>(new ArrayList<>(content), hasNext, nextKey);
+  }
+
+  /**
+   * Returns the primary key of the given entity in the order of the pagination.
+   */
+  public Object[] getKey(T entity) {
+    SessionImplementor sessionImplementor = this.session.unwrap(SessionImplementor.class);
+    Serializable id = this.persister.getIdentifier(entity, sessionImplementor);
+    Type idType = this.persister.getIdentifierType();
+    if (idType.isComponentType()) {
+      Object[] values = ((CompositeType) idType).getPropertyValues(id, sessionImplementor);
+      Object[] key = new Object[values.length];
+      for (int i = 0; i < key.length; i++) {
+        key[i] = values[this.keyOrder.get(i)];
+      }
+      return key;
+    }
+    return new Object[] {id};
+  }
+
+  /**
+   * Returns (k1 > :keyset_0) or (k1 = :keyset_0 and k2 > :keyset_1) or ...
+   */
+  private String getKeysetRestriction() {
+    List<String> alternatives = new ArrayList<>();
+    for (int i = 0; i < this.keyPaths.size(); i++) {
+      List<String> conditions = new ArrayList<>();
+      for (int j = 0; j < i; j++) {
+        conditions.add(this.keyPaths.get(j) + " = :" + KEY_PARAMETER + j);
+      }
+      conditions.add(this.keyPaths.get(i) + " > :" + KEY_PARAMETER + i);
+      alternatives.add("(" + String.join(" and ", conditions) + ")");
+    }
+    return String.join(" or ", alternatives);
+  }
+
+  private static List<String> getKeyPaths(
+      EntityPersister persister, String alias, List<Integer> keyOrder) {
+    Type idType = persister.getIdentifierType();
+    if (!idType.isComponentType()) {
+      return Collections.singletonList(alias + "." + persister.getIdentifierPropertyName());
+    }
+    // The properties of an @IdClass are properties of the entity, and those of an @EmbeddedId are
+    // properties of the identifier property.
+    String prefix = persister.getEntityMetamodel().getIdentifierProperty().isVirtual()
+        ? alias + "." : alias + "." + persister.getIdentifierPropertyName() + ".";
+    String[] names = ((CompositeType) idType).getPropertyNames();
+    List<String> paths = new ArrayList<>();
+    for (int position : keyOrder) {
+      paths.add(prefix + names[position]);
+    }
+    return paths;
+  }
+
+  /**
+   * Returns the positions of the properties of a composite identifier in the order of the primary
+   * key of the Spanner table, which starts with the key columns of the parent table if the entity
+   * is {@link Interleaved}. Hibernate orders the properties of an {@code @EmbeddedId} by name.
+   */
+  private static List<Integer> getKeyOrder(EntityPersister persister) {
+    Type idType = persister.getIdentifierType();
+    if (!idType.isComponentType()) {
+      return Collections.singletonList(0);
+    }
+    Type[] subtypes = ((CompositeType) idType).getSubtypes();
+    List<Integer> order = new ArrayList<>();
+    if (persister instanceof AbstractEntityPersister) {
+      // The position of the property of each identifier column.
+      Map<String, Integer> columnProperties = new HashMap<>();
+      String[] columns = ((AbstractEntityPersister) persister).getIdentifierColumnNames();
+      int column = 0;
+      for (int i = 0; i < subtypes.length; i++) {
+        for (int j = 0; j < subtypes[i].getColumnSpan(persister.getFactory()); j++) {
+          columnProperties.put(normalize(columns[column++]), i);
+        }
+      }
+      for (String keyColumn : getKeyColumns(persister)) {
+        Integer position = columnProperties.get(keyColumn);
+        if (position != null && !order.contains(position)) {
+          order.add(position);
+        }
+      }
+    }
+    for (int i = 0; i < subtypes.length; i++) {
+      if (!order.contains(i)) {
+        order.add(i);
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Returns the primary key columns of the table of the entity in the order of the Spanner
+   * schema, like {@link com.google.cloud.spanner.hibernate.schema.SpannerTableStatements}.
+   */
+  private static List<String> getKeyColumns(EntityPersister persister) {
+    List<String> keyColumns = new ArrayList<>();
+    Class<?> mappedClass = persister.getMappedClass();
+    Interleaved interleaved =
+        mappedClass == null ? null : mappedClass.getAnnotation(Interleaved.class);
+    if (interleaved != null) {
+      keyColumns.addAll(getKeyColumns(
+          persister.getFactory().getMetamodel().entityPersister(interleaved.parentEntity())));
+    }
+    if (persister instanceof AbstractEntityPersister) {
+      for (String column : ((AbstractEntityPersister) persister).getIdentifierColumnNames()) {
+        if (!keyColumns.contains(normalize(column))) {
+          keyColumns.add(normalize(column));
+        }
+      }
+    }
+    return keyColumns;
+  }
+
+  private static String normalize(String column) {
+    return column.replace("`", "").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * A page of the results of a keyset query.
+   */
+  public static class Page<T> {
+
+    private final List<T> content;
+
+    private final boolean hasNext;
+
+    private final Object[] nextKey;
+
+    Page(List<T> content, boolean hasNext, Object[] nextKey) {
+      this.content = content;
+      this.hasNext = hasNext;
+      this.nextKey = nextKey;
+    }
+
+    /**
+     * Returns the entities of the page.
+     */
+    public List<T> getContent() {
+      return this.content;
+    }
+
+    /**
+     * Returns whether there is a page after this one.
+     */
+    public boolean hasNext() {
+      return this.hasNext;
+    }
+
+    /**
+     * Returns the primary key of the last entity of the page, after which the next page starts,
+     * or null if the page is empty.
+     */
+    public Object[] getNextKey() {
+      return this.nextKey == null ? null : Arrays.copyOf(this.nextKey, this.nextKey.length);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Places Spanner statement, table and join hints in the SQL which Hibernate generates for HQL and
+ * Criteria queries, so that their query plans can be tuned without native queries.
+ *
+ * <p>A hint is written as in Spanner SQL, and is placed at the matching position of the query:
+ * <ul>
+ *   <li>{@code @{USE_ADDITIONAL_PARALLELISM=TRUE}} is a statement hint, which is put in front of
+ *   the statement.</li>
+ *   <li>{@code Singers@{FORCE_INDEX=SingersByLastName}} is a table hint, which is put after each
+ *   reference to the table {@code Singers} in a {@code FROM} or {@code JOIN} clause.</li>
+ *   <li>{@code JOIN@{JOIN_METHOD=HASH_JOIN}} is a join hint, which is put after each
+ *   {@code JOIN} keyword, and {@code JOIN@{JOIN_METHOD=HASH_JOIN} Albums} is a join hint which
+ *   is only put after the {@code JOIN} keywords of the joins with the table {@code Albums}.</li>
+ * </ul>
+ *
+ * <p>The hints are added to a query with {@code Query.addQueryHint}:
+ *
+ * <pre>
+ * session.createQuery("from Singer s where s.lastName = :lastName", Singer.class)
+ *     .addQueryHint(SpannerQueryHints.tableHint("Singers", "FORCE_INDEX=SingersByLastName"))
+ *     .setParameter("lastName", "Smith")
+ *     .list();
+ * </pre>
+ *
+ * <p>The hints of a query can also be given as its comment, separated by semicolons, e.g. with
+ * the {@code org.hibernate.comment} hint of a JPA {@code @NamedQuery}. Comments are only added to
+ * the SQL if {@code hibernate.use_sql_comments} is enabled, and are then replaced by the hints by
+ * the {@link SpannerStatementInspector}.
+ */
+public final class SpannerQueryHints {
+
+  private static final Pattern STATEMENT_HINT = Pattern.compile("@\\{([^{}]+)}");
+
+  private static final Pattern JOIN_HINT =
+      Pattern.compile("JOIN@\\{([^{}]+)}(?:\\s+`?(\\w+)`?)?", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern TABLE_HINT = Pattern.compile("`?(\\w+)`?@\\{([^{}]+)}");
+
+  // String literals are matched first, so that their contents are never rewritten.
+  private static final Pattern TABLE_REFERENCE = Pattern.compile(
+      "'(?:[^']|'')*'|(\\b(?:from|join)\\s+|,\\s*)(`?)(\\w+)\\2(?![\\w.@`])",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern JOIN = Pattern.compile(
+      "'(?:[^']|'')*'|\\bjoin\\b(?!@)(\\s+(`?)(\\w+)\\2)?", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern LEADING_COMMENTS =
+      Pattern.compile("^(?:\\s*/\\*.*?\\*/)*\\s*", Pattern.DOTALL);
+
+  private static final Pattern LEADING_COMMENT =
+      Pattern.compile("^\\s*/\\*(.*?)\\*/\\s*", Pattern.DOTALL);
+
+  private SpannerQueryHints() {
+  }
+
+  /**
+   * Returns a statement hint, e.g. {@code statementHint("USE_ADDITIONAL_PARALLELISM=TRUE")}.
+   */
+  public static String statementHint(String hint) {
+    return "@{" + hint + "}";
+  }
+
+  /**
+   * Returns a hint for the references to the given table, e.g.
+   * {@code tableHint("Singers", "FORCE_INDEX=SingersByLastName")}.
+   */
+  public static String tableHint(String tableName, String hint) {
+    return tableName + "@{" + hint + "}";
+  }
+
+  /**
+   * Returns a hint for all joins of a query, e.g. {@code joinHint("JOIN_METHOD=HASH_JOIN")}.
+   */
+  public static String joinHint(String hint) {
+    return "JOIN@{" + hint + "}";
+  }
+
+  /**
+   * Returns a hint for the joins with the given table, e.g.
+   * {@code joinHint("Albums", "JOIN_METHOD=HASH_JOIN")}.
+   */
+  public static String joinHint(String tableName, String hint) {
+    return "JOIN@{" + hint + "} " + tableName;
+  }
+
+  /**
+   * Returns whether the given query hint is a Spanner statement, table or join hint.
+   */
+  public static boolean isHint(String hint) {
+    String trimmed = hint.trim();
+    return STATEMENT_HINT.matcher(trimmed).matches()
+        || JOIN_HINT.matcher(trimmed).matches()
+        || TABLE_HINT.matcher(trimmed).matches();
+  }
+
+  /**
+   * Places the given hints in the given SQL statement.
+   *
+   * @throws IllegalArgumentException if one of the hints is not a Spanner statement, table or join
+   *     hint
+   */
+  public static String apply(String sql, List<String> hints) {
+    if (hints.isEmpty()) {
+      return sql;
+    }
+    List<String> statementHints = new ArrayList<>();
+    List<String> allJoinHints = new ArrayList<>();
+    Map<String, List<String>> joinHints = new HashMap<>();
+    Map<String, List<String>> tableHints = new HashMap<>();
+    for (String hint : hints) {
+      String trimmed = hint.trim();
+      Matcher matcher;
+      if ((matcher = STATEMENT_HINT.matcher(trimmed)).matches()) {
+        statementHints.add(matcher.group(1).trim());
+      } else if ((matcher = JOIN_HINT.matcher(trimmed)).matches()) {
+        if (matcher.group(2) == null) {
+          allJoinHints.add(matcher.group(1).trim());
+        } else {
+          joinHints.computeIfAbsent(key(matcher.group(2)), table -> new ArrayList<>())
+              .add(matcher.group(1).trim());
+        }
+      } else if ((matcher = TABLE_HINT.matcher(trimmed)).matches()) {
+        tableHints.computeIfAbsent(key(matcher.group(1)), table -> new ArrayList<>())
+            .add(matcher.group(2).trim());
+      } else {
+        throw new IllegalArgumentException("Invalid Spanner query hint '" + hint
+            + "', expected a statement hint such as @{USE_ADDITIONAL_PARALLELISM=TRUE}, a table "
+            + "hint such as Singers@{FORCE_INDEX=SingersByLastName}, or a join hint such as "
+            + "JOIN@{JOIN_METHOD=HASH_JOIN}");
+      }
+    }
+
+    String result = sql;
+    if (!tableHints.isEmpty()) {
+      result = applyTableHints(result, tableHints);
+    }
+    if (!allJoinHints.isEmpty() || !joinHints.isEmpty()) {
+      result = applyJoinHints(result, allJoinHints, joinHints);
+    }
+    if (!statementHints.isEmpty()) {
+      // Statement hints must follow the comments in front of the statement, which are read by the
+      // connection, e.g. for stale reads.
+      Matcher comments = LEADING_COMMENTS.matcher(result);
+      comments.find();
+      result = result.substring(0, comments.end()) + toHint(statementHints) + " "
+          + result.substring(comments.end());
+    }
+    return result;
+  }
+
+  /**
+   * Replaces the comment at the start of the given SQL statement by the hints which it contains,
+   * separated by semicolons. The statement is returned as it is if it does not start with a
+   * comment, or if the comment is not a list of Spanner statement, table or join hints.
+   */
+  public static String applyCommentHints(String sql) {
+    Matcher comment = LEADING_COMMENT.matcher(sql);
+    if (!comment.find()) {
+      return sql;
+    }
+    List<String> hints = new ArrayList<>();
+    for (String hint : comment.group(1).split(";")) {
+      if (!hint.trim().isEmpty()) {
+        if (!isHint(hint)) {
+          return sql;
+        }
+        hints.add(hint);
+      }
+    }
+    return hints.isEmpty() ? sql : apply(sql.substring(comment.end()), hints);
+  }
+
+  private static String applyTableHints(String sql, Map<String, List<String>> tableHints) {
+    Matcher matcher = TABLE_REFERENCE.matcher(sql);
+    StringBuffer result = new StringBuffer();
+    while (matcher.find()) {
+      List<String> hints =
+          matcher.group(1) == null ? null : tableHints.get(key(matcher.group(3)));
+      String replacement = hints == null ? matcher.group() : matcher.group() + toHint(hints);
+      matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+    }
+    matcher.appendTail(result);
+    return result.toString();
+  }
+
+  private static String applyJoinHints(
+      String sql, List<String> allJoinHints, Map<String, List<String>> joinHints) {
+    Matcher matcher = JOIN.matcher(sql);
+    StringBuffer result = new StringBuffer();
+    while (matcher.find()) {
+      String replacement = matcher.group();
+      if (!replacement.startsWith("'")) {
+        List<String> hints = new ArrayList<>(allJoinHints);
+        if (matcher.group(1) != null) {
+          hints.addAll(joinHints.getOrDefault(key(matcher.group(3)), Collections.emptyList()));
+        }
+        if (!hints.isEmpty()) {
+          String table = matcher.group(1) == null ? "" : matcher.group(1);
+          replacement = replacement.substring(0, "join".length()) + toHint(hints) + table;
+        }
+      }
+      matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+    }
+    matcher.appendTail(result);
+    return result.toString();
+  }
+
+  private static String toHint(List<String> hints) {
+    return "@{" + String.join(", ", hints) + "}";
+  }
+
+  private static String key(String tableName) {
+    return tableName.toLowerCase(Locale.ROOT);
+  }
+}
@@ -18,12 +18,26 @@
 
 package com.google.cloud.spanner.hibernate;
 
+import com.google.cloud.spanner.hibernate.hql.SpannerArrayIdsBulkIdStrategy;
+import com.google.cloud.spanner.hibernate.id.SpannerIdentifierGeneratorFactory;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerBatchBuilder;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerConnectionProvider;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerTransactionCoordinatorBuilder;
+import com.google.cloud.spanner.hibernate.persister.SpannerPersisterClassResolver;
 import com.google.cloud.spanner.hibernate.schema.SpannerSchemaManagementTool;
 import java.util.Map;
 import java.util.Objects;
 import org.hibernate.boot.registry.StandardServiceInitiator;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.hibernate.hql.spi.id.inline.InlineIdsOrClauseBulkIdStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderInitiator;
+import org.hibernate.engine.jdbc.batch.spi.BatchBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.id.factory.spi.MutableIdentifierGeneratorFactory;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.persister.internal.PersisterClassResolverInitiator;
+import org.hibernate.persister.spi.PersisterClassResolver;
+import org.hibernate.resource.transaction.spi.TransactionCoordinatorBuilder;
 import org.hibernate.service.Service;
 import org.hibernate.service.spi.ServiceContributor;
 import org.hibernate.service.spi.ServiceRegistryImplementor;
@@ -65,6 +79,19 @@ public class SpannerServiceContributor implements ServiceContributor {
               return SchemaManagementTool.class;
             }
           })
+          // The identifier generators which are optimized for Spanner.
+          .addInitiator(new StandardServiceInitiator() {
+            @Override
+            public Service initiateService(Map configurationValues,
+                ServiceRegistryImplementor registry) {
+              return new SpannerIdentifierGeneratorFactory();
+            }
+
+            @Override
+            public Class getServiceInitiated() {
+              return MutableIdentifierGeneratorFactory.class;
+            }
+          })
           // The user agent JDBC connection property to identify the library.
           .applySetting("hibernate.connection.userAgent", HIBERNATE_API_CLIENT_LIB_TOKEN)
           // Create a unique index for a table if it does not already exist when in UPDATE mode.
@@ -72,7 +99,85 @@ public class SpannerServiceContributor implements ServiceContributor {
               "hibernate.schema_update.unique_constraint_strategy",
               UniqueConstraintSchemaUpdateStrategy.RECREATE_QUIETLY)
           // Allows entities to be used with InheritanceType.JOINED in Spanner.
-          .applySetting("hibernate.hql.bulk_id_strategy", InlineIdsOrClauseBulkIdStrategy.INSTANCE);
+          .applySetting("hibernate.hql.bulk_id_strategy", new SpannerArrayIdsBulkIdStrategy());
+
+      Map settings = serviceRegistryBuilder.getSettings();
+      if (!settings.containsKey(AvailableSettings.STATEMENT_INSPECTOR)) {
+        // Replaces the comments of queries which consist of Spanner query hints by the hints.
+        serviceRegistryBuilder.applySetting(
+            AvailableSettings.STATEMENT_INSPECTOR, new SpannerStatementInspector());
+      }
+
+      if (!settings.containsKey(PersisterClassResolverInitiator.IMPL_NAME)) {
+        // The entity persisters which do not re-read the commit timestamps of the entities, and the
+        // entity and collection persisters which fetch batches by an array of identifiers.
+        serviceRegistryBuilder.addInitiator(new StandardServiceInitiator() {
+          @Override
+          public Service initiateService(Map configurationValues,
+              ServiceRegistryImplementor registry) {
+            return new SpannerPersisterClassResolver(configurationValues);
+          }
+
+          @Override
+          public Class getServiceInitiated() {
+            return PersisterClassResolver.class;
+          }
+        });
+      }
+
+      boolean useMutations =
+          ConfigurationHelper.getBoolean(SpannerSettings.USE_MUTATIONS, settings, false);
+      boolean useSingleUseReads =
+          ConfigurationHelper.getBoolean(SpannerSettings.USE_SINGLE_USE_READS, settings, false);
+      // The connection provider which buffers entity writes as mutations, executes the queries
+      // of read-only transactions as single-use read-only transactions, fetches interleaved child
+      // rows as arrays, and provides the connections of the blind-write sessions.
+      serviceRegistryBuilder.addInitiator(new StandardServiceInitiator() {
+        @Override
+        public Service initiateService(Map configurationValues,
+            ServiceRegistryImplementor registry) {
+          return new SpannerConnectionProvider(configurationValues, registry);
+        }
+
+        @Override
+        public Class getServiceInitiated() {
+          return ConnectionProvider.class;
+        }
+      });
+
+      if (useSingleUseReads) {
+        // The transaction coordinators which make the connections of read-only sessions read-only.
+        serviceRegistryBuilder.addInitiator(new StandardServiceInitiator() {
+          @Override
+          public Service initiateService(Map configurationValues,
+              ServiceRegistryImplementor registry) {
+            return new SpannerTransactionCoordinatorBuilder(configurationValues, registry);
+          }
+
+          @Override
+          public Class getServiceInitiated() {
+            return TransactionCoordinatorBuilder.class;
+          }
+        });
+      }
+
+      if (!useMutations
+          && !settings.containsKey(BatchBuilderInitiator.BUILDER)
+          && ConfigurationHelper.getBoolean(SpannerSettings.USE_BATCH_DML, settings, false)) {
+        // The batches which group all DML statements of a flush into one Spanner request.
+        serviceRegistryBuilder.addInitiator(new StandardServiceInitiator() {
+          @Override
+          public Service initiateService(Map configurationValues,
+              ServiceRegistryImplementor registry) {
+            return new SpannerBatchBuilder();
+          }
+
+          @Override
+          public Class getServiceInitiated() {
+            return BatchBuilder.class;
+          }
+        });
+      }
     }
   }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+/**
+ * Configuration properties which control the Spanner-specific behavior of the dialect. All of
+ * these can be set like any other Hibernate property, e.g. in {@code hibernate.properties} or in
+ * the {@code persistence.xml}.
+ */
+public final class SpannerSettings {
+
+  /**
+   * Whether {@code GenerationType.AUTO} and {@code GenerationType.SEQUENCE} identifiers should be
+   * generated by the {@link com.google.cloud.spanner.hibernate.id.BitReversedSequenceGenerator}
+   * instead of the standard Hibernate sequence generator. Defaults to {@code false}, as the
+   * generator replaces the generators of existing mappings and allocates different values.
+   */
+  public static final String USE_BIT_REVERSED_SEQUENCE =
+      "hibernate.spanner.use_bit_reversed_sequence";
+
+  /**
+   * Whether {@code GenerationType.TABLE} identifiers should be generated by the
+   * {@link com.google.cloud.spanner.hibernate.id.ShardedTableGenerator} instead of the standard
+   * Hibernate table generator. Defaults to {@code false}, as the sharded generator uses a
+   * different table layout.
+   */
+  public static final String USE_SHARDED_TABLE_GENERATOR =
+      "hibernate.spanner.use_sharded_table_generator";
+
+  /**
+   * The default number of remaining identifiers at which a
+   * {@link com.google.cloud.spanner.hibernate.id.BitReversedSequenceGenerator} fetches its next
+   * block on a background thread. Prefetching is disabled by default.
+   */
+  public static final String ID_PREFETCH_LOW_WATER_MARK =
+      "hibernate.spanner.id_prefetch_low_water_mark";
+
+  /**
+   * Whether the entity inserts, updates and deletes of a read/write transaction should be sent to
+   * Spanner as mutations together with the commit, instead of being executed as DML statements.
+   * Defaults to {@code false}. See
+   * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerConnectionProvider} for the details.
+   */
+  public static final String USE_MUTATIONS = "hibernate.spanner.use_mutations";
+
+  /**
+   * The maximum estimated number of mutations which the buffered writes of
+   * {@link #USE_MUTATIONS} may add to a single commit. Once a write would exceed it, the writes
+   * so far are committed and the rest of the flush continues in a new transaction. Chunking is
+   * disabled by default, as it gives up the atomicity of the Hibernate transaction.
+   */
+  public static final String MAX_MUTATIONS_PER_COMMIT =
+      "hibernate.spanner.max_mutations_per_commit";
+
+  /**
+   * Whether the batchable DML statements of a flush should be sent to Spanner in a single batch
+   * DML request, instead of one request per distinct SQL statement. Only applies if JDBC batching
+   * is enabled with {@code hibernate.jdbc.batch_size}, and {@link #USE_MUTATIONS} is disabled.
+   * Defaults to {@code false}.
+   */
+  public static final String USE_BATCH_DML = "hibernate.spanner.use_batch_dml";
+
+  /**
+   * Whether {@code saveOrUpdate()} and {@code merge()} should write the entities with assigned
+   * identifiers which are not in the session yet as insert-or-update mutations, instead of reading
+   * their rows first to decide between an insert and an update. Only applies to entities which are
+   * mapped to a single table and have no version, collections or cascades, and only if
+   * {@link #USE_MUTATIONS} is enabled. {@code persist()} still inserts. Defaults to {@code false}.
+   * Single entities can also be upserted explicitly with
+   * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerUpsert}.
+   */
+  public static final String USE_UPSERT = "hibernate.spanner.use_upsert";
+
+  /**
+   * The maximum number of identifiers which the bulk HQL updates and deletes of multi-table
+   * entities bind to a single statement as an array parameter. Larger sets of identifiers are
+   * processed in chunks. Defaults to 10000.
+   */
+  public static final String BULK_ID_CHUNK_SIZE = "hibernate.spanner.bulk_id_chunk_size";
+
+  /**
+   * Whether the entities and collections which are fetched in batches, e.g. with
+   * {@code hibernate.default_batch_fetch_size} or {@code @BatchSize}, should bind the identifiers
+   * of a batch as one array parameter with {@code id in unnest(?)}, so that all batch sizes share
+   * one statement. Defaults to {@code true}. See
+   * {@link com.google.cloud.spanner.hibernate.loader.ArrayIdsBatchingEntityLoaderBuilder}.
+   */
+  public static final String USE_ARRAY_BATCH_FETCH = "hibernate.spanner.use_array_batch_fetch";
+
+  /**
+   * Whether the fetch joins of the associations which are annotated with
+   * {@link InterleavedFetch} should be executed as {@code ARRAY(SELECT AS STRUCT ...)} subqueries
+   * of the interleaved child rows. Defaults to {@code true}, in which case the
+   * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerConnectionProvider} is used.
+   */
+  public static final String USE_INTERLEAVED_FETCH = "hibernate.spanner.use_interleaved_fetch";
+
+  /**
+   * The maximum number of attempts of a unit of work which is run by a
+   * {@link SpannerTransactionRunner}, including the first one. Defaults to 10.
+   */
+  public static final String MAX_TRANSACTION_ATTEMPTS =
+      "hibernate.spanner.max_transaction_attempts";
+
+  /**
+   * Whether the queries of read-only transactions should be executed as single-use read-only
+   * transactions, instead of in one multi-use transaction which has to be begun first. A
+   * transaction is read-only if the {@code org.hibernate.spanner.read_only} property of its
+   * session is {@code true}, or if its connection is read-only, e.g. in a Spring
+   * {@code @Transactional(readOnly = true)} method. Defaults to
+   * {@code false}, as the queries of such a transaction no longer read from the same snapshot.
+   * See {@link com.google.cloud.spanner.hibernate.jdbc.SpannerTransactionCoordinatorBuilder}.
+   */
+  public static final String USE_SINGLE_USE_READS = "hibernate.spanner.use_single_use_reads";
+
+  /**
+   * The number of threads on which a
+   * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerPartitionedQuery} reads the partitions
+   * of a query, unless it is given an executor. Defaults to the number of available processors.
+   */
+  public static final String PARTITIONED_QUERY_THREADS =
+      "hibernate.spanner.partitioned_query_threads";
+
+  /**
+   * The number of rows which a {@link com.google.cloud.spanner.hibernate.jdbc.SpannerResultStream}
+   * reads ahead of its consumer, and after which it evicts the entities that it has returned from
+   * the persistence context. Defaults to 100.
+   */
+  public static final String RESULT_STREAM_BATCH_SIZE =
+      "hibernate.spanner.result_stream_batch_size";
+
+  /**
+   * The maximum number of query results which a session factory caches for the queries with a
+   * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerSnapshotCache} hint, after which the
+   * least recently used results are evicted. Defaults to 1000.
+   */
+  public static final String SNAPSHOT_CACHE_MAX_ENTRIES =
+      "hibernate.spanner.snapshot_cache_max_entries";
+
+  /**
+   * The maximum age in milliseconds of the Spanner data in the entries of the
+   * {@link com.google.cloud.spanner.hibernate.cache.SpannerRegionFactory}. Older entries are no
+   * longer read from the cache. Defaults to 10000.
+   */
+  public static final String CACHE_MAX_STALENESS = "hibernate.spanner.cache.max_staleness";
+
+  /**
+   * The maximum number of entries of each region of the
+   * {@link com.google.cloud.spanner.hibernate.cache.SpannerRegionFactory}, after which the least
+   * recently used entries are evicted. Defaults to 10000.
+   */
+  public static final String CACHE_MAX_ENTRIES = "hibernate.spanner.cache.max_entries";
+
+  /**
+   * The maximum size in megabytes which each region of the
+   * {@link com.google.cloud.spanner.hibernate.cache.SpannerRegionFactory} stores outside of the
+   * Java heap, after which the least recently used entries are evicted. Defaults to 64.
+   */
+  public static final String CACHE_MAX_MEGABYTES = "hibernate.spanner.cache.max_megabytes";
+
+  private SpannerSettings() {
+  }
+}
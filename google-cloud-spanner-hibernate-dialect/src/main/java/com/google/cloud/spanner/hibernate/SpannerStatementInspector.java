@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Replaces the comments of queries which consist of Spanner query hints by these hints. See
+ * {@link SpannerQueryHints}.
+ *
+ * <p>The inspector is used by default by the sessions of the Spanner dialect, unless another
+ * inspector is configured with {@code hibernate.session_factory.statement_inspector}.
+ */
+public class SpannerStatementInspector implements StatementInspector {
+
+  @Override
+  public String inspect(String sql) {
+    return SpannerQueryHints.applyCommentHints(sql);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.jdbc.JdbcSqlException;
+import com.google.rpc.Code;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * Runs units of work in read/write transactions, and runs them again in a new transaction if
+ * Spanner aborts the transaction.
+ *
+ * <p>Spanner may abort a read/write transaction at any time, e.g. when it conflicts with other
+ * transactions. Each attempt runs the unit of work in a new session, so that no state of the
+ * aborted attempt is carried over, and commits the transaction. If the transaction is aborted,
+ * the runner waits for the retry delay which Spanner returned with the abort, or else backs off
+ * exponentially, and then tries again, up to {@link SpannerSettings#MAX_TRANSACTION_ATTEMPTS}
+ * attempts. Any other failure is rethrown at once.
+ *
+ * <pre>
+ * SpannerTransactionRunner runner = new SpannerTransactionRunner(sessionFactory);
+ * Singer singer = runner.run(session -&gt; {
+ *   Singer s = session.get(Singer.class, singerId);
+ *   s.setName("Alice");
+ *   return s;
+ * });
+ * </pre>
+ *
+ * <p>The unit of work must not have side effects outside of the session, as it may be run more
+ * than once. A runner may be shared by several threads, and counts the attempts and aborts of all
+ * the units of work it runs.
+ */
+public class SpannerTransactionRunner {
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+  private static final long INITIAL_BACKOFF_MILLIS = 10L;
+
+  private static final long MAX_BACKOFF_MILLIS = 1000L;
+
+  private final SessionFactory sessionFactory;
+
+  private final int maxAttempts;
+
+  private final AtomicLong attempts = new AtomicLong();
+
+  private final AtomicLong aborts = new AtomicLong();
+
+  /**
+   * Creates a runner which opens the sessions of its units of work with the given session factory.
+   */
+  public SpannerTransactionRunner(SessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+    this.maxAttempts = Math.max(1, ConfigurationHelper.getInt(
+        SpannerSettings.MAX_TRANSACTION_ATTEMPTS, sessionFactory.getProperties(),
+        DEFAULT_MAX_ATTEMPTS));
+  }
+
+  /**
+   * Runs the unit of work in a read/write transaction, which is committed when the unit of work
+   * returns, and returns its result. The unit of work is run again in a new session if the
+   * transaction is aborted.
+   */
+  public <T> T run(Function<Session, T> work) {
+    for (int attempt = 1; ; attempt++) {
+      this.attempts.incrementAndGet();
+      try (Session session = this.sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        try {
+          T result = work.apply(session);
+          transaction.commit();
+          return result;
+        } catch (RuntimeException e) {
+          if (transaction.isActive()) {
+            rollback(transaction, e);
+          }
+          long retryDelay = getAbortRetryDelay(e);
+          if (retryDelay < 0) {
+            throw e;
+          }
+          this.aborts.incrementAndGet();
+          if (attempt >= this.maxAttempts) {
+            throw e;
+          }
+          backOff(retryDelay, attempt, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of attempts of all units of work which have been run so far.
+   */
+  public long getAttempts() {
+    return this.attempts.get();
+  }
+
+  /**
+   * Returns the number of attempts which failed because Spanner aborted their transaction.
+   */
+  public long getAborts() {
+    return this.aborts.get();
+  }
+
+  /**
+   * Returns -1 if the exception is not caused by an aborted transaction, or else the retry delay
+   * in milliseconds which Spanner returned with the abort, which is 0 if it returned none.
+   */
+  static long getAbortRetryDelay(Throwable exception) {
+    boolean aborted = false;
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SpannerException
+          && ((SpannerException) cause).getErrorCode() == ErrorCode.ABORTED) {
+        return Math.max(0L, ((SpannerException) cause).getRetryDelayInMillis());
+      }
+      if (cause instanceof JdbcSqlException
+          && ((JdbcSqlException) cause).getCode() == Code.ABORTED) {
+        aborted = true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return aborted ? 0L : -1L;
+  }
+
+  private static void rollback(Transaction transaction, RuntimeException failure) {
+    try {
+      transaction.rollback();
+    } catch (RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  private static void backOff(long retryDelay, int attempt, RuntimeException abort) {
+    long delay = retryDelay;
+    if (delay == 0L) {
+      long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 16));
+      delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw abort;
+    }
+  }
+}
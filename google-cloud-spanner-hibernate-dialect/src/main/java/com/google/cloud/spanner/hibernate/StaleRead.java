@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation marks an entity class whose instances may be loaded with a stale read, which
+ * Spanner can serve from the nearest replica without waiting for the leader of the data.
+ *
+ * <pre>
+ * &#64;Entity
+ * &#64;StaleRead("max:10s")
+ * public class Venue {
+ *   ...
+ * }
+ * </pre>
+ *
+ * <p>The staleness applies when the entity is loaded by its identifier, e.g. with
+ * {@code session.get()}, in a read-only transaction whose queries are executed as single-use
+ * read-only transactions. See {@link SpannerSettings#USE_SINGLE_USE_READS}. In read/write
+ * transactions, the entity is read with a strong read. Queries can be made stale with the
+ * {@link com.google.cloud.spanner.hibernate.jdbc.SpannerStaleReads#hint} query hint.
+ */
+@Documented
+@Inherited
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface StaleRead {
+
+  /**
+   * The staleness of the reads, either {@code max:<duration>} for a bounded staleness, or
+   * {@code exact:<duration>} for an exact staleness. The duration is a number followed by one of
+   * the units {@code s}, {@code ms}, {@code us} or {@code ns}, e.g. {@code max:10s}.
+   */
+  String value();
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.cache;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.util.SerializationHelper;
+import org.hibernate.type.SerializationException;
+
+/**
+ * Stores the entries of a cache region in direct byte buffers outside of the Java heap, so that
+ * large regions do not add to the garbage collection pauses of the application.
+ *
+ * <p>Each entry is tagged with the Spanner timestamp of the data which it contains, and is only
+ * returned while it is at most the maximum staleness of the region old. The soft locks of the
+ * read/write access strategy do not expire, as they are not data. Once the region exceeds its
+ * maximum number of entries or bytes, the least recently used entries are evicted. Values which
+ * cannot be serialized are kept on the heap.
+ */
+class OffHeapStorageAccess implements DomainDataStorageAccess {
+
+  private final Map<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final long maxStaleness;
+
+  private final int maxEntries;
+
+  private final long maxBytes;
+
+  private final LongSupplier clock;
+
+  private long bytes;
+
+  /**
+   * Creates a storage with the given maximum staleness in milliseconds, and the given maximum
+   * number of entries and bytes.
+   */
+  OffHeapStorageAccess(long maxStaleness, int maxEntries, long maxBytes, LongSupplier clock) {
+    this.maxStaleness = maxStaleness;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.clock = clock;
+  }
+
+  @Override
+  public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+    Entry entry;
+    synchronized (this) {
+      entry = this.entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (isExpired(entry)) {
+        remove(key);
+        return null;
+      }
+    }
+    // The buffer of an entry is never modified, so it is read outside of the lock.
+    return entry.getValue();
+  }
+
+  @Override
+  public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+    put(key, value, ReadTimestamps.getReadTimestamp(session));
+  }
+
+  /**
+   * Stores the given value, which contains the data of Spanner at the given timestamp in
+   * milliseconds.
+   */
+  void put(Object key, Object value, long timestamp) {
+    Entry entry = Entry.of(value, timestamp, !(value instanceof SoftLock));
+    synchronized (this) {
+      remove(key);
+      if (entry.size() > this.maxBytes) {
+        return;
+      }
+      this.entries.put(key, entry);
+      this.bytes += entry.size();
+      Iterator<Entry> leastRecentlyUsed = this.entries.values().iterator();
+      while (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+        this.bytes -= leastRecentlyUsed.next().size();
+        leastRecentlyUsed.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean contains(Object key) {
+    Entry entry = this.entries.get(key);
+    return entry != null && !isExpired(entry);
+  }
+
+  @Override
+  public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+    evictData(key);
+  }
+
+  @Override
+  public synchronized void evictData(Object key) {
+    remove(key);
+  }
+
+  @Override
+  public synchronized void evictData() {
+    this.entries.clear();
+    this.bytes = 0;
+  }
+
+  @Override
+  public void clearCache(SharedSessionContractImplementor session) {
+    evictData();
+  }
+
+  @Override
+  public void release() {
+    evictData();
+  }
+
+  /**
+   * Returns the number of bytes which the entries of the storage take up outside of the heap.
+   */
+  synchronized long getBytes() {
+    return this.bytes;
+  }
+
+  private boolean isExpired(Entry entry) {
+    return entry.expires && this.clock.getAsLong() - entry.timestamp > this.maxStaleness;
+  }
+
+  private void remove(Object key) {
+    Entry entry = this.entries.remove(key);
+    if (entry != null) {
+      this.bytes -= entry.size();
+    }
+  }
+
+  /**
+   * A value of the cache, either serialized into a direct byte buffer or kept on the heap.
+   */
+  private static final class Entry {
+
+    private final ByteBuffer buffer;
+
+    private final Object value;
+
+    private final long timestamp;
+
+    private final boolean expires;
+
+    private Entry(ByteBuffer buffer, Object value, long timestamp, boolean expires) {
+      this.buffer = buffer;
+      this.value = value;
+      this.timestamp = timestamp;
+      this.expires = expires;
+    }
+
+    static Entry of(Object value, long timestamp, boolean expires) {
+      if (value instanceof Serializable) {
+        try {
+          byte[] data = SerializationHelper.serialize((Serializable) value);
+          ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+          buffer.put(data).flip();
+          return new Entry(buffer, null, timestamp, expires);
+        } catch (SerializationException e) {
+          // A component of the value is not serializable.
+        }
+      }
+      return new Entry(null, value, timestamp, expires);
+    }
+
+    Object getValue() {
+      if (this.buffer == null) {
+        return this.value;
+      }
+      byte[] data = new byte[this.buffer.remaining()];
+      this.buffer.duplicate().get(data);
+      return SerializationHelper.deserialize(data);
+    }
+
+    int size() {
+      return this.buffer == null ? 0 : this.buffer.capacity();
+    }
+  }
+}
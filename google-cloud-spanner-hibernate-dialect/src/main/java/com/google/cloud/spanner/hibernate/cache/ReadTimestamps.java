@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.cache;
+
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.resource.jdbc.spi.LogicalConnectionImplementor;
+
+/**
+ * Determines the Spanner timestamp of the data which a session puts into the cache.
+ *
+ * <p>The data of a read-only transaction which is executed as single-use read-only transactions,
+ * possibly with a staleness, was read at the read timestamp of the last query. The data of a
+ * read/write transaction is at least as new as the start of the transaction, which the
+ * {@link SpannerRegionFactory.TransactionTimestamp} of the session records when the transaction
+ * begins. It is used instead, as the commit timestamp is not known yet when the data is read, and
+ * the connection has already been released when the written data is put into the cache. Data
+ * which is read outside of a transaction is at least as new as the start of the last transaction
+ * of the session, or as the session itself.
+ */
+final class ReadTimestamps {
+
+  private ReadTimestamps() {
+  }
+
+  /**
+   * Returns the timestamp in milliseconds of the data which the given session has just read or
+   * written.
+   */
+  static long getReadTimestamp(SharedSessionContractImplementor session) {
+    LogicalConnectionImplementor logicalConnection =
+        session.getJdbcCoordinator().getLogicalConnection();
+    if (logicalConnection.isPhysicallyConnected()) {
+      try {
+        Connection connection = logicalConnection.getPhysicalConnection();
+        if (connection.isWrapperFor(CloudSpannerJdbcConnection.class)) {
+          // The connection may emulate a transaction, so the state of the Spanner connection is
+          // used.
+          CloudSpannerJdbcConnection spannerConnection =
+              connection.unwrap(CloudSpannerJdbcConnection.class);
+          if (spannerConnection.getAutoCommit() && spannerConnection.isReadOnly()) {
+            return spannerConnection.getReadTimestamp().getTime();
+          }
+        }
+      } catch (SQLException e) {
+        // The connection has not read anything yet.
+      }
+    }
+    // The timestamps of the SpannerRegionFactory are milliseconds.
+    return session.getCacheTransactionSynchronization().getCurrentTransactionStartTimestamp();
+  }
+}
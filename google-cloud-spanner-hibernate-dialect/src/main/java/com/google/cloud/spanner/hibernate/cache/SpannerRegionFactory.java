@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.cache;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.CacheTransactionSynchronization;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * A second-level cache whose entries are only read while the Spanner data which they contain is
+ * at most a maximum staleness old, so that cached entities are as fresh as stale reads with the
+ * same bound. The cache is used by setting {@code hibernate.cache.region.factory_class} to the
+ * name of this class, and the staleness is set with {@link SpannerSettings#CACHE_MAX_STALENESS}.
+ *
+ * <p>Each entry is tagged with the read timestamp of the single-use read-only transaction which
+ * read it, or with the start of the read/write transaction which read or wrote it. The entity,
+ * collection and query result regions are kept outside of the Java heap, and evict their least
+ * recently used entries once they exceed {@link SpannerSettings#CACHE_MAX_ENTRIES} entries or
+ * {@link SpannerSettings#CACHE_MAX_MEGABYTES} megabytes. The update timestamps of the query cache
+ * are kept on the heap and never expire, as query results would otherwise be read although their
+ * tables have been changed.
+ *
+ * <p>The timestamps of the region factory are milliseconds.
+ */
+public class SpannerRegionFactory extends RegionFactoryTemplate {
+
+  private static final int DEFAULT_MAX_STALENESS = 10000;
+
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private static final int DEFAULT_MAX_MEGABYTES = 64;
+
+  private final LongSupplier clock;
+
+  private final List<StorageAccess> storages = new CopyOnWriteArrayList<>();
+
+  private long maxStaleness;
+
+  private int maxEntries;
+
+  private long maxBytes;
+
+  public SpannerRegionFactory() {
+    this(System::currentTimeMillis);
+  }
+
+  SpannerRegionFactory(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+    this.maxStaleness = ConfigurationHelper.getInt(
+        SpannerSettings.CACHE_MAX_STALENESS, configValues, DEFAULT_MAX_STALENESS);
+    this.maxEntries = ConfigurationHelper.getInt(
+        SpannerSettings.CACHE_MAX_ENTRIES, configValues, DEFAULT_MAX_ENTRIES);
+    this.maxBytes = ConfigurationHelper.getInt(
+        SpannerSettings.CACHE_MAX_MEGABYTES, configValues, DEFAULT_MAX_MEGABYTES) * 1024L * 1024L;
+  }
+
+  @Override
+  protected void releaseFromUse() {
+    this.storages.forEach(StorageAccess::release);
+    this.storages.clear();
+  }
+
+  @Override
+  public long nextTimestamp() {
+    return this.clock.getAsLong();
+  }
+
+  @Override
+  protected DomainDataStorageAccess createDomainDataStorageAccess(
+      DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+    return register(createStorageAccess());
+  }
+
+  @Override
+  protected StorageAccess createQueryResultsRegionStorageAccess(
+      String regionName, SessionFactoryImplementor sessionFactory) {
+    return register(createStorageAccess());
+  }
+
+  @Override
+  protected StorageAccess createTimestampsRegionStorageAccess(
+      String regionName, SessionFactoryImplementor sessionFactory) {
+    return register(new TimestampsStorageAccess());
+  }
+
+  @Override
+  public CacheTransactionSynchronization createTransactionContext(
+      SharedSessionContractImplementor session) {
+    return new TransactionTimestamp(this);
+  }
+
+  private OffHeapStorageAccess createStorageAccess() {
+    return new OffHeapStorageAccess(this.maxStaleness, this.maxEntries, this.maxBytes, this.clock);
+  }
+
+  private <T extends StorageAccess> T register(T storage) {
+    this.storages.add(storage);
+    return storage;
+  }
+
+  /**
+   * Keeps the update timestamps of the tables on the heap.
+   */
+  private static final class TimestampsStorageAccess implements DomainDataStorageAccess {
+
+    private final Map<Object, Object> timestamps = new ConcurrentHashMap<>();
+
+    @Override
+    public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+      return this.timestamps.get(key);
+    }
+
+    @Override
+    public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+      this.timestamps.put(key, value);
+    }
+
+    @Override
+    public boolean contains(Object key) {
+      return this.timestamps.containsKey(key);
+    }
+
+    @Override
+    public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+      this.timestamps.remove(key);
+    }
+
+    @Override
+    public void evictData(Object key) {
+      this.timestamps.remove(key);
+    }
+
+    @Override
+    public void evictData() {
+      this.timestamps.clear();
+    }
+
+    @Override
+    public void clearCache(SharedSessionContractImplementor session) {
+      this.timestamps.clear();
+    }
+
+    @Override
+    public void release() {
+      this.timestamps.clear();
+    }
+  }
+
+  /**
+   * Records the timestamp at which the current or last transaction of a session began, or at
+   * which the session was opened if it has not begun a transaction yet.
+   */
+  static final class TransactionTimestamp implements CacheTransactionSynchronization {
+
+    private final RegionFactory regionFactory;
+
+    private volatile long transactionStartTimestamp;
+
+    TransactionTimestamp(RegionFactory regionFactory) {
+      this.regionFactory = regionFactory;
+      this.transactionStartTimestamp = regionFactory.nextTimestamp();
+    }
+
+    @Override
+    public long getCurrentTransactionStartTimestamp() {
+      return this.transactionStartTimestamp;
+    }
+
+    @Override
+    public void transactionJoined() {
+      this.transactionStartTimestamp = this.regionFactory.nextTimestamp();
+    }
+
+    @Override
+    public void transactionCompleting() {
+    }
+
+    @Override
+    public void transactionCompleted(boolean successful) {
+    }
+  }
+}
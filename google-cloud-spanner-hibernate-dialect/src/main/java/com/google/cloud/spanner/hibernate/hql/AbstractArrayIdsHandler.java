@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.hql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.hql.internal.ast.HqlSqlWalker;
+import org.hibernate.hql.spi.id.AbstractIdsBulkIdHandler;
+import org.hibernate.param.ParameterSpecification;
+
+/**
+ * Base class of the bulk-id handlers which bind the selected identifiers as one array parameter,
+ * which is the last parameter of each of their statements.
+ */
+abstract class AbstractArrayIdsHandler extends AbstractIdsBulkIdHandler {
+
+  static final String IN_ARRAY = " in unnest(?)";
+
+  private final String elementType;
+
+  private final int chunkSize;
+
+  AbstractArrayIdsHandler(SessionFactoryImplementor factory, HqlSqlWalker walker,
+      String elementType, int chunkSize) {
+    super(factory, walker);
+    this.elementType = elementType;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Selects the identifiers of the affected rows and executes the statements for each chunk of
+   * them. Returns the number of affected entities.
+   */
+  int execute(SharedSessionContractImplementor session, QueryParameters queryParameters,
+      List<String> statements, List<ParameterSpecification[]> parameters, String operation) {
+    List<Object[]> ids = selectIds(session, queryParameters);
+    for (int start = 0; start < ids.size(); start += this.chunkSize) {
+      List<Object[]> chunk = ids.subList(start, Math.min(ids.size(), start + this.chunkSize));
+      Object[] elements = new Object[chunk.size()];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = toElement(chunk.get(i)[0]);
+      }
+      for (int i = 0; i < statements.size(); i++) {
+        String sql = statements.get(i);
+        try {
+          executeStatement(session, queryParameters, sql, parameters.get(i), elements);
+        } catch (SQLException e) {
+          throw convert(e, "error performing bulk " + operation, sql);
+        }
+      }
+    }
+    return ids.size();
+  }
+
+  private void executeStatement(SharedSessionContractImplementor session,
+      QueryParameters queryParameters, String sql, ParameterSpecification[] parameters,
+      Object[] elements) throws SQLException {
+    JdbcCoordinator jdbcCoordinator = session.getJdbcCoordinator();
+    try (PreparedStatement statement =
+        jdbcCoordinator.getStatementPreparer().prepareStatement(sql, false)) {
+      int position = 1;
+      for (ParameterSpecification parameter : parameters) {
+        position += parameter.bind(statement, queryParameters, session, position);
+      }
+      statement.setArray(
+          position, statement.getConnection().createArrayOf(this.elementType, elements));
+      jdbcCoordinator.getResultSetReturn().executeUpdate(statement);
+    }
+  }
+
+  private Object toElement(Object id) {
+    if (id instanceof Number && this.elementType.equals("INT64")) {
+      return ((Number) id).longValue();
+    }
+    return id;
+  }
+}
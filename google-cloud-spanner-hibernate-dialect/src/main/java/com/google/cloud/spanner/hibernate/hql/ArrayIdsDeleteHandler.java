@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.hql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.hql.internal.ast.HqlSqlWalker;
+import org.hibernate.hql.spi.id.MultiTableBulkIdStrategy.DeleteHandler;
+import org.hibernate.param.ParameterSpecification;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.sql.Delete;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+
+/**
+ * Executes a bulk delete with a delete statement for each many-to-many join table of the entity,
+ * followed by a delete statement for each of its tables, e.g.
+ * {@code delete from Car where id in unnest(?)}.
+ */
+class ArrayIdsDeleteHandler extends AbstractArrayIdsHandler implements DeleteHandler {
+
+  private static final ParameterSpecification[] NO_PARAMETERS = new ParameterSpecification[0];
+
+  private final List<String> deletes = new ArrayList<>();
+
+  ArrayIdsDeleteHandler(SessionFactoryImplementor factory, HqlSqlWalker walker,
+      String elementType, int chunkSize) {
+    super(factory, walker, elementType, chunkSize);
+
+    Queryable persister = getTargetedQueryable();
+    String idColumn = persister.getIdentifierColumnNames()[0];
+    for (Type type : persister.getPropertyTypes()) {
+      if (type.isCollectionType()) {
+        AbstractCollectionPersister collectionPersister = (AbstractCollectionPersister)
+            factory.getMetamodel().collectionPersister(((CollectionType) type).getRole());
+        if (collectionPersister.isManyToMany()) {
+          String[] keyColumns = getKeyColumnNames(persister, collectionPersister);
+          String keys = String.join(", ", collectionPersister.getKeyColumnNames());
+          if (Arrays.equals(persister.getIdentifierColumnNames(), keyColumns)) {
+            addDelete(collectionPersister.getTableName(), keys + IN_ARRAY,
+                "bulk delete - m2m join table cleanup");
+          } else {
+            // The join table references other columns of the entity than its identifier. Spanner
+            // does not support IN with multiple columns, so the rows are matched with EXISTS.
+            String joinTable = collectionPersister.getTableName();
+            String[] joinColumns = collectionPersister.getKeyColumnNames();
+            List<String> conditions = new ArrayList<>();
+            for (int i = 0; i < keyColumns.length; i++) {
+              conditions.add("tmp." + keyColumns[i] + " = " + joinTable + "." + joinColumns[i]);
+            }
+            conditions.add("tmp." + idColumn + IN_ARRAY);
+            addDelete(joinTable,
+                "exists (select 1 from " + persister.getTableName() + " tmp where "
+                    + String.join(" and ", conditions) + ")",
+                "bulk delete - m2m join table cleanup");
+          }
+        }
+      }
+    }
+
+    String[] tableNames = persister.getConstraintOrderedTableNameClosure();
+    String[][] columnNames = persister.getContraintOrderedTableKeyColumnClosure();
+    for (int i = 0; i < tableNames.length; i++) {
+      addDelete(tableNames[i], columnNames[i][0] + IN_ARRAY, "bulk delete");
+    }
+  }
+
+  private void addDelete(String tableName, String where, String comment) {
+    Delete delete = new Delete().setTableName(tableName).setWhere(where);
+    if (factory().getSessionFactoryOptions().isCommentsEnabled()) {
+      delete.setComment(comment);
+    }
+    this.deletes.add(delete.toStatementString());
+  }
+
+  @Override
+  public String[] getSqlStatements() {
+    return this.deletes.toArray(new String[0]);
+  }
+
+  @Override
+  public int execute(SharedSessionContractImplementor session, QueryParameters queryParameters) {
+    List<ParameterSpecification[]> parameters = new ArrayList<>();
+    for (int i = 0; i < this.deletes.size(); i++) {
+      parameters.add(NO_PARAMETERS);
+    }
+    return execute(session, queryParameters, this.deletes, parameters, "delete");
+  }
+}
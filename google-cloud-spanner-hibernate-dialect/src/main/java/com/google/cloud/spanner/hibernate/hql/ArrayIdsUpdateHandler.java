@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.hql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.hql.internal.ast.HqlSqlWalker;
+import org.hibernate.hql.internal.ast.tree.AssignmentSpecification;
+import org.hibernate.hql.spi.id.MultiTableBulkIdStrategy.UpdateHandler;
+import org.hibernate.param.ParameterSpecification;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.sql.Update;
+
+/**
+ * Executes a bulk update with an update statement for each table which contains an assigned
+ * column, e.g. {@code update Car set seats=? where id in unnest(?)}.
+ */
+class ArrayIdsUpdateHandler extends AbstractArrayIdsHandler implements UpdateHandler {
+
+  private final List<String> updates = new ArrayList<>();
+
+  private final List<ParameterSpecification[]> assignmentParameters = new ArrayList<>();
+
+  ArrayIdsUpdateHandler(SessionFactoryImplementor factory, HqlSqlWalker walker,
+      String elementType, int chunkSize) {
+    super(factory, walker, elementType, chunkSize);
+
+    Queryable persister = getTargetedQueryable();
+    String[] tableNames = persister.getConstraintOrderedTableNameClosure();
+    String[][] columnNames = persister.getContraintOrderedTableKeyColumnClosure();
+    for (int i = 0; i < tableNames.length; i++) {
+      Update update = new Update(dialect())
+          .setTableName(tableNames[i])
+          .setWhere(columnNames[i][0] + IN_ARRAY);
+      if (factory.getSessionFactoryOptions().isCommentsEnabled()) {
+        update.setComment("bulk update");
+      }
+      List<ParameterSpecification> parameters = new ArrayList<>();
+      boolean affected = false;
+      for (AssignmentSpecification assignment : walker.getAssignmentSpecifications()) {
+        if (assignment.affectsTable(tableNames[i])) {
+          affected = true;
+          update.appendAssignmentFragment(assignment.getSqlAssignmentFragment());
+          if (assignment.getParameters() != null) {
+            Collections.addAll(parameters, assignment.getParameters());
+          }
+        }
+      }
+      if (affected) {
+        this.updates.add(update.toStatementString());
+        this.assignmentParameters.add(parameters.toArray(new ParameterSpecification[0]));
+      }
+    }
+  }
+
+  @Override
+  public String[] getSqlStatements() {
+    return this.updates.toArray(new String[0]);
+  }
+
+  @Override
+  public int execute(SharedSessionContractImplementor session, QueryParameters queryParameters) {
+    return execute(session, queryParameters, this.updates, this.assignmentParameters, "update");
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.hql;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.types.internal.ArrayIds;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.connections.spi.JdbcConnectionAccess;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.HqlSqlWalker;
+import org.hibernate.hql.internal.ast.tree.AbstractRestrictableStatement;
+import org.hibernate.hql.spi.id.MultiTableBulkIdStrategy;
+import org.hibernate.hql.spi.id.inline.InlineIdsIdsOrClauseDeleteHandlerImpl;
+import org.hibernate.hql.spi.id.inline.InlineIdsOrClauseUpdateHandlerImpl;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.type.Type;
+
+/**
+ * The {@link MultiTableBulkIdStrategy} for Spanner, which executes the bulk HQL updates and
+ * deletes of entities that are mapped to multiple tables, e.g. with
+ * {@code InheritanceType.JOINED}.
+ *
+ * <p>Spanner does not support temporary tables, so the identifiers of the affected rows are
+ * selected first. They are then bound to the statements for each table as a single array
+ * parameter, e.g. {@code delete from Car where id in unnest(?)}. Unlike inlined identifiers, this
+ * keeps the statements small and constant, so that Spanner can cache their query plans and look
+ * up the rows by key. Large sets of identifiers are processed in chunks of
+ * {@link SpannerSettings#BULK_ID_CHUNK_SIZE} identifiers.
+ *
+ * <p>Entities with composite identifiers, or identifiers which cannot be bound as an array, fall
+ * back to inlined identifiers in {@code OR} clauses.
+ */
+public class SpannerArrayIdsBulkIdStrategy implements MultiTableBulkIdStrategy {
+
+  static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  @Override
+  public void prepare(JdbcServices jdbcServices, JdbcConnectionAccess connectionAccess,
+      MetadataImplementor metadata, SessionFactoryOptions sessionFactoryOptions) {
+    this.chunkSize = ConfigurationHelper.getInt(SpannerSettings.BULK_ID_CHUNK_SIZE,
+        sessionFactoryOptions.getServiceRegistry().getService(ConfigurationService.class)
+            .getSettings(),
+        DEFAULT_CHUNK_SIZE);
+  }
+
+  @Override
+  public void release(JdbcServices jdbcServices, JdbcConnectionAccess connectionAccess) {
+    // Nothing to release.
+  }
+
+  @Override
+  public UpdateHandler buildUpdateHandler(
+      SessionFactoryImplementor factory, HqlSqlWalker walker) {
+    String elementType = getArrayElementType(factory, walker);
+    if (elementType == null) {
+      return new InlineIdsOrClauseUpdateHandlerImpl(factory, walker);
+    }
+    return new ArrayIdsUpdateHandler(factory, walker, elementType, this.chunkSize);
+  }
+
+  @Override
+  public DeleteHandler buildDeleteHandler(
+      SessionFactoryImplementor factory, HqlSqlWalker walker) {
+    String elementType = getArrayElementType(factory, walker);
+    if (elementType == null) {
+      return new InlineIdsIdsOrClauseDeleteHandlerImpl(factory, walker);
+    }
+    return new ArrayIdsDeleteHandler(factory, walker, elementType, this.chunkSize);
+  }
+
+  int getChunkSize() {
+    return this.chunkSize;
+  }
+
+  /**
+   * Returns the Spanner type name of the array elements which the identifiers of the targeted
+   * entity are bound as, or null if the identifier cannot be bound as an array.
+   */
+  private static String getArrayElementType(
+      SessionFactoryImplementor factory, HqlSqlWalker walker) {
+    Type identifierType = ((AbstractRestrictableStatement) walker.getAST())
+        .getFromClause().getFromElement().getQueryable().getIdentifierType();
+    return ArrayIds.getElementType(identifierType, factory);
+  }
+}
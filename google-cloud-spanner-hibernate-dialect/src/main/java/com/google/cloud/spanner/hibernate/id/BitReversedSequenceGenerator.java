@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.io.Serializable;
+import java.util.Properties;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.boot.model.relational.QualifiedName;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.enhanced.DatabaseStructure;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * A sequence generator which allocates identifiers in pools and bit-reverses the values before
+ * they are handed out.
+ *
+ * <p>Cloud Spanner does not support sequences, so the standard {@link SequenceStyleGenerator}
+ * falls back to the single-row {@code hibernate_sequence} table and runs a read-write transaction
+ * on that row for every identifier. The resulting values are also monotonically increasing, which
+ * concentrates all inserts on the last split of the table.
+ *
+ * <p>This generator uses the same table, but defaults to an increment size of
+ * {@value #DEFAULT_POOL_SIZE} so that the pooled optimizer only needs one transaction per block of
+ * identifiers. Each value is then bit-reversed, which spreads consecutive values evenly over the
+ * whole key space while keeping them unique and positive.
+ *
+ * <p>The generator is used automatically for {@code GenerationType.AUTO} and
+ * {@code GenerationType.SEQUENCE} identifiers by the {@code SpannerServiceContributor} if
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_BIT_REVERSED_SEQUENCE} is set to
+ * {@code true}. An explicit {@code allocationSize} or {@code increment_size} is still honored.
+ *
+ * <p>If a {@link #LOW_WATER_MARK_PARAM low-water mark} is configured, the next block is fetched
+ * on a background thread as soon as only that many identifiers are left in the current block, so
+ * that sessions do not have to wait for the allocation transaction in steady state. The
+ * {@link #getPrefetchStatistics() statistics} show how long the fetches take and how often the
+ * pool ran empty anyway.
+ */
+public class BitReversedSequenceGenerator extends SequenceStyleGenerator {
+
+  /**
+   * The number of identifiers that are allocated in one transaction if no increment size has been
+   * configured for the generator.
+   */
+  public static final int DEFAULT_POOL_SIZE = 1000;
+
+  /**
+   * The number of remaining identifiers in the current block at which the next block is fetched
+   * in the background. Defaults to the value of
+   * {@link SpannerSettings#ID_PREFETCH_LOW_WATER_MARK}; prefetching is disabled if neither is set.
+   */
+  public static final String LOW_WATER_MARK_PARAM = "low_water_mark";
+
+  private final IdPrefetchStatistics prefetchStatistics = new IdPrefetchStatistics();
+
+  private Type identifierType;
+
+  private String valueColumnName;
+
+  private int lowWaterMark;
+
+  private ConnectionProvider connectionProvider;
+
+  private JdbcServices jdbcServices;
+
+  private volatile IdBlockPrefetcher prefetcher;
+
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry)
+      throws MappingException {
+    super.configure(type, params, serviceRegistry);
+    this.identifierType = type;
+
+    int defaultLowWaterMark = ConfigurationHelper.getInt(
+        SpannerSettings.ID_PREFETCH_LOW_WATER_MARK,
+        serviceRegistry.getService(ConfigurationService.class).getSettings(),
+        0);
+    this.lowWaterMark = ConfigurationHelper.getInt(LOW_WATER_MARK_PARAM, params,
+        defaultLowWaterMark);
+    if (this.lowWaterMark >= getDatabaseStructure().getIncrementSize()) {
+      throw new MappingException(String.format(
+          "The low-water mark [%d] of a bit-reversed sequence must be less than its increment "
+              + "size [%d]", this.lowWaterMark, getDatabaseStructure().getIncrementSize()));
+    }
+
+    // Prefetching needs its own connections, which cannot be obtained in multi-tenant setups.
+    this.connectionProvider = serviceRegistry.getService(ConnectionProvider.class);
+    this.jdbcServices = serviceRegistry.getService(JdbcServices.class);
+  }
+
+  @Override
+  protected DatabaseStructure buildTableStructure(
+      Type type,
+      Properties params,
+      JdbcEnvironment jdbcEnvironment,
+      QualifiedName sequenceName,
+      int initialValue,
+      int incrementSize) {
+    this.valueColumnName =
+        determineValueColumnName(params, jdbcEnvironment).render(jdbcEnvironment.getDialect());
+    return super.buildTableStructure(
+        type, params, jdbcEnvironment, sequenceName, initialValue, incrementSize);
+  }
+
+  @Override
+  public void registerExportables(Database database) {
+    super.registerExportables(database);
+
+    if (isPrefetchEnabled()) {
+      // The physical table name is only known once the table has been registered.
+      this.prefetcher = new IdBlockPrefetcher(
+          this.connectionProvider,
+          this.jdbcServices,
+          getDatabaseStructure().getName(),
+          this.valueColumnName,
+          getDatabaseStructure().getIncrementSize(),
+          this.lowWaterMark,
+          this.prefetchStatistics);
+    }
+  }
+
+  private boolean isPrefetchEnabled() {
+    return this.lowWaterMark > 0
+        && this.valueColumnName != null
+        && this.connectionProvider != null;
+  }
+
+  /**
+   * Returns the statistics of the background fetches of identifier blocks. These are only
+   * collected if a {@link #LOW_WATER_MARK_PARAM low-water mark} has been configured.
+   */
+  public IdPrefetchStatistics getPrefetchStatistics() {
+    return this.prefetchStatistics;
+  }
+
+  @Override
+  protected int determineIncrementSize(Properties params) {
+    int incrementSize = ConfigurationHelper.getInt(INCREMENT_PARAM, params, DEFAULT_POOL_SIZE);
+    if (incrementSize < 1) {
+      throw new MappingException(
+          "The increment size of a bit-reversed sequence must be positive, but was "
+              + incrementSize);
+    }
+    return incrementSize;
+  }
+
+  @Override
+  public Serializable generate(SharedSessionContractImplementor session, Object object)
+      throws HibernateException {
+    IdBlockPrefetcher prefetcher = this.prefetcher;
+    if (prefetcher == null || session.getTenantIdentifier() != null) {
+      return reverse(super.generate(session, object));
+    }
+    return reverse(IdentifierGeneratorHelper.getIntegralDataTypeHolder(
+        this.identifierType.getReturnedClass())
+        .initialize(prefetcher.next())
+        .makeValue());
+  }
+
+  /**
+   * The bit-reversed values are not available to the database, so bulk insertion statements have
+   * to generate their identifiers one by one.
+   */
+  @Override
+  public boolean supportsBulkInsertionIdentifierGeneration() {
+    return false;
+  }
+
+  /**
+   * Bit-reverses an identifier value. The sign bit is always cleared, so that the result is a
+   * positive number that is unique for every positive input.
+   */
+  static Serializable reverse(Serializable value) {
+    if (value instanceof Long) {
+      return Long.reverse((Long) value) >>> 1;
+    }
+    if (value instanceof Integer) {
+      return Integer.reverse((Integer) value) >>> 1;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.id.IdentifierGenerationException;
+
+/**
+ * Hands out the values of a pooled sequence table and fetches the next block of values on a
+ * background thread once the number of remaining values drops to the low-water mark.
+ *
+ * <p>The blocks are reserved with the same protocol as the pooled optimizer uses, so that
+ * prefetching and non-prefetching generators can share a sequence table: reading the value
+ * {@code v} and advancing it by the increment size reserves the values {@code (v - increment, v]}.
+ */
+class IdBlockPrefetcher {
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new DaemonThreadFactory());
+
+  private final ConnectionProvider connectionProvider;
+
+  private final JdbcServices jdbcServices;
+
+  private final String selectQuery;
+
+  private final String updateQuery;
+
+  private final int incrementSize;
+
+  private final int lowWaterMark;
+
+  private final IdPrefetchStatistics statistics;
+
+  private long next;
+
+  private long limit;
+
+  private CompletableFuture<Long> pendingBlock;
+
+  IdBlockPrefetcher(
+      ConnectionProvider connectionProvider,
+      JdbcServices jdbcServices,
+      String tableName,
+      String valueColumnName,
+      int incrementSize,
+      int lowWaterMark,
+      IdPrefetchStatistics statistics) {
+    this.connectionProvider = connectionProvider;
+    this.jdbcServices = jdbcServices;
+    this.selectQuery = "select " + valueColumnName + " from " + tableName;
+    this.updateQuery =
+        "update " + tableName + " set " + valueColumnName + "=? where " + valueColumnName + "=?";
+    this.incrementSize = incrementSize;
+    this.lowWaterMark = lowWaterMark;
+    this.statistics = statistics;
+  }
+
+  /**
+   * Returns the next value of the sequence. This only blocks if the pool is empty and the
+   * background fetch of the next block has not completed yet.
+   */
+  synchronized long next() {
+    if (this.next >= this.limit) {
+      long start = System.nanoTime();
+      if (this.pendingBlock == null) {
+        this.pendingBlock = fetchBlockAsync();
+      }
+      // Waiting for the very first block is not an exhaustion of the pool.
+      boolean exhausted = this.limit > 0 && !this.pendingBlock.isDone();
+      long hiValue = awaitPendingBlock();
+      if (exhausted) {
+        this.statistics.recordExhaustion(System.nanoTime() - start);
+      }
+      this.next = Math.max(1, hiValue - this.incrementSize + 1);
+      this.limit = hiValue + 1;
+    }
+
+    long value = this.next++;
+    if (this.limit - this.next <= this.lowWaterMark && this.pendingBlock == null) {
+      this.pendingBlock = fetchBlockAsync();
+    }
+    return value;
+  }
+
+  private long awaitPendingBlock() {
+    try {
+      return this.pendingBlock.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IdentifierGenerationException("Could not fetch a block of identifiers", e);
+    } finally {
+      this.pendingBlock = null;
+    }
+  }
+
+  private CompletableFuture<Long> fetchBlockAsync() {
+    return CompletableFuture.supplyAsync(this::fetchBlock, EXECUTOR);
+  }
+
+  /**
+   * Reserves the next block in its own transaction and returns the highest value of the block.
+   */
+  private long fetchBlock() {
+    long start = System.nanoTime();
+    try {
+      Connection connection = this.connectionProvider.getConnection();
+      try {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+          long hiValue = reserveBlock(connection);
+          connection.commit();
+          this.statistics.recordRefill(System.nanoTime() - start);
+          return hiValue;
+        } catch (SQLException | RuntimeException e) {
+          connection.rollback();
+          throw e;
+        } finally {
+          connection.setAutoCommit(autoCommit);
+        }
+      } finally {
+        this.connectionProvider.closeConnection(connection);
+      }
+    } catch (SQLException e) {
+      throw this.jdbcServices.getSqlExceptionHelper().convert(
+          e, "Could not fetch a block of identifiers", this.updateQuery);
+    }
+  }
+
+  private long reserveBlock(Connection connection) throws SQLException {
+    int rows;
+    long value;
+    do {
+      this.jdbcServices.getSqlStatementLogger().logStatement(this.selectQuery);
+      try (PreparedStatement select = connection.prepareStatement(this.selectQuery);
+          ResultSet resultSet = select.executeQuery()) {
+        if (!resultSet.next()) {
+          throw new IdentifierGenerationException(
+              "Could not read a hi value, the sequence table is empty: " + this.selectQuery);
+        }
+        value = resultSet.getLong(1);
+      }
+
+      this.jdbcServices.getSqlStatementLogger().logStatement(this.updateQuery);
+      try (PreparedStatement update = connection.prepareStatement(this.updateQuery)) {
+        update.setLong(1, value + this.incrementSize);
+        update.setLong(2, value);
+        rows = update.executeUpdate();
+      }
+    } while (rows == 0);
+    return value;
+  }
+
+  /**
+   * Creates the daemon threads which fetch the identifier blocks, so that they never keep the JVM
+   * from shutting down.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "spanner-id-prefetch-" + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
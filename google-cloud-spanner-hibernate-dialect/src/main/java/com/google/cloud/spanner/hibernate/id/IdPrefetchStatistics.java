@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the identifier blocks which have been fetched in the background by a
+ * {@link BitReversedSequenceGenerator}.
+ */
+public class IdPrefetchStatistics {
+
+  private final LongAdder refillCount = new LongAdder();
+
+  private final LongAdder totalRefillNanos = new LongAdder();
+
+  private final AtomicLong maxRefillNanos = new AtomicLong();
+
+  private final LongAdder exhaustionCount = new LongAdder();
+
+  private final LongAdder totalExhaustionWaitNanos = new LongAdder();
+
+  void recordRefill(long nanos) {
+    this.refillCount.increment();
+    this.totalRefillNanos.add(nanos);
+    this.maxRefillNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  void recordExhaustion(long waitNanos) {
+    this.exhaustionCount.increment();
+    this.totalExhaustionWaitNanos.add(waitNanos);
+  }
+
+  /**
+   * Returns the number of blocks which have been fetched from the database.
+   */
+  public long getRefillCount() {
+    return this.refillCount.sum();
+  }
+
+  /**
+   * Returns the average time in milliseconds that it took to fetch a block from the database.
+   */
+  public double getAverageRefillLatencyMillis() {
+    long count = this.refillCount.sum();
+    return count == 0 ? 0 : toMillis(this.totalRefillNanos.sum()) / count;
+  }
+
+  /**
+   * Returns the longest time in milliseconds that it took to fetch a block from the database.
+   */
+  public double getMaxRefillLatencyMillis() {
+    return toMillis(this.maxRefillNanos.get());
+  }
+
+  /**
+   * Returns the number of times that the pool of identifiers was empty when an identifier was
+   * requested, so that the session had to wait for the next block.
+   */
+  public long getExhaustionCount() {
+    return this.exhaustionCount.sum();
+  }
+
+  /**
+   * Returns the total time in milliseconds that sessions have waited for the next block because
+   * the pool of identifiers was empty.
+   */
+  public double getTotalExhaustionWaitMillis() {
+    return toMillis(this.totalExhaustionWaitNanos.sum());
+  }
+
+  private static double toMillis(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String toString() {
+    return "IdPrefetchStatistics{"
+        + "refillCount=" + getRefillCount()
+        + ", averageRefillLatencyMillis=" + getAverageRefillLatencyMillis()
+        + ", maxRefillLatencyMillis=" + getMaxRefillLatencyMillis()
+        + ", exhaustionCount=" + getExhaustionCount()
+        + ", totalExhaustionWaitMillis=" + getTotalExhaustionWaitMillis()
+        + '}';
+  }
+}
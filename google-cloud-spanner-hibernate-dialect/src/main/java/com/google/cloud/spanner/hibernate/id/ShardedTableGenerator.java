@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import org.hibernate.MappingException;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.boot.model.relational.InitCommand;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.QualifiedName;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.ExportableColumn;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.jdbc.AbstractReturningWork;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PrimaryKey;
+import org.hibernate.mapping.Table;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+import org.hibernate.type.Type;
+
+/**
+ * A table generator which spreads the identifier allocations of one segment over a number of
+ * shard rows.
+ *
+ * <p>The standard {@link TableGenerator} keeps one row per segment, so every allocation of every
+ * application instance is a read-write transaction on that same row and concurrent allocators
+ * abort each other. This generator adds a shard column to the primary key of the generator table
+ * and creates {@value #DEFAULT_SHARD_COUNT} rows (or {@link #SHARD_COUNT_PARAM}) per segment.
+ * Each thread picks one shard at random and only allocates blocks of identifiers from that row.
+ *
+ * <p>Every shard owns a disjoint range of identifiers: the n-th value of shard {@code s} is
+ * {@code n * shardCount + s}. The {@code next_val} column of a shard row therefore holds the next
+ * unallocated value of the shard-local counter, not an identifier.
+ *
+ * <p>The generator accepts the same parameters as the {@link TableGenerator}. It is used for
+ * {@code GenerationType.TABLE} identifiers if
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_SHARDED_TABLE_GENERATOR} is
+ * enabled, and can otherwise be used through {@code @GenericGenerator}.
+ */
+public class ShardedTableGenerator extends TableGenerator {
+
+  /**
+   * The number of shard rows per segment.
+   */
+  public static final String SHARD_COUNT_PARAM = "shard_count";
+
+  public static final int DEFAULT_SHARD_COUNT = 8;
+
+  /**
+   * The name of the column which holds the shard id.
+   */
+  public static final String SHARD_COLUMN_PARAM = "shard_column_name";
+
+  public static final String DEF_SHARD_COLUMN = "shard_id";
+
+  /**
+   * The default name of the generator table. The sharded table has a different primary key than
+   * the {@code hibernate_sequences} table of the standard {@link TableGenerator}, so the two
+   * cannot share a table.
+   */
+  public static final String DEF_SHARDED_TABLE = "hibernate_sharded_sequences";
+
+  private final ThreadLocal<Integer> currentShard =
+      ThreadLocal.withInitial(() -> ThreadLocalRandom.current().nextInt(this.shardCount));
+
+  private Type identifierType;
+
+  private QualifiedName qualifiedTableName;
+
+  private String renderedTableName;
+
+  private String shardColumnName;
+
+  private int shardCount;
+
+  private Block[] blocks;
+
+  private String selectQuery;
+
+  private String updateQuery;
+
+  private String insertQuery;
+
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry)
+      throws MappingException {
+    if (!params.containsKey(TABLE_PARAM)) {
+      params.setProperty(TABLE_PARAM, DEF_SHARDED_TABLE);
+    }
+    super.configure(type, params, serviceRegistry);
+
+    JdbcEnvironment jdbcEnvironment = serviceRegistry.getService(JdbcEnvironment.class);
+    this.identifierType = type;
+    this.qualifiedTableName = determineGeneratorTableName(params, jdbcEnvironment, serviceRegistry);
+    this.shardColumnName = jdbcEnvironment.getIdentifierHelper().toIdentifier(
+        ConfigurationHelper.getString(SHARD_COLUMN_PARAM, params, DEF_SHARD_COLUMN))
+        .render(jdbcEnvironment.getDialect());
+    this.shardCount = ConfigurationHelper.getInt(SHARD_COUNT_PARAM, params, DEFAULT_SHARD_COUNT);
+    if (this.shardCount < 1) {
+      throw new MappingException(
+          "The shard count of a sharded table generator must be positive, but was "
+              + this.shardCount);
+    }
+
+    this.blocks = new Block[this.shardCount];
+    for (int i = 0; i < this.shardCount; i++) {
+      this.blocks[i] = new Block();
+    }
+  }
+
+  public int getShardCount() {
+    return this.shardCount;
+  }
+
+  public String getShardColumnName() {
+    return this.shardColumnName;
+  }
+
+  @Override
+  public Serializable generate(SharedSessionContractImplementor session, Object obj) {
+    int shard = this.currentShard.get();
+    Block block = this.blocks[shard];
+
+    long value;
+    synchronized (block) {
+      if (block.next >= block.limit) {
+        block.next = allocateBlock(session, shard);
+        block.limit = block.next + getIncrementSize();
+      }
+      value = block.next++;
+    }
+
+    return IdentifierGeneratorHelper.getIntegralDataTypeHolder(
+        this.identifierType.getReturnedClass())
+        .initialize(value * this.shardCount + shard)
+        .makeValue();
+  }
+
+  /**
+   * Reserves the next block of shard-local values in a separate transaction and returns the first
+   * value of the block.
+   */
+  private long allocateBlock(SharedSessionContractImplementor session, int shard) {
+    SqlStatementLogger statementLogger = session.getFactory().getServiceRegistry()
+        .getService(JdbcServices.class)
+        .getSqlStatementLogger();
+
+    return session.getTransactionCoordinator().createIsolationDelegate().delegateWork(
+        new AbstractReturningWork<Long>() {
+          @Override
+          public Long execute(Connection connection) throws SQLException {
+            int rows;
+            long current;
+            do {
+              Long stored = readShard(connection, statementLogger, shard);
+              if (stored == null) {
+                // The shard row was not created by the schema tools.
+                current = getInitialValue();
+                try (PreparedStatement insert =
+                    prepare(connection, statementLogger, insertQuery)) {
+                  insert.setString(1, getSegmentValue());
+                  insert.setInt(2, shard);
+                  insert.setLong(3, current + getIncrementSize());
+                  rows = insert.executeUpdate();
+                }
+              } else {
+                current = stored;
+                try (PreparedStatement update =
+                    prepare(connection, statementLogger, updateQuery)) {
+                  update.setLong(1, current + getIncrementSize());
+                  update.setString(2, getSegmentValue());
+                  update.setInt(3, shard);
+                  update.setLong(4, current);
+                  rows = update.executeUpdate();
+                }
+              }
+            } while (rows == 0);
+
+            return current;
+          }
+        },
+        true);
+  }
+
+  private Long readShard(Connection connection, SqlStatementLogger statementLogger, int shard)
+      throws SQLException {
+    try (PreparedStatement select = prepare(connection, statementLogger, this.selectQuery)) {
+      select.setString(1, getSegmentValue());
+      select.setInt(2, shard);
+      try (ResultSet resultSet = select.executeQuery()) {
+        return resultSet.next() ? resultSet.getLong(1) : null;
+      }
+    }
+  }
+
+  private static PreparedStatement prepare(
+      Connection connection, SqlStatementLogger statementLogger, String sql)
+      throws SQLException {
+    statementLogger.logStatement(sql);
+    return connection.prepareStatement(sql);
+  }
+
+  @Override
+  public String[] sqlCreateStrings(Dialect dialect) {
+    return new String[] {
+        dialect.getCreateTableString() + ' ' + this.renderedTableName + " ( "
+            + getSegmentColumnName() + ' '
+            + dialect.getTypeName(Types.VARCHAR, getSegmentValueLength(), 0, 0) + " not null, "
+            + this.shardColumnName + ' ' + dialect.getTypeName(Types.INTEGER) + " not null, "
+            + getValueColumnName() + ' ' + dialect.getTypeName(Types.BIGINT)
+            + ", primary key ( " + getSegmentColumnName() + ", " + this.shardColumnName + " ) )"
+    };
+  }
+
+  @Override
+  public void registerExportables(Database database) {
+    Dialect dialect = database.getJdbcEnvironment().getDialect();
+    Namespace namespace = database.locateNamespace(
+        this.qualifiedTableName.getCatalogName(), this.qualifiedTableName.getSchemaName());
+
+    Identifier tableName = this.qualifiedTableName.getObjectName();
+    Table table = namespace.locateTable(tableName);
+    if (table == null) {
+      table = namespace.createTable(tableName, false);
+
+      Column segmentColumn = new ExportableColumn(
+          database,
+          table,
+          getSegmentColumnName(),
+          StringType.INSTANCE,
+          dialect.getTypeName(Types.VARCHAR, getSegmentValueLength(), 0, 0));
+      segmentColumn.setNullable(false);
+      table.addColumn(segmentColumn);
+
+      Column shardColumn =
+          new ExportableColumn(database, table, this.shardColumnName, IntegerType.INSTANCE);
+      shardColumn.setNullable(false);
+      table.addColumn(shardColumn);
+
+      table.setPrimaryKey(new PrimaryKey(table));
+      table.getPrimaryKey().addColumn(segmentColumn);
+      table.getPrimaryKey().addColumn(shardColumn);
+
+      table.addColumn(
+          new ExportableColumn(database, table, getValueColumnName(), LongType.INSTANCE));
+    }
+
+    this.renderedTableName = database.getJdbcEnvironment().getQualifiedObjectNameFormatter()
+        .format(table.getQualifiedTableName(), dialect);
+
+    // Seeds one row per shard, so that the allocators never have to create them concurrently.
+    for (int shard = 0; shard < this.shardCount; shard++) {
+      table.addInitCommand(new InitCommand(
+          "insert into " + this.renderedTableName + " (" + getSegmentColumnName() + ", "
+              + this.shardColumnName + ", " + getValueColumnName() + ") values ('"
+              + getSegmentValue() + "', " + shard + ", " + getInitialValue() + ")"));
+    }
+
+    this.selectQuery = "select " + getValueColumnName() + " from " + this.renderedTableName
+        + " where " + getSegmentColumnName() + "=? and " + this.shardColumnName + "=?";
+    this.updateQuery = "update " + this.renderedTableName + " set " + getValueColumnName()
+        + "=? where " + getSegmentColumnName() + "=? and " + this.shardColumnName + "=? and "
+        + getValueColumnName() + "=?";
+    this.insertQuery = "insert into " + this.renderedTableName + " (" + getSegmentColumnName()
+        + ", " + this.shardColumnName + ", " + getValueColumnName() + ") values (?, ?, ?)";
+  }
+
+  /**
+   * The range of shard-local values which have been reserved for a shard but not handed out yet.
+   */
+  private static class Block {
+
+    private long next;
+
+    private long limit;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.id.factory.internal.DefaultIdentifierGeneratorFactory;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+
+/**
+ * The identifier generator factory for Spanner which maps the standard Hibernate generation
+ * strategies to their Spanner-specific implementations.
+ */
+public class SpannerIdentifierGeneratorFactory extends DefaultIdentifierGeneratorFactory {
+
+  @Override
+  public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+    super.injectServices(serviceRegistry);
+
+    ConfigurationService configService = serviceRegistry.getService(ConfigurationService.class);
+    if (configService.getSetting(
+        SpannerSettings.USE_BIT_REVERSED_SEQUENCE, StandardConverters.BOOLEAN, false)) {
+      // GenerationType.AUTO and GenerationType.SEQUENCE both resolve to the class name.
+      register(SequenceStyleGenerator.class.getName(), BitReversedSequenceGenerator.class);
+      register("enhanced-sequence", BitReversedSequenceGenerator.class);
+    }
+    if (configService.getSetting(
+        SpannerSettings.USE_SHARDED_TABLE_GENERATOR, StandardConverters.BOOLEAN, false)) {
+      // GenerationType.TABLE resolves to the class name.
+      register(TableGenerator.class.getName(), ShardedTableGenerator.class);
+      register("enhanced-table", ShardedTableGenerator.class);
+    }
+  }
+}
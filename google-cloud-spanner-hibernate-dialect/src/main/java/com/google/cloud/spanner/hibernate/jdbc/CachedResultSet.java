@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The rows of a JDBC {@link ResultSet} which have been read into memory, so that they can be read
+ * again by any number of sessions as forward-only result sets.
+ *
+ * <p>Only the getters of scalar values and arrays are supported, by column index or label. The
+ * values which are mutable, such as timestamps and byte arrays, are copied for each read.
+ */
+class CachedResultSet {
+
+  private final Map<String, Integer> columns;
+
+  private final List<Object[]> rows;
+
+  private CachedResultSet(Map<String, Integer> columns, List<Object[]> rows) {
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /**
+   * Reads all rows of the given result set, and closes it.
+   */
+  static CachedResultSet read(ResultSet resultSet) throws SQLException {
+    try {
+      ResultSetMetaData metaData = resultSet.getMetaData();
+      int columnCount = metaData.getColumnCount();
+      Map<String, Integer> columns = new HashMap<>();
+      for (int i = columnCount; i > 0; i--) {
+        // The first of several columns with the same label is read, like by the JDBC driver.
+        columns.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i - 1);
+      }
+      List<Object[]> rows = new ArrayList<>();
+      while (resultSet.next()) {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+          row[i] = resultSet.getObject(i + 1);
+        }
+        rows.add(row);
+      }
+      return new CachedResultSet(
+          Collections.unmodifiableMap(columns), Collections.unmodifiableList(rows));
+    } finally {
+      resultSet.close();
+    }
+  }
+
+  /**
+   * Returns a new result set of the rows, which belongs to the given statement.
+   */
+  ResultSet open(Statement statement) {
+    return (ResultSet) Proxy.newProxyInstance(
+        CachedResultSet.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class},
+        new Cursor(statement));
+  }
+
+  private static Object copy(Object value) {
+    if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+    if (value instanceof java.util.Date) {
+      // Also copies the nanoseconds of a java.sql.Timestamp.
+      return ((java.util.Date) value).clone();
+    }
+    return value;
+  }
+
+  /**
+   * A forward-only result set of the rows.
+   */
+  private class Cursor implements InvocationHandler {
+
+    private final Statement statement;
+
+    private int row = -1;
+
+    private boolean wasNull;
+
+    private boolean closed;
+
+    private Cursor(Statement statement) {
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      switch (name) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "next":
+          if (this.row < rows.size()) {
+            this.row++;
+          }
+          return this.row < rows.size();
+        case "close":
+          this.closed = true;
+          return null;
+        case "isClosed":
+          return this.closed;
+        case "wasNull":
+          return this.wasNull;
+        case "findColumn":
+          return findColumn((String) args[0]) + 1;
+        case "getStatement":
+          return this.statement;
+        case "getWarnings":
+          return null;
+        case "clearWarnings":
+        case "setFetchSize":
+          return null;
+        case "isWrapperFor":
+          return false;
+        default:
+          break;
+      }
+      if (name.startsWith("get") && args != null && args.length == 1) {
+        int index = args[0] instanceof Integer
+            ? (Integer) args[0] - 1
+            : findColumn((String) args[0]);
+        return getValue(name, index);
+      }
+      throw new SQLFeatureNotSupportedException(
+          "The rows of a cached result set do not support " + name);
+    }
+
+    private int findColumn(String label) throws SQLException {
+      Integer index = columns.get(label.toLowerCase(Locale.ROOT));
+      if (index == null) {
+        throw new SQLException("No column with label " + label);
+      }
+      return index;
+    }
+
+    private Object getValue(String getter, int index) throws SQLException {
+      if (this.row < 0 || this.row >= rows.size()) {
+        throw new SQLException("The result set is not positioned on a row");
+      }
+      Object value = copy(rows.get(this.row)[index]);
+      this.wasNull = value == null;
+      return getter.equals("getArray") ? value : StructResultSet.convert(value, getter);
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.google.cloud.spanner.Value;
+import com.google.cloud.spanner.hibernate.CommitTimestampGeneration;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Converts the DML statements which Hibernate generates for its entity persisters into the
+ * equivalent Spanner {@link Mutation}s.
+ *
+ * <p>Only the plain statement shapes of {@code org.hibernate.sql.Insert}, {@code Update} and
+ * {@code Delete} are understood. The caller is responsible for only passing statements whose
+ * {@code WHERE} clause consists of exactly the primary key columns of the table.
+ */
+final class DmlMutations {
+
+  private static final Pattern COMMENT = Pattern.compile("^/\\*.*?\\*/\\s*", Pattern.DOTALL);
+
+  private static final Pattern INSERT = Pattern.compile(
+      "^insert into (\\S+) \\((.*)\\) values \\((.*)\\)$", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern UPDATE = Pattern.compile(
+      "^update (\\S+) set (.*) where (.*)$", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern DELETE = Pattern.compile(
+      "^delete from (\\S+) where (.*)$", Pattern.CASE_INSENSITIVE);
+
+  private static final String PARAMETER = "?";
+
+  private DmlMutations() {
+  }
+
+  /**
+   * Returns the mutation which has the same effect as executing the statement with the given
+   * parameters, or null if the statement cannot be expressed as a mutation. Deletes of rows with
+   * a composite primary key are not converted, as the order of the key columns is not known.
+   */
+  static Mutation toMutation(String sql, Map<Integer, RecordedParameter> parameters)
+      throws SQLException {
+    return toMutation(sql, parameters, table -> null);
+  }
+
+  /**
+   * Returns the mutation which has the same effect as executing the statement with the given
+   * parameters, or null if the statement cannot be expressed as a mutation. The key columns
+   * function returns the primary key columns of a table in the order of the Spanner schema, or
+   * null if they are not known; the key of a deleted row is built in that order, as the
+   * {@code WHERE} clause lists the columns in the order of the Hibernate identifier.
+   */
+  static Mutation toMutation(String sql, Map<Integer, RecordedParameter> parameters,
+      Function<String, List<String>> keyColumns) throws SQLException {
+    String statement = COMMENT.matcher(sql.trim()).replaceFirst("");
+
+    Matcher insert = INSERT.matcher(statement);
+    if (insert.matches()) {
+      List<String> columns = split(insert.group(2), ",");
+      List<String> values = split(insert.group(3), ",");
+      if (columns == null || values == null || columns.size() != values.size()) {
+        return null;
+      }
+      WriteBuilder builder = Mutation.newInsertBuilder(unquote(insert.group(1)));
+      int index = 1;
+      for (int i = 0; i < columns.size(); i++) {
+        Value value;
+        if (values.get(i).equals(PARAMETER)) {
+          value = getValue(parameters, index++);
+        } else {
+          value = parseLiteral(values.get(i));
+        }
+        if (value == null) {
+          return null;
+        }
+        builder.set(unquote(columns.get(i))).to(value);
+      }
+      return index == parameters.size() + 1 ? builder.build() : null;
+    }
+
+    Matcher update = UPDATE.matcher(statement);
+    if (update.matches()) {
+      List<String> columns = new ArrayList<>();
+      List<Value> values = new ArrayList<>();
+      int index = bindAssignments(split(update.group(2), ","), parameters, 1, columns, values);
+      index = bindAssignments(split(update.group(3), " and "), parameters, index, columns, values);
+      if (index != parameters.size() + 1) {
+        return null;
+      }
+      WriteBuilder builder = Mutation.newUpdateBuilder(unquote(update.group(1)));
+      for (int i = 0; i < columns.size(); i++) {
+        builder.set(columns.get(i)).to(values.get(i));
+      }
+      return builder.build();
+    }
+
+    Matcher delete = DELETE.matcher(statement);
+    if (delete.matches()) {
+      List<String> columns = new ArrayList<>();
+      List<Value> values = new ArrayList<>();
+      int index =
+          bindAssignments(split(delete.group(2), " and "), parameters, 1, columns, values);
+      if (index != parameters.size() + 1) {
+        return null;
+      }
+      String table = unquote(delete.group(1));
+      List<String> keyOrder = columns.size() == 1 ? columns : keyColumns.apply(table);
+      if (keyOrder == null || keyOrder.size() != columns.size()) {
+        return null;
+      }
+      Key.Builder key = Key.newBuilder();
+      for (String column : keyOrder) {
+        int position = columns.indexOf(unquote(column));
+        if (position < 0) {
+          return null;
+        }
+        appendKey(key, values.get(position));
+      }
+      return Mutation.delete(table, key.build());
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns an insert-or-update mutation which writes the same values as the given insert
+   * mutation.
+   */
+  static Mutation toInsertOrUpdate(Mutation insert) {
+    WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(insert.getTable());
+    Iterator<Value> values = insert.getValues().iterator();
+    for (String column : insert.getColumns()) {
+      builder.set(column).to(values.next());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the DML statements which together have the same effect as an insert-or-update
+   * mutation of the given insert statement: an update of the non-key columns of the row, followed
+   * by an insert of the row which only takes place if the row does not exist. Exactly one of the
+   * statements affects a row. Returns null if the insert statement cannot be converted.
+   */
+  static List<DmlStatement> toInsertOrUpdateStatements(
+      String sql, Map<Integer, RecordedParameter> parameters, List<String> keyColumns) {
+    String statement = COMMENT.matcher(sql.trim()).replaceFirst("");
+    Matcher insert = INSERT.matcher(statement);
+    if (!insert.matches()) {
+      return null;
+    }
+    List<String> columns = split(insert.group(2), ",");
+    List<String> values = split(insert.group(3), ",");
+    if (columns == null || values == null || columns.size() != values.size()) {
+      return null;
+    }
+    List<String> keys = keyColumns.stream().map(DmlMutations::unquote).collect(Collectors.toList());
+    Map<String, Integer> keyPositions = new HashMap<>();
+    List<Integer> valuePositions = new ArrayList<>();
+    for (int i = 0; i < columns.size(); i++) {
+      if (keys.contains(unquote(columns.get(i)))) {
+        keyPositions.put(unquote(columns.get(i)), i);
+      } else {
+        valuePositions.add(i);
+      }
+    }
+    if (keyPositions.size() != keys.size()) {
+      return null;
+    }
+    List<Integer> keyOrder =
+        keys.stream().map(keyPositions::get).collect(Collectors.toList());
+
+    String table = insert.group(1);
+    List<DmlStatement> statements = new ArrayList<>();
+    if (!valuePositions.isEmpty()) {
+      DmlStatement update = new DmlStatement(parameters, values);
+      update.append("update ").append(table).append(" set ");
+      update.appendColumns(columns, valuePositions, ", ");
+      update.append(" where ");
+      update.appendColumns(columns, keyOrder, " and ");
+      statements.add(update);
+    }
+
+    DmlStatement insertIfAbsent = new DmlStatement(parameters, values);
+    insertIfAbsent.append("insert into ").append(table).append(" (")
+        .append(insert.group(2)).append(") select ");
+    for (int i = 0; i < values.size(); i++) {
+      insertIfAbsent.append(i == 0 ? "" : ", ").appendValue(i);
+    }
+    insertIfAbsent.append(" from unnest([1]) where not exists (select 1 from ")
+        .append(table).append(" where ");
+    insertIfAbsent.appendColumns(columns, keyOrder, " and ");
+    insertIfAbsent.append(")");
+    statements.add(insertIfAbsent);
+    return statements;
+  }
+
+  /**
+   * Collects the {@code column=?} and {@code column=PENDING_COMMIT_TIMESTAMP()} parts of a
+   * statement and returns the index of the next parameter, or -1 if one of the parts has a
+   * different shape.
+   */
+  private static int bindAssignments(
+      List<String> assignments,
+      Map<Integer, RecordedParameter> parameters,
+      int index,
+      List<String> columns,
+      List<Value> values) throws SQLException {
+    if (assignments == null || index < 0) {
+      return -1;
+    }
+    for (String assignment : assignments) {
+      if (assignment.endsWith("=" + CommitTimestampGeneration.PENDING_COMMIT_TIMESTAMP)) {
+        String column = assignment.substring(0, assignment.lastIndexOf('='));
+        columns.add(unquote(column.trim()));
+        values.add(Value.timestamp(Value.COMMIT_TIMESTAMP));
+        continue;
+      }
+      if (!assignment.endsWith("=" + PARAMETER)) {
+        return -1;
+      }
+      Value value = getValue(parameters, index++);
+      if (value == null) {
+        return -1;
+      }
+      columns.add(unquote(assignment.substring(0, assignment.length() - 2).trim()));
+      values.add(value);
+    }
+    return index;
+  }
+
+  private static Value getValue(Map<Integer, RecordedParameter> parameters, int index)
+      throws SQLException {
+    RecordedParameter parameter = parameters.get(index);
+    return parameter == null ? null : parameter.toValue();
+  }
+
+  private static void appendKey(Key.Builder keyBuilder, Value value) {
+    if (value.isNull()) {
+      keyBuilder.appendObject(null);
+      return;
+    }
+    switch (value.getType().getCode()) {
+      case BOOL:
+        keyBuilder.append(value.getBool());
+        break;
+      case INT64:
+        keyBuilder.append(value.getInt64());
+        break;
+      case FLOAT64:
+        keyBuilder.append(value.getFloat64());
+        break;
+      case NUMERIC:
+        keyBuilder.append(value.getNumeric());
+        break;
+      case STRING:
+        keyBuilder.append(value.getString());
+        break;
+      case BYTES:
+        keyBuilder.append(value.getBytes());
+        break;
+      case TIMESTAMP:
+        keyBuilder.append(value.getTimestamp());
+        break;
+      case DATE:
+        keyBuilder.append(value.getDate());
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported key type " + value.getType());
+    }
+  }
+
+  /**
+   * Parses the literals which Hibernate renders into insert statements, e.g. discriminator values.
+   */
+  private static Value parseLiteral(String literal) {
+    if (literal.equalsIgnoreCase("null")) {
+      return null;
+    }
+    if (literal.length() >= 2 && literal.startsWith("'") && literal.endsWith("'")) {
+      String content = literal.substring(1, literal.length() - 1);
+      return content.contains("'") ? null : Value.string(content);
+    }
+    if (literal.equalsIgnoreCase(CommitTimestampGeneration.PENDING_COMMIT_TIMESTAMP)) {
+      return Value.timestamp(Value.COMMIT_TIMESTAMP);
+    }
+    if (literal.equalsIgnoreCase("true") || literal.equalsIgnoreCase("false")) {
+      return Value.bool(Boolean.parseBoolean(literal));
+    }
+    try {
+      return Value.int64(Long.parseLong(literal));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Splits a list on the separator outside of string literals and parentheses. Returns null if
+   * the list cannot be split safely.
+   */
+  private static List<String> split(String list, String separator) {
+    List<String> parts = new ArrayList<>();
+    boolean inLiteral = false;
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < list.length(); i++) {
+      char c = list.charAt(i);
+      if (c == '\'') {
+        inLiteral = !inLiteral;
+      } else if (!inLiteral && c == '(') {
+        depth++;
+      } else if (!inLiteral && c == ')') {
+        depth--;
+      } else if (!inLiteral && depth == 0 && list.regionMatches(true, i, separator, 0,
+          separator.length())) {
+        parts.add(list.substring(start, i).trim());
+        start = i + separator.length();
+        i = start - 1;
+      }
+    }
+    if (inLiteral || depth != 0) {
+      return null;
+    }
+    parts.add(list.substring(start).trim());
+    return parts;
+  }
+
+  static String unquote(String name) {
+    if (name.length() >= 2 && name.startsWith("`") && name.endsWith("`")) {
+      return name.substring(1, name.length() - 1);
+    }
+    return name;
+  }
+
+  /**
+   * A DML statement with the recorded parameters which it is executed with.
+   */
+  static class DmlStatement {
+
+    private final Map<Integer, RecordedParameter> sourceParameters;
+
+    private final List<String> sourceValues;
+
+    private final StringBuilder sql = new StringBuilder();
+
+    private final Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+
+    DmlStatement(String sql, Map<Integer, RecordedParameter> parameters) {
+      this(Collections.emptyMap(), Collections.emptyList());
+      this.sql.append(sql);
+      this.parameters.putAll(parameters);
+    }
+
+    private DmlStatement(
+        Map<Integer, RecordedParameter> sourceParameters, List<String> sourceValues) {
+      this.sourceParameters = sourceParameters;
+      this.sourceValues = sourceValues;
+    }
+
+    String getSql() {
+      return this.sql.toString();
+    }
+
+    Map<Integer, RecordedParameter> getParameters() {
+      return this.parameters;
+    }
+
+    private DmlStatement append(String part) {
+      this.sql.append(part);
+      return this;
+    }
+
+    private void appendColumns(List<String> columns, List<Integer> positions, String separator) {
+      for (int i = 0; i < positions.size(); i++) {
+        append(i == 0 ? "" : separator).append(columns.get(positions.get(i))).append("=");
+        appendValue(positions.get(i));
+      }
+    }
+
+    /**
+     * Appends the value of the column at the given position of the source insert statement. A
+     * parameter is re-bound to the next parameter index of this statement.
+     */
+    private DmlStatement appendValue(int position) {
+      String value = this.sourceValues.get(position);
+      if (!value.equals(PARAMETER)) {
+        return append(value);
+      }
+      int sourceIndex = 1;
+      for (int i = 0; i < position; i++) {
+        if (this.sourceValues.get(i).equals(PARAMETER)) {
+          sourceIndex++;
+        }
+      }
+      int index = this.parameters.size() + 1;
+      this.parameters.put(index, this.sourceParameters.get(sourceIndex).withIndex(index));
+      return append(PARAMETER);
+    }
+  }
+}
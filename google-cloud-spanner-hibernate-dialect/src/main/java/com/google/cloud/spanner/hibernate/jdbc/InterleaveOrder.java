@@ -0,0 +1,285 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.Op;
+import com.google.cloud.spanner.Value;
+import com.google.cloud.spanner.hibernate.schema.TableDependencyTracker;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.schema.Action;
+
+/**
+ * Orders the writes to interleaved tables, so that each parent row is written together with its
+ * interleaved child rows in primary key order.
+ *
+ * <p>Only consecutive inserts or consecutive deletes are reordered, and only among the rows of the
+ * same interleaved table hierarchy; all other writes keep their position. Inserts are ordered by
+ * ascending key with each parent before its children, and deletes by descending key with the
+ * children before their parent.
+ */
+class InterleaveOrder {
+
+  private final Map<String, InterleavedTable> tables = new ConcurrentHashMap<>();
+
+  private final Map<String, List<String>> keyColumns = new ConcurrentHashMap<>();
+
+  /**
+   * Registers the interleaved tables and the primary keys of the mapping, using the same
+   * dependencies as the schema creation.
+   */
+  void registerTables(Metadata metadata) {
+    TableDependencyTracker tracker = new TableDependencyTracker();
+    tracker.initializeDependencies(metadata, Action.CREATE);
+
+    Set<Table> parentTables = new HashSet<>();
+    for (Table table : metadata.collectTableMappings()) {
+      Table parent = tracker.getBlockingTable(table);
+      if (parent != null) {
+        parentTables.add(parent);
+      }
+    }
+
+    for (Table table : metadata.collectTableMappings()) {
+      if (!table.hasPrimaryKey()) {
+        continue;
+      }
+      this.keyColumns.put(table.getName(), getKeyColumns(table, tracker));
+      if (tracker.getBlockingTable(table) == null && !parentTables.contains(table)) {
+        continue;
+      }
+      Table root = table;
+      int depth = 0;
+      while (tracker.getBlockingTable(root) != null) {
+        root = tracker.getBlockingTable(root);
+        depth++;
+      }
+      this.tables.put(table.getName(),
+          new InterleavedTable(root.getName(), depth, getKeyColumns(table, tracker)));
+    }
+  }
+
+  /**
+   * Returns the primary key columns of the registered table in the order of the Spanner schema,
+   * or null if the table is not registered.
+   */
+  List<String> getKeyColumns(String table) {
+    return this.keyColumns.get(table);
+  }
+
+  /**
+   * Returns the primary key columns of the table in the order of the Spanner schema, which
+   * starts with the key columns of the parent table.
+   */
+  private static List<String> getKeyColumns(Table table, TableDependencyTracker tracker) {
+    Table parent = tracker.getBlockingTable(table);
+    List<String> keyColumns =
+        parent == null ? new ArrayList<>() : getKeyColumns(parent, tracker);
+    Iterator<Column> columnIterator = table.getPrimaryKey().getColumnIterator();
+    while (columnIterator.hasNext()) {
+      String column = columnIterator.next().getName();
+      if (!keyColumns.contains(column)) {
+        keyColumns.add(column);
+      }
+    }
+    return keyColumns;
+  }
+
+  /**
+   * Reorders the writes in place. Writes for which {@code toMutation} returns null keep their
+   * position and end the current run of inserts or deletes.
+   */
+  <T> void sort(List<T> writes, Function<T, Mutation> toMutation) {
+    if (this.tables.isEmpty()) {
+      return;
+    }
+    int start = 0;
+    while (start < writes.size()) {
+      Mutation first = toMutation.apply(writes.get(start));
+      Op op = first == null ? null : runType(first.getOperation());
+      int end = start + 1;
+      while (op != null && end < writes.size()) {
+        Mutation next = toMutation.apply(writes.get(end));
+        if (next == null || runType(next.getOperation()) != op) {
+          break;
+        }
+        end++;
+      }
+      if (op != null && end - start > 1) {
+        sortRun(writes, start, end, toMutation, op == Op.DELETE);
+      }
+      start = end;
+    }
+  }
+
+  private <T> void sortRun(
+      List<T> writes, int start, int end, Function<T, Mutation> toMutation, boolean delete) {
+    // The positions and keys of the rows of each interleaved table hierarchy in the run.
+    Map<String, List<Integer>> positions = new LinkedHashMap<>();
+    Map<String, List<KeyedWrite<T>>> hierarchies = new LinkedHashMap<>();
+    for (int i = start; i < end; i++) {
+      T write = writes.get(i);
+      Mutation mutation = toMutation.apply(write);
+      InterleavedTable table = this.tables.get(mutation.getTable());
+      List<Object> key = table == null ? null : table.getKey(mutation);
+      if (key != null) {
+        positions.computeIfAbsent(table.root, root -> new ArrayList<>()).add(i);
+        hierarchies.computeIfAbsent(table.root, root -> new ArrayList<>())
+            .add(new KeyedWrite<>(write, key, table.depth));
+      }
+    }
+
+    Comparator<KeyedWrite<T>> order = KeyedWrite::compareTo;
+    for (Map.Entry<String, List<KeyedWrite<T>>> hierarchy : hierarchies.entrySet()) {
+      List<KeyedWrite<T>> rows = hierarchy.getValue();
+      rows.sort(delete ? order.reversed() : order);
+      List<Integer> rowPositions = positions.get(hierarchy.getKey());
+      for (int i = 0; i < rows.size(); i++) {
+        writes.set(rowPositions.get(i), rows.get(i).write);
+      }
+    }
+  }
+
+  private static Op runType(Op op) {
+    switch (op) {
+      case INSERT:
+      case INSERT_OR_UPDATE:
+      case REPLACE:
+        return Op.INSERT;
+      case DELETE:
+        return Op.DELETE;
+      default:
+        return null;
+    }
+  }
+
+  private static class InterleavedTable {
+
+    private final String root;
+
+    private final int depth;
+
+    private final List<String> keyColumns;
+
+    InterleavedTable(String root, int depth, List<String> keyColumns) {
+      this.root = root;
+      this.depth = depth;
+      this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Returns the primary key of the written row in the order of the key columns, or null if it
+     * is not known. The key of a delete must already be in that order, as it is built by
+     * {@link DmlMutations}.
+     */
+    List<Object> getKey(Mutation mutation) {
+      List<Object> key = new ArrayList<>();
+      if (mutation.getOperation() == Op.DELETE) {
+        Iterator<Key> keys = mutation.getKeySet().getKeys().iterator();
+        if (!keys.hasNext()) {
+          return null;
+        }
+        keys.next().getParts().forEach(key::add);
+        return keys.hasNext() || key.size() != this.keyColumns.size() ? null : key;
+      }
+      Map<String, Value> values = mutation.asMap();
+      for (String column : this.keyColumns) {
+        Value value = values.get(column);
+        if (value == null) {
+          return null;
+        }
+        key.add(toObject(value));
+      }
+      return key;
+    }
+
+    private static Object toObject(Value value) {
+      if (value.isNull()) {
+        return null;
+      }
+      switch (value.getType().getCode()) {
+        case BOOL:
+          return value.getBool();
+        case INT64:
+          return value.getInt64();
+        case FLOAT64:
+          return value.getFloat64();
+        case NUMERIC:
+          return value.getNumeric();
+        case STRING:
+          return value.getString();
+        case TIMESTAMP:
+          return value.getTimestamp();
+        case DATE:
+          return value.getDate();
+        default:
+          return value.toString();
+      }
+    }
+  }
+
+  private static class KeyedWrite<T> implements Comparable<KeyedWrite<T>> {
+
+    private final T write;
+
+    private final List<Object> key;
+
+    private final int depth;
+
+    KeyedWrite(T write, List<Object> key, int depth) {
+      this.write = write;
+      this.key = key;
+      this.depth = depth;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareTo(KeyedWrite<T> other) {
+      for (int i = 0; i < Math.min(this.key.size(), other.key.size()); i++) {
+        Object part = this.key.get(i);
+        Object otherPart = other.key.get(i);
+        int result;
+        if (part == null || otherPart == null) {
+          result = part == null ? (otherPart == null ? 0 : -1) : 1;
+        } else if (part instanceof Comparable && part.getClass() == otherPart.getClass()) {
+          result = ((Comparable<Object>) part).compareTo(otherPart);
+        } else {
+          result = part.toString().compareTo(otherPart.toString());
+        }
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Integer.compare(this.depth, other.depth);
+    }
+  }
+}
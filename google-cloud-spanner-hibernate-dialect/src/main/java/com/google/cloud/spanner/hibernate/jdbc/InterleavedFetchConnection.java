@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.hibernate.jdbc.InterleavedFetches.ArrayColumn;
+import com.google.cloud.spanner.hibernate.jdbc.InterleavedFetches.Query;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * Wraps a JDBC {@link Connection} to Spanner so that the queries which fetch the child rows of an
+ * {@link com.google.cloud.spanner.hibernate.InterleavedFetch} association with a join are executed
+ * with arrays of the child rows instead. See {@link InterleavedFetches}.
+ */
+class InterleavedFetchConnection implements InvocationHandler {
+
+  private final Connection connection;
+
+  private final InterleavedFetches fetches;
+
+  private InterleavedFetchConnection(Connection connection, InterleavedFetches fetches) {
+    this.connection = connection;
+    this.fetches = fetches;
+  }
+
+  /**
+   * Returns a connection which rewrites the queries of the given interleaved fetches.
+   */
+  static Connection wrap(Connection connection, InterleavedFetches fetches) {
+    return (Connection) Proxy.newProxyInstance(
+        InterleavedFetchConnection.class.getClassLoader(),
+        new Class<?>[] {Connection.class},
+        new InterleavedFetchConnection(connection, fetches));
+  }
+
+  /**
+   * Returns the underlying connection of a connection returned by {@link #wrap}.
+   */
+  static Connection release(Connection connection) {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof InterleavedFetchConnection) {
+      return ((InterleavedFetchConnection) Proxy.getInvocationHandler(connection)).connection;
+    }
+    return connection;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "InterleavedFetchConnection[" + this.connection + "]";
+      case "prepareStatement":
+        Query query = this.fetches.rewrite((String) args[0]);
+        if (query != null) {
+          Object[] rewrittenArgs = args.clone();
+          rewrittenArgs[0] = query.getSql();
+          return InterleavedFetchStatement.wrap(
+              (PreparedStatement) invoke(method, rewrittenArgs), query.getArrays());
+        }
+        break;
+      default:
+        break;
+    }
+    return invoke(method, args);
+  }
+
+  private Object invoke(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(this.connection, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Expands the arrays of the results of a rewritten query.
+   */
+  private static class InterleavedFetchStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+
+    private final List<ArrayColumn> arrays;
+
+    private InterleavedFetchStatement(PreparedStatement statement, List<ArrayColumn> arrays) {
+      this.statement = statement;
+      this.arrays = arrays;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, List<ArrayColumn> arrays) {
+      return (PreparedStatement) Proxy.newProxyInstance(
+          InterleavedFetchStatement.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          new InterleavedFetchStatement(statement, arrays));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          break;
+      }
+      Object result;
+      try {
+        result = method.invoke(this.statement, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      if (result instanceof ResultSet
+          && (method.getName().equals("executeQuery") || method.getName().equals("getResultSet"))) {
+        return InterleavedResultSet.wrap((ResultSet) result, this.arrays);
+      }
+      return result;
+    }
+  }
+}
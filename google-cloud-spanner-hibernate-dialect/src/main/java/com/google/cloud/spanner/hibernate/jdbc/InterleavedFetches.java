@@ -0,0 +1,416 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.hibernate.Interleaved;
+import com.google.cloud.spanner.hibernate.InterleavedFetch;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.hibernate.MappingException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.internal.util.StringHelper;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Selectable;
+import org.hibernate.mapping.Table;
+
+/**
+ * Rewrites the fetch joins of the associations which are annotated with {@link InterleavedFetch}
+ * into {@code ARRAY(SELECT AS STRUCT ...)} subqueries of the interleaved child rows.
+ *
+ * <p>The query
+ * <pre>
+ * select s.id as id1_0_, a.id as id1_1_, a.title as title2_1_
+ * from Singer s left outer join Album a on s.id=a.singer_id where s.name=?
+ * </pre>
+ * is rewritten to
+ * <pre>
+ * select s.id as id1_0_, array(select as struct a.id as id1_1_, a.title as title2_1_
+ * from Album a where s.id=a.singer_id) as a_interleaved from Singer s where s.name=?
+ * </pre>
+ * which returns each singer once. The {@link InterleavedResultSet} expands the array again into
+ * one row per album, so that Hibernate reads the same rows as from the join.
+ *
+ * <p>A join is only rewritten if it joins the child table on exactly the foreign key columns of
+ * an annotated association with a table of its owner, if the columns of the child table are only
+ * selected with their aliases, and if they are not referenced anywhere else in the query except in
+ * a trailing {@code ORDER BY}, which is moved into the subquery. Queries with a {@code LIMIT} or
+ * {@code OFFSET} are not rewritten, as these would then limit the parent rows instead of the rows
+ * of the join.
+ */
+class InterleavedFetches {
+
+  private static final Pattern SELECT = Pattern.compile(
+      "((?:\\s*/\\*.*?\\*/)*\\s*(?:@\\{[^{}]*}\\s*)?select\\s+)(distinct\\s+)?(.*?)(\\s+from\\s.*)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private static final Pattern JOIN = Pattern.compile(
+      "\\s+(left\\s+outer|inner)\\s+join(?:@\\{[^{}]*})?\\s+(`?(\\w+)`?(?:@\\{[^{}]*})?)\\s+(\\w+)"
+          + "\\s+on\\s+(.+?)(?=\\s+(?:left\\s+outer\\s+join|inner\\s+join|cross\\s+join|join|where"
+          + "|order\\s+by|group\\s+by|having|limit)\\b|\\s*$)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private static final Pattern ANY_JOIN = Pattern.compile("\\bjoin\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern ORDER_BY =
+      Pattern.compile("\\s+order\\s+by\\s+(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private static final Pattern LIMIT =
+      Pattern.compile("\\s(?:limit|offset)\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern CONDITION_SEPARATOR =
+      Pattern.compile("\\s+and\\s+", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern COLUMN_EQUALITY =
+      Pattern.compile("(\\w+)\\.`?(\\w+)`?\\s*=\\s*(\\w+)\\.`?(\\w+)`?");
+
+  private static final Pattern ALIASED_COLUMN =
+      Pattern.compile("(\\w+)\\.`?\\w+`?\\s+as\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+  private static final String ARRAY_SUFFIX = "interleaved";
+
+  private final Map<String, List<FetchJoin>> fetchJoins = new ConcurrentHashMap<>();
+
+  /**
+   * Registers the child tables of the associations of the mapping which are annotated with
+   * {@link InterleavedFetch}.
+   *
+   * @throws MappingException if an annotated association is not a one-to-many association with
+   *     an entity which is interleaved in the owner of the association
+   */
+  void registerTables(Metadata metadata) {
+    for (Collection collection : metadata.getCollectionBindings()) {
+      if (!isInterleavedFetch(collection)) {
+        continue;
+      }
+      PersistentClass owner = collection.getOwner();
+      PersistentClass child = collection.isOneToMany()
+          ? ((OneToMany) collection.getElement()).getAssociatedClass() : null;
+      Class<?> childClass = child == null ? null : child.getMappedClass();
+      Interleaved interleaved =
+          childClass == null ? null : childClass.getAnnotation(Interleaved.class);
+      if (interleaved == null
+          || !interleaved.parentEntity().isAssignableFrom(owner.getMappedClass())) {
+        throw new MappingException("The @InterleavedFetch association " + collection.getRole()
+            + " must be a one-to-many association with an entity which is @Interleaved in "
+            + owner.getEntityName());
+      }
+      Set<String> ownerTables = new HashSet<>();
+      Iterator<Table> tables = owner.getTableClosureIterator();
+      while (tables.hasNext()) {
+        ownerTables.add(key(tables.next().getName()));
+      }
+      Set<String> keyColumns = new HashSet<>();
+      Iterator<Selectable> columns = collection.getKey().getColumnIterator();
+      while (columns.hasNext()) {
+        keyColumns.add(key(columns.next().getText()));
+      }
+      this.fetchJoins.computeIfAbsent(key(child.getTable().getName()), table -> new ArrayList<>())
+          .add(new FetchJoin(ownerTables, keyColumns));
+    }
+  }
+
+  boolean isEmpty() {
+    return this.fetchJoins.isEmpty();
+  }
+
+  /**
+   * Returns the rewritten query, or null if the given SQL statement does not fetch a registered
+   * child table with a join which can be rewritten.
+   */
+  Query rewrite(String sql) {
+    if (this.fetchJoins.isEmpty()) {
+      return null;
+    }
+    Matcher select = SELECT.matcher(sql);
+    if (!select.matches()) {
+      return null;
+    }
+    List<String> items = split(select.group(3));
+    if (items == null) {
+      return null;
+    }
+    String from = select.group(4);
+    List<ArrayColumn> arrays = new ArrayList<>();
+
+    Matcher join = JOIN.matcher(from);
+    List<String> joins = new ArrayList<>();
+    while (join.find()) {
+      if (isFetchJoin(key(join.group(3)), join.group(4), join.group(5), from)) {
+        joins.add(join.group());
+      }
+    }
+    for (String joinText : joins) {
+      Matcher matcher = JOIN.matcher(joinText);
+      matcher.find();
+      String alias = matcher.group(4);
+      Pattern reference = Pattern.compile("\\b" + Pattern.quote(alias) + "\\.");
+
+      List<String> childItems = new ArrayList<>();
+      List<String> labels = new ArrayList<>();
+      List<String> parentItems = new ArrayList<>();
+      for (String item : items) {
+        Matcher column = ALIASED_COLUMN.matcher(item);
+        if (column.matches() && column.group(1).equals(alias)) {
+          childItems.add(item);
+          labels.add(column.group(2));
+        } else {
+          parentItems.add(item);
+        }
+      }
+      String rest = from.replace(joinText, "");
+      if (LIMIT.matcher(rest).find()) {
+        return null;
+      }
+      List<String> childOrder = new ArrayList<>();
+      Matcher orderBy = ORDER_BY.matcher(rest);
+      if (orderBy.find()) {
+        List<String> orderItems = split(orderBy.group(1));
+        if (orderItems == null) {
+          return null;
+        }
+        // The child columns have to be the last ones, so that the rows of each parent stay
+        // together.
+        int first = orderItems.size();
+        while (first > 0 && reference.matcher(orderItems.get(first - 1)).lookingAt()) {
+          first--;
+        }
+        childOrder.addAll(orderItems.subList(first, orderItems.size()));
+        List<String> parentOrder = orderItems.subList(0, first);
+        rest = rest.substring(0, orderBy.start())
+            + (parentOrder.isEmpty() ? "" : " order by " + String.join(", ", parentOrder));
+      }
+      if (childItems.isEmpty() || parentItems.isEmpty()
+          || reference.matcher(rest).find()
+          || parentItems.stream().anyMatch(item -> reference.matcher(item).find())) {
+        continue;
+      }
+
+      String label = alias + ARRAY_SUFFIX;
+      parentItems.add("array(select as struct " + String.join(", ", childItems)
+          + " from " + matcher.group(2) + " " + alias + " where " + matcher.group(5)
+          + (childOrder.isEmpty() ? "" : " order by " + String.join(", ", childOrder))
+          + ") as " + label);
+      arrays.add(new ArrayColumn(label, labels, matcher.group(1).toLowerCase(Locale.ROOT)
+          .startsWith("inner")));
+      items = parentItems;
+      from = rest;
+    }
+    if (arrays.isEmpty()) {
+      return null;
+    }
+    // The rows of the parent table are distinct by their key, but the arrays cannot be compared.
+    if (select.group(2) != null && ANY_JOIN.matcher(from).find()) {
+      return null;
+    }
+    return new Query(select.group(1) + String.join(", ", items) + from, arrays);
+  }
+
+  /**
+   * Returns whether the join condition joins the child table with the given alias on the foreign
+   * key columns of a registered association to a table of its owner, which is also joined in the
+   * given {@code FROM} clause.
+   */
+  private boolean isFetchJoin(String childTable, String alias, String condition, String from) {
+    List<FetchJoin> candidates = this.fetchJoins.get(childTable);
+    if (candidates == null || condition.contains("?")) {
+      return false;
+    }
+    String ownerAlias = null;
+    Set<String> childColumns = new HashSet<>();
+    for (String part : CONDITION_SEPARATOR.split(condition.trim())) {
+      Matcher equality = COLUMN_EQUALITY.matcher(part.trim());
+      if (!equality.matches()) {
+        return false;
+      }
+      String otherAlias;
+      if (equality.group(3).equals(alias)) {
+        otherAlias = equality.group(1);
+        childColumns.add(key(equality.group(4)));
+      } else if (equality.group(1).equals(alias)) {
+        otherAlias = equality.group(3);
+        childColumns.add(key(equality.group(2)));
+      } else {
+        return false;
+      }
+      if (otherAlias.equals(alias) || (ownerAlias != null && !ownerAlias.equals(otherAlias))) {
+        return false;
+      }
+      ownerAlias = otherAlias;
+    }
+    Matcher ownerTable = Pattern.compile(
+        "`?(\\w+)`?(?:@\\{[^{}]*})?\\s+" + Pattern.quote(ownerAlias) + "\\b").matcher(from);
+    if (!ownerTable.find()) {
+      return false;
+    }
+    String table = key(ownerTable.group(1));
+    return candidates.stream().anyMatch(fetchJoin ->
+        fetchJoin.ownerTables.contains(table) && fetchJoin.keyColumns.equals(childColumns));
+  }
+
+  /**
+   * Splits a list of SQL expressions at the commas which are not nested in parentheses or
+   * quotes, or returns null if the parentheses are not balanced.
+   */
+  private static List<String> split(String list) {
+    List<String> items = new ArrayList<>();
+    int depth = 0;
+    char quote = 0;
+    int start = 0;
+    for (int i = 0; i < list.length(); i++) {
+      char c = list.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        if (--depth < 0) {
+          return null;
+        }
+      } else if (c == ',' && depth == 0) {
+        items.add(list.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    if (depth != 0 || quote != 0) {
+      return null;
+    }
+    items.add(list.substring(start).trim());
+    return items;
+  }
+
+  private static boolean isInterleavedFetch(Collection collection) {
+    Class<?> ownerClass = collection.getOwner().getMappedClass();
+    String property = StringHelper.unqualify(collection.getRole());
+    String getter = "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+    for (Class<?> type = ownerClass; type != null; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (field.getName().equals(property) && field.isAnnotationPresent(InterleavedFetch.class)) {
+          return true;
+        }
+      }
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.getName().equals(getter)
+            && method.isAnnotationPresent(InterleavedFetch.class)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String key(String tableName) {
+    return tableName.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The owner tables and the foreign key columns of an annotated association.
+   */
+  private static class FetchJoin {
+
+    private final Set<String> ownerTables;
+
+    private final Set<String> keyColumns;
+
+    FetchJoin(Set<String> ownerTables, Set<String> keyColumns) {
+      this.ownerTables = ownerTables;
+      this.keyColumns = keyColumns;
+    }
+  }
+
+  /**
+   * A rewritten query and the array columns which it selects.
+   */
+  static class Query {
+
+    private final String sql;
+
+    private final List<ArrayColumn> arrays;
+
+    Query(String sql, List<ArrayColumn> arrays) {
+      this.sql = sql;
+      this.arrays = arrays;
+    }
+
+    String getSql() {
+      return this.sql;
+    }
+
+    List<ArrayColumn> getArrays() {
+      return this.arrays;
+    }
+  }
+
+  /**
+   * An array of child rows, which replaces the join with the child table.
+   */
+  static class ArrayColumn {
+
+    private final String label;
+
+    private final Set<String> fields;
+
+    private final boolean innerJoin;
+
+    ArrayColumn(String label, List<String> fields, boolean innerJoin) {
+      this.label = label;
+      this.fields = Collections.unmodifiableSet(new LinkedHashSet<>(fields));
+      this.innerJoin = innerJoin;
+    }
+
+    /**
+     * Returns the label of the array column.
+     */
+    String getLabel() {
+      return this.label;
+    }
+
+    /**
+     * Returns the labels of the columns of the child table, which are the fields of the structs
+     * in the array.
+     */
+    Set<String> getFields() {
+      return this.fields;
+    }
+
+    /**
+     * Returns whether the rows of the parent table without child rows are skipped.
+     */
+    boolean isInnerJoin() {
+      return this.innerJoin;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.hibernate.jdbc.InterleavedFetches.ArrayColumn;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands the arrays of child rows of a query which was rewritten by {@link InterleavedFetches}
+ * into one row per child row, as the join which the arrays replace would have returned them.
+ *
+ * <p>The columns of the child rows are read by their labels from the structs in the arrays, and
+ * all other columns from the underlying result set. A parent row without child rows is returned
+ * once with null child columns, like by a left outer join, or is skipped if it replaces an inner
+ * join. If a query has several arrays, the rows are the combinations of their child rows.
+ */
+class InterleavedResultSet implements InvocationHandler {
+
+  private static final Object[] EMPTY = new Object[0];
+
+  private final ResultSet resultSet;
+
+  private final List<ArrayColumn> arrays;
+
+  private final Map<String, Integer> fields = new HashMap<>();
+
+  private Object[][] children;
+
+  private int[] positions;
+
+  private boolean wasNull;
+
+  private boolean readChild;
+
+  private InterleavedResultSet(ResultSet resultSet, List<ArrayColumn> arrays) {
+    this.resultSet = resultSet;
+    this.arrays = arrays;
+    for (int i = 0; i < arrays.size(); i++) {
+      for (String field : arrays.get(i).getFields()) {
+        this.fields.put(field, i);
+      }
+    }
+  }
+
+  static ResultSet wrap(ResultSet resultSet, List<ArrayColumn> arrays) {
+    return (ResultSet) Proxy.newProxyInstance(
+        InterleavedResultSet.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class},
+        new InterleavedResultSet(resultSet, arrays));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    switch (name) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "next":
+        return next();
+      case "wasNull":
+        return this.readChild ? this.wasNull : this.resultSet.wasNull();
+      default:
+        break;
+    }
+    if (name.startsWith("get") && args != null && args.length >= 1 && args[0] instanceof String
+        && this.fields.containsKey(args[0])) {
+      if (args.length > 1) {
+        throw new SQLFeatureNotSupportedException(
+            "The child rows of an interleaved fetch do not support " + name + " with options");
+      }
+      return getChildValue(name, (String) args[0]);
+    }
+    this.readChild = false;
+    try {
+      return method.invoke(this.resultSet, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private boolean next() throws SQLException {
+    if (this.children != null && advance()) {
+      return true;
+    }
+    while (this.resultSet.next()) {
+      if (readArrays()) {
+        return true;
+      }
+    }
+    this.children = null;
+    return false;
+  }
+
+  /**
+   * Reads the arrays of the current row of the underlying result set, and returns false if the
+   * row is skipped because an array of an inner join is empty.
+   */
+  private boolean readArrays() throws SQLException {
+    this.children = new Object[this.arrays.size()][];
+    this.positions = new int[this.arrays.size()];
+    for (int i = 0; i < this.arrays.size(); i++) {
+      Array array = this.resultSet.getArray(this.arrays.get(i).getLabel());
+      this.children[i] = array == null ? EMPTY : (Object[]) array.getArray();
+      if (this.children[i].length == 0 && this.arrays.get(i).isInnerJoin()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves to the next combination of child rows of the current parent row.
+   */
+  private boolean advance() {
+    for (int i = this.positions.length - 1; i >= 0; i--) {
+      if (this.positions[i] + 1 < this.children[i].length) {
+        this.positions[i]++;
+        for (int j = i + 1; j < this.positions.length; j++) {
+          this.positions[j] = 0;
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Object getChildValue(String getter, String label) throws SQLException {
+    this.readChild = true;
+    int array = this.fields.get(label);
+    if (this.children[array].length == 0) {
+      this.wasNull = true;
+      return StructResultSet.convert(null, getter);
+    }
+    Struct child = (Struct) this.children[array][this.positions[array]];
+    int index = child.getColumnIndex(label);
+    this.wasNull = child.isNull(index);
+    return StructResultSet.convert(
+        this.wasNull ? null : StructResultSet.getObject(child, index), getter);
+  }
+}
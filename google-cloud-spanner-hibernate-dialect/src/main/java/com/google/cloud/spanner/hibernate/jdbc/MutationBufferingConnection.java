@@ -0,0 +1,425 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.jdbc.DmlMutations.DmlStatement;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hibernate.StaleStateException;
+
+/**
+ * Wraps a JDBC {@link Connection} to Spanner so that the registered entity writes of a read/write
+ * transaction are buffered as {@link Mutation}s, which are sent together with the commit.
+ *
+ * <p>Mutations are not visible to the statements of the transaction which follow them. Whenever
+ * any other statement is prepared on the connection, e.g. a query or a collection update, the
+ * buffered writes are therefore first executed as the DML statements which they were recorded
+ * from, so that the transaction can read its own writes.
+ *
+ * <p>The writes to interleaved tables are put in {@link InterleaveOrder} before they are sent.
+ * The keys of deletes are built in the primary key order of the Spanner schema which it
+ * registered. A delete mutation of a row which no longer exists has no effect, so unlike the DML
+ * statement it does not fail with a {@link StaleStateException}.
+ *
+ * <p>The upserts of {@link SpannerUpsert} are buffered as insert-or-update mutations. When they
+ * have to be executed as DML, each of them is executed as an update of the row followed by an
+ * insert of the row if it does not exist yet.
+ *
+ * <p>If a maximum number of mutations per commit is given, the writes are committed early, before
+ * the write which would exceed the maximum is buffered. The early commit only contains the writes
+ * of the entity and collection actions which have completed, so that the rows of an entity in
+ * several tables, or the rows of a collection, are committed together. The actions are delimited
+ * by {@link #startAction}, and an action is complete once the next action has started and all of
+ * its batched executions have been buffered. No early commit is made while an incomplete action
+ * has executed statements in the transaction.
+ */
+class MutationBufferingConnection implements InvocationHandler {
+
+  private final Connection connection;
+
+  private final Set<String> mutationStatements;
+
+  private final MutationCostEstimator costEstimator;
+
+  private final InterleaveOrder interleaveOrder;
+
+  private final long maxMutationsPerCommit;
+
+  private final List<BufferedWrite> buffer = new ArrayList<>();
+
+  private long transactionMutations;
+
+  private long action;
+
+  private long executedAction = -1;
+
+  private final Map<Object, Long> pendingActions = new IdentityHashMap<>();
+
+  private MutationBufferingConnection(Connection connection, Set<String> mutationStatements,
+      MutationCostEstimator costEstimator,
+      InterleaveOrder interleaveOrder, long maxMutationsPerCommit) {
+    this.connection = connection;
+    this.mutationStatements = mutationStatements;
+    this.costEstimator = costEstimator;
+    this.interleaveOrder = interleaveOrder;
+    this.maxMutationsPerCommit = maxMutationsPerCommit;
+  }
+
+  /**
+   * Returns a connection which buffers the given statements as mutations. A maximum number of
+   * mutations per commit of 0 or less disables chunking.
+   */
+  static Connection wrap(Connection connection, Set<String> mutationStatements,
+      MutationCostEstimator costEstimator,
+      InterleaveOrder interleaveOrder, long maxMutationsPerCommit) {
+    return (Connection) Proxy.newProxyInstance(
+        MutationBufferingConnection.class.getClassLoader(),
+        new Class<?>[] {Connection.class},
+        new MutationBufferingConnection(connection, mutationStatements, costEstimator,
+            interleaveOrder, maxMutationsPerCommit));
+  }
+
+  /**
+   * Discards the buffered writes of a connection returned by {@link #wrap} and returns the
+   * underlying connection.
+   */
+  static Connection release(Connection connection) {
+    MutationBufferingConnection handler = getHandler(connection);
+    if (handler != null) {
+      handler.discardBuffer();
+      return handler.connection;
+    }
+    return connection;
+  }
+
+  /**
+   * Returns whether the given connection has buffered writes which have not yet been sent to
+   * Spanner.
+   */
+  static boolean hasBufferedWrites(Connection connection) {
+    MutationBufferingConnection handler = getHandler(connection);
+    return handler != null && !handler.buffer.isEmpty();
+  }
+
+  /**
+   * Returns whether the given connection is returned by {@link #wrap} and buffers the registered
+   * writes which are executed on it.
+   */
+  static boolean buffersWrites(Connection connection) throws SQLException {
+    MutationBufferingConnection handler = getHandler(connection);
+    return handler != null && handler.isBuffering();
+  }
+
+  /**
+   * Writes an insert-or-update mutation of the given insert statement on the given connection. If
+   * the connection is returned by {@link #wrap} and buffers writes, the write is buffered with the
+   * other writes of the transaction as an action of its own. Otherwise the mutation is buffered by
+   * the Spanner JDBC driver until the transaction commits, or written at once in autocommit mode.
+   */
+  static void writeUpsert(Connection connection, String sql,
+      Map<Integer, RecordedParameter> parameters, Mutation mutation, List<String> keyColumns)
+      throws SQLException {
+    MutationBufferingConnection handler = getHandler(connection);
+    if (handler != null && handler.isBuffering()) {
+      handler.action++;
+      handler.buffer(Collections.singletonList(
+          new BufferedWrite(sql, parameters, mutation, keyColumns, handler.action)));
+      return;
+    }
+    CloudSpannerJdbcConnection spannerConnection =
+        connection.unwrap(CloudSpannerJdbcConnection.class);
+    if (connection.getAutoCommit()) {
+      spannerConnection.write(mutation);
+    } else {
+      spannerConnection.bufferedWrite(mutation);
+    }
+  }
+
+  /**
+   * Marks the start of the next entity or collection action on the given connection, if it is
+   * returned by {@link #wrap}. The writes of an action are only committed together.
+   */
+  static void startAction(Connection connection) {
+    MutationBufferingConnection handler = getHandler(connection);
+    if (handler != null) {
+      handler.action++;
+    }
+  }
+
+  private static MutationBufferingConnection getHandler(Connection connection) {
+    connection = InterleavedFetchConnection.release(connection);
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof MutationBufferingConnection) {
+      return (MutationBufferingConnection) Proxy.getInvocationHandler(connection);
+    }
+    return null;
+  }
+
+  Connection getConnection() {
+    return this.connection;
+  }
+
+  /**
+   * Returns the primary key columns of the table in the order of the Spanner schema, or null if
+   * they are not known.
+   */
+  List<String> getKeyColumns(String table) {
+    return this.interleaveOrder.getKeyColumns(table);
+  }
+
+  /**
+   * Returns the action which is currently executed on the connection.
+   */
+  long getAction() {
+    return this.action;
+  }
+
+  /**
+   * Registers that the given statement holds batched executions of the given action, and of the
+   * following actions, which have not been buffered yet.
+   */
+  void addPendingAction(Object statement, long action) {
+    this.pendingActions.putIfAbsent(statement, action);
+  }
+
+  /**
+   * Registers that the given statement no longer holds batched executions.
+   */
+  void removePendingAction(Object statement) {
+    this.pendingActions.remove(statement);
+  }
+
+  /**
+   * Adds the writes to the buffer. If the writes would exceed the maximum number of mutations of
+   * the transaction, the writes of the completed actions are first committed.
+   */
+  void buffer(List<BufferedWrite> writes) throws SQLException {
+    for (BufferedWrite write : writes) {
+      long mutations = this.costEstimator.estimate(write.mutation);
+      if (this.maxMutationsPerCommit > 0
+          && this.transactionMutations > 0
+          && this.transactionMutations + mutations > this.maxMutationsPerCommit) {
+        commitCompletedActions(write.action);
+      }
+      this.buffer.add(write);
+      this.transactionMutations += mutations;
+    }
+  }
+
+  /**
+   * Commits the buffered writes of the actions which have completed before the given action, and
+   * keeps the writes of the later actions buffered.
+   */
+  private void commitCompletedActions(long nextAction) throws SQLException {
+    long end = Math.min(nextAction, this.action);
+    for (long pendingAction : this.pendingActions.values()) {
+      end = Math.min(end, pendingAction);
+    }
+    if (this.executedAction >= end) {
+      // An incomplete action has already executed statements in the transaction.
+      return;
+    }
+    List<BufferedWrite> completed = new ArrayList<>();
+    List<BufferedWrite> remaining = new ArrayList<>();
+    for (BufferedWrite write : this.buffer) {
+      (write.action < end ? completed : remaining).add(write);
+    }
+    if (completed.isEmpty() && this.executedAction < 0) {
+      return;
+    }
+    this.buffer.clear();
+    this.buffer.addAll(completed);
+    writeBuffer();
+    this.connection.commit();
+    this.executedAction = -1;
+    this.buffer.addAll(remaining);
+    this.transactionMutations = 0;
+    for (BufferedWrite write : remaining) {
+      this.transactionMutations += this.costEstimator.estimate(write.mutation);
+    }
+  }
+
+  private void discardBuffer() {
+    this.buffer.clear();
+    this.transactionMutations = 0;
+    this.executedAction = -1;
+  }
+
+  private void endTransaction() throws SQLException {
+    writeBuffer();
+    this.transactionMutations = 0;
+    this.executedAction = -1;
+  }
+
+  /**
+   * Returns whether writes which are executed on this connection may be buffered.
+   */
+  boolean isBuffering() throws SQLException {
+    return !this.connection.getAutoCommit()
+        && !this.connection.isReadOnly()
+        && this.connection.isWrapperFor(CloudSpannerJdbcConnection.class);
+  }
+
+  /**
+   * Executes the buffered writes as DML statements, so that they become visible to the following
+   * statements of the transaction.
+   */
+  void executeBuffer() throws SQLException {
+    this.executedAction = this.action;
+    List<BufferedWrite> writes = new ArrayList<>(this.buffer);
+    this.buffer.clear();
+    this.interleaveOrder.sort(writes, write -> write.mutation);
+    for (BufferedWrite write : writes) {
+      List<DmlStatement> statements;
+      if (write.keyColumns == null) {
+        statements = Collections.singletonList(new DmlStatement(write.sql, write.parameters));
+      } else {
+        statements =
+            DmlMutations.toInsertOrUpdateStatements(write.sql, write.parameters, write.keyColumns);
+      }
+      if (statements == null) {
+        throw new SQLException("Buffered upsert cannot be executed as DML: " + write.sql);
+      }
+      int rowCount = 0;
+      for (DmlStatement dml : statements) {
+        try (PreparedStatement statement = this.connection.prepareStatement(dml.getSql())) {
+          for (RecordedParameter parameter : dml.getParameters().values()) {
+            parameter.replay(statement);
+          }
+          rowCount += statement.executeUpdate();
+        }
+      }
+      if (rowCount != 1) {
+        throw new StaleStateException(String.format(
+            "Buffered statement [%s] affected %d rows instead of 1", write.sql, rowCount));
+      }
+    }
+  }
+
+  /**
+   * Sends the buffered writes as mutations to Spanner. They are applied when the transaction is
+   * committed.
+   */
+  private void writeBuffer() throws SQLException {
+    if (!this.buffer.isEmpty()) {
+      List<Mutation> mutations =
+          this.buffer.stream().map(write -> write.mutation).collect(Collectors.toList());
+      this.buffer.clear();
+      this.interleaveOrder.sort(mutations, mutation -> mutation);
+      this.connection.unwrap(CloudSpannerJdbcConnection.class).bufferedWrite(mutations);
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "MutationBufferingConnection[" + this.connection + "]";
+      case "prepareStatement":
+        if (args.length == 1 && this.mutationStatements.contains((String) args[0])) {
+          return RecordingPreparedStatement.create(this, (Connection) proxy, (String) args[0]);
+        }
+        executeBuffer();
+        break;
+      case "prepareCall":
+      case "createStatement":
+        executeBuffer();
+        break;
+      case "commit":
+        endTransaction();
+        break;
+      case "setAutoCommit":
+        // Enabling autocommit commits the current transaction.
+        if ((Boolean) args[0] && !this.connection.getAutoCommit()) {
+          endTransaction();
+        }
+        break;
+      case "rollback":
+        if (args == null) {
+          discardBuffer();
+        } else {
+          executeBuffer();
+        }
+        break;
+      case "close":
+        discardBuffer();
+        break;
+      default:
+        break;
+    }
+    try {
+      return method.invoke(this.connection, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * A write which was executed on a {@link RecordingPreparedStatement} and is buffered as a
+   * mutation.
+   */
+  static class BufferedWrite {
+
+    final String sql;
+
+    final Map<Integer, RecordedParameter> parameters;
+
+    final Mutation mutation;
+
+    final List<String> keyColumns;
+
+    final long action;
+
+    BufferedWrite(String sql, Map<Integer, RecordedParameter> parameters, Mutation mutation,
+        long action) {
+      this(sql, parameters, mutation, null, action);
+    }
+
+    /**
+     * Creates a write of an insert statement which is buffered as the given insert-or-update
+     * mutation. The key columns are the primary key columns of the table.
+     */
+    BufferedWrite(String sql, Map<Integer, RecordedParameter> parameters, Mutation mutation,
+        List<String> keyColumns, long action) {
+      this.sql = sql;
+      this.parameters = parameters;
+      this.mutation = mutation;
+      this.keyColumns = keyColumns;
+      this.action = action;
+    }
+  }
+}
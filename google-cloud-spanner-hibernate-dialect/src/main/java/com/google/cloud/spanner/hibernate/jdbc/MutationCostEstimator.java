@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.Op;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.UniqueKey;
+
+/**
+ * Estimates how many mutations Spanner counts for a write towards its per-commit mutation limit.
+ *
+ * <p>An insert or update counts one mutation per column that it writes, plus one per column of
+ * each secondary index which contains a written column. A delete counts one mutation for the row
+ * and one for each secondary index of its table.
+ */
+class MutationCostEstimator {
+
+  private final Map<String, List<Set<String>>> tableIndexes = new ConcurrentHashMap<>();
+
+  /**
+   * Registers the secondary indexes of the tables of the mapping. The unique keys are included,
+   * as they are created as unique indexes in Spanner.
+   */
+  void registerTables(Metadata metadata) {
+    for (Table table : metadata.collectTableMappings()) {
+      if (!table.isPhysicalTable()) {
+        continue;
+      }
+      List<Set<String>> indexes = new ArrayList<>();
+      Iterator<Index> indexIterator = table.getIndexIterator();
+      while (indexIterator.hasNext()) {
+        indexes.add(getColumnNames(indexIterator.next().getColumnIterator()));
+      }
+      Iterator<UniqueKey> keyIterator = table.getUniqueKeyIterator();
+      while (keyIterator.hasNext()) {
+        indexes.add(getColumnNames(keyIterator.next().getColumnIterator()));
+      }
+      this.tableIndexes.put(table.getName(), indexes);
+    }
+  }
+
+  private static Set<String> getColumnNames(Iterator<Column> columnIterator) {
+    Set<String> columnNames = new HashSet<>();
+    while (columnIterator.hasNext()) {
+      columnNames.add(columnIterator.next().getName());
+    }
+    return columnNames;
+  }
+
+  /**
+   * Returns the estimated number of mutations of the write.
+   */
+  long estimate(Mutation mutation) {
+    List<Set<String>> indexes =
+        this.tableIndexes.getOrDefault(mutation.getTable(), Collections.emptyList());
+    if (mutation.getOperation() == Op.DELETE) {
+      return 1L + indexes.size();
+    }
+
+    Set<String> columns = new HashSet<>();
+    mutation.getColumns().forEach(columns::add);
+    long cost = columns.size();
+    for (Set<String> index : indexes) {
+      if (mutation.getOperation() != Op.UPDATE || !Collections.disjoint(index, columns)) {
+        cost += index.size();
+      }
+    }
+    return cost;
+  }
+}
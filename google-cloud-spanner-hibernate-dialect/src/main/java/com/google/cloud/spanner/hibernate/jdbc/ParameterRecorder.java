@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the parameters which Hibernate binds to a {@link PreparedStatement}, and passes all
+ * other calls on to the actual statement.
+ *
+ * <p>A recorder without an actual statement only accepts parameters, which allows the values
+ * that an entity persister binds to its statements to be captured without a connection.
+ */
+class ParameterRecorder implements InvocationHandler {
+
+  private final PreparedStatement statement;
+
+  private final PreparedStatement proxy;
+
+  private final Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+
+  ParameterRecorder(PreparedStatement statement) {
+    this.statement = statement;
+    this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+        ParameterRecorder.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+        this);
+  }
+
+  PreparedStatement getStatement() {
+    return this.statement;
+  }
+
+  PreparedStatement getProxy() {
+    return this.proxy;
+  }
+
+  Map<Integer, RecordedParameter> getParameters() {
+    return this.parameters;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getName().startsWith("set") && args != null && args.length > 1
+        && args[0] instanceof Integer) {
+      this.parameters.put((Integer) args[0], new RecordedParameter(method, args));
+      return null;
+    }
+    if (method.getName().equals("clearParameters")) {
+      this.parameters.clear();
+      return null;
+    }
+    if (this.statement == null) {
+      throw new UnsupportedOperationException(
+          "Parameter recorder without a statement does not support " + method.getName());
+    }
+    try {
+      return method.invoke(this.statement, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
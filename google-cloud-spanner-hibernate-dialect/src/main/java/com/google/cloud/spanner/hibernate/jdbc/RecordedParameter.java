@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Value;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A parameter value which was set on a {@link PreparedStatement}. It can be replayed on a real
+ * statement, or be converted to a Spanner {@link Value}.
+ */
+class RecordedParameter {
+
+  private final Method setter;
+
+  private final Object[] args;
+
+  RecordedParameter(Method setter, Object[] args) {
+    this.setter = setter;
+    this.args = args;
+  }
+
+  /**
+   * Sets the parameter on the given statement.
+   */
+  void replay(PreparedStatement statement) throws SQLException {
+    try {
+      this.setter.invoke(statement, this.args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw new SQLException("Could not set parameter " + this.args[0], e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new SQLException("Could not set parameter " + this.args[0], e);
+    }
+  }
+
+  /**
+   * Returns the same parameter value for a different parameter index.
+   */
+  RecordedParameter withIndex(int index) {
+    Object[] indexArgs = this.args.clone();
+    indexArgs[0] = index;
+    return new RecordedParameter(this.setter, indexArgs);
+  }
+
+  /**
+   * Returns the value of the parameter as a Spanner {@link Value}, or null if the parameter
+   * cannot be converted, e.g. because it was set as a stream or with an explicit calendar.
+   */
+  Value toValue() throws SQLException {
+    String name = this.setter.getName();
+    if (name.equals("setNull")) {
+      return nullValue((Integer) this.args[1]);
+    }
+    if (this.args.length != 2 || name.equals("setCharacterStream")
+        || name.equals("setBinaryStream") || name.equals("setAsciiStream")) {
+      // Values with a calendar, a length or a target type are left to the JDBC driver.
+      return null;
+    }
+    return toValue(this.args[1]);
+  }
+
+  private static Value toValue(Object value) throws SQLException {
+    if (value instanceof Boolean) {
+      return Value.bool((Boolean) value);
+    }
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      return Value.int64(((Number) value).longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return Value.float64(((Number) value).doubleValue());
+    }
+    if (value instanceof BigDecimal) {
+      return Value.numeric((BigDecimal) value);
+    }
+    if (value instanceof String) {
+      return Value.string((String) value);
+    }
+    if (value instanceof byte[]) {
+      return Value.bytes(ByteArray.copyFrom((byte[]) value));
+    }
+    if (value instanceof java.sql.Timestamp) {
+      return Value.timestamp(Timestamp.of((java.sql.Timestamp) value));
+    }
+    if (value instanceof java.sql.Date) {
+      java.time.LocalDate date = ((java.sql.Date) value).toLocalDate();
+      return Value.date(
+          Date.fromYearMonthDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+    }
+    if (value instanceof Array) {
+      return toArrayValue((Array) value);
+    }
+    return null;
+  }
+
+  private static Value toArrayValue(Array array) throws SQLException {
+    Object[] elements = (Object[]) array.getArray();
+    List<Object> values = elements == null ? null : Arrays.asList(elements);
+    switch (array.getBaseTypeName()) {
+      case "BOOL":
+        return Value.boolArray(cast(values));
+      case "INT64":
+        return Value.int64Array(values == null ? null : values.stream()
+            .map(value -> value == null ? null : ((Number) value).longValue())
+            .collect(Collectors.toList()));
+      case "FLOAT64":
+        return Value.float64Array(values == null ? null : values.stream()
+            .map(value -> value == null ? null : ((Number) value).doubleValue())
+            .collect(Collectors.toList()));
+      case "NUMERIC":
+        return Value.numericArray(cast(values));
+      case "STRING":
+        return Value.stringArray(cast(values));
+      default:
+        return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> cast(List<Object> values) {
+    return (List<T>) values;
+  }
+
+  private static Value nullValue(int sqlType) {
+    switch (sqlType) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return Value.bool(null);
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return Value.int64((Long) null);
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return Value.float64((Double) null);
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return Value.numeric(null);
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.CLOB:
+      case Types.NCLOB:
+        return Value.string(null);
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return Value.bytes(null);
+      case Types.DATE:
+        return Value.date(null);
+      case Types.TIMESTAMP:
+        return Value.timestamp(null);
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.jdbc.MutationBufferingConnection.BufferedWrite;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link PreparedStatement} which records its parameters, so that its executions can be
+ * buffered as mutations by a {@link MutationBufferingConnection}.
+ *
+ * <p>The statement is only prepared on the underlying connection when it cannot be buffered, or
+ * when a method is called which requires the actual statement. From then on, all calls are
+ * delegated to the actual statement.
+ */
+class RecordingPreparedStatement implements InvocationHandler {
+
+  private final MutationBufferingConnection connection;
+
+  private final Connection proxyConnection;
+
+  private final String sql;
+
+  private final List<RecordedParameter> settings = new ArrayList<>();
+
+  private final List<Map<Integer, RecordedParameter>> batch = new ArrayList<>();
+
+  private final List<Long> batchActions = new ArrayList<>();
+
+  private Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+
+  private PreparedStatement statement;
+
+  private boolean closed;
+
+  private RecordingPreparedStatement(
+      MutationBufferingConnection connection, Connection proxyConnection, String sql) {
+    this.connection = connection;
+    this.proxyConnection = proxyConnection;
+    this.sql = sql;
+  }
+
+  static PreparedStatement create(
+      MutationBufferingConnection connection, Connection proxyConnection, String sql) {
+    return (PreparedStatement) Proxy.newProxyInstance(
+        RecordingPreparedStatement.class.getClassLoader(),
+        new Class<?>[] {PreparedStatement.class},
+        new RecordingPreparedStatement(connection, proxyConnection, sql));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "RecordingPreparedStatement[" + this.sql + "]";
+      case "getConnection":
+        return this.proxyConnection;
+      case "isClosed":
+        return this.statement == null ? this.closed : this.statement.isClosed();
+      case "close":
+        this.closed = true;
+        this.connection.removePendingAction(this);
+        if (this.statement != null) {
+          this.statement.close();
+        }
+        return null;
+      default:
+        break;
+    }
+    if (this.statement == null) {
+      switch (method.getName()) {
+        case "executeUpdate":
+        case "executeLargeUpdate":
+          if (args == null && bufferAll(Arrays.asList(this.parameters),
+              Collections.singletonList(this.connection.getAction()))) {
+            return method.getName().equals("executeUpdate") ? (Object) 1 : (Object) 1L;
+          }
+          break;
+        case "executeBatch":
+          // The executions of the batch are buffered in order, so only the pending executions of
+          // other statements keep their actions from being committed.
+          this.connection.removePendingAction(this);
+          if (bufferAll(this.batch, this.batchActions)) {
+            int[] rowCounts = new int[this.batch.size()];
+            Arrays.fill(rowCounts, 1);
+            clearBatch();
+            return rowCounts;
+          }
+          break;
+        case "addBatch":
+          if (args == null) {
+            // The executions of the batch are buffered with the action which added them.
+            this.connection.addPendingAction(this, this.connection.getAction());
+            this.batch.add(this.parameters);
+            this.batchActions.add(this.connection.getAction());
+            this.parameters = new TreeMap<>();
+            return null;
+          }
+          break;
+        case "clearBatch":
+          clearBatch();
+          return null;
+        case "clearParameters":
+          this.parameters.clear();
+          return null;
+        case "getWarnings":
+        case "getGeneratedKeys":
+        case "getResultSet":
+          return null;
+        case "clearWarnings":
+          return null;
+        case "getUpdateCount":
+          return -1;
+        case "getMaxRows":
+        case "getQueryTimeout":
+          // Hibernate resets these when it releases the statement, which is then discarded.
+          return 0;
+        default:
+          if (method.getName().startsWith("set") && args != null) {
+            if (args.length > 1 && args[0] instanceof Integer) {
+              this.parameters.put((Integer) args[0], new RecordedParameter(method, args));
+            } else {
+              this.settings.add(new RecordedParameter(method, args));
+            }
+            return null;
+          }
+          break;
+      }
+      prepare();
+    }
+    try {
+      return method.invoke(this.statement, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void clearBatch() {
+    this.batch.clear();
+    this.batchActions.clear();
+    this.connection.removePendingAction(this);
+  }
+
+  /**
+   * Buffers the given executions of the given actions as mutations if all of them can be
+   * converted.
+   */
+  private boolean bufferAll(List<Map<Integer, RecordedParameter>> executions, List<Long> actions)
+      throws SQLException {
+    if (!this.connection.isBuffering()) {
+      return false;
+    }
+    List<BufferedWrite> writes = new ArrayList<>(executions.size());
+    for (int i = 0; i < executions.size(); i++) {
+      Map<Integer, RecordedParameter> execution = executions.get(i);
+      Mutation mutation =
+          DmlMutations.toMutation(this.sql, execution, this.connection::getKeyColumns);
+      if (mutation == null) {
+        return false;
+      }
+      writes.add(new BufferedWrite(
+          this.sql, new TreeMap<>(execution), mutation, actions.get(i)));
+    }
+    this.connection.buffer(writes);
+    return true;
+  }
+
+  /**
+   * Prepares the actual statement and applies everything which has been recorded so far.
+   */
+  private void prepare() throws SQLException {
+    this.connection.removePendingAction(this);
+    this.connection.executeBuffer();
+    this.statement = this.connection.getConnection().prepareStatement(this.sql);
+    for (RecordedParameter setting : this.settings) {
+      setting.replay(this.statement);
+    }
+    for (Map<Integer, RecordedParameter> execution : this.batch) {
+      for (RecordedParameter parameter : execution.values()) {
+        parameter.replay(this.statement);
+      }
+      this.statement.addBatch();
+    }
+    for (RecordedParameter parameter : this.parameters.values()) {
+      parameter.replay(this.statement);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.TimestampBound;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Wraps a JDBC {@link Connection} to Spanner so that the queries of a read-only transaction are
+ * executed as single-use read-only transactions.
+ *
+ * <p>While the connection is read-only and autocommit is disabled, the underlying connection is
+ * kept in autocommit mode, in which the Spanner JDBC driver executes each query in its own
+ * single-use read-only transaction. The transaction is only emulated for the caller: autocommit is
+ * reported as disabled, and commits and rollbacks do nothing. Once the connection is made
+ * read/write again, autocommit is disabled on the underlying connection as well.
+ *
+ * <p>The queries which start with the comment of a {@link SpannerStaleReads} query hint are
+ * executed with the staleness of the hint. The queries which start with the comment of a
+ * {@link SpannerSnapshotCache} query hint are read from the snapshot of the hint, and their
+ * results are cached.
+ */
+class SingleUseReadConnection implements InvocationHandler {
+
+  private final Connection connection;
+
+  private final SpannerSnapshotCache snapshotCache;
+
+  private boolean emulatingTransaction;
+
+  private SingleUseReadConnection(Connection connection, SpannerSnapshotCache snapshotCache) {
+    this.connection = connection;
+    this.snapshotCache = snapshotCache;
+  }
+
+  /**
+   * Returns a connection which executes the queries of read-only transactions as single-use
+   * read-only transactions.
+   */
+  static Connection wrap(Connection connection) {
+    return wrap(connection, null);
+  }
+
+  /**
+   * Returns a connection which executes the queries of read-only transactions as single-use
+   * read-only transactions, and caches the results of the queries with a snapshot hint in the
+   * given cache.
+   */
+  static Connection wrap(Connection connection, SpannerSnapshotCache snapshotCache) {
+    return (Connection) Proxy.newProxyInstance(
+        SingleUseReadConnection.class.getClassLoader(),
+        new Class<?>[] {Connection.class},
+        new SingleUseReadConnection(connection, snapshotCache));
+  }
+
+  /**
+   * Ends the emulated transaction of a connection returned by {@link #wrap}, so that the
+   * underlying connection is in the state which was last set by the caller, and returns the
+   * underlying connection.
+   */
+  static Connection release(Connection connection) throws SQLException {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof SingleUseReadConnection) {
+      SingleUseReadConnection handler =
+          (SingleUseReadConnection) Proxy.getInvocationHandler(connection);
+      handler.endEmulatedTransaction();
+      return handler.connection;
+    }
+    return connection;
+  }
+
+  private void endEmulatedTransaction() throws SQLException {
+    if (this.emulatingTransaction) {
+      this.emulatingTransaction = false;
+      this.connection.setAutoCommit(false);
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "SingleUseReadConnection[" + this.connection + "]";
+      case "getAutoCommit":
+        if (this.emulatingTransaction) {
+          return false;
+        }
+        break;
+      case "setAutoCommit":
+        if ((Boolean) args[0]) {
+          if (this.emulatingTransaction) {
+            // The underlying connection is already in autocommit mode.
+            this.emulatingTransaction = false;
+            return null;
+          }
+        } else if (this.emulatingTransaction
+            || (this.connection.isReadOnly() && this.connection.getAutoCommit())) {
+          this.emulatingTransaction = true;
+          return null;
+        }
+        break;
+      case "setReadOnly":
+        if ((Boolean) args[0]) {
+          if (!this.emulatingTransaction && !this.connection.getAutoCommit()) {
+            // Fails if a transaction has already been started on the underlying connection.
+            this.connection.setReadOnly(true);
+            this.connection.setAutoCommit(true);
+            this.emulatingTransaction = true;
+            return null;
+          }
+        } else if (this.emulatingTransaction) {
+          this.connection.setReadOnly(false);
+          endEmulatedTransaction();
+          return null;
+        }
+        break;
+      case "prepareStatement":
+        Long granularity = this.snapshotCache == null
+            ? null : SpannerSnapshotCache.getGranularityOfStatement((String) args[0]);
+        if (granularity != null) {
+          return this.snapshotCache.wrap((PreparedStatement) invokeOnConnection(method, args),
+              (String) args[0], this.connection, granularity);
+        }
+        TimestampBound staleness = SpannerStaleReads.getStalenessOfStatement((String) args[0]);
+        if (staleness != null) {
+          return StaleReadStatement.wrap(
+              (PreparedStatement) invokeOnConnection(method, args), this.connection, staleness);
+        }
+        break;
+      case "commit":
+      case "rollback":
+        if (args == null && this.emulatingTransaction) {
+          return null;
+        }
+        break;
+      default:
+        break;
+    }
+    return invokeOnConnection(method, args);
+  }
+
+  private Object invokeOnConnection(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(this.connection, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * A {@link PreparedStatement} whose queries are executed with a read-only staleness.
+   */
+  private static class StaleReadStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+
+    private final Connection connection;
+
+    private final TimestampBound staleness;
+
+    private StaleReadStatement(
+        PreparedStatement statement, Connection connection, TimestampBound staleness) {
+      this.statement = statement;
+      this.connection = connection;
+      this.staleness = staleness;
+    }
+
+    static PreparedStatement wrap(
+        PreparedStatement statement, Connection connection, TimestampBound staleness) {
+      return (PreparedStatement) Proxy.newProxyInstance(
+          StaleReadStatement.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          new StaleReadStatement(statement, connection, staleness));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "executeQuery":
+        case "execute":
+          return SpannerStaleReads.withStaleness(
+              this.connection, this.staleness, () -> invokeOnStatement(method, args));
+        default:
+          return invokeOnStatement(method, args);
+      }
+    }
+
+    private Object invokeOnStatement(Method method, Object[] args) throws Exception {
+      try {
+        return method.invoke(this.statement, args);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+  }
+}
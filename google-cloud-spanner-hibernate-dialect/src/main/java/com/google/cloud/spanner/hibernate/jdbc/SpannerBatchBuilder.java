@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderImpl;
+import org.hibernate.engine.jdbc.batch.spi.Batch;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+
+/**
+ * A {@link org.hibernate.engine.jdbc.batch.spi.BatchBuilder} which builds batches that send all
+ * the batchable DML statements of a flush to Spanner in a single {@code ExecuteBatchDml} request,
+ * regardless of their SQL. The standard Hibernate batches only group executions of the same SQL
+ * statement.
+ *
+ * <p>The batches are only used when JDBC batching is enabled with
+ * {@code hibernate.jdbc.batch_size}, which also limits the number of statements per request.
+ */
+public class SpannerBatchBuilder extends BatchBuilderImpl {
+
+  private final InterleaveOrder interleaveOrder = new InterleaveOrder();
+
+  /**
+   * Registers the interleaved tables of the mapping, so that the batches can write parent and
+   * child rows in key order.
+   */
+  public void registerTables(Metadata metadata) {
+    this.interleaveOrder.registerTables(metadata);
+  }
+
+  @Override
+  public Batch buildBatch(BatchKey key, JdbcCoordinator jdbcCoordinator) {
+    Integer sessionJdbcBatchSize = jdbcCoordinator.getJdbcSessionOwner().getJdbcBatchSize();
+    int jdbcBatchSize =
+        sessionJdbcBatchSize == null ? getJdbcBatchSize() : sessionJdbcBatchSize;
+    if (jdbcBatchSize > 1 && key.getExpectation().canBeBatched()) {
+      return new SpannerDmlBatch(key, jdbcCoordinator, jdbcBatchSize, this.interleaveOrder);
+    }
+    return super.buildBatch(key, jdbcCoordinator);
+  }
+}
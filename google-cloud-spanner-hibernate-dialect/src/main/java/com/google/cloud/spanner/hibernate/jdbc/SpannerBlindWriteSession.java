@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+/**
+ * Opens sessions for write-only workloads, such as ingestion, which write their entities to
+ * Spanner as blind writes.
+ *
+ * <p>A blind-write session is a {@link StatelessSession}: it has no persistence context, so it
+ * takes no snapshots of the entities and does no dirty checking. The inserts, updates and
+ * deletes of the entities are buffered as mutations and sent with the commit, also if
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_MUTATIONS} is not enabled. A
+ * transaction which only writes entities with assigned identifiers therefore commits without
+ * executing any statement, and only locks the written rows when it commits.
+ */
+public final class SpannerBlindWriteSession {
+
+  private SpannerBlindWriteSession() {
+  }
+
+  /**
+   * Opens a blind-write session on a connection of the session factory. The connection is
+   * released when the session is closed.
+   *
+   * <p>The writes of versioned entities, entities which use the {@code ALL} or {@code DIRTY}
+   * optimistic lock styles, and any queries of the session are executed as statements, as with
+   * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_MUTATIONS}.
+   */
+  public static StatelessSession open(SessionFactory sessionFactory) {
+    SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+    SpannerConnectionProvider connectionProvider = getConnectionProvider(factory);
+    Connection connection = null;
+    try {
+      connection = connectionProvider.getConnection();
+      // Pooled connections may still be read-only, which disables the buffering of writes.
+      connection.setReadOnly(false);
+      StatelessSession session =
+          factory.withStatelessOptions().connection(connection).openStatelessSession();
+      return (StatelessSession) Proxy.newProxyInstance(
+          SpannerBlindWriteSession.class.getClassLoader(),
+          new Class<?>[] {StatelessSession.class},
+          new SessionHandler(session, connectionProvider, connection));
+    } catch (SQLException e) {
+      closeConnection(connectionProvider, connection);
+      throw factory.getJdbcServices().getSqlExceptionHelper().convert(
+          e, "Could not open a blind-write session");
+    }
+  }
+
+  /**
+   * Returns the connection provider of the blind-write sessions of the session factory, which is
+   * registered together with the connection provider of the session factory.
+   */
+  private static SpannerConnectionProvider getConnectionProvider(
+      SessionFactoryImplementor factory) {
+    ConnectionProvider connectionProvider =
+        factory.getServiceRegistry().getService(ConnectionProvider.class);
+    if (!connectionProvider.isUnwrappableAs(SpannerConnectionProvider.class)) {
+      throw new IllegalArgumentException("Blind-write sessions can only be opened on a session "
+          + "factory which uses the SpannerDialect and its connection provider.");
+    }
+    return connectionProvider.unwrap(SpannerConnectionProvider.class).getBlindWriteProvider();
+  }
+
+  private static void closeConnection(
+      ConnectionProvider connectionProvider, Connection connection) {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connectionProvider.closeConnection(connection);
+    } catch (SQLException e) {
+      // The connection is discarded by the pool.
+    }
+  }
+
+  /**
+   * Releases the connection of a blind-write session when the session is closed.
+   */
+  private static class SessionHandler implements InvocationHandler {
+
+    private final StatelessSession session;
+
+    private final ConnectionProvider connectionProvider;
+
+    private final Connection connection;
+
+    SessionHandler(StatelessSession session, ConnectionProvider connectionProvider,
+        Connection connection) {
+      this.session = session;
+      this.connectionProvider = connectionProvider;
+      this.connection = connection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "close":
+          if (this.session.isOpen()) {
+            try {
+              this.session.close();
+            } finally {
+              closeConnection(this.connectionProvider, this.connection);
+            }
+          }
+          return null;
+        case "insert":
+        case "update":
+        case "delete":
+          // Each write of an entity is an action of its own.
+          MutationBufferingConnection.startAction(this.connection);
+          break;
+        default:
+          break;
+      }
+      try {
+        return method.invoke(this.session, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
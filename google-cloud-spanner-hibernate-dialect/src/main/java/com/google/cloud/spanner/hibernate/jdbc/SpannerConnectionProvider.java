@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.OptimisticLockStyle;
+import org.hibernate.engine.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+/**
+ * A {@link ConnectionProvider} which hands out connections that buffer the entity writes of a
+ * transaction as Spanner mutations instead of executing them as DML statements. It is enabled by
+ * the {@link SpannerSettings#USE_MUTATIONS} setting.
+ *
+ * <p>The actual connections are obtained from the {@link ConnectionProvider} which Hibernate
+ * would otherwise use. Only the insert, update and delete statements of the entity persisters
+ * are buffered; they are registered once the session factory is built.
+ *
+ * <p>If {@link SpannerSettings#USE_UPSERT} is enabled, {@code saveOrUpdate()} and {@code merge()}
+ * write the entities with assigned identifiers which are not yet in the session with
+ * {@link SpannerUpsert}, instead of reading their rows first.
+ *
+ * <p>If {@link SpannerSettings#MAX_MUTATIONS_PER_COMMIT} is set, the estimated number of mutations
+ * of the buffered writes is tracked, and the writes are committed in chunks which stay below the
+ * limit. The chunks only end between the entity and collection actions of a flush.
+ *
+ * <p>If {@link SpannerSettings#USE_SINGLE_USE_READS} is enabled, the connections execute the
+ * queries of read-only transactions as single-use read-only transactions. The connection provider
+ * is then also used when {@link SpannerSettings#USE_MUTATIONS} is disabled, in which case the
+ * entity writes are executed as DML statements. The results of the queries with a
+ * {@link SpannerSnapshotCache} hint are cached by the connection provider.
+ *
+ * <p>If {@link SpannerSettings#USE_INTERLEAVED_FETCH} is enabled, which is the default, the
+ * connections replace the fetch joins of the associations which are annotated with
+ * {@link com.google.cloud.spanner.hibernate.InterleavedFetch} by arrays of the child rows.
+ *
+ * <p>The connection provider is also used when all of these settings are disabled, as it provides
+ * the connections of the {@link SpannerBlindWriteSession}s. If the connections do not buffer
+ * writes, the blind-write sessions use a second connection provider on the same connections which
+ * does, and which is registered together with this one.
+ */
+public class SpannerConnectionProvider implements ConnectionProvider, Configurable,
+    ServiceRegistryAwareService, Stoppable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ConnectionProvider delegate;
+
+  private final boolean useMutations;
+
+  private final SpannerConnectionProvider blindWriteProvider;
+
+  private final Set<String> mutationStatements = ConcurrentHashMap.newKeySet();
+
+  private final MutationCostEstimator costEstimator = new MutationCostEstimator();
+
+  private final InterleaveOrder interleaveOrder = new InterleaveOrder();
+
+  private final InterleavedFetches interleavedFetches = new InterleavedFetches();
+
+  private SpannerSnapshotCache snapshotCache = new SpannerSnapshotCache(
+      SpannerSnapshotCache.DEFAULT_MAX_ENTRIES, System::currentTimeMillis);
+
+  private int maxMutationsPerCommit;
+
+  private boolean useUpsert;
+
+  private boolean useSingleUseReads;
+
+  private boolean useInterleavedFetch;
+
+  /**
+   * Creates a connection provider which wraps the standard Hibernate connection provider.
+   */
+  public SpannerConnectionProvider(
+      Map configurationValues, ServiceRegistryImplementor serviceRegistry) {
+    this((ConnectionProvider) ConnectionProviderInitiator.INSTANCE
+        .initiateService(configurationValues, serviceRegistry),
+        ConfigurationHelper.getBoolean(SpannerSettings.USE_MUTATIONS, configurationValues, false));
+  }
+
+  SpannerConnectionProvider(ConnectionProvider delegate, boolean useMutations) {
+    this.delegate = delegate;
+    this.useMutations = useMutations;
+    this.blindWriteProvider =
+        useMutations ? this : new SpannerConnectionProvider(delegate, true);
+  }
+
+  /**
+   * Returns the connection provider of the blind-write sessions, which is this connection
+   * provider if its connections buffer the registered entity writes as mutations.
+   */
+  SpannerConnectionProvider getBlindWriteProvider() {
+    return this.blindWriteProvider;
+  }
+
+  /**
+   * Registers the tables of the mapping, which are used to estimate the number of mutations of
+   * the buffered writes, to write interleaved rows in key order, and to fetch interleaved child
+   * rows as arrays.
+   */
+  public void registerTables(Metadata metadata) {
+    if (this.blindWriteProvider != this) {
+      this.blindWriteProvider.registerTables(metadata);
+    }
+    this.costEstimator.registerTables(metadata);
+    this.interleaveOrder.registerTables(metadata);
+    if (this.useInterleavedFetch) {
+      this.interleavedFetches.registerTables(metadata);
+    }
+  }
+
+  /**
+   * Registers the DML statements of the entity persisters of the session factory which can be
+   * executed as mutations. Statements of versioned entities and entities which use the
+   * {@code ALL} or {@code DIRTY} optimistic lock styles are not registered, as their
+   * {@code WHERE} clauses contain more than the primary key.
+   */
+  public void registerMutationStatements(SessionFactoryImplementor sessionFactory) {
+    if (this.blindWriteProvider != this) {
+      this.blindWriteProvider.registerMutationStatements(sessionFactory);
+    }
+    if (!this.useMutations) {
+      return;
+    }
+    for (EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+      if (!(persister instanceof AbstractEntityPersister)) {
+        continue;
+      }
+      AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+      register(entityPersister.getSQLInsertStrings());
+
+      OptimisticLockStyle lockStyle = entityPersister.getEntityMetamodel().getOptimisticLockStyle();
+      if (!entityPersister.isVersioned()
+          && lockStyle != OptimisticLockStyle.ALL
+          && lockStyle != OptimisticLockStyle.DIRTY) {
+        register(entityPersister.getSQLUpdateStrings());
+        register(entityPersister.getSQLLazyUpdateStrings());
+        register(entityPersister.getSQLDeleteStrings());
+      }
+    }
+  }
+
+  /**
+   * Registers the listeners which delimit the entity and collection actions of the sessions, if
+   * the writes are committed in chunks, so that the writes of an action are committed together,
+   * and the listeners which upsert the merged and saved entities, if upserts are enabled.
+   */
+  public void registerEventListeners(EventListenerRegistry eventListenerRegistry) {
+    if (!this.useMutations) {
+      return;
+    }
+    if (this.useUpsert) {
+      UpsertEventListener.register(eventListenerRegistry);
+    }
+    if (this.maxMutationsPerCommit <= 0) {
+      return;
+    }
+    eventListenerRegistry.appendListeners(EventType.PRE_INSERT, WriteActionListener.INSTANCE);
+    eventListenerRegistry.appendListeners(EventType.PRE_UPDATE, WriteActionListener.INSTANCE);
+    eventListenerRegistry.appendListeners(EventType.PRE_DELETE, WriteActionListener.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_RECREATE, WriteActionListener.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_UPDATE, WriteActionListener.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_REMOVE, WriteActionListener.INSTANCE);
+  }
+
+  private void register(String[] statements) {
+    if (statements != null) {
+      for (String statement : statements) {
+        if (statement != null) {
+          this.mutationStatements.add(statement);
+        }
+      }
+    }
+  }
+
+  Set<String> getMutationStatements() {
+    return Collections.unmodifiableSet(this.mutationStatements);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    Connection connection = this.delegate.getConnection();
+    if (this.useSingleUseReads) {
+      connection = SingleUseReadConnection.wrap(connection, this.snapshotCache);
+    }
+    if (this.useMutations) {
+      connection = MutationBufferingConnection.wrap(connection, this.mutationStatements,
+          this.costEstimator, this.interleaveOrder, this.maxMutationsPerCommit);
+    }
+    if (!this.interleavedFetches.isEmpty()) {
+      connection = InterleavedFetchConnection.wrap(connection, this.interleavedFetches);
+    }
+    return connection;
+  }
+
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    this.delegate.closeConnection(SingleUseReadConnection.release(
+        MutationBufferingConnection.release(InterleavedFetchConnection.release(connection))));
+  }
+
+  @Override
+  public boolean supportsAggressiveRelease() {
+    return this.delegate.supportsAggressiveRelease();
+  }
+
+  @Override
+  public boolean isUnwrappableAs(Class unwrapType) {
+    return unwrapType.isInstance(this) || this.delegate.isUnwrappableAs(unwrapType);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> unwrapType) {
+    if (unwrapType.isInstance(this)) {
+      return (T) this;
+    }
+    return this.delegate.unwrap(unwrapType);
+  }
+
+  @Override
+  public void configure(Map configurationValues) {
+    this.maxMutationsPerCommit = ConfigurationHelper.getInt(
+        SpannerSettings.MAX_MUTATIONS_PER_COMMIT, configurationValues, 0);
+    this.useUpsert =
+        ConfigurationHelper.getBoolean(SpannerSettings.USE_UPSERT, configurationValues, false);
+    this.useSingleUseReads = ConfigurationHelper.getBoolean(
+        SpannerSettings.USE_SINGLE_USE_READS, configurationValues, false);
+    this.snapshotCache = new SpannerSnapshotCache(ConfigurationHelper.getInt(
+        SpannerSettings.SNAPSHOT_CACHE_MAX_ENTRIES, configurationValues,
+        SpannerSnapshotCache.DEFAULT_MAX_ENTRIES), System::currentTimeMillis);
+    this.useInterleavedFetch = ConfigurationHelper.getBoolean(
+        SpannerSettings.USE_INTERLEAVED_FETCH, configurationValues, true);
+    if (this.delegate instanceof Configurable) {
+      ((Configurable) this.delegate).configure(configurationValues);
+    }
+  }
+
+  @Override
+  public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+    if (this.delegate instanceof ServiceRegistryAwareService) {
+      ((ServiceRegistryAwareService) this.delegate).injectServices(serviceRegistry);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.delegate instanceof Stoppable) {
+      ((Stoppable) this.delegate).stop();
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.hibernate.engine.jdbc.batch.internal.AbstractBatchImpl;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.jdbc.Expectation;
+import org.hibernate.resource.jdbc.spi.JdbcObserver;
+
+/**
+ * A Hibernate batch which accepts the statements of all batchable {@link BatchKey}s with the same
+ * {@link Expectation}, and executes them as one Spanner DML batch.
+ *
+ * <p>The parameters of each statement are recorded when it is added to the batch. When the batch
+ * is executed, the writes to interleaved tables are first put in {@link InterleaveOrder}, and the
+ * statements are then executed on the connection between {@code START BATCH DML} and
+ * {@code RUN BATCH}, which makes the Spanner JDBC driver buffer them on the client. The update
+ * counts which are returned by {@code RUN BATCH} are verified with the expectation of the
+ * statements, so optimistic locking works as with the standard Hibernate batches.
+ *
+ * <p>If the connection buffers the writes of the transaction as mutations, the statements are
+ * executed one by one instead, so that the buffered writes are not executed as DML by the
+ * {@code START BATCH DML} statement.
+ */
+class SpannerDmlBatch extends AbstractBatchImpl {
+
+  static final String START_BATCH_DML = "START BATCH DML";
+
+  static final String RUN_BATCH = "RUN BATCH";
+
+  static final String ABORT_BATCH = "ABORT BATCH";
+
+  static final String UPDATE_COUNTS = "UPDATE_COUNTS";
+
+  private final int batchSize;
+
+  private final InterleaveOrder interleaveOrder;
+
+  private final List<BatchedStatement> batchedStatements = new ArrayList<>();
+
+  private final Map<String, Integer> statementPositions = new HashMap<>();
+
+  private final Map<String, ParameterRecorder> recorders = new HashMap<>();
+
+  private String currentStatementSql;
+
+  SpannerDmlBatch(BatchKey key, JdbcCoordinator jdbcCoordinator, int batchSize,
+      InterleaveOrder interleaveOrder) {
+    super(new DmlBatchKey(key.getExpectation()), jdbcCoordinator);
+    this.batchSize = batchSize;
+    this.interleaveOrder = interleaveOrder;
+  }
+
+  @Override
+  public PreparedStatement getBatchStatement(String sql, boolean callable) {
+    ParameterRecorder recorder = this.recorders.get(sql);
+    if (recorder == null) {
+      // The standard statement preparation would execute this batch before the new statement.
+      PreparedStatement statement =
+          getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+      getStatements().put(sql, statement);
+      recorder = new ParameterRecorder(statement);
+      this.recorders.put(sql, recorder);
+    } else {
+      sqlStatementLogger().logStatement(sql);
+    }
+    this.currentStatementSql = sql;
+    return recorder.getProxy();
+  }
+
+  @Override
+  public void addToBatch() {
+    ParameterRecorder recorder = this.recorders.get(this.currentStatementSql);
+    int position = this.statementPositions.merge(this.currentStatementSql, 1, Integer::sum) - 1;
+    this.batchedStatements.add(new BatchedStatement(
+        this.currentStatementSql, recorder.getStatement(), new TreeMap<>(recorder.getParameters()),
+        position, getKey().getExpectation()));
+    if (this.batchedStatements.size() >= this.batchSize) {
+      notifyObserversImplicitExecution();
+      performExecution();
+    }
+  }
+
+  @Override
+  protected void doExecuteBatch() {
+    if (!this.batchedStatements.isEmpty()) {
+      performExecution();
+    }
+  }
+
+  @Override
+  protected void releaseStatements() {
+    this.recorders.clear();
+    super.releaseStatements();
+  }
+
+  @Override
+  public void release() {
+    this.batchedStatements.clear();
+    this.statementPositions.clear();
+    super.release();
+  }
+
+  private void performExecution() {
+    JdbcObserver observer =
+        getJdbcCoordinator().getJdbcSessionOwner().getJdbcSessionContext().getObserver();
+    List<BatchedStatement> statements = new ArrayList<>(this.batchedStatements);
+    this.batchedStatements.clear();
+    this.statementPositions.clear();
+    this.interleaveOrder.sort(
+        statements, statement -> statement.toMutation(this.interleaveOrder));
+
+    String sql = START_BATCH_DML;
+    try {
+      long[] updateCounts = new long[statements.size()];
+      try {
+        observer.jdbcExecuteBatchStart();
+        // Writes which the connection buffers as mutations are not sent in a DML batch.
+        boolean dmlBatch = !MutationBufferingConnection.buffersWrites(getConnection());
+        if (dmlBatch) {
+          executeClientStatement(START_BATCH_DML);
+        }
+        try {
+          for (int i = 0; i < statements.size(); i++) {
+            BatchedStatement statement = statements.get(i);
+            sql = statement.sql;
+            statement.statement.clearParameters();
+            for (RecordedParameter parameter : statement.parameters.values()) {
+              parameter.replay(statement.statement);
+            }
+            updateCounts[i] = statement.statement.executeUpdate();
+          }
+          sql = RUN_BATCH;
+        } catch (SQLException | RuntimeException e) {
+          if (dmlBatch) {
+            abortDmlBatch();
+          }
+          throw e;
+        }
+        if (dmlBatch) {
+          updateCounts = runBatch();
+        }
+      } finally {
+        observer.jdbcExecuteBatchEnd();
+      }
+      for (int i = 0; i < statements.size(); i++) {
+        BatchedStatement statement = statements.get(i);
+        int rowCount = i < updateCounts.length ? (int) updateCounts[i] : 0;
+        statement.expectation.verifyOutcome(
+            rowCount, statement.statement, statement.position, statement.sql);
+      }
+    } catch (SQLException e) {
+      abortBatch();
+      throw sqlExceptionHelper().convert(e, "could not execute batch", sql);
+    } catch (RuntimeException e) {
+      abortBatch();
+      throw e;
+    }
+  }
+
+  private long[] runBatch() throws SQLException {
+    try (Statement statement = getConnection().createStatement()) {
+      sqlStatementLogger().logStatement(RUN_BATCH);
+      try (ResultSet resultSet = statement.executeQuery(RUN_BATCH)) {
+        if (!resultSet.next()) {
+          throw new SQLException("The DML batch did not return any update counts");
+        }
+        Array array = resultSet.getArray(UPDATE_COUNTS);
+        Object[] values = (Object[]) array.getArray();
+        long[] updateCounts = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+          updateCounts[i] = ((Number) values[i]).longValue();
+        }
+        return updateCounts;
+      }
+    }
+  }
+
+  private void abortDmlBatch() {
+    try {
+      executeClientStatement(ABORT_BATCH);
+    } catch (SQLException e) {
+      // The failure which caused the abort should not be hidden by this one.
+    }
+  }
+
+  private void executeClientStatement(String sql) throws SQLException {
+    try (Statement statement = getConnection().createStatement()) {
+      sqlStatementLogger().logStatement(sql);
+      statement.execute(sql);
+    }
+  }
+
+  private Connection getConnection() {
+    return getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+  }
+
+  /**
+   * The key of a {@link SpannerDmlBatch}. The {@link JdbcCoordinator} keeps using the current
+   * batch as long as its key is equal to the key of the next statement, so this key is equal to
+   * all keys which it {@link #accepts}. It has no state besides the expectation of the batch.
+   */
+  private static class DmlBatchKey implements BatchKey {
+
+    private final Expectation expectation;
+
+    DmlBatchKey(Expectation expectation) {
+      this.expectation = expectation;
+    }
+
+    @Override
+    public int getBatchedStatementCount() {
+      return 1;
+    }
+
+    @Override
+    public Expectation getExpectation() {
+      return this.expectation;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other == this || (other instanceof BatchKey && accepts((BatchKey) other));
+    }
+
+    @Override
+    public int hashCode() {
+      return this.expectation.hashCode();
+    }
+
+    /**
+     * Returns whether the statements of the given key can be added to the batch, which is the
+     * case if they are verified with the same expectation as the statements of the batch.
+     */
+    boolean accepts(BatchKey key) {
+      return key.getExpectation() == this.expectation && this.expectation.canBeBatched();
+    }
+  }
+
+  private static class BatchedStatement {
+
+    private final String sql;
+
+    private final PreparedStatement statement;
+
+    private final Map<Integer, RecordedParameter> parameters;
+
+    private final int position;
+
+    private final Expectation expectation;
+
+    BatchedStatement(String sql, PreparedStatement statement,
+        Map<Integer, RecordedParameter> parameters, int position, Expectation expectation) {
+      this.sql = sql;
+      this.statement = statement;
+      this.parameters = parameters;
+      this.position = position;
+      this.expectation = expectation;
+    }
+
+    Mutation toMutation(InterleaveOrder interleaveOrder) {
+      try {
+        return DmlMutations.toMutation(this.sql, this.parameters, interleaveOrder::getKeyColumns);
+      } catch (SQLException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.connection.AutocommitDmlMode;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+
+/**
+ * Executes bulk HQL or native update and delete statements as Spanner
+ * <a href="https://cloud.google.com/spanner/docs/dml-partitioned">Partitioned DML</a>.
+ *
+ * <p>Partitioned DML is executed outside of the read/write transaction of the session, in
+ * independent transactions per partition of the table. It is therefore not limited by the number
+ * of mutations of a transaction, and does not hold locks on the whole table. The statement must be
+ * idempotent, and is not rolled back with the transaction of the session.
+ */
+public final class SpannerPartitionedDml {
+
+  private SpannerPartitionedDml() {
+  }
+
+  /**
+   * Executes the bulk update or delete query of the session as Partitioned DML, and returns the
+   * lower bound of the number of affected rows which is reported by Spanner.
+   *
+   * <p>The session is flushed first. The statement must be executed before any other statement
+   * of the current transaction of the session, as Spanner cannot execute Partitioned DML in a
+   * read/write transaction that has already started.
+   */
+  public static int executeUpdate(Session session, Query<?> query) {
+    session.flush();
+
+    boolean[] autoCommit = new boolean[1];
+    AutocommitDmlMode[] dmlMode = new AutocommitDmlMode[1];
+    session.doWork(connection -> {
+      CloudSpannerJdbcConnection spannerConnection =
+          connection.unwrap(CloudSpannerJdbcConnection.class);
+      if (spannerConnection.isTransactionStarted()
+          || MutationBufferingConnection.hasBufferedWrites(connection)) {
+        throw new IllegalStateException(
+            "Partitioned DML cannot be executed in a transaction that has already executed "
+                + "other statements. Execute it at the start of the transaction instead.");
+      }
+      autoCommit[0] = connection.getAutoCommit();
+      connection.setAutoCommit(true);
+      dmlMode[0] = spannerConnection.getAutocommitDmlMode();
+      spannerConnection.setAutocommitDmlMode(AutocommitDmlMode.PARTITIONED_NON_ATOMIC);
+    });
+
+    try {
+      return query.executeUpdate();
+    } finally {
+      session.doWork(connection -> restore(connection, autoCommit[0], dmlMode[0]));
+    }
+  }
+
+  private static void restore(Connection connection, boolean autoCommit,
+      AutocommitDmlMode dmlMode) throws SQLException {
+    connection.unwrap(CloudSpannerJdbcConnection.class).setAutocommitDmlMode(dmlMode);
+    connection.setAutoCommit(autoCommit);
+  }
+}
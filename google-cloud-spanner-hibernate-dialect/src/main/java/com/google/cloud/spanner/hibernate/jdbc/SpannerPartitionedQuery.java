@@ -0,0 +1,524 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.BatchClient;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.PartitionOptions;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.Value;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.query.Query;
+
+/**
+ * Reads the results of an HQL or Criteria query in parallel, by splitting the query into the
+ * partitions of a Spanner
+ * <a href="https://cloud.google.com/spanner/docs/reads#read_data_in_parallel">partitioned
+ * query</a>, which are read on several threads.
+ *
+ * <pre>
+ * SpannerPartitionedQuery partitionedQuery =
+ *     new SpannerPartitionedQuery(sessionFactory, spanner.getBatchClient(databaseId));
+ * partitionedQuery.forEach(
+ *     session -&gt; session.createQuery("from Customer", Customer.class),
+ *     customer -&gt; reconcile(customer));
+ * </pre>
+ *
+ * <p>The JDBC driver cannot partition queries, so the partitions are read with the given
+ * {@link BatchClient} of the same database. The query is created once to obtain its SQL and
+ * parameters, and once more for each partition, in a read-only session whose query reads the
+ * rows of the partition. The entities of the partitions are therefore hydrated by Hibernate as
+ * usual, and all partitions read from the same snapshot. The other reads of the sessions of the
+ * partitions, e.g. the loads of lazy associations, are executed as single-use read-only
+ * transactions at the read timestamp of the snapshot.
+ *
+ * <p>Spanner can only partition queries which are root-partitionable, e.g. which have no
+ * {@code ORDER BY} or {@code LIMIT} clause, and whose first operator is a distributed union.
+ * Columns of array types are not supported. The persistence context of a partition is cleared
+ * periodically, so the consumer has to initialize any lazy associations that it uses when it is
+ * called.
+ */
+public class SpannerPartitionedQuery {
+
+  private static final int CLEAR_INTERVAL = 100;
+
+  private static final int STREAM_BUFFER_SIZE = 1000;
+
+  private static final Object END = new Object();
+
+  private static final Object NULL = new Object();
+
+  private final SessionFactoryImplementor sessionFactory;
+
+  private final BatchClient batchClient;
+
+  private final ExecutorService executor;
+
+  private final int threads;
+
+  /**
+   * Creates a partitioned query which reads the partitions on a new thread pool for each query,
+   * with {@link SpannerSettings#PARTITIONED_QUERY_THREADS} threads.
+   */
+  public SpannerPartitionedQuery(SessionFactory sessionFactory, BatchClient batchClient) {
+    this(sessionFactory, batchClient, null);
+  }
+
+  /**
+   * Creates a partitioned query which reads the partitions on the given executor. The executor is
+   * not shut down by the partitioned query.
+   */
+  public SpannerPartitionedQuery(
+      SessionFactory sessionFactory, BatchClient batchClient, ExecutorService executor) {
+    this.sessionFactory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+    this.batchClient = batchClient;
+    this.executor = executor;
+    this.threads = Math.max(1, ConfigurationHelper.getInt(
+        SpannerSettings.PARTITIONED_QUERY_THREADS, sessionFactory.getProperties(),
+        Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Passes the results of the query which the given function creates in a session to the given
+   * consumer. The consumer is called concurrently by the threads which read the partitions, and
+   * the results are passed in no particular order. Returns once all partitions have been read.
+   */
+  public <T> void forEach(Function<Session, Query<T>> query, Consumer<? super T> consumer) {
+    QueryCapture capture = capture(query);
+    try (BatchReadOnlyTransaction transaction =
+        this.batchClient.batchReadOnlyTransaction(TimestampBound.strong())) {
+      List<Partition> partitions = transaction.partitionQuery(
+          PartitionOptions.getDefaultInstance(), capture.toStatement());
+      TimestampBound snapshot = TimestampBound.ofReadTimestamp(transaction.getReadTimestamp());
+      ExecutorService executor = this.executor == null
+          ? Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, partitions.size())))
+          : this.executor;
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Partition partition : partitions) {
+          futures.add(executor.submit(() ->
+              readPartition(transaction, partition, snapshot, capture.sql, query, consumer)));
+        }
+        await(futures);
+      } finally {
+        if (this.executor == null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the results of the query which the given function creates in a session as a stream.
+   * The partitions are read in the background, until the consumer of the stream falls behind by
+   * a buffer of results. The stream should be closed if it is not consumed completely.
+   */
+  public <T> Stream<T> stream(Function<Session, Query<T>> query) {
+    BlockingQueue<Object> queue = new ArrayBlockingQueue<>(STREAM_BUFFER_SIZE);
+    AtomicBoolean closed = new AtomicBoolean();
+    Thread reader = new Thread(() -> {
+      Object last = END;
+      try {
+        forEach(query, result -> put(queue, result == null ? NULL : result, closed));
+      } catch (RuntimeException | Error e) {
+        last = new Failure(e);
+      }
+      try {
+        put(queue, last, closed);
+      } catch (CancellationException e) {
+        // The stream has been closed.
+      }
+    }, "spanner-partitioned-query");
+    reader.setDaemon(true);
+    reader.start();
+
+    Iterator<T> iterator = new Iterator<T>() {
+      private Object next;
+
+      @Override
+      public boolean hasNext() {
+        if (this.next == null) {
+          this.next = take(queue);
+        }
+        return this.next != END;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Object result = this.next;
+        this.next = null;
+        return result == NULL ? null : (T) result;
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, 0), false)
+        .onClose(() -> {
+          closed.set(true);
+          reader.interrupt();
+        });
+  }
+
+  /**
+   * Creates the query in a session without a database connection, and records the SQL statement
+   * and the parameters which Hibernate executes for it.
+   */
+  private <T> QueryCapture capture(Function<Session, Query<T>> query) {
+    QueryCapture capture = new QueryCapture();
+    try (Session session = this.sessionFactory.withOptions()
+        .connection(capture.proxy(Connection.class))
+        .openSession()) {
+      query.apply(session).list();
+    }
+    if (capture.sql == null) {
+      throw new IllegalArgumentException("The query did not execute a SQL statement");
+    }
+    return capture;
+  }
+
+  private <T> void readPartition(BatchReadOnlyTransaction transaction, Partition partition,
+      TimestampBound snapshot, String sql, Function<Session, Query<T>> query,
+      Consumer<? super T> consumer) {
+    ConnectionProvider connectionProvider =
+        this.sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+    Connection connection;
+    try {
+      connection = connectionProvider.getConnection();
+    } catch (SQLException e) {
+      throw this.sessionFactory.getJdbcServices().getSqlExceptionHelper().convert(
+          e, "Could not obtain a connection to read a partition");
+    }
+    try {
+      // The lazy loads of the partition read the snapshot of the partitioned query in single-use
+      // read-only transactions.
+      boolean autoCommit = connection.getAutoCommit();
+      boolean readOnly = connection.isReadOnly();
+      connection.setAutoCommit(true);
+      connection.setReadOnly(true);
+      try {
+        SpannerStaleReads.withStaleness(connection, snapshot, () -> {
+          readRows(transaction, partition, connection, sql, query, consumer);
+          return null;
+        });
+      } finally {
+        connection.setReadOnly(readOnly);
+        connection.setAutoCommit(autoCommit);
+      }
+    } catch (SQLException e) {
+      throw this.sessionFactory.getJdbcServices().getSqlExceptionHelper().convert(
+          e, "Could not read a partition");
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    } finally {
+      try {
+        connectionProvider.closeConnection(connection);
+      } catch (SQLException e) {
+        // The connection is discarded by the pool.
+      }
+    }
+  }
+
+  private <T> void readRows(BatchReadOnlyTransaction transaction, Partition partition,
+      Connection connection, String sql, Function<Session, Query<T>> query,
+      Consumer<? super T> consumer) {
+    try (ResultSet rows = transaction.execute(partition);
+        Session session = this.sessionFactory.withOptions()
+            .connection(PartitionConnection.wrap(connection, sql, rows))
+            .openSession()) {
+      session.setDefaultReadOnly(true);
+      int count = 0;
+      try (Stream<T> results = query.apply(session).stream()) {
+        for (Iterator<T> iterator = results.iterator(); iterator.hasNext(); ) {
+          consumer.accept(iterator.next());
+          if (++count % CLEAR_INTERVAL == 0) {
+            session.clear();
+          }
+        }
+      }
+    }
+  }
+
+  private static void await(List<Future<?>> futures) {
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new HibernateException("Could not read a partition", e.getCause());
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new HibernateException("Interrupted while reading the partitions", e);
+    }
+  }
+
+  private static void put(BlockingQueue<Object> queue, Object result, AtomicBoolean closed) {
+    try {
+      while (!closed.get()) {
+        if (queue.offer(result, 100L, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    throw new CancellationException("The stream of the partitioned query has been closed");
+  }
+
+  private static Object take(BlockingQueue<Object> queue) {
+    Object result;
+    try {
+      result = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HibernateException("Interrupted while reading the partitions", e);
+    }
+    if (result instanceof Failure) {
+      Throwable failure = ((Failure) result).exception;
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw (RuntimeException) failure;
+    }
+    return result;
+  }
+
+  /**
+   * The failure of the partitioned query of a stream.
+   */
+  private static class Failure {
+
+    private final Throwable exception;
+
+    Failure(Throwable exception) {
+      this.exception = exception;
+    }
+  }
+
+  /**
+   * A connection, statement and result set without a database, which record the SQL and the
+   * parameters of the first query that is executed, and return no rows.
+   */
+  private static class QueryCapture implements InvocationHandler {
+
+    private String sql;
+
+    private final Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+
+    <T> T proxy(Class<T> type) {
+      return type.cast(Proxy.newProxyInstance(
+          QueryCapture.class.getClassLoader(), new Class<?>[] {type}, this));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      switch (name) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "prepareStatement":
+          if (this.sql == null) {
+            this.sql = (String) args[0];
+          }
+          return proxy(PreparedStatement.class);
+        case "executeQuery":
+          return proxy(java.sql.ResultSet.class);
+        default:
+          break;
+      }
+      if (name.startsWith("set") && args != null && args.length > 1
+          && args[0] instanceof Integer) {
+        this.parameters.putIfAbsent((Integer) args[0], new RecordedParameter(method, args));
+        return null;
+      }
+      return defaultValue(method.getReturnType());
+    }
+
+    /**
+     * Returns the recorded query as a Spanner statement with named parameters.
+     */
+    Statement toStatement() {
+      StringBuilder sql = new StringBuilder();
+      List<Value> values = new ArrayList<>();
+      char quote = 0;
+      for (char c : this.sql.toCharArray()) {
+        if (quote == 0 && (c == '\'' || c == '`')) {
+          quote = c;
+        } else if (c == quote) {
+          quote = 0;
+        }
+        if (c == '?' && quote == 0) {
+          values.add(getValue(values.size() + 1));
+          sql.append("@p").append(values.size());
+        } else {
+          sql.append(c);
+        }
+      }
+      Statement.Builder statement = Statement.newBuilder(sql.toString());
+      for (int i = 0; i < values.size(); i++) {
+        statement.bind("p" + (i + 1)).to(values.get(i));
+      }
+      return statement.build();
+    }
+
+    private Value getValue(int index) {
+      RecordedParameter parameter = this.parameters.get(index);
+      Value value = null;
+      try {
+        value = parameter == null ? null : parameter.toValue();
+      } catch (SQLException e) {
+        // The value is reported as not convertible below.
+      }
+      if (value == null) {
+        throw new IllegalArgumentException(
+            "Parameter " + index + " of the partitioned query cannot be converted to a Spanner "
+                + "value");
+      }
+      return value;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+      if (type == boolean.class) {
+        return false;
+      }
+      if (type == int.class) {
+        return 0;
+      }
+      if (type == long.class) {
+        return 0L;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A connection which returns the rows of a partition for its query, and executes all other
+   * statements on the actual connection, e.g. to initialize lazy associations.
+   */
+  private static class PartitionConnection implements InvocationHandler {
+
+    private final Connection connection;
+
+    private final String sql;
+
+    private final ResultSet rows;
+
+    private PartitionConnection(Connection connection, String sql, ResultSet rows) {
+      this.connection = connection;
+      this.sql = sql;
+      this.rows = rows;
+    }
+
+    static Connection wrap(Connection connection, String sql, ResultSet rows) {
+      return (Connection) Proxy.newProxyInstance(
+          PartitionConnection.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          new PartitionConnection(connection, sql, rows));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "prepareStatement":
+          if (this.sql.equals(args[0])) {
+            return partitionStatement();
+          }
+          break;
+        default:
+          break;
+      }
+      try {
+        return method.invoke(this.connection, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    private PreparedStatement partitionStatement() {
+      return (PreparedStatement) Proxy.newProxyInstance(
+          PartitionConnection.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              case "executeQuery":
+                return StructResultSet.wrap(this.rows, (PreparedStatement) proxy);
+              default:
+                return QueryCapture.defaultValue(method.getReturnType());
+            }
+          });
+    }
+  }
+}
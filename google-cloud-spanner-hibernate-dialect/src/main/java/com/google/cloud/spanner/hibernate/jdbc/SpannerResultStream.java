@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.query.Query;
+
+/**
+ * Streams the results of a query in batches, so that the memory which is used to read a large
+ * result, e.g. for an export, does not grow with the size of the result.
+ *
+ * <p>The stream scrolls through the results of the query, which the JDBC driver reads from
+ * Spanner as the stream is consumed. The stream reads one batch of
+ * {@link SpannerSettings#RESULT_STREAM_BATCH_SIZE} rows ahead of its consumer, and evicts the
+ * entities of a batch from the persistence context of the session before it reads the next
+ * batch. The entities which were already managed by the session before their batch was read are
+ * not evicted. The query is executed as a read-only query, so no snapshots of the entities are
+ * kept either.
+ *
+ * <pre>
+ * try (Stream&lt;Singer&gt; singers = SpannerResultStream.stream(
+ *     session, session.createQuery("from Singer", Singer.class))) {
+ *   singers.forEach(singer -&gt; export(singer));
+ * }
+ * </pre>
+ *
+ * <p>The entities of a batch are detached once the stream has moved on to the next batch, so any
+ * lazy associations have to be initialized before then. The stream must be closed to release the
+ * JDBC result set.
+ */
+public final class SpannerResultStream {
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
+  private SpannerResultStream() {
+  }
+
+  /**
+   * Returns the results of the query of the session as a stream of batches of the size that is
+   * configured with {@link SpannerSettings#RESULT_STREAM_BATCH_SIZE}.
+   */
+  public static <T> Stream<T> stream(Session session, Query<T> query) {
+    return stream(session, query, ConfigurationHelper.getInt(
+        SpannerSettings.RESULT_STREAM_BATCH_SIZE, session.getSessionFactory().getProperties(),
+        DEFAULT_BATCH_SIZE));
+  }
+
+  /**
+   * Returns the results of the query of the session as a stream of batches of the given size.
+   */
+  public static <T> Stream<T> stream(Session session, Query<T> query, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+    }
+    query.setReadOnly(true);
+    query.setFetchSize(batchSize);
+    Stream<T> results = query.stream();
+    Iterator<T> batches = new BatchIterator<>(session, results.iterator(), batchSize);
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+        .onClose(results::close);
+  }
+
+  /**
+   * Reads the results in batches, and evicts the entities which the previous batch added to the
+   * persistence context before it reads the next one.
+   */
+  private static class BatchIterator<T> implements Iterator<T> {
+
+    private final Session session;
+
+    private final PersistenceContext persistenceContext;
+
+    private final Iterator<T> results;
+
+    private final int batchSize;
+
+    private final List<T> batch = new ArrayList<>();
+
+    private final Set<EntityKey> managedEntities = new HashSet<>();
+
+    private int position;
+
+    BatchIterator(Session session, Iterator<T> results, int batchSize) {
+      this.session = session;
+      this.persistenceContext = session.unwrap(SessionImplementor.class).getPersistenceContext();
+      this.results = results;
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (this.position == this.batch.size()) {
+        this.batch.forEach(this::evict);
+        this.batch.clear();
+        this.position = 0;
+        this.managedEntities.clear();
+        this.managedEntities.addAll(this.persistenceContext.getEntitiesByKey().keySet());
+        while (this.batch.size() < this.batchSize && this.results.hasNext()) {
+          this.batch.add(this.results.next());
+        }
+      }
+      return this.position < this.batch.size();
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.batch.get(this.position++);
+    }
+
+    private void evict(Object result) {
+      if (result instanceof Object[]) {
+        for (Object value : (Object[]) result) {
+          evict(value);
+        }
+      } else if (result != null) {
+        EntityEntry entry = this.persistenceContext.getEntry(result);
+        if (entry != null && !this.managedEntities.contains(entry.getEntityKey())) {
+          this.session.evict(result);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.Value;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads queries from a snapshot of the database at a rounded timestamp, and caches their results
+ * until the next snapshot, so that repeated queries such as those of a dashboard are only executed
+ * once per snapshot.
+ *
+ * <p>A query with a snapshot granularity of {@code 5s} is read at the current time rounded down
+ * to a multiple of five seconds. Its results are cached by the SQL statement, the parameters and
+ * the timestamp of the snapshot. The cached results are therefore exactly what Spanner returns at
+ * that timestamp, and all application instances read the same snapshot. The cache does not have
+ * to be invalidated by writes, as the next snapshot is read once the granularity has passed.
+ *
+ * <p>The snapshot of a query is set with a query hint:
+ *
+ * <pre>
+ * session.createQuery("select o.region, sum(o.total) from Order o group by o.region")
+ *     .addQueryHint(SpannerSnapshotCache.hint("5s"))
+ *     .list();
+ * </pre>
+ *
+ * <p>Like a {@link SpannerStaleReads staleness}, the snapshot is only applied to the queries which
+ * are executed as single-use read-only transactions, i.e. in the read-only transactions of a
+ * session factory with
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_SINGLE_USE_READS} enabled. The
+ * results of the other queries are neither read from nor put into the cache. Each session factory
+ * caches the results of up to
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#SNAPSHOT_CACHE_MAX_ENTRIES} queries,
+ * and evicts the least recently used results beyond that.
+ */
+public final class SpannerSnapshotCache {
+
+  /**
+   * The name of the query hint which sets the snapshot granularity of a query.
+   */
+  public static final String HINT = "org.hibernate.spanner.snapshot";
+
+  static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static final Pattern GRANULARITY = Pattern.compile("(\\d+)(s|ms)");
+
+  private static final Pattern HINT_COMMENT =
+      Pattern.compile("^(?:/\\*.*?\\*/\\s*)*/\\* " + Pattern.quote(HINT) + "=(\\S+) \\*/");
+
+  private final Map<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final int maxEntries;
+
+  private final LongSupplier clock;
+
+  SpannerSnapshotCache(int maxEntries, LongSupplier clock) {
+    this.maxEntries = maxEntries;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the query hint which sets the given snapshot granularity, which is a positive number
+   * followed by one of the units {@code s} or {@code ms}, e.g. {@code 5s}.
+   */
+  public static String hint(String granularity) {
+    parse(granularity);
+    return HINT + "=" + granularity;
+  }
+
+  /**
+   * Returns the snapshot granularity of the given query hint, or null if it is not a snapshot
+   * hint.
+   */
+  public static String getGranularity(String hint) {
+    return hint.startsWith(HINT + "=") ? hint.substring(HINT.length() + 1) : null;
+  }
+
+  /**
+   * Parses a snapshot granularity in the format of {@link #hint}, and returns it in milliseconds.
+   */
+  public static long parse(String granularity) {
+    Matcher matcher = GRANULARITY.matcher(granularity);
+    long millis = matcher.matches() ? Long.parseLong(matcher.group(1)) : 0L;
+    if (millis <= 0L) {
+      throw new IllegalArgumentException("Invalid snapshot granularity '" + granularity
+          + "', expected a positive duration in s or ms, e.g. 5s");
+    }
+    return matcher.group(2).equals("s") ? TimeUnit.SECONDS.toMillis(millis) : millis;
+  }
+
+  /**
+   * Returns the snapshot granularity in milliseconds of the hint which the dialect has put in a
+   * comment at the start of the given SQL statement, or null if there is none.
+   */
+  static Long getGranularityOfStatement(String sql) {
+    if (!sql.startsWith("/*")) {
+      return null;
+    }
+    Matcher matcher = HINT_COMMENT.matcher(sql);
+    return matcher.find() ? parse(matcher.group(1)) : null;
+  }
+
+  /**
+   * Returns a statement whose queries are read from the snapshot of the given granularity, and
+   * whose results are cached.
+   */
+  PreparedStatement wrap(
+      PreparedStatement statement, String sql, Connection connection, long granularity) {
+    return (PreparedStatement) Proxy.newProxyInstance(
+        SnapshotStatement.class.getClassLoader(),
+        new Class<?>[] {PreparedStatement.class},
+        new SnapshotStatement(this, statement, sql, connection, granularity));
+  }
+
+  /**
+   * Returns the timestamp in milliseconds of the current snapshot of the given granularity.
+   */
+  long getSnapshotTimestamp(long granularity) {
+    long now = this.clock.getAsLong();
+    return now - Math.floorMod(now, granularity);
+  }
+
+  /**
+   * Returns the cached results of the given key, or null if they are not cached or belong to a
+   * past snapshot.
+   */
+  synchronized CachedResultSet get(List<Object> key) {
+    Entry entry = this.entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt <= this.clock.getAsLong()) {
+      this.entries.remove(key);
+      return null;
+    }
+    return entry.results;
+  }
+
+  /**
+   * Caches the given results until the given time in milliseconds, at which the next snapshot
+   * begins.
+   */
+  synchronized void put(List<Object> key, CachedResultSet results, long expiresAt) {
+    long now = this.clock.getAsLong();
+    this.entries.values().removeIf(entry -> entry.expiresAt <= now);
+    this.entries.put(key, new Entry(results, expiresAt));
+    Iterator<Entry> leastRecentlyUsed = this.entries.values().iterator();
+    while (this.entries.size() > this.maxEntries) {
+      leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+    }
+  }
+
+  /**
+   * Returns the number of cached results.
+   */
+  synchronized int size() {
+    return this.entries.size();
+  }
+
+  private static final class Entry {
+
+    private final CachedResultSet results;
+
+    private final long expiresAt;
+
+    private Entry(CachedResultSet results, long expiresAt) {
+      this.results = results;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * A {@link PreparedStatement} whose queries are read from a snapshot, and whose results are
+   * cached by their SQL statement, parameters and snapshot.
+   */
+  private static class SnapshotStatement implements InvocationHandler {
+
+    private final SpannerSnapshotCache cache;
+
+    private final PreparedStatement statement;
+
+    private final String sql;
+
+    private final Connection connection;
+
+    private final long granularity;
+
+    private final Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+
+    private SnapshotStatement(SpannerSnapshotCache cache, PreparedStatement statement,
+        String sql, Connection connection, long granularity) {
+      this.cache = cache;
+      this.statement = statement;
+      this.sql = sql;
+      this.connection = connection;
+      this.granularity = granularity;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      switch (name) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "executeQuery":
+          if (args == null) {
+            return executeQuery((Statement) proxy);
+          }
+          break;
+        case "clearParameters":
+          this.parameters.clear();
+          break;
+        default:
+          if (name.startsWith("set") && args != null && args.length > 1
+              && args[0] instanceof Integer) {
+            this.parameters.put((Integer) args[0], new RecordedParameter(method, args));
+          }
+          break;
+      }
+      try {
+        return method.invoke(this.statement, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    private ResultSet executeQuery(Statement proxy) throws Exception {
+      if (!SpannerStaleReads.isSingleUseRead(this.connection)) {
+        return this.statement.executeQuery();
+      }
+      long timestamp = this.cache.getSnapshotTimestamp(this.granularity);
+      TimestampBound snapshot = TimestampBound.ofReadTimestamp(
+          Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(timestamp)));
+      List<Object> key = getKey(timestamp);
+      if (key == null) {
+        return SpannerStaleReads.withStaleness(
+            this.connection, snapshot, this.statement::executeQuery);
+      }
+      CachedResultSet results = this.cache.get(key);
+      if (results == null) {
+        results = SpannerStaleReads.withStaleness(this.connection, snapshot,
+            () -> CachedResultSet.read(this.statement.executeQuery()));
+        this.cache.put(key, results, timestamp + this.granularity);
+      }
+      return results.open(proxy);
+    }
+
+    /**
+     * Returns the SQL statement, the values of the parameters and the timestamp of the snapshot,
+     * or null if a parameter cannot be compared, e.g. because it was set as a stream.
+     */
+    private List<Object> getKey(long timestamp) throws SQLException {
+      List<Value> values = new ArrayList<>();
+      for (RecordedParameter parameter : this.parameters.values()) {
+        Value value = parameter.toValue();
+        if (value == null) {
+          return null;
+        }
+        values.add(value);
+      }
+      return Arrays.asList(this.sql, values, timestamp);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Applies an exact or bounded staleness to individual reads, so that strong and stale reads can
+ * be mixed in one session.
+ *
+ * <p>Spanner only reads stale data in read-only transactions. A staleness is therefore only
+ * applied to the reads which are executed as single-use read-only transactions, i.e. in the
+ * read-only transactions of a session factory with
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_SINGLE_USE_READS} enabled. Reads
+ * in read/write transactions are strong reads. The staleness is set on the connection just before
+ * the read and reset right after it, which are both handled by the JDBC driver without a round
+ * trip to Spanner.
+ *
+ * <p>The staleness of a query is set with a query hint:
+ *
+ * <pre>
+ * session.createQuery("from Venue", Venue.class)
+ *     .addQueryHint(SpannerStaleReads.hint("max:10s"))
+ *     .list();
+ * </pre>
+ *
+ * <p>Entities whose class is annotated with {@link com.google.cloud.spanner.hibernate.StaleRead}
+ * are loaded with the staleness of the annotation.
+ */
+public final class SpannerStaleReads {
+
+  /**
+   * The name of the query hint which sets the staleness of a query.
+   */
+  public static final String HINT = "org.hibernate.spanner.staleness";
+
+  private static final Pattern STALENESS = Pattern.compile("(max|exact):(\\d+)(s|ms|us|ns)");
+
+  private static final Pattern HINT_COMMENT =
+      Pattern.compile("^(?:/\\*.*?\\*/\\s*)*/\\* " + Pattern.quote(HINT) + "=(\\S+) \\*/");
+
+  private SpannerStaleReads() {
+  }
+
+  /**
+   * Returns the query hint which sets the given staleness, which is either
+   * {@code max:<duration>} for a bounded staleness, or {@code exact:<duration>} for an exact
+   * staleness. The duration is a number followed by one of the units {@code s}, {@code ms},
+   * {@code us} or {@code ns}, e.g. {@code max:10s}.
+   */
+  public static String hint(String staleness) {
+    parse(staleness);
+    return HINT + "=" + staleness;
+  }
+
+  /**
+   * Returns the staleness of the given query hint, or null if it is not a staleness hint.
+   */
+  public static String getStaleness(String hint) {
+    return hint.startsWith(HINT + "=") ? hint.substring(HINT.length() + 1) : null;
+  }
+
+  /**
+   * Parses a staleness in the format of {@link #hint}.
+   */
+  public static TimestampBound parse(String staleness) {
+    Matcher matcher = STALENESS.matcher(staleness);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Invalid staleness '" + staleness
+          + "', expected max:<duration> or exact:<duration>, e.g. max:10s");
+    }
+    long duration = Long.parseLong(matcher.group(2));
+    TimeUnit unit;
+    switch (matcher.group(3)) {
+      case "ms":
+        unit = TimeUnit.MILLISECONDS;
+        break;
+      case "us":
+        unit = TimeUnit.MICROSECONDS;
+        break;
+      case "ns":
+        unit = TimeUnit.NANOSECONDS;
+        break;
+      default:
+        unit = TimeUnit.SECONDS;
+        break;
+    }
+    return matcher.group(1).equals("max")
+        ? TimestampBound.ofMaxStaleness(duration, unit)
+        : TimestampBound.ofExactStaleness(duration, unit);
+  }
+
+  /**
+   * Runs the given reads of the session with the given staleness, if they are executed as
+   * single-use read-only transactions, or else with a strong read.
+   */
+  public static <T> T read(SharedSessionContractImplementor session, TimestampBound staleness,
+      Supplier<T> reads) {
+    if (staleness == null) {
+      return reads.get();
+    }
+    Connection connection =
+        session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+    try {
+      return withStaleness(connection, staleness, reads::get);
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(
+          e, "Could not set the read-only staleness");
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the staleness of the hint which the dialect has put in a comment at the start of the
+   * given SQL statement, possibly after the comment of the query, or null if there is none.
+   */
+  static TimestampBound getStalenessOfStatement(String sql) {
+    if (!sql.startsWith("/*")) {
+      return null;
+    }
+    Matcher matcher = HINT_COMMENT.matcher(sql);
+    return matcher.find() ? parse(matcher.group(1)) : null;
+  }
+
+  /**
+   * Calls the given reads with the given read-only staleness of the connection if the connection
+   * executes them as single-use read-only transactions. The previous staleness is restored
+   * afterwards.
+   */
+  static <T> T withStaleness(Connection connection, TimestampBound staleness, Callable<T> reads)
+      throws Exception {
+    if (!isSingleUseRead(connection)) {
+      return reads.call();
+    }
+    CloudSpannerJdbcConnection spannerConnection =
+        connection.unwrap(CloudSpannerJdbcConnection.class);
+    TimestampBound previousStaleness = spannerConnection.getReadOnlyStaleness();
+    spannerConnection.setReadOnlyStaleness(staleness);
+    try {
+      return reads.call();
+    } finally {
+      spannerConnection.setReadOnlyStaleness(previousStaleness);
+    }
+  }
+
+  /**
+   * Returns whether the given connection executes its queries as single-use read-only
+   * transactions.
+   */
+  static boolean isSingleUseRead(Connection connection) throws SQLException {
+    if (!connection.isWrapperFor(CloudSpannerJdbcConnection.class)) {
+      return false;
+    }
+    // The connection may emulate a transaction, so the state of the Spanner connection is used.
+    CloudSpannerJdbcConnection spannerConnection =
+        connection.unwrap(CloudSpannerJdbcConnection.class);
+    return spannerConnection.getAutoCommit() && spannerConnection.isReadOnly();
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import javax.transaction.Synchronization;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.engine.transaction.spi.TransactionObserver;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PreCollectionRecreateEvent;
+import org.hibernate.event.spi.PreCollectionRecreateEventListener;
+import org.hibernate.event.spi.PreCollectionRemoveEvent;
+import org.hibernate.event.spi.PreCollectionRemoveEventListener;
+import org.hibernate.event.spi.PreCollectionUpdateEvent;
+import org.hibernate.event.spi.PreCollectionUpdateEventListener;
+import org.hibernate.event.spi.PreDeleteEvent;
+import org.hibernate.event.spi.PreDeleteEventListener;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.resource.jdbc.spi.LogicalConnectionImplementor;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.hibernate.resource.transaction.internal.TransactionCoordinatorBuilderInitiator;
+import org.hibernate.resource.transaction.spi.DdlTransactionIsolator;
+import org.hibernate.resource.transaction.spi.TransactionCoordinator;
+import org.hibernate.resource.transaction.spi.TransactionCoordinatorBuilder;
+import org.hibernate.resource.transaction.spi.TransactionCoordinatorOwner;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.tool.schema.internal.exec.JdbcContext;
+
+/**
+ * A {@link TransactionCoordinatorBuilder} which makes the connection of a session read-only when
+ * the session begins a transaction which is explicitly read-only. It is enabled by the
+ * {@link SpannerSettings#USE_SINGLE_USE_READS} setting, together with the
+ * {@link SpannerConnectionProvider}, whose connections then execute the queries of the
+ * transaction as single-use read-only transactions.
+ *
+ * <p>A transaction is explicitly read-only if the {@link #READ_ONLY_HINT} property of its session
+ * is {@code true} when it begins. Spring makes the connection read-only itself for
+ * {@code @Transactional(readOnly = true)} methods, so their transactions need no hint. A session
+ * which is only read-only by default still begins a read/write transaction, as it may write
+ * entities which it did not load as read-only.
+ *
+ * <p>If the session executes an entity or collection write in a transaction which it made
+ * read-only, the connection falls back to a read/write transaction for the rest of the
+ * transaction. The connection is made read/write again when the transaction completes, before it
+ * is released.
+ *
+ * <p>The transaction coordinators are built by the {@link TransactionCoordinatorBuilder} which
+ * Hibernate would otherwise use. JTA transactions are left as they are.
+ */
+public class SpannerTransactionCoordinatorBuilder implements TransactionCoordinatorBuilder {
+
+  /**
+   * The session property which makes the transactions of the session read-only, e.g.
+   * {@code session.setProperty(READ_ONLY_HINT, true)}.
+   */
+  public static final String READ_ONLY_HINT = "org.hibernate.spanner.read_only";
+
+  private static final long serialVersionUID = 1L;
+
+  private final TransactionCoordinatorBuilder delegate;
+
+  /**
+   * Creates a transaction coordinator builder which wraps the standard Hibernate builder.
+   */
+  public SpannerTransactionCoordinatorBuilder(
+      Map configurationValues, ServiceRegistryImplementor serviceRegistry) {
+    this.delegate = TransactionCoordinatorBuilderInitiator.INSTANCE
+        .initiateService(configurationValues, serviceRegistry);
+  }
+
+  /**
+   * Registers the listeners which make the connection of a read-only transaction read/write
+   * before the session writes an entity or a collection.
+   */
+  public void registerEventListeners(EventListenerRegistry eventListenerRegistry) {
+    eventListenerRegistry.appendListeners(EventType.PRE_INSERT, ReadWriteFallback.INSTANCE);
+    eventListenerRegistry.appendListeners(EventType.PRE_UPDATE, ReadWriteFallback.INSTANCE);
+    eventListenerRegistry.appendListeners(EventType.PRE_DELETE, ReadWriteFallback.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_RECREATE, ReadWriteFallback.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_UPDATE, ReadWriteFallback.INSTANCE);
+    eventListenerRegistry.appendListeners(
+        EventType.PRE_COLLECTION_REMOVE, ReadWriteFallback.INSTANCE);
+  }
+
+  private static boolean isReadOnly(SessionImplementor session) {
+    return ConfigurationHelper.getBoolean(READ_ONLY_HINT, session.getProperties(), false);
+  }
+
+  @Override
+  public TransactionCoordinator buildTransactionCoordinator(
+      TransactionCoordinatorOwner owner, Options options) {
+    TransactionCoordinator transactionCoordinator =
+        this.delegate.buildTransactionCoordinator(owner, options);
+    // The options are the session which the transaction coordinator is built for.
+    if (!this.delegate.isJta() && options instanceof SessionImplementor) {
+      transactionCoordinator.addObserver(
+          new ReadOnlyTransactionObserver((SessionImplementor) options));
+    }
+    return transactionCoordinator;
+  }
+
+  @Override
+  public boolean isJta() {
+    return this.delegate.isJta();
+  }
+
+  @Override
+  public PhysicalConnectionHandlingMode getDefaultConnectionHandlingMode() {
+    return this.delegate.getDefaultConnectionHandlingMode();
+  }
+
+  @Override
+  public DdlTransactionIsolator buildDdlTransactionIsolator(JdbcContext jdbcContext) {
+    return this.delegate.buildDdlTransactionIsolator(jdbcContext);
+  }
+
+  /**
+   * Makes the connection read-only when a session begins an explicitly read-only transaction
+   * without pending writes.
+   */
+  private static class ReadOnlyTransactionObserver implements TransactionObserver {
+
+    private final SessionImplementor session;
+
+    ReadOnlyTransactionObserver(SessionImplementor session) {
+      this.session = session;
+    }
+
+    @Override
+    public void afterBegin() {
+      if (!isReadOnly(this.session) || this.session.getActionQueue().hasAnyQueuedActions()) {
+        return;
+      }
+      Connection connection =
+          this.session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+      try {
+        if (connection.isReadOnly()) {
+          return;
+        }
+        connection.setReadOnly(true);
+      } catch (SQLException e) {
+        throw this.session.getJdbcServices().getSqlExceptionHelper().convert(
+            e, "Could not make the connection of a read-only session read-only");
+      }
+      // Local synchronizations are notified before the connection is released.
+      this.session.getTransactionCoordinator().getLocalSynchronizations()
+          .registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              try {
+                connection.setReadOnly(false);
+              } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(
+                    e, "Could not make the connection of a read-only session read/write");
+              }
+            }
+          });
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    @Override
+    public void afterCompletion(boolean successful, boolean delayed) {
+    }
+  }
+
+  /**
+   * Makes the connection of an explicitly read-only transaction read/write before the session
+   * writes an entity or a collection, so that the rest of the transaction is executed as a
+   * read/write transaction.
+   */
+  private static class ReadWriteFallback implements PreInsertEventListener,
+      PreUpdateEventListener, PreDeleteEventListener, PreCollectionRecreateEventListener,
+      PreCollectionUpdateEventListener, PreCollectionRemoveEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    static final ReadWriteFallback INSTANCE = new ReadWriteFallback();
+
+    @Override
+    public boolean onPreInsert(PreInsertEvent event) {
+      makeReadWrite(event.getSession());
+      return false;
+    }
+
+    @Override
+    public boolean onPreUpdate(PreUpdateEvent event) {
+      makeReadWrite(event.getSession());
+      return false;
+    }
+
+    @Override
+    public boolean onPreDelete(PreDeleteEvent event) {
+      makeReadWrite(event.getSession());
+      return false;
+    }
+
+    @Override
+    public void onPreRecreateCollection(PreCollectionRecreateEvent event) {
+      makeReadWrite(event.getSession());
+    }
+
+    @Override
+    public void onPreUpdateCollection(PreCollectionUpdateEvent event) {
+      makeReadWrite(event.getSession());
+    }
+
+    @Override
+    public void onPreRemoveCollection(PreCollectionRemoveEvent event) {
+      makeReadWrite(event.getSession());
+    }
+
+    private static void makeReadWrite(SharedSessionContractImplementor session) {
+      if (!(session instanceof SessionImplementor) || !isReadOnly((SessionImplementor) session)) {
+        return;
+      }
+      LogicalConnectionImplementor logicalConnection =
+          session.getJdbcCoordinator().getLogicalConnection();
+      if (!logicalConnection.isPhysicallyConnected()) {
+        return;
+      }
+      Connection connection = logicalConnection.getPhysicalConnection();
+      try {
+        if (connection.isReadOnly()) {
+          connection.setReadOnly(false);
+        }
+      } catch (SQLException e) {
+        throw session.getJdbcServices().getSqlExceptionHelper().convert(
+            e, "Could not make the connection of a read-only transaction read/write");
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Writes entities to Spanner as insert-or-update mutations.
+ *
+ * <p>An upsert is a blind write: unlike {@code Session.merge()} and {@code saveOrUpdate()}, it
+ * does not read the row first to decide between an insert and an update. The complete state of
+ * the entity is written, so it is only suited for entities whose state is fully known.
+ */
+public final class SpannerUpsert {
+
+  private SpannerUpsert() {
+  }
+
+  /**
+   * Writes the state of the given entity to its row, which is inserted if it does not exist yet.
+   * The identifier of the entity must already be assigned, and the entity must be mapped to a
+   * single table. The entity is not attached to the session, and its second-level cache entry is
+   * evicted.
+   *
+   * <p>If the session buffers its entity writes as mutations, the upsert is buffered with the
+   * other writes of the transaction. Otherwise the mutation is applied when the transaction
+   * commits, after all DML statements of the transaction, and is not visible to the queries of the
+   * transaction.
+   */
+  public static void upsert(Session session, Object entity) {
+    SharedSessionContractImplementor sessionImplementor =
+        session.unwrap(SharedSessionContractImplementor.class);
+    EntityPersister persister = sessionImplementor.getEntityPersister(null, entity);
+    if (!(persister instanceof AbstractEntityPersister)
+        || ((AbstractEntityPersister) persister).getTableSpan() != 1) {
+      throw new IllegalArgumentException("Entity " + persister.getEntityName()
+          + " cannot be upserted, as it is not mapped to a single table.");
+    }
+    AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+    Serializable id = entityPersister.getIdentifier(entity, sessionImplementor);
+    if (id == null) {
+      throw new IllegalArgumentException(
+          "Entity " + persister.getEntityName() + " cannot be upserted without an identifier.");
+    }
+    Object[] fields = entityPersister.getPropertyValuesToInsert(
+        entity, Collections.emptyMap(), sessionImplementor);
+    String sql = entityPersister.getSQLInsertStrings()[0];
+
+    session.doWork(connection -> {
+      ParameterRecorder recorder = new ParameterRecorder(null);
+      entityPersister.dehydrate(id, fields, entityPersister.getPropertyInsertability(),
+          entityPersister.getPropertyColumnInsertable(), 0, recorder.getProxy(),
+          sessionImplementor, false);
+      Mutation insert = DmlMutations.toMutation(sql, recorder.getParameters());
+      if (insert == null) {
+        throw new IllegalArgumentException("Entity " + persister.getEntityName()
+            + " cannot be upserted, as its values cannot be written as a mutation.");
+      }
+      MutationBufferingConnection.writeUpsert(connection, sql, recorder.getParameters(),
+          DmlMutations.toInsertOrUpdate(insert),
+          Arrays.asList(entityPersister.getIdentifierColumnNames()));
+    });
+
+    if (entityPersister.canWriteToCache()) {
+      session.getSessionFactory().getCache().evictEntityData(persister.getEntityName(), id);
+    }
+  }
+}
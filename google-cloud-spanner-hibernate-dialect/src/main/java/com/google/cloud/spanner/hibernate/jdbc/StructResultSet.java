@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import com.google.cloud.Date;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.StructReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * Exposes the rows of a Spanner {@link ResultSet} as a forward-only JDBC
+ * {@link java.sql.ResultSet}, so that Hibernate can read entities from rows which were not
+ * returned by the JDBC driver, such as the rows of a partition of a query.
+ *
+ * <p>Only the getters of scalar values are supported, by column index or label.
+ */
+class StructResultSet implements InvocationHandler {
+
+  private final ResultSet resultSet;
+
+  private final Statement statement;
+
+  private boolean wasNull;
+
+  private boolean closed;
+
+  private StructResultSet(ResultSet resultSet, Statement statement) {
+    this.resultSet = resultSet;
+    this.statement = statement;
+  }
+
+  static java.sql.ResultSet wrap(ResultSet resultSet, Statement statement) {
+    return (java.sql.ResultSet) Proxy.newProxyInstance(
+        StructResultSet.class.getClassLoader(),
+        new Class<?>[] {java.sql.ResultSet.class},
+        new StructResultSet(resultSet, statement));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    switch (name) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "next":
+        return this.resultSet.next();
+      case "close":
+        if (!this.closed) {
+          this.closed = true;
+          this.resultSet.close();
+        }
+        return null;
+      case "isClosed":
+        return this.closed;
+      case "wasNull":
+        return this.wasNull;
+      case "findColumn":
+        return this.resultSet.getColumnIndex((String) args[0]) + 1;
+      case "getStatement":
+        return this.statement;
+      case "getWarnings":
+        return null;
+      case "clearWarnings":
+      case "setFetchSize":
+        return null;
+      case "isWrapperFor":
+        return false;
+      default:
+        break;
+    }
+    if (name.startsWith("get") && args != null && args.length == 1) {
+      int index = args[0] instanceof Integer
+          ? (Integer) args[0] - 1
+          : this.resultSet.getColumnIndex((String) args[0]);
+      return getValue(name, index);
+    }
+    throw new SQLFeatureNotSupportedException(
+        "The rows of a Spanner result set do not support " + name);
+  }
+
+  private Object getValue(String getter, int index) throws SQLException {
+    this.wasNull = this.resultSet.isNull(index);
+    return convert(this.wasNull ? null : getObject(this.resultSet, index), getter);
+  }
+
+  /**
+   * Converts a value which was read with {@link #getObject(StructReader, int)} to the result of
+   * the given JDBC getter.
+   */
+  static Object convert(Object value, String getter) throws SQLException {
+    switch (getter) {
+      case "getObject":
+        return value;
+      case "getString":
+        return value == null ? null : value.toString();
+      case "getBoolean":
+        return value != null && (Boolean) value;
+      case "getByte":
+        return value == null ? (byte) 0 : ((Number) value).byteValue();
+      case "getShort":
+        return value == null ? (short) 0 : ((Number) value).shortValue();
+      case "getInt":
+        return value == null ? 0 : ((Number) value).intValue();
+      case "getLong":
+        return value == null ? 0L : ((Number) value).longValue();
+      case "getFloat":
+        return value == null ? 0f : ((Number) value).floatValue();
+      case "getDouble":
+        return value == null ? 0d : ((Number) value).doubleValue();
+      case "getBigDecimal":
+        return value == null || value instanceof BigDecimal
+            ? value : new BigDecimal(value.toString());
+      case "getBytes":
+      case "getTimestamp":
+      case "getDate":
+        return value;
+      default:
+        throw new SQLFeatureNotSupportedException(
+            "The rows of a Spanner result set do not support " + getter);
+    }
+  }
+
+  /**
+   * Returns the JDBC value of the given non-null column of a Spanner row.
+   */
+  static Object getObject(StructReader row, int index) throws SQLException {
+    switch (row.getColumnType(index).getCode()) {
+      case BOOL:
+        return row.getBoolean(index);
+      case INT64:
+        return row.getLong(index);
+      case FLOAT64:
+        return row.getDouble(index);
+      case NUMERIC:
+        return row.getBigDecimal(index);
+      case STRING:
+        return row.getString(index);
+      case BYTES:
+        return row.getBytes(index).toByteArray();
+      case TIMESTAMP:
+        return row.getTimestamp(index).toSqlTimestamp();
+      case DATE:
+        Date date = row.getDate(index);
+        return java.sql.Date.valueOf(
+            LocalDate.of(date.getYear(), date.getMonth(), date.getDayOfMonth()));
+      default:
+        throw new SQLFeatureNotSupportedException("The rows of a Spanner result set do not "
+            + "support columns of type " + row.getColumnType(index));
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.event.internal.AbstractReassociateEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.MergeEvent;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.event.spi.SaveOrUpdateEvent;
+import org.hibernate.event.spi.SaveOrUpdateEventListener;
+import org.hibernate.id.Assigned;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Writes the entities which are passed to {@code saveOrUpdate()} and {@code merge()} with
+ * {@link SpannerUpsert}, so that Hibernate does not read their rows first to decide between an
+ * insert and an update, and attaches them to the session.
+ *
+ * <p>Only the entities with an assigned identifier which are not in the session yet are upserted,
+ * and only if they are mapped to a single table, are not versioned, and have no collections and
+ * no cascades. All other entities are handed to the listeners which this listener replaces.
+ * Inserts of {@code persist()} and {@code save()} are not affected.
+ */
+class UpsertEventListener extends AbstractReassociateEventListener
+    implements SaveOrUpdateEventListener, MergeEventListener {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<SaveOrUpdateEventListener> saveOrUpdateListeners;
+
+  private final List<MergeEventListener> mergeListeners;
+
+  private UpsertEventListener(List<SaveOrUpdateEventListener> saveOrUpdateListeners,
+      List<MergeEventListener> mergeListeners) {
+    this.saveOrUpdateListeners = saveOrUpdateListeners;
+    this.mergeListeners = mergeListeners;
+  }
+
+  /**
+   * Replaces the save-or-update and merge listeners of the registry by a listener which upserts
+   * the entities it can, and hands the others to the replaced listeners.
+   */
+  static void register(EventListenerRegistry eventListenerRegistry) {
+    UpsertEventListener listener = new UpsertEventListener(
+        getListeners(eventListenerRegistry, EventType.SAVE_UPDATE),
+        getListeners(eventListenerRegistry, EventType.MERGE));
+    eventListenerRegistry.setListeners(EventType.SAVE_UPDATE, listener);
+    eventListenerRegistry.setListeners(EventType.MERGE, listener);
+  }
+
+  @Override
+  public void onSaveOrUpdate(SaveOrUpdateEvent event) {
+    EventSource source = event.getSession();
+    Object entity = event.getObject();
+    EntityPersister persister =
+        getUpsertPersister(source, event.getEntityName(), entity, event.getRequestedId());
+    if (persister == null) {
+      for (SaveOrUpdateEventListener listener : this.saveOrUpdateListeners) {
+        listener.onSaveOrUpdate(event);
+      }
+      return;
+    }
+
+    Serializable id = persister.getIdentifier(entity, source);
+    SpannerUpsert.upsert(source, entity);
+    event.setEntry(reassociate(event, entity, id, persister));
+    event.setEntity(entity);
+    event.setResultId(id);
+  }
+
+  @Override
+  public void onMerge(MergeEvent event) {
+    EventSource source = event.getSession();
+    Object entity = event.getOriginal();
+    EntityPersister persister =
+        getUpsertPersister(source, event.getEntityName(), entity, event.getRequestedId());
+    if (persister == null) {
+      for (MergeEventListener listener : this.mergeListeners) {
+        listener.onMerge(event);
+      }
+      return;
+    }
+
+    // The entity which is passed to merge() stays detached, and a copy of it is attached.
+    Serializable id = persister.getIdentifier(entity, source);
+    SpannerUpsert.upsert(source, entity);
+    Object copy = source.instantiate(persister, id);
+    persister.setPropertyValues(copy, persister.getPropertyValues(entity));
+    reassociate(event, copy, id, persister);
+    event.setEntity(copy);
+    event.setResult(copy);
+  }
+
+  @Override
+  public void onMerge(MergeEvent event, Map copiedAlready) {
+    // Cascaded merges are never upserted, as the entities which are upserted have no cascades.
+    for (MergeEventListener listener : this.mergeListeners) {
+      listener.onMerge(event, copiedAlready);
+    }
+  }
+
+  /**
+   * Returns the persister of the given entity if it can be upserted, or null otherwise. Entities
+   * which are passed with an explicit identifier are not upserted.
+   */
+  private static EntityPersister getUpsertPersister(EventSource source, String entityName,
+      Object entity, Serializable requestedId) {
+    if (requestedId != null || entity instanceof HibernateProxy
+        || source.getPersistenceContext().isEntryFor(entity)) {
+      return null;
+    }
+    EntityPersister persister = source.getEntityPersister(entityName, entity);
+    if (!(persister instanceof AbstractEntityPersister)
+        || ((AbstractEntityPersister) persister).getTableSpan() != 1
+        || !(persister.getIdentifierGenerator() instanceof Assigned)
+        || persister.isVersioned()
+        || persister.hasCollections()
+        || persister.hasCascades()) {
+      return null;
+    }
+    Serializable id = persister.getIdentifier(entity, source);
+    if (id == null
+        || source.getPersistenceContext().getEntity(source.generateEntityKey(id, persister))
+            != null) {
+      return null;
+    }
+    return persister;
+  }
+
+  private static <T> List<T> getListeners(EventListenerRegistry eventListenerRegistry,
+      EventType<T> eventType) {
+    List<T> listeners = new ArrayList<>();
+    for (T listener : eventListenerRegistry.getEventListenerGroup(eventType).listeners()) {
+      listeners.add(listener);
+    }
+    return listeners;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.PreCollectionRecreateEvent;
+import org.hibernate.event.spi.PreCollectionRecreateEventListener;
+import org.hibernate.event.spi.PreCollectionRemoveEvent;
+import org.hibernate.event.spi.PreCollectionRemoveEventListener;
+import org.hibernate.event.spi.PreCollectionUpdateEvent;
+import org.hibernate.event.spi.PreCollectionUpdateEventListener;
+import org.hibernate.event.spi.PreDeleteEvent;
+import org.hibernate.event.spi.PreDeleteEventListener;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.resource.jdbc.spi.LogicalConnectionImplementor;
+
+/**
+ * Marks the start of each entity and collection action of a flush on the connection of the
+ * session, so that a {@link MutationBufferingConnection} only commits early between actions.
+ */
+class WriteActionListener implements PreInsertEventListener, PreUpdateEventListener,
+    PreDeleteEventListener, PreCollectionRecreateEventListener,
+    PreCollectionUpdateEventListener, PreCollectionRemoveEventListener {
+
+  private static final long serialVersionUID = 1L;
+
+  static final WriteActionListener INSTANCE = new WriteActionListener();
+
+  @Override
+  public boolean onPreInsert(PreInsertEvent event) {
+    startAction(event.getSession());
+    return false;
+  }
+
+  @Override
+  public boolean onPreUpdate(PreUpdateEvent event) {
+    startAction(event.getSession());
+    return false;
+  }
+
+  @Override
+  public boolean onPreDelete(PreDeleteEvent event) {
+    startAction(event.getSession());
+    return false;
+  }
+
+  @Override
+  public void onPreRecreateCollection(PreCollectionRecreateEvent event) {
+    startAction(event.getSession());
+  }
+
+  @Override
+  public void onPreUpdateCollection(PreCollectionUpdateEvent event) {
+    startAction(event.getSession());
+  }
+
+  @Override
+  public void onPreRemoveCollection(PreCollectionRemoveEvent event) {
+    startAction(event.getSession());
+  }
+
+  private static void startAction(SharedSessionContractImplementor session) {
+    LogicalConnectionImplementor logicalConnection =
+        session.getJdbcCoordinator().getLogicalConnection();
+    // A connection which is acquired later has not buffered any writes of earlier actions.
+    if (logicalConnection.isPhysicallyConnected()) {
+      MutationBufferingConnection.startAction(logicalConnection.getPhysicalConnection());
+    }
+  }
+}
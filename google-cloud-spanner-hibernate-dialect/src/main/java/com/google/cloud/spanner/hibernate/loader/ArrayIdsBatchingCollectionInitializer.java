@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.loader;
+
+import com.google.cloud.spanner.hibernate.types.internal.ArrayIds;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.util.StringHelper;
+import org.hibernate.internal.util.collections.ArrayHelper;
+import org.hibernate.loader.JoinWalker;
+import org.hibernate.loader.collection.BasicCollectionJoinWalker;
+import org.hibernate.loader.collection.BatchingCollectionInitializer;
+import org.hibernate.loader.collection.CollectionLoader;
+import org.hibernate.loader.collection.OneToManyJoinWalker;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.type.Type;
+
+/**
+ * A batching collection initializer which loads the collections of a batch of owners by binding
+ * their keys as one array parameter.
+ */
+class ArrayIdsBatchingCollectionInitializer extends BatchingCollectionInitializer {
+
+  private final int maxBatchSize;
+
+  private final ArrayIdsCollectionLoader loader;
+
+  ArrayIdsBatchingCollectionInitializer(QueryableCollection persister, int maxBatchSize,
+      String elementType, SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+    super(persister);
+    this.maxBatchSize = maxBatchSize;
+    this.loader = new ArrayIdsCollectionLoader(persister, elementType, factory, influencers);
+  }
+
+  @Override
+  public void initialize(Serializable id, SharedSessionContractImplementor session) {
+    Serializable[] batch = session.getPersistenceContext().getBatchFetchQueue()
+        .getCollectionBatch(collectionPersister(), id, this.maxBatchSize);
+    Serializable[] keys = Arrays.copyOf(batch, ArrayHelper.countNonNull(batch));
+    this.loader.loadCollectionBatch(session, keys, collectionPersister().getKeyType());
+  }
+
+  /**
+   * Loads collections with {@code where alias.key in unnest(?)}.
+   */
+  private static class ArrayIdsCollectionLoader extends CollectionLoader {
+
+    private final String elementType;
+
+    private final Type keyType;
+
+    ArrayIdsCollectionLoader(QueryableCollection persister, String elementType,
+        SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+      super(persister, factory, influencers);
+      this.elementType = elementType;
+      this.keyType = persister.getKeyType();
+      initFromWalker(createJoinWalker(persister, factory, influencers));
+      postInstantiate();
+    }
+
+    private static JoinWalker createJoinWalker(QueryableCollection persister,
+        SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+      if (persister.isOneToMany()) {
+        return new OneToManyJoinWalker(persister, -1, null, factory, influencers) {
+          @Override
+          protected StringBuilder whereString(
+              String alias, String[] columnNames, String subselect, int batchSize) {
+            return inArray(alias, columnNames);
+          }
+        };
+      }
+      return new BasicCollectionJoinWalker(persister, -1, null, factory, influencers) {
+        @Override
+        protected StringBuilder whereString(
+            String alias, String[] columnNames, String subselect, int batchSize) {
+          return inArray(alias, columnNames);
+        }
+      };
+    }
+
+    private static StringBuilder inArray(String alias, String[] columnNames) {
+      return new StringBuilder(StringHelper.qualify(alias, columnNames[0]))
+          .append(" in unnest(?)");
+    }
+
+    @Override
+    protected int bindParameterValues(PreparedStatement statement,
+        QueryParameters queryParameters, int startIndex, SharedSessionContractImplementor session)
+        throws SQLException {
+      ArrayIds.bind(statement, startIndex, this.elementType, this.keyType,
+          queryParameters.getPositionalParameterValues(), session);
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.loader;
+
+import com.google.cloud.spanner.hibernate.types.internal.ArrayIds;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.collection.BatchingCollectionInitializerBuilder;
+import org.hibernate.loader.collection.CollectionInitializer;
+import org.hibernate.persister.collection.QueryableCollection;
+
+/**
+ * Builds the batching initializers of collections which load the collections of a batch of
+ * owners with one statement that binds their keys as a single array parameter, e.g.
+ * {@code select ... from Album a where a.singer_id in unnest(?)}.
+ *
+ * <p>Like {@link ArrayIdsBatchingEntityLoaderBuilder}, this keeps one statement for all batch
+ * sizes. Collections with composite keys, or keys which cannot be bound as an array, and loads
+ * with enabled filters fall back to the batch fetch style of the session factory.
+ */
+public class ArrayIdsBatchingCollectionInitializerBuilder
+    extends BatchingCollectionInitializerBuilder {
+
+  public static final ArrayIdsBatchingCollectionInitializerBuilder INSTANCE =
+      new ArrayIdsBatchingCollectionInitializerBuilder();
+
+  @Override
+  protected CollectionInitializer createRealBatchingCollectionInitializer(
+      QueryableCollection persister, int maxBatchSize, SessionFactoryImplementor factory,
+      LoadQueryInfluencers influencers) {
+    String elementType = getElementType(persister, factory, influencers);
+    if (elementType == null) {
+      return BatchingCollectionInitializerBuilder.getBuilder(factory)
+          .createBatchingCollectionInitializer(persister, maxBatchSize, factory, influencers);
+    }
+    return new ArrayIdsBatchingCollectionInitializer(
+        persister, maxBatchSize, elementType, factory, influencers);
+  }
+
+  @Override
+  protected CollectionInitializer createRealBatchingOneToManyInitializer(
+      QueryableCollection persister, int maxBatchSize, SessionFactoryImplementor factory,
+      LoadQueryInfluencers influencers) {
+    String elementType = getElementType(persister, factory, influencers);
+    if (elementType == null) {
+      return BatchingCollectionInitializerBuilder.getBuilder(factory)
+          .createBatchingOneToManyInitializer(persister, maxBatchSize, factory, influencers);
+    }
+    return new ArrayIdsBatchingCollectionInitializer(
+        persister, maxBatchSize, elementType, factory, influencers);
+  }
+
+  private static String getElementType(QueryableCollection persister,
+      SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+    // The parameters of filters would have to be bound around the array parameter.
+    if (!influencers.getEnabledFilters().isEmpty()) {
+      return null;
+    }
+    return ArrayIds.getElementType(persister.getKeyType(), factory);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.loader;
+
+import com.google.cloud.spanner.hibernate.types.internal.ArrayIds;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.engine.internal.BatchFetchQueueHelper;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.util.StringHelper;
+import org.hibernate.internal.util.collections.ArrayHelper;
+import org.hibernate.loader.entity.AbstractEntityLoader;
+import org.hibernate.loader.entity.EntityJoinWalker;
+import org.hibernate.loader.entity.plan.BatchingEntityLoader;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.type.Type;
+
+/**
+ * A batching entity loader which loads the entities of a batch by binding their identifiers as
+ * one array parameter.
+ */
+class ArrayIdsBatchingEntityLoader extends BatchingEntityLoader {
+
+  private final int maxBatchSize;
+
+  private final ArrayIdsEntityLoader loader;
+
+  ArrayIdsBatchingEntityLoader(OuterJoinLoadable persister, int maxBatchSize,
+      String elementType, LockMode lockMode, SessionFactoryImplementor factory,
+      LoadQueryInfluencers influencers) {
+    super(persister);
+    this.maxBatchSize = maxBatchSize;
+    this.loader = new ArrayIdsEntityLoader(persister, elementType, lockMode, factory, influencers);
+  }
+
+  @Override
+  public Object load(Serializable id, Object optionalObject,
+      SharedSessionContractImplementor session, LockOptions lockOptions) {
+    return load(id, optionalObject, session, lockOptions, null);
+  }
+
+  @Override
+  public Object load(Serializable id, Object optionalObject,
+      SharedSessionContractImplementor session, LockOptions lockOptions, Boolean readOnly) {
+    Serializable[] batch = session.getPersistenceContext().getBatchFetchQueue()
+        .getEntityBatch(persister(), id, this.maxBatchSize, persister().getEntityMode());
+    // The batch starts with the requested identifier, followed by those of other proxies and
+    // unloaded references in the session, and is padded with nulls.
+    Serializable[] ids = Arrays.copyOf(batch, ArrayHelper.countNonNull(batch));
+    List<?> results = this.loader.loadEntityBatch(session, ids, persister().getIdentifierType(),
+        optionalObject, persister().getEntityName(), id, persister(), lockOptions, readOnly);
+    // The entities which were not found would otherwise be part of every later batch.
+    BatchFetchQueueHelper.removeNotFoundBatchLoadableEntityKeys(
+        ids, results, persister(), session);
+    return getObjectFromList(results, id, session);
+  }
+
+  /**
+   * Loads entities with {@code where alias.id in unnest(?)}.
+   */
+  private static class ArrayIdsEntityLoader extends AbstractEntityLoader {
+
+    private final String elementType;
+
+    private final Type idType;
+
+    ArrayIdsEntityLoader(OuterJoinLoadable persister, String elementType, LockMode lockMode,
+        SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+      super(persister, persister.getIdentifierType(), factory, influencers);
+      this.elementType = elementType;
+      this.idType = persister.getIdentifierType();
+      initFromWalker(new EntityJoinWalker(persister, persister.getIdentifierColumnNames(), -1,
+          lockMode, factory, influencers) {
+        @Override
+        protected StringBuilder whereString(String alias, String[] columnNames, int batchSize) {
+          return new StringBuilder(StringHelper.qualify(alias, columnNames[0]))
+              .append(" in unnest(?)");
+        }
+      });
+      postInstantiate();
+    }
+
+    @Override
+    protected int bindParameterValues(PreparedStatement statement,
+        QueryParameters queryParameters, int startIndex, SharedSessionContractImplementor session)
+        throws SQLException {
+      ArrayIds.bind(statement, startIndex, this.elementType, this.idType,
+          queryParameters.getPositionalParameterValues(), session);
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.loader;
+
+import com.google.cloud.spanner.hibernate.types.internal.ArrayIds;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.entity.BatchingEntityLoaderBuilder;
+import org.hibernate.loader.entity.UniqueEntityLoader;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+
+/**
+ * Builds the batching loaders of entities which load each batch of entities with one statement
+ * that binds their identifiers as a single array parameter, e.g.
+ * {@code select ... from Singer s where s.id in unnest(?)}.
+ *
+ * <p>Hibernate renders a batch of identifiers as {@code id in (?, ?, ...)}, so that each batch
+ * size is a different statement which Spanner has to parse and plan, and large batches can exceed
+ * the maximum number of statement parameters. The array parameter instead keeps one statement
+ * for all batch sizes, including batches of a single entity.
+ *
+ * <p>Entities with composite identifiers, or identifiers which cannot be bound as an array, and
+ * loads with enabled filters fall back to the batch fetch style of the session factory.
+ */
+public class ArrayIdsBatchingEntityLoaderBuilder extends BatchingEntityLoaderBuilder {
+
+  public static final ArrayIdsBatchingEntityLoaderBuilder INSTANCE =
+      new ArrayIdsBatchingEntityLoaderBuilder();
+
+  @Override
+  protected UniqueEntityLoader buildBatchingLoader(OuterJoinLoadable persister, int batchSize,
+      LockMode lockMode, SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+    String elementType = getElementType(persister, factory, influencers);
+    if (elementType == null) {
+      return BatchingEntityLoaderBuilder.getBuilder(factory)
+          .buildLoader(persister, batchSize, lockMode, factory, influencers);
+    }
+    return new ArrayIdsBatchingEntityLoader(
+        persister, batchSize, elementType, lockMode, factory, influencers);
+  }
+
+  @Override
+  protected UniqueEntityLoader buildBatchingLoader(OuterJoinLoadable persister, int batchSize,
+      LockOptions lockOptions, SessionFactoryImplementor factory,
+      LoadQueryInfluencers influencers) {
+    String elementType = getElementType(persister, factory, influencers);
+    if (elementType == null) {
+      return BatchingEntityLoaderBuilder.getBuilder(factory)
+          .buildLoader(persister, batchSize, lockOptions, factory, influencers);
+    }
+    return new ArrayIdsBatchingEntityLoader(
+        persister, batchSize, elementType, lockOptions.getLockMode(), factory, influencers);
+  }
+
+  private static String getElementType(OuterJoinLoadable persister,
+      SessionFactoryImplementor factory, LoadQueryInfluencers influencers) {
+    // The parameters of filters would have to be bound around the array parameter.
+    if (!influencers.getEnabledFilters().isEmpty()) {
+      return null;
+    }
+    return ArrayIds.getElementType(persister.getIdentifierType(), factory);
+  }
+}
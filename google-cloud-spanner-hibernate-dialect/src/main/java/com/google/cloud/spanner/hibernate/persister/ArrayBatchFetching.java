@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import java.util.Map;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * Helpers for the persisters of entities and collections which are fetched in batches by an
+ * array of identifiers.
+ */
+final class ArrayBatchFetching {
+
+  private ArrayBatchFetching() {
+  }
+
+  /**
+   * Returns whether {@link SpannerSettings#USE_ARRAY_BATCH_FETCH} is enabled.
+   */
+  static boolean isEnabled(Map<?, ?> settings) {
+    return ConfigurationHelper.getBoolean(SpannerSettings.USE_ARRAY_BATCH_FETCH, settings, true);
+  }
+
+  /**
+   * Returns the batch size of an entity or collection with the given mapped batch size, which is
+   * -1 if it is not mapped, or 0 if {@link SpannerSettings#USE_ARRAY_BATCH_FETCH} is disabled.
+   */
+  static int getBatchSize(int batchSize, Map<?, ?> settings) {
+    if (!isEnabled(settings)) {
+      return 0;
+    }
+    return batchSize == -1
+        ? ConfigurationHelper.getInt(AvailableSettings.DEFAULT_BATCH_FETCH_SIZE, settings, -1)
+        : batchSize;
+  }
+}
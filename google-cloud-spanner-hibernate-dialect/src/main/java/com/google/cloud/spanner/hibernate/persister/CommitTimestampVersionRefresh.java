@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Sets the version of an entity whose version is a
+ * {@link com.google.cloud.spanner.hibernate.CommitTimestamp} to the commit timestamp of the
+ * transaction which wrote it.
+ *
+ * <p>Spanner returns the commit timestamp with the response to the commit, so the version is
+ * refreshed without reading the row again. The refresh takes place before Hibernate releases the
+ * JDBC connection of the transaction.
+ */
+final class CommitTimestampVersionRefresh implements Synchronization {
+
+  private final EntityPersister persister;
+
+  private final Object entity;
+
+  private final SharedSessionContractImplementor session;
+
+  private final Connection connection;
+
+  private CommitTimestampVersionRefresh(EntityPersister persister, Object entity,
+      SharedSessionContractImplementor session, Connection connection) {
+    this.persister = persister;
+    this.entity = entity;
+    this.session = session;
+    this.connection = connection;
+  }
+
+  /**
+   * Refreshes the version of the entity once the transaction in which it has just been written
+   * commits.
+   */
+  static void register(
+      EntityPersister persister, Object entity, SharedSessionContractImplementor session) {
+    Connection connection =
+        session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+    session.getTransactionCoordinator().getLocalSynchronizations().registerSynchronization(
+        new CommitTimestampVersionRefresh(persister, entity, session, connection));
+  }
+
+  @Override
+  public void beforeCompletion() {
+  }
+
+  @Override
+  public void afterCompletion(int status) {
+    if (status != Status.STATUS_COMMITTED) {
+      return;
+    }
+    Timestamp commitTimestamp = getCommitTimestamp();
+    if (commitTimestamp == null) {
+      return;
+    }
+    int versionProperty = this.persister.getVersionProperty();
+    EntityEntry entry = this.session.getPersistenceContextInternal().getEntry(this.entity);
+    if (entry == null || entry.getLoadedState() == null) {
+      this.persister.setPropertyValue(this.entity, versionProperty, commitTimestamp);
+      return;
+    }
+    Object[] loadedState = entry.getLoadedState().clone();
+    loadedState[versionProperty] = commitTimestamp;
+    entry.postUpdate(this.entity, loadedState, commitTimestamp);
+  }
+
+  private Timestamp getCommitTimestamp() {
+    try {
+      if (!this.connection.isWrapperFor(CloudSpannerJdbcConnection.class)) {
+        return null;
+      }
+      return this.connection.unwrap(CloudSpannerJdbcConnection.class).getCommitTimestamp();
+    } catch (SQLException e) {
+      throw this.session.getJdbcServices().getSqlExceptionHelper().convert(
+          e, "Could not get the commit timestamp of the transaction");
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.hibernate.CommitTimestampGeneration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.sql.Update;
+import org.hibernate.tuple.NonIdentifierAttribute;
+import org.hibernate.tuple.entity.EntityMetamodel;
+
+/**
+ * Helpers for the persisters of entities with
+ * {@link com.google.cloud.spanner.hibernate.CommitTimestamp} properties.
+ */
+final class CommitTimestamps {
+
+  private CommitTimestamps() {
+  }
+
+  /**
+   * Returns whether the entity or one of its superclasses has a commit timestamp property.
+   */
+  static boolean hasCommitTimestamp(PersistentClass persistentClass) {
+    Iterator<?> properties = persistentClass.getPropertyClosureIterator();
+    while (properties.hasNext()) {
+      if (((Property) properties.next()).getValueGenerationStrategy()
+          instanceof CommitTimestampGeneration) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the nullability of the properties of the entity, in which the commit timestamp
+   * properties are nullable. Their values are only assigned by Spanner, so they are null in the
+   * entity when it is written even if their columns are not.
+   */
+  static boolean[] getPropertyNullability(EntityMetamodel entityMetamodel) {
+    NonIdentifierAttribute[] properties = entityMetamodel.getProperties();
+    boolean[] nullability = entityMetamodel.getPropertyNullability().clone();
+    for (int i = 0; i < properties.length; i++) {
+      if (properties[i].getValueGenerationStrategy() instanceof CommitTimestampGeneration) {
+        nullability[i] = true;
+      }
+    }
+    return nullability;
+  }
+
+  /**
+   * Returns the updateability of the properties of the entity, in which the commit timestamp
+   * properties are not updateable. The updates of the entity set the columns of the commit
+   * timestamp properties which are generated on updates to the commit timestamp instead, and
+   * leave the columns of the properties which are only generated on inserts unchanged.
+   */
+  static boolean[] getPropertyUpdateability(EntityMetamodel entityMetamodel) {
+    NonIdentifierAttribute[] properties = entityMetamodel.getProperties();
+    boolean[] updateability = entityMetamodel.getPropertyUpdateability().clone();
+    for (int i = 0; i < properties.length; i++) {
+      if (properties[i].getValueGenerationStrategy() instanceof CommitTimestampGeneration) {
+        updateability[i] = false;
+      }
+    }
+    return updateability;
+  }
+
+  /**
+   * Returns the columns of the commit timestamp properties which are generated on updates,
+   * grouped by the names of their tables.
+   */
+  static Map<String, List<String>> getUpdateColumns(AbstractEntityPersister persister) {
+    NonIdentifierAttribute[] properties = persister.getEntityMetamodel().getProperties();
+    Map<String, List<String>> columns = new HashMap<>();
+    for (int i = 0; i < properties.length; i++) {
+      if (properties[i].getValueGenerationStrategy() instanceof CommitTimestampGeneration
+          && properties[i].getValueGenerationStrategy().getGenerationTiming().includesUpdate()) {
+        String table = ((OuterJoinLoadable) persister).getPropertyTableName(
+            properties[i].getName());
+        Collections.addAll(
+            columns.computeIfAbsent(table, key -> new ArrayList<>()),
+            persister.getPropertyColumnNames(i));
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns an {@link Update} which sets the given commit timestamp columns of its table to
+   * {@code PENDING_COMMIT_TIMESTAMP()} in addition to its other columns.
+   */
+  static Update createUpdate(Dialect dialect, Map<String, List<String>> updateColumns) {
+    return new Update(dialect) {
+      @Override
+      public Update setTableName(String tableName) {
+        super.setTableName(tableName);
+        for (String column : updateColumns.getOrDefault(tableName, Collections.emptyList())) {
+          addColumn(column, CommitTimestampGeneration.PENDING_COMMIT_TIMESTAMP);
+        }
+        return this;
+      }
+    };
+  }
+
+  /**
+   * Returns whether the version of the entity is a commit timestamp property.
+   */
+  static boolean isCommitTimestampVersion(EntityMetamodel entityMetamodel) {
+    return entityMetamodel.isVersioned()
+        && entityMetamodel.getProperties()[entityMetamodel.getVersionPropertyIndex()]
+            .getValueGenerationStrategy() instanceof CommitTimestampGeneration;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.hibernate.loader.ArrayIdsBatchingCollectionInitializerBuilder;
+import org.hibernate.MappingException;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.CollectionDataAccess;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.loader.collection.CollectionInitializer;
+import org.hibernate.mapping.Collection;
+import org.hibernate.persister.collection.BasicCollectionPersister;
+import org.hibernate.persister.spi.PersisterCreationContext;
+
+/**
+ * A {@link BasicCollectionPersister} for collections of values and many-to-many associations
+ * which are fetched in batches, which binds the keys of a batch as one array parameter.
+ */
+public class SpannerBasicCollectionPersister extends BasicCollectionPersister {
+
+  private final int arrayBatchSize;
+
+  /**
+   * Creates the persister of a collection.
+   */
+  public SpannerBasicCollectionPersister(Collection collectionBinding,
+      CollectionDataAccess cacheAccessStrategy, PersisterCreationContext creationContext)
+      throws MappingException, CacheException {
+    super(collectionBinding, cacheAccessStrategy, creationContext);
+    this.arrayBatchSize = ArrayBatchFetching.getBatchSize(collectionBinding.getBatchSize(),
+        creationContext.getSessionFactory().getProperties());
+  }
+
+  @Override
+  protected CollectionInitializer createCollectionInitializer(
+      LoadQueryInfluencers loadQueryInfluencers) throws MappingException {
+    if (this.arrayBatchSize <= 1) {
+      return super.createCollectionInitializer(loadQueryInfluencers);
+    }
+    return ArrayIdsBatchingCollectionInitializerBuilder.INSTANCE
+        .createBatchingCollectionInitializer(
+            this, this.arrayBatchSize, getFactory(), loadQueryInfluencers);
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.hibernate.CommitTimestampGeneration;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerStaleReads;
+import com.google.cloud.spanner.hibernate.loader.ArrayIdsBatchingEntityLoaderBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.loader.entity.UniqueEntityLoader;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.spi.PersisterCreationContext;
+import org.hibernate.sql.Update;
+import org.hibernate.tuple.InDatabaseValueGenerationStrategy;
+import org.hibernate.tuple.NonIdentifierAttribute;
+
+/**
+ * The behavior which the Spanner entity persisters add to the standard Hibernate persisters. Each
+ * persister forwards its overrides to a delegate, and passes the superclass implementation where
+ * the delegate may fall back to it.
+ *
+ * <p>The values of the properties which are generated by the database are read back after a
+ * write by the standard persister, except for the commit timestamp properties, whose values are
+ * only assigned when the transaction commits. Spanner rejects the read if the write also set a
+ * commit timestamp column of the same table, so other generated properties should be mapped to a
+ * separate table.
+ */
+final class SpannerEntityPersisterDelegate {
+
+  private final AbstractEntityPersister persister;
+
+  private final boolean[] propertyNullability;
+
+  private final boolean[] propertyUpdateability;
+
+  private final Map<String, List<String>> commitTimestampColumns;
+
+  private final boolean commitTimestampVersion;
+
+  private final int[] commitTimestampProperties;
+
+  private final boolean[] insertGeneratedProperties;
+
+  private final boolean[] updateGeneratedProperties;
+
+  private final TimestampBound staleness;
+
+  private final int arrayBatchSize;
+
+  SpannerEntityPersisterDelegate(AbstractEntityPersister persister,
+      PersistentClass persistentClass, PersisterCreationContext creationContext) {
+    this.persister = persister;
+    this.propertyNullability =
+        CommitTimestamps.getPropertyNullability(persister.getEntityMetamodel());
+    this.propertyUpdateability =
+        CommitTimestamps.getPropertyUpdateability(persister.getEntityMetamodel());
+    this.commitTimestampColumns = CommitTimestamps.getUpdateColumns(persister);
+    this.commitTimestampVersion =
+        CommitTimestamps.isCommitTimestampVersion(persister.getEntityMetamodel());
+    this.commitTimestampProperties = getCommitTimestampProperties();
+    this.insertGeneratedProperties = getGeneratedProperties(false);
+    this.updateGeneratedProperties = getGeneratedProperties(true);
+    this.staleness = StaleReads.getStaleness(persistentClass);
+    this.arrayBatchSize = ArrayBatchFetching.getBatchSize(persistentClass.getBatchSize(),
+        creationContext.getSessionFactory().getProperties());
+  }
+
+  boolean[] getPropertyNullability() {
+    return this.propertyNullability;
+  }
+
+  boolean[] getPropertyUpdateability() {
+    return this.propertyUpdateability;
+  }
+
+  Update createUpdate() {
+    return CommitTimestamps.createUpdate(
+        this.persister.getFactory().getJdbcServices().getDialect(), this.commitTimestampColumns);
+  }
+
+  /**
+   * Registers the refresh of the commit timestamp version of the written entity.
+   */
+  void afterWrite(Object object, SharedSessionContractImplementor session) {
+    if (this.commitTimestampVersion) {
+      CommitTimestampVersionRefresh.register(this.persister, object, session);
+    }
+  }
+
+  /**
+   * Fails if the version of the entity is a commit timestamp, which cannot be incremented without
+   * an update of the entity.
+   */
+  void checkVersionIncrement() {
+    if (this.commitTimestampVersion) {
+      throw new HibernateException("The commit timestamp version of "
+          + this.persister.getEntityName()
+          + " cannot be incremented without an update of the entity.");
+    }
+  }
+
+  boolean isCacheInvalidationRequired(boolean required) {
+    // The second-level cache cannot hold the version before it is known.
+    return this.commitTimestampVersion || required;
+  }
+
+  Object load(SharedSessionContractImplementor session, Supplier<Object> load) {
+    return SpannerStaleReads.read(session, this.staleness, load);
+  }
+
+  /**
+   * Returns the loader which fetches the entities in batches with one array parameter, or the
+   * standard loader if array batch fetching is not enabled for the entity.
+   */
+  UniqueEntityLoader createEntityLoader(LockMode lockMode,
+      LoadQueryInfluencers loadQueryInfluencers, Supplier<UniqueEntityLoader> standardLoader) {
+    if (this.arrayBatchSize <= 1) {
+      return standardLoader.get();
+    }
+    return ArrayIdsBatchingEntityLoaderBuilder.INSTANCE.buildLoader(this.persister,
+        this.arrayBatchSize, lockMode, this.persister.getFactory(), loadQueryInfluencers);
+  }
+
+  /**
+   * Returns the loader which fetches the entities in batches with one array parameter, or the
+   * standard loader if array batch fetching is not enabled for the entity.
+   */
+  UniqueEntityLoader createEntityLoader(LockOptions lockOptions,
+      LoadQueryInfluencers loadQueryInfluencers, Supplier<UniqueEntityLoader> standardLoader) {
+    if (this.arrayBatchSize <= 1) {
+      return standardLoader.get();
+    }
+    return ArrayIdsBatchingEntityLoaderBuilder.INSTANCE.buildLoader(this.persister,
+        this.arrayBatchSize, lockOptions, this.persister.getFactory(), loadQueryInfluencers);
+  }
+
+  boolean hasInsertGeneratedProperties() {
+    return contains(this.insertGeneratedProperties);
+  }
+
+  boolean hasUpdateGeneratedProperties() {
+    return contains(this.updateGeneratedProperties);
+  }
+
+  /**
+   * Returns the select of the generated values of the persister with null values in place of the
+   * commit timestamp columns, which the transaction cannot read.
+   */
+  String getGeneratedValuesSelectString(String sql) {
+    for (int i : this.commitTimestampProperties) {
+      for (String alias : this.persister.getPropertyAliases("", i)) {
+        sql = sql.replaceAll("[\\w.`]+ as " + Pattern.quote(alias) + "\\b",
+            Matcher.quoteReplacement("cast(null as timestamp) as " + alias));
+      }
+    }
+    return sql;
+  }
+
+  /**
+   * Reads the generated properties of the inserted or updated entity with the given standard
+   * implementation, and keeps the values of the commit timestamp properties, which the select
+   * returns as null.
+   */
+  void processGeneratedProperties(Object entity, Object[] state, Runnable process) {
+    Object[] values = new Object[this.commitTimestampProperties.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = state[this.commitTimestampProperties[i]];
+    }
+    process.run();
+    for (int i = 0; i < values.length; i++) {
+      state[this.commitTimestampProperties[i]] = values[i];
+      this.persister.setPropertyValue(entity, this.commitTimestampProperties[i], values[i]);
+    }
+  }
+
+  /**
+   * Returns the properties which are generated by the database on inserts or on updates, without
+   * the commit timestamp properties.
+   */
+  private boolean[] getGeneratedProperties(boolean update) {
+    NonIdentifierAttribute[] properties = this.persister.getEntityMetamodel().getProperties();
+    InDatabaseValueGenerationStrategy[] strategies =
+        this.persister.getEntityMetamodel().getInDatabaseValueGenerationStrategies();
+    boolean[] generated = new boolean[properties.length];
+    for (int i = 0; i < properties.length; i++) {
+      generated[i] = strategies[i] != null
+          && !(properties[i].getValueGenerationStrategy() instanceof CommitTimestampGeneration)
+          && (update ? strategies[i].getGenerationTiming().includesUpdate()
+              : strategies[i].getGenerationTiming().includesInsert());
+    }
+    return generated;
+  }
+
+  private int[] getCommitTimestampProperties() {
+    NonIdentifierAttribute[] properties = this.persister.getEntityMetamodel().getProperties();
+    List<Integer> commitTimestampProperties = new ArrayList<>();
+    for (int i = 0; i < properties.length; i++) {
+      if (properties[i].getValueGenerationStrategy() instanceof CommitTimestampGeneration) {
+        commitTimestampProperties.add(i);
+      }
+    }
+    return commitTimestampProperties.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static boolean contains(boolean[] values) {
+    for (boolean value : values) {
+      if (value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
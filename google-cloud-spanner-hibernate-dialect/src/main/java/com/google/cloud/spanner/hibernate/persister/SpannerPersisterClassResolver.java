@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import java.util.Collections;
+import java.util.Map;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.persister.collection.BasicCollectionPersister;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.OneToManyPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.JoinedSubclassEntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.persister.entity.UnionSubclassEntityPersister;
+import org.hibernate.persister.internal.StandardPersisterClassResolver;
+
+/**
+ * Resolves the Spanner-specific entity persisters for the entities which have
+ * {@link com.google.cloud.spanner.hibernate.CommitTimestamp} properties or are annotated with
+ * {@link com.google.cloud.spanner.hibernate.StaleRead}, and the standard Hibernate persisters for
+ * all other entities.
+ *
+ * <p>The Spanner-specific persisters are also resolved for the entities and collections which are
+ * fetched in batches, unless
+ * {@link com.google.cloud.spanner.hibernate.SpannerSettings#USE_ARRAY_BATCH_FETCH} is disabled.
+ */
+public class SpannerPersisterClassResolver extends StandardPersisterClassResolver {
+
+  private static final long serialVersionUID = 1L;
+
+  private final boolean arrayBatchFetch;
+
+  private final int defaultBatchFetchSize;
+
+  public SpannerPersisterClassResolver() {
+    this(Collections.emptyMap());
+  }
+
+  /**
+   * Creates a resolver for the given configuration settings.
+   */
+  public SpannerPersisterClassResolver(Map<?, ?> settings) {
+    this.arrayBatchFetch = ArrayBatchFetching.isEnabled(settings);
+    this.defaultBatchFetchSize = ArrayBatchFetching.getBatchSize(-1, settings);
+  }
+
+  @Override
+  public Class<? extends EntityPersister> getEntityPersisterClass(PersistentClass metadata) {
+    Class<? extends EntityPersister> persisterClass = super.getEntityPersisterClass(metadata);
+    if (!CommitTimestamps.hasCommitTimestamp(metadata) && !StaleReads.hasStaleRead(metadata)
+        && !isArrayBatchFetched(metadata.getBatchSize())) {
+      return persisterClass;
+    }
+    if (persisterClass == SingleTableEntityPersister.class) {
+      return SpannerSingleTableEntityPersister.class;
+    }
+    if (persisterClass == JoinedSubclassEntityPersister.class) {
+      return SpannerJoinedSubclassEntityPersister.class;
+    }
+    if (persisterClass == UnionSubclassEntityPersister.class) {
+      return SpannerUnionSubclassEntityPersister.class;
+    }
+    return persisterClass;
+  }
+
+  @Override
+  public Class<? extends CollectionPersister> getCollectionPersisterClass(Collection metadata) {
+    Class<? extends CollectionPersister> persisterClass =
+        super.getCollectionPersisterClass(metadata);
+    if (!isArrayBatchFetched(metadata.getBatchSize())) {
+      return persisterClass;
+    }
+    if (persisterClass == OneToManyPersister.class) {
+      return SpannerOneToManyPersister.class;
+    }
+    if (persisterClass == BasicCollectionPersister.class) {
+      return SpannerBasicCollectionPersister.class;
+    }
+    return persisterClass;
+  }
+
+  private boolean isArrayBatchFetched(int batchSize) {
+    return this.arrayBatchFetch
+        && (batchSize == -1 ? this.defaultBatchFetchSize : batchSize) > 1;
+  }
+}
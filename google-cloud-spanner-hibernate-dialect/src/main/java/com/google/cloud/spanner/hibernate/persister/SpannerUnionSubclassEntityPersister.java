@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import java.io.Serializable;
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.loader.entity.UniqueEntityLoader;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.persister.entity.UnionSubclassEntityPersister;
+import org.hibernate.persister.spi.PersisterCreationContext;
+import org.hibernate.sql.Update;
+
+/**
+ * A {@link UnionSubclassEntityPersister} for entities with
+ * {@link com.google.cloud.spanner.hibernate.CommitTimestamp} properties, which does not read the
+ * commit timestamps of the entity back after it is written, and which sets the commit timestamp
+ * columns in its updates.
+ *
+ * <p>The commit timestamp is only assigned when the transaction commits, and Spanner does not
+ * allow the transaction to read a table after it has written a pending commit timestamp to it.
+ * The commit timestamp properties are also not checked for null values, as they stay null in new
+ * entities until the entities are read again.
+ *
+ * <p>If the version of the entity is a commit timestamp, the updates check the version which
+ * was read, and the version of the entity is set to the commit timestamp once the transaction
+ * commits. The version cannot be incremented without an update of the entity.
+ *
+ * <p>The persister is also used for entities which are annotated with
+ * {@link com.google.cloud.spanner.hibernate.StaleRead}, which are then loaded by their identifier
+ * with the staleness of the annotation, and for entities which are fetched in batches, which
+ * bind the identifiers of a batch as one array parameter. The behavior is implemented by a
+ * {@link SpannerEntityPersisterDelegate}, which is shared with the persisters of the other
+ * inheritance strategies.
+ */
+public class SpannerUnionSubclassEntityPersister extends UnionSubclassEntityPersister {
+
+  private final SpannerEntityPersisterDelegate delegate;
+
+  /**
+   * Creates the persister of an entity.
+   */
+  public SpannerUnionSubclassEntityPersister(PersistentClass persistentClass,
+      EntityDataAccess cacheAccessStrategy, NaturalIdDataAccess naturalIdRegionAccessStrategy,
+      PersisterCreationContext creationContext) throws HibernateException {
+    super(persistentClass, cacheAccessStrategy, naturalIdRegionAccessStrategy, creationContext);
+    this.delegate = new SpannerEntityPersisterDelegate(this, persistentClass, creationContext);
+  }
+
+  @Override
+  public boolean[] getPropertyNullability() {
+    return this.delegate.getPropertyNullability();
+  }
+
+  @Override
+  public boolean[] getPropertyUpdateability() {
+    return this.delegate.getPropertyUpdateability();
+  }
+
+  @Override
+  protected Update createUpdate() {
+    return this.delegate.createUpdate();
+  }
+
+  @Override
+  public Serializable insert(
+      Object[] fields, Object object, SharedSessionContractImplementor session) {
+    Serializable id = super.insert(fields, object, session);
+    this.delegate.afterWrite(object, session);
+    return id;
+  }
+
+  @Override
+  public void insert(Serializable id, Object[] fields, Object object,
+      SharedSessionContractImplementor session) {
+    super.insert(id, fields, object, session);
+    this.delegate.afterWrite(object, session);
+  }
+
+  @Override
+  public void update(Serializable id, Object[] fields, int[] dirtyFields,
+      boolean hasDirtyCollection, Object[] oldFields, Object oldVersion, Object object,
+      Object rowId, SharedSessionContractImplementor session) {
+    super.update(id, fields, dirtyFields, hasDirtyCollection, oldFields, oldVersion, object,
+        rowId, session);
+    this.delegate.afterWrite(object, session);
+  }
+
+  @Override
+  public Object forceVersionIncrement(Serializable id, Object currentVersion,
+      SharedSessionContractImplementor session) {
+    this.delegate.checkVersionIncrement();
+    return super.forceVersionIncrement(id, currentVersion, session);
+  }
+
+  @Override
+  public boolean isCacheInvalidationRequired() {
+    return this.delegate.isCacheInvalidationRequired(super.isCacheInvalidationRequired());
+  }
+
+  @Override
+  public Object load(Serializable id, Object optionalObject, LockOptions lockOptions,
+      SharedSessionContractImplementor session) {
+    return this.delegate.load(
+        session, () -> super.load(id, optionalObject, lockOptions, session));
+  }
+
+  @Override
+  public Object load(Serializable id, Object optionalObject, LockOptions lockOptions,
+      SharedSessionContractImplementor session, Boolean readOnly) {
+    return this.delegate.load(
+        session, () -> super.load(id, optionalObject, lockOptions, session, readOnly));
+  }
+
+  @Override
+  protected UniqueEntityLoader createEntityLoader(LockMode lockMode,
+      LoadQueryInfluencers loadQueryInfluencers) {
+    return this.delegate.createEntityLoader(lockMode, loadQueryInfluencers,
+        () -> super.createEntityLoader(lockMode, loadQueryInfluencers));
+  }
+
+  @Override
+  protected UniqueEntityLoader createEntityLoader(LockOptions lockOptions,
+      LoadQueryInfluencers loadQueryInfluencers) {
+    return this.delegate.createEntityLoader(lockOptions, loadQueryInfluencers,
+        () -> super.createEntityLoader(lockOptions, loadQueryInfluencers));
+  }
+
+  @Override
+  public boolean hasInsertGeneratedProperties() {
+    return this.delegate.hasInsertGeneratedProperties();
+  }
+
+  @Override
+  public boolean hasUpdateGeneratedProperties() {
+    return this.delegate.hasUpdateGeneratedProperties();
+  }
+
+  @Override
+  public void processInsertGeneratedProperties(Serializable id, Object entity, Object[] state,
+      SharedSessionContractImplementor session) {
+    this.delegate.processGeneratedProperties(entity, state,
+        () -> super.processInsertGeneratedProperties(id, entity, state, session));
+  }
+
+  @Override
+  public void processUpdateGeneratedProperties(Serializable id, Object entity, Object[] state,
+      SharedSessionContractImplementor session) {
+    this.delegate.processGeneratedProperties(entity, state,
+        () -> super.processUpdateGeneratedProperties(id, entity, state, session));
+  }
+
+  @Override
+  public String generateInsertGeneratedValuesSelectString() {
+    return this.delegate.getGeneratedValuesSelectString(
+        super.generateInsertGeneratedValuesSelectString());
+  }
+
+  @Override
+  public String generateUpdateGeneratedValuesSelectString() {
+    return this.delegate.getGeneratedValuesSelectString(
+        super.generateUpdateGeneratedValuesSelectString());
+  }
+}
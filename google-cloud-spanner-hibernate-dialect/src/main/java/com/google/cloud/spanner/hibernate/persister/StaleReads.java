@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.persister;
+
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.hibernate.StaleRead;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerStaleReads;
+import org.hibernate.MappingException;
+import org.hibernate.mapping.PersistentClass;
+
+/**
+ * Helpers for the persisters of entities which are annotated with {@link StaleRead}.
+ */
+final class StaleReads {
+
+  private StaleReads() {
+  }
+
+  /**
+   * Returns whether the entity class or one of its superclasses is annotated with
+   * {@link StaleRead}.
+   */
+  static boolean hasStaleRead(PersistentClass persistentClass) {
+    return getStaleRead(persistentClass) != null;
+  }
+
+  /**
+   * Returns the staleness of the {@link StaleRead} annotation of the entity class, or null if it
+   * is not annotated.
+   */
+  static TimestampBound getStaleness(PersistentClass persistentClass) {
+    StaleRead staleRead = getStaleRead(persistentClass);
+    if (staleRead == null) {
+      return null;
+    }
+    try {
+      return SpannerStaleReads.parse(staleRead.value());
+    } catch (IllegalArgumentException e) {
+      throw new MappingException(
+          "Invalid @StaleRead of entity " + persistentClass.getEntityName(), e);
+    }
+  }
+
+  private static StaleRead getStaleRead(PersistentClass persistentClass) {
+    Class<?> mappedClass = persistentClass.getMappedClass();
+    return mappedClass == null ? null : mappedClass.getAnnotation(StaleRead.class);
+  }
+}
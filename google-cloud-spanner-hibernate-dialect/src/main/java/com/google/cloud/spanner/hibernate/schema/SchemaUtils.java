@@ -18,17 +18,21 @@
 
 package com.google.cloud.spanner.hibernate.schema;
 
+import com.google.cloud.spanner.hibernate.CommitTimestampGeneration;
 import com.google.cloud.spanner.hibernate.Interleaved;
 import com.google.cloud.spanner.hibernate.reflection.SpannerEntityFieldKey;
 import com.google.cloud.spanner.hibernate.reflection.SpannerKeyFieldIterator;
 import java.lang.reflect.Field;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import javax.persistence.Embeddable;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Id;
 import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Column;
 import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
 import org.hibernate.mapping.Table;
 
 /**
@@ -60,6 +64,29 @@ class SchemaUtils {
     return null;
   }
 
+  /**
+   * Returns whether the column is mapped by a
+   * {@link com.google.cloud.spanner.hibernate.CommitTimestamp} property.
+   */
+  public static boolean isCommitTimestampColumn(Column column, Metadata metadata) {
+    for (PersistentClass pc : metadata.getEntityBindings()) {
+      Iterator<?> properties = pc.getPropertyIterator();
+      while (properties.hasNext()) {
+        Property property = (Property) properties.next();
+        if (!(property.getValueGenerationStrategy() instanceof CommitTimestampGeneration)) {
+          continue;
+        }
+        Iterator<?> columns = property.getColumnIterator();
+        while (columns.hasNext()) {
+          if (columns.next() == column) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * Gets the Spanner {@link Table} by entity class.
    */
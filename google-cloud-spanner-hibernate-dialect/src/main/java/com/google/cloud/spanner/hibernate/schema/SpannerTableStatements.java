@@ -34,6 +34,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import org.hibernate.boot.Metadata;
+import org.hibernate.boot.model.relational.InitCommand;
 import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import org.hibernate.mapping.Collection;
 import org.hibernate.mapping.Column;
@@ -169,6 +170,13 @@ public class SpannerTableStatements {
           metadata,
           "INSERT INTO " + SequenceStyleGenerator.DEF_SEQUENCE_NAME + " ("
               + SequenceStyleGenerator.DEF_VALUE_COLUMN + ") VALUES(1)");
+    } else if (table.hasPrimaryKey()) {
+      // The rows which seed generator tables, such as the shards of a ShardedTableGenerator.
+      for (InitCommand initCommand : table.getInitCommands()) {
+        for (String statement : initCommand.getInitCommands()) {
+          addStatementAfterDdlBatch(metadata, statement);
+        }
+      }
     }
 
     return statements;
@@ -186,7 +194,7 @@ public class SpannerTableStatements {
       runBatchDdl.get().addAfterDdlStatement(statement);
     } else {
       throw new IllegalStateException(
-          "Failed to generate INSERT statement for the hibernate_sequence table. "
+          "Failed to generate INSERT statements for the generator tables. "
               + "The Spanner dialect did not create auxiliary database objects correctly. "
               + "Please post a question to "
               + "https://github.com/GoogleCloudPlatform/google-cloud-spanner-hibernate/issues");
@@ -212,7 +220,9 @@ public class SpannerTableStatements {
     }
 
     return col.getQuotedName() + " " + typeString
-        + (col.isNullable() ? this.spannerDialect.getNullColumnString() : " not null");
+        + (col.isNullable() ? this.spannerDialect.getNullColumnString() : " not null")
+        + (SchemaUtils.isCommitTimestampColumn(col, metadata)
+            ? " OPTIONS (allow_commit_timestamp=true)" : "");
   }
 
   private static String getInterleavedClause(Table table, Metadata metadata) {
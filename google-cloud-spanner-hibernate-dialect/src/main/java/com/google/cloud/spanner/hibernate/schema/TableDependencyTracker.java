@@ -82,6 +82,14 @@ public class TableDependencyTracker {
     this.processedTables = new HashSet<>();
   }
 
+  /**
+   * Returns the table which directly blocks the provided {@code table}, or null if there is none.
+   * When creating tables, this is the parent table of an interleaved table.
+   */
+  public Table getBlockingTable(Table table) {
+    return tableDependencies.get(table);
+  }
+
   /**
    * Returns the list of tables that one must process before processing the provided {@code table}.
    *
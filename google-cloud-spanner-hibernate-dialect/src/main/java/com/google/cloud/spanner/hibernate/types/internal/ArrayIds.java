@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.types.internal;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.type.AbstractStandardBasicType;
+import org.hibernate.type.Type;
+
+/**
+ * Binds sets of entity identifiers or collection keys as a single Spanner array parameter, e.g.
+ * of {@code id in unnest(?)}, through the same {@code createArrayOf} path as
+ * {@link ArraySqlTypeDescriptor}.
+ */
+public final class ArrayIds {
+
+  private ArrayIds() {
+  }
+
+  /**
+   * Returns the Spanner type name of the array elements which values of the given identifier type
+   * are bound as, or null if the identifier cannot be bound as an array, e.g. because it spans
+   * multiple columns.
+   */
+  public static String getElementType(Type idType, Mapping mapping) {
+    int[] sqlTypes = idType.sqlTypes(mapping);
+    if (sqlTypes.length != 1) {
+      return null;
+    }
+    switch (sqlTypes[0]) {
+      case Types.BIGINT:
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+        return "INT64";
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return "STRING";
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        return "BYTES";
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return "NUMERIC";
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.REAL:
+        return "FLOAT64";
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return "BOOL";
+      case Types.DATE:
+        return "DATE";
+      case Types.TIMESTAMP:
+        return "TIMESTAMP";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Binds the given identifiers as one array parameter with the given element type, which was
+   * returned by {@link #getElementType(Type, Mapping)} for the identifier type.
+   */
+  public static void bind(PreparedStatement statement, int index, String elementType,
+      Type idType, Object[] ids, SharedSessionContractImplementor session) throws SQLException {
+    Object[] elements = new Object[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      elements[i] = toElement(idType, elementType, ids[i], session);
+    }
+    statement.setArray(index, statement.getConnection().createArrayOf(elementType, elements));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object toElement(Type idType, String elementType, Object id,
+      SharedSessionContractImplementor session) {
+    if (id == null || !(idType instanceof AbstractStandardBasicType)) {
+      return id;
+    }
+    // Converts the identifier to the Java type of the array elements, e.g. an Integer to a Long
+    // or a UUID to its bytes.
+    return ((AbstractStandardBasicType<Object>) idType).getJavaTypeDescriptor()
+        .unwrap(id, getElementClass(elementType), session);
+  }
+
+  private static Class<?> getElementClass(String elementType) {
+    switch (elementType) {
+      case "INT64":
+        return Long.class;
+      case "BYTES":
+        return byte[].class;
+      case "NUMERIC":
+        return BigDecimal.class;
+      case "FLOAT64":
+        return Double.class;
+      case "BOOL":
+        return Boolean.class;
+      case "DATE":
+        return java.sql.Date.class;
+      case "TIMESTAMP":
+        return Timestamp.class;
+      default:
+        return String.class;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Version;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.Generated;
+import org.hibernate.annotations.GenerationTime;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for entities with {@link CommitTimestamp} properties.
+ */
+public class CommitTimestampTests {
+
+  private static final Timestamp FIRST_COMMIT = Timestamp.valueOf("2021-03-01 10:00:00.123456789");
+
+  private static final Timestamp SECOND_COMMIT = Timestamp.valueOf("2021-03-01 10:00:01.5");
+
+  private MockConnection connection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Set up a mock JDBC connection which returns two successive commit timestamps, and a session
+   * factory with the {@link Singer}, {@link Album} and {@link Concert} entities.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    CloudSpannerJdbcConnection spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    when(spannerConnection.getCommitTimestamp()).thenReturn(FIRST_COMMIT, SECOND_COMMIT);
+    this.connection = new MockConnection() {
+      @Override
+      public boolean isWrapperFor(Class<?> iface) {
+        return iface == CloudSpannerJdbcConnection.class;
+      }
+
+      @Override
+      public <T> T unwrap(Class<T> iface) {
+        return iface.cast(spannerConnection);
+      }
+    };
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalUpdateCount(1);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting("hibernate.hbm2ddl.auto", "create");
+    this.sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Singer.class)
+        .addAnnotatedClass(Album.class)
+        .addAnnotatedClass(Concert.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testCreateTable() {
+    List<String> sqlStrings =
+        this.connection.getStatementResultSetHandler().getExecutedStatements();
+
+    assertThat(sqlStrings).contains(
+        "create table Singer (id INT64 not null,"
+            + "createdAt TIMESTAMP not null OPTIONS (allow_commit_timestamp=true),"
+            + "name STRING(255),"
+            + "updatedAt TIMESTAMP OPTIONS (allow_commit_timestamp=true)) PRIMARY KEY (id)");
+  }
+
+  @Test
+  public void testInsertAndUpdateWritePendingCommitTimestamp() {
+    Singer singer = new Singer();
+    singer.id = 1L;
+    singer.name = "Alice";
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(singer);
+      session.getTransaction().commit();
+    }
+    singer.name = "Bob";
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.update(singer);
+      session.getTransaction().commit();
+    }
+
+    // The pending commit timestamps cannot be read back in the transaction which writes them.
+    assertThat(getPreparedSql()).containsExactly(
+        "insert into Singer (createdAt, name, updatedAt, id) "
+            + "values (PENDING_COMMIT_TIMESTAMP(), ?, PENDING_COMMIT_TIMESTAMP(), ?)",
+        "update Singer set updatedAt=PENDING_COMMIT_TIMESTAMP(), name=? where id=?");
+    MockPreparedStatement update =
+        this.connection.getPreparedStatementResultSetHandler().getPreparedStatements().get(1);
+    assertThat(update.getParameterMap()).hasSize(2);
+    assertThat(update.getParameter(1)).isEqualTo("Bob");
+    assertThat(singer.createdAt).isNull();
+  }
+
+  @Test
+  public void testCommitTimestampVersion() throws SQLException {
+    Album album = new Album();
+    album.id = 1L;
+    album.title = "Debut";
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(album);
+      session.getTransaction().commit();
+      assertThat(album.version).isEqualTo(FIRST_COMMIT);
+    }
+    album.title = "Second";
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.update(album);
+      session.getTransaction().commit();
+      assertThat(album.version).isEqualTo(SECOND_COMMIT);
+    }
+
+    assertThat(getPreparedSql()).containsExactly(
+        "insert into Album (title, version, id) values (?, PENDING_COMMIT_TIMESTAMP(), ?)",
+        "update Album set version=PENDING_COMMIT_TIMESTAMP(), title=? where id=? and version=?");
+    MockPreparedStatement update =
+        this.connection.getPreparedStatementResultSetHandler().getPreparedStatements().get(1);
+    assertThat(update.getParameter(3)).isEqualTo(FIRST_COMMIT);
+  }
+
+  @Test
+  public void testOtherGeneratedPropertiesAreReadBack() {
+    // The column aliases depend on the position of the table in the metamodel.
+    MockResultSet seats = new MockResultSet("seats");
+    for (String suffix : new String[] {"_0_", "_1_", "_2_"}) {
+      seats.addColumn("seats2" + suffix, new Object[] {100L});
+      seats.addColumn("updateda3" + suffix, new Object[] {null});
+    }
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareResultSet("from Concert", seats);
+
+    Concert concert = new Concert();
+    concert.id = 1L;
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(concert);
+      session.getTransaction().commit();
+    }
+
+    List<String> sql = getPreparedSql();
+    assertThat(sql).hasSize(2);
+    // The commit timestamp cannot be read in the transaction which wrote it.
+    assertThat(sql.get(1)).startsWith("select").contains("seats")
+        .contains("cast(null as timestamp) as updateda3_").doesNotContain(".updatedAt");
+    assertThat(concert.seats).isEqualTo(100L);
+    assertThat(concert.updatedAt).isNull();
+  }
+
+  private List<String> getPreparedSql() {
+    return this.connection.getPreparedStatementResultSetHandler().getPreparedStatements().stream()
+        .map(MockPreparedStatement::getSQL)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * An entity with a creation and a last update commit timestamp.
+   */
+  @Entity(name = "Singer")
+  public static class Singer {
+
+    @Id
+    public long id;
+
+    public String name;
+
+    @CommitTimestamp(GenerationTime.INSERT)
+    @javax.persistence.Column(nullable = false)
+    public Timestamp createdAt;
+
+    @CommitTimestamp
+    public Timestamp updatedAt;
+  }
+
+  /**
+   * An entity with a commit timestamp and another property which is generated by the database.
+   */
+  @Entity(name = "Concert")
+  public static class Concert {
+
+    @Id
+    public long id;
+
+    @Generated(GenerationTime.INSERT)
+    @javax.persistence.Column(insertable = false, updatable = false)
+    public Long seats;
+
+    @CommitTimestamp
+    public Timestamp updatedAt;
+  }
+
+  /**
+   * An entity whose version is the commit timestamp of its last write.
+   */
+  @Entity(name = "Album")
+  public static class Album {
+
+    @Id
+    public long id;
+
+    public String title;
+
+    @Version
+    @CommitTimestamp
+    public Timestamp version;
+  }
+}
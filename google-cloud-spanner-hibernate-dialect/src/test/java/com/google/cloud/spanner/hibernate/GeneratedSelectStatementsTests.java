@@ -160,6 +160,41 @@ public class GeneratedSelectStatementsTests {
             + " and subtestent0_.id2=testentity1_.id2");
   }
 
+  @Test
+  public void selectWithQueryHintsTest() {
+    testStatementTranslation(x -> x.createQuery("select s from SubTestEntity s "
+            + "inner join s.testEntity")
+            .addQueryHint(SpannerQueryHints.statementHint("USE_ADDITIONAL_PARALLELISM=TRUE"))
+            .addQueryHint(SpannerQueryHints.tableHint("test_table", "FORCE_INDEX=test_index"))
+            .addQueryHint(SpannerQueryHints.joinHint("JOIN_METHOD=HASH_JOIN"))
+            .list(),
+        "@{USE_ADDITIONAL_PARALLELISM=TRUE} select subtestent0_.id as id1_1_, subtestent0_.id1 "
+            + "as id2_1_, subtestent0_.id2 as id3_1_ from SubTestEntity subtestent0_ inner "
+            + "join@{JOIN_METHOD=HASH_JOIN} `test_table`@{FORCE_INDEX=test_index} testentity1_ "
+            + "on subtestent0_.id1=testentity1_.`ID1` and subtestent0_.id2=testentity1_.id2");
+  }
+
+  @Test
+  public void selectWithCommentHintsTest() {
+    this.metadata = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting("hibernate.use_sql_comments", "true")
+        .build())
+        .addAnnotatedClass(TestEntity.class)
+        .addAnnotatedClass(SubTestEntity.class)
+        .buildMetadata();
+
+    testStatementTranslation(x -> x.createQuery("select s from SubTestEntity s")
+            .setComment("SubTestEntity@{FORCE_INDEX=sub_index}; @{OPTIMIZER_VERSION=2}")
+            .list(),
+        "@{OPTIMIZER_VERSION=2} select subtestent0_.id as id1_1_, subtestent0_.id1 as id2_1_, "
+            + "subtestent0_.id2 as id3_1_ from SubTestEntity@{FORCE_INDEX=sub_index} "
+            + "subtestent0_");
+  }
+
   private void openSessionAndDo(Consumer<Session> func) {
     Session session = this.metadata.buildSessionFactory().openSession();
     session.beginTransaction();
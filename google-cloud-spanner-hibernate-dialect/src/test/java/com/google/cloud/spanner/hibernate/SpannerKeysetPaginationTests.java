@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.hibernate.SpannerKeysetPagination.Page;
+import com.google.cloud.spanner.hibernate.entities.Child;
+import com.google.cloud.spanner.hibernate.entities.Child.ChildId;
+import com.google.cloud.spanner.hibernate.entities.GrandParent;
+import com.google.cloud.spanner.hibernate.entities.Parent;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.List;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerKeysetPagination}.
+ */
+public class SpannerKeysetPaginationTests {
+
+  private MockConnection connection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory on a mock connection which returns three singers for the queries of
+   * singers.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    // The column aliases depend on the position of the entity in the metamodel.
+    MockResultSet singers = new MockResultSet("singers");
+    for (int i = 0; i < 5; i++) {
+      String suffix = "_" + i + "_";
+      singers.addColumn("id1" + suffix, new Object[] {1L, 2L, 3L});
+      singers.addColumn("active2" + suffix, new Object[] {true, true, true});
+      singers.addColumn("name3" + suffix, new Object[] {"a", "b", "c"});
+    }
+    this.connection.getPreparedStatementResultSetHandler().prepareResultSet("from Singer", singers);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .build())
+        .addAnnotatedClass(Singer.class)
+        .addAnnotatedClass(Track.class)
+        .addAnnotatedClass(GrandParent.class)
+        .addAnnotatedClass(Parent.class)
+        .addAnnotatedClass(Child.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testFirstPage() {
+    try (Session session = this.sessionFactory.openSession()) {
+      Page<Singer> page = SpannerKeysetPagination
+          .of(session, "from Singer s where s.active = :active", Singer.class)
+          .setParameter("active", true)
+          .getFirstPage(2);
+
+      assertThat(page.getContent()).extracting(singer -> singer.name).containsExactly("a", "b");
+      assertThat(page.hasNext()).isTrue();
+      assertThat(page.getNextKey()).containsExactly(2L);
+    }
+
+    String sql = getExecutedQuery().getSQL();
+    assertThat(sql).contains("where spannerkey0_.active=?");
+    assertThat(sql).endsWith("order by spannerkey0_.id limit ?");
+    assertThat(sql).doesNotContain("offset");
+  }
+
+  @Test
+  public void testNextPageStartsAfterKey() {
+    try (Session session = this.sessionFactory.openSession()) {
+      SpannerKeysetPagination<Track> pagination =
+          SpannerKeysetPagination.of(session, "from Track", Track.class);
+      Page<Track> page = pagination.getPage(new Object[] {1L, 5L}, 10);
+
+      assertThat(page.getContent()).isEmpty();
+      assertThat(page.hasNext()).isFalse();
+      assertThat(pagination.getNextPage(page).getContent()).isEmpty();
+    }
+
+    MockPreparedStatement statement = getExecutedQuery();
+    assertThat(statement.getSQL()).contains("spannerkey0_.albumId>?")
+        .contains("spannerkey0_.albumId=?")
+        .contains("spannerkey0_.trackNumber>?")
+        .endsWith("order by spannerkey0_.albumId, spannerkey0_.trackNumber limit ?");
+    assertThat(statement.getParameterMap().values()).contains(1L, 5L);
+  }
+
+  @Test
+  public void testInterleavedKeyIsOrderedByParentKeyFirst() {
+    try (Session session = this.sessionFactory.openSession()) {
+      SpannerKeysetPagination<Child> pagination =
+          SpannerKeysetPagination.of(session, "from Child c", Child.class);
+      pagination.getPage(new Object[] {1L, 2L, 3L}, 10);
+
+      ChildId childId = new ChildId();
+      childId.grandParentId = 1L;
+      childId.parentId = 2L;
+      childId.childId = 3L;
+      Child child = new Child();
+      child.childId = childId;
+      assertThat(pagination.getKey(child)).containsExactly(1L, 2L, 3L);
+    }
+
+    // The properties of the embedded id are ordered by name, but the key of the interleaved
+    // table starts with the key of its parent.
+    assertThat(getExecutedQuery().getSQL()).endsWith("order by child0_.grandParentId, "
+        + "child0_.parentId, child0_.childId limit ?");
+  }
+
+  @Test
+  public void testInvalidQueries() {
+    try (Session session = this.sessionFactory.openSession()) {
+      assertThatThrownBy(() -> SpannerKeysetPagination
+          .of(session, "from Singer s order by s.name", Singer.class))
+          .isInstanceOf(IllegalArgumentException.class);
+      assertThatThrownBy(() -> SpannerKeysetPagination
+          .of(session, "from Singer s join s.tracks t", Singer.class))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  private MockPreparedStatement getExecutedQuery() {
+    List<MockPreparedStatement> statements =
+        this.connection.getPreparedStatementResultSetHandler().getPreparedStatements();
+    return statements.get(statements.size() - 1);
+  }
+
+  @Entity(name = "Singer")
+  static class Singer {
+
+    @Id
+    Long id;
+
+    boolean active;
+
+    String name;
+  }
+
+  @Entity(name = "Track")
+  static class Track {
+
+    @EmbeddedId
+    TrackId id;
+
+    String title;
+  }
+
+  @Embeddable
+  static class TrackId implements Serializable {
+
+    Long albumId;
+
+    Long trackNumber;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerQueryHints}.
+ */
+public class SpannerQueryHintsTests {
+
+  private static final String SQL = "select s.id as id1_0_ from Singers s "
+      + "left outer join Albums a on s.id=a.singer_id "
+      + "inner join `Concerts` c on s.id=c.singer_id where s.name='join Albums'";
+
+  @Test
+  public void testTableHints() {
+    assertThat(SpannerQueryHints.apply(SQL, Arrays.asList(
+        SpannerQueryHints.tableHint("singers", "FORCE_INDEX=SingersByName"),
+        SpannerQueryHints.tableHint("Concerts", "FORCE_INDEX=_BASE_TABLE"))))
+        .isEqualTo("select s.id as id1_0_ from Singers@{FORCE_INDEX=SingersByName} s "
+            + "left outer join Albums a on s.id=a.singer_id "
+            + "inner join `Concerts`@{FORCE_INDEX=_BASE_TABLE} c on s.id=c.singer_id "
+            + "where s.name='join Albums'");
+  }
+
+  @Test
+  public void testJoinHints() {
+    assertThat(SpannerQueryHints.apply(SQL, Arrays.asList(
+        SpannerQueryHints.joinHint("FORCE_JOIN_ORDER=TRUE"),
+        SpannerQueryHints.joinHint("Albums", "JOIN_METHOD=HASH_JOIN"))))
+        .isEqualTo("select s.id as id1_0_ from Singers s "
+            + "left outer join@{FORCE_JOIN_ORDER=TRUE, JOIN_METHOD=HASH_JOIN} Albums a "
+            + "on s.id=a.singer_id "
+            + "inner join@{FORCE_JOIN_ORDER=TRUE} `Concerts` c on s.id=c.singer_id "
+            + "where s.name='join Albums'");
+  }
+
+  @Test
+  public void testStatementHintFollowsComments() {
+    assertThat(SpannerQueryHints.apply("/* comment */ select 1",
+        Collections.singletonList(SpannerQueryHints.statementHint("OPTIMIZER_VERSION=2"))))
+        .isEqualTo("/* comment */ @{OPTIMIZER_VERSION=2} select 1");
+  }
+
+  @Test
+  public void testCommentHints() {
+    assertThat(SpannerQueryHints.applyCommentHints(
+        "/* @{OPTIMIZER_VERSION=2}; Singers@{FORCE_INDEX=SingersByName} */ select 1 from Singers"))
+        .isEqualTo("@{OPTIMIZER_VERSION=2} select 1 from Singers@{FORCE_INDEX=SingersByName}");
+    assertThat(SpannerQueryHints.applyCommentHints("/* select s from Singer s */ select 1"))
+        .isEqualTo("/* select s from Singer s */ select 1");
+  }
+
+  @Test
+  public void testInvalidHint() {
+    assertThatThrownBy(() -> SpannerQueryHints.apply(SQL, Arrays.asList("FORCE_INDEX=Foo")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.PersistenceException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerTransactionRunner}.
+ */
+public class SpannerTransactionRunnerTests {
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Set up a session factory which allows three attempts per unit of work.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.MAX_TRANSACTION_ATTEMPTS, "3")
+        .build())
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testAbortedWorkIsRunAgainInNewSession() {
+    SpannerTransactionRunner runner = new SpannerTransactionRunner(this.sessionFactory);
+    List<Session> sessions = new ArrayList<>();
+
+    String result = runner.run(session -> {
+      sessions.add(session);
+      if (sessions.size() == 1) {
+        throw new PersistenceException(aborted());
+      }
+      return "done";
+    });
+
+    assertThat(result).isEqualTo("done");
+    assertThat(sessions).hasSize(2);
+    assertThat(sessions.get(0)).isNotSameAs(sessions.get(1));
+    assertThat(sessions.get(0).isOpen()).isFalse();
+    assertThat(runner.getAttempts()).isEqualTo(2);
+    assertThat(runner.getAborts()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAbortsAreRethrownAfterMaxAttempts() {
+    SpannerTransactionRunner runner = new SpannerTransactionRunner(this.sessionFactory);
+
+    assertThatThrownBy(() -> runner.run(session -> {
+      throw new PersistenceException(aborted());
+    })).isInstanceOf(PersistenceException.class);
+    assertThat(runner.getAttempts()).isEqualTo(3);
+    assertThat(runner.getAborts()).isEqualTo(3);
+  }
+
+  @Test
+  public void testOtherFailuresAreNotRetried() {
+    SpannerTransactionRunner runner = new SpannerTransactionRunner(this.sessionFactory);
+
+    assertThatThrownBy(() -> runner.run(session -> {
+      throw new IllegalStateException("failed");
+    })).isInstanceOf(IllegalStateException.class);
+    assertThat(runner.getAttempts()).isEqualTo(1);
+    assertThat(runner.getAborts()).isEqualTo(0);
+  }
+
+  @Test
+  public void testAbortRetryDelay() {
+    assertThat(SpannerTransactionRunner.getAbortRetryDelay(new PersistenceException(aborted())))
+        .isEqualTo(0L);
+    assertThat(SpannerTransactionRunner.getAbortRetryDelay(new PersistenceException(
+        SpannerExceptionFactory.newSpannerException(ErrorCode.NOT_FOUND, "not found"))))
+        .isEqualTo(-1L);
+  }
+
+  private static RuntimeException aborted() {
+    return SpannerExceptionFactory.newSpannerException(
+        ErrorCode.ABORTED, "Transaction was aborted");
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OffHeapStorageAccess}.
+ */
+public class OffHeapStorageAccessTests {
+
+  private final AtomicLong clock = new AtomicLong(100000L);
+
+  @Test
+  public void testValuesAreStoredOffHeap() {
+    OffHeapStorageAccess storage = new OffHeapStorageAccess(10000L, 10, 1 << 20, this.clock::get);
+    List<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+
+    storage.put("key", value, this.clock.get());
+
+    assertThat(storage.getBytes()).isPositive();
+    assertThat(storage.getFromCache("key", null)).isEqualTo(value).isNotSameAs(value);
+    assertThat(storage.contains("key")).isTrue();
+  }
+
+  @Test
+  public void testEntriesExpireAfterMaxStaleness() {
+    OffHeapStorageAccess storage = new OffHeapStorageAccess(10000L, 10, 1 << 20, this.clock::get);
+    // The data was read with a staleness of five seconds.
+    storage.put("key", "value", this.clock.get() - 5000L);
+
+    this.clock.addAndGet(5000L);
+    assertThat(storage.getFromCache("key", null)).isEqualTo("value");
+
+    this.clock.addAndGet(1L);
+    assertThat(storage.contains("key")).isFalse();
+    assertThat(storage.getFromCache("key", null)).isNull();
+    assertThat(storage.getBytes()).isZero();
+  }
+
+  @Test
+  public void testSoftLocksDoNotExpire() {
+    OffHeapStorageAccess storage = new OffHeapStorageAccess(10000L, 10, 1 << 20, this.clock::get);
+    SoftLock lock = new SoftLock() { };
+    storage.put("key", lock, this.clock.get());
+
+    this.clock.addAndGet(60000L);
+
+    // The lock is not serializable, so it is kept on the heap.
+    assertThat(storage.getFromCache("key", null)).isSameAs(lock);
+    assertThat(storage.getBytes()).isZero();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+    OffHeapStorageAccess storage = new OffHeapStorageAccess(10000L, 2, 1 << 20, this.clock::get);
+    storage.put("a", "a", this.clock.get());
+    storage.put("b", "b", this.clock.get());
+    storage.getFromCache("a", null);
+
+    storage.put("c", "c", this.clock.get());
+
+    assertThat(storage.contains("a")).isTrue();
+    assertThat(storage.contains("b")).isFalse();
+    assertThat(storage.contains("c")).isTrue();
+  }
+
+  @Test
+  public void testEntriesAreEvictedAtMaxBytes() {
+    OffHeapStorageAccess storage = new OffHeapStorageAccess(10000L, 10, 1000L, this.clock::get);
+    storage.put("first", new byte[500], this.clock.get());
+    storage.put("second", new byte[600], this.clock.get());
+
+    assertThat(storage.contains("first")).isFalse();
+    assertThat(storage.contains("second")).isTrue();
+    assertThat(storage.getBytes()).isLessThanOrEqualTo(1000L);
+
+    storage.put("second", new byte[2000], this.clock.get());
+
+    assertThat(storage.contains("second")).isFalse();
+    assertThat(storage.getBytes()).isZero();
+  }
+}
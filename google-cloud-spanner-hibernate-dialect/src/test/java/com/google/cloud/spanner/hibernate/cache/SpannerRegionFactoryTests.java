@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.hibernate.cache.spi.CacheTransactionSynchronization;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerRegionFactory}.
+ */
+public class SpannerRegionFactoryTests {
+
+  private final AtomicLong clock = new AtomicLong(100000L);
+
+  @Test
+  public void testTransactionStartTimestampIsTakenAtBegin() {
+    SpannerRegionFactory regionFactory = new SpannerRegionFactory(this.clock::get);
+    CacheTransactionSynchronization timestamp = regionFactory.createTransactionContext(null);
+    assertThat(timestamp.getCurrentTransactionStartTimestamp()).isEqualTo(100000L);
+
+    this.clock.addAndGet(5000L);
+    timestamp.transactionJoined();
+    this.clock.addAndGet(5000L);
+    assertThat(timestamp.getCurrentTransactionStartTimestamp()).isEqualTo(105000L);
+
+    timestamp.transactionCompleting();
+    timestamp.transactionCompleted(true);
+    assertThat(timestamp.getCurrentTransactionStartTimestamp()).isEqualTo(105000L);
+
+    // The timestamp of the next transaction of the session.
+    timestamp.transactionJoined();
+    assertThat(timestamp.getCurrentTransactionStartTimestamp()).isEqualTo(110000L);
+  }
+}
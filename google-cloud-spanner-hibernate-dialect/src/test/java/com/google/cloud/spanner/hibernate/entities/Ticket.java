@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.entities;
+
+import com.google.cloud.spanner.hibernate.id.ShardedTableGenerator;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+/**
+ * An entity which uses the {@link ShardedTableGenerator} to generate its id.
+ */
+@Entity
+public class Ticket {
+
+  @Id
+  @GeneratedValue(generator = "ticketIds")
+  @GenericGenerator(
+      name = "ticketIds",
+      strategy = "com.google.cloud.spanner.hibernate.id.ShardedTableGenerator",
+      parameters = {
+          @Parameter(name = ShardedTableGenerator.SHARD_COUNT_PARAM, value = "4"),
+          @Parameter(name = ShardedTableGenerator.INCREMENT_PARAM, value = "100")
+      })
+  public Long id;
+
+  public String seat;
+}
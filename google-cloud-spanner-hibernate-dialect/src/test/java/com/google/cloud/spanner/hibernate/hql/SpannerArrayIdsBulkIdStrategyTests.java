@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.hql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
+import javax.persistence.ManyToMany;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerArrayIdsBulkIdStrategy}.
+ */
+public class SpannerArrayIdsBulkIdStrategyTests {
+
+  private MockConnection connection;
+
+  /**
+   * Set up the mock JDBC driver, which returns three identifiers for every query.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    MockResultSet ids = new MockResultSet("ids");
+    ids.addColumn("id", new Object[] {1L, 2L, 3L});
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalResultSet(ids);
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalUpdateCount(1);
+  }
+
+  @Test
+  public void testUpdateBindsIdsAsArray() throws SQLException {
+    int updated = executeUpdate(
+        "update Car set seats = :seats, name = upper(name) where name = :name", 10);
+
+    assertThat(updated).isEqualTo(3);
+    List<MockPreparedStatement> updates = getUpdateStatements();
+    assertThat(updates).extracting(MockPreparedStatement::getSQL).containsExactly(
+        "update Car set seats=? where id in unnest(?)",
+        "update Vehicle set name=UPPER(name) where id in unnest(?)");
+    assertThat(updates.get(0).getParameter(1)).isEqualTo(5);
+    assertThat(getIds(updates.get(0), 2)).containsExactly(1L, 2L, 3L);
+    assertThat(getIds(updates.get(1), 1)).containsExactly(1L, 2L, 3L);
+  }
+
+  @Test
+  public void testDeleteIsChunked() throws SQLException {
+    int deleted = executeUpdate("delete from Car where name = :name", 2);
+
+    assertThat(deleted).isEqualTo(3);
+    List<MockPreparedStatement> deletes = getUpdateStatements();
+    assertThat(deletes).extracting(MockPreparedStatement::getSQL).containsExactly(
+        "delete from Car where id in unnest(?)",
+        "delete from Vehicle where id in unnest(?)",
+        "delete from Car where id in unnest(?)",
+        "delete from Vehicle where id in unnest(?)");
+    assertThat(getIds(deletes.get(0), 1)).containsExactly(1L, 2L);
+    assertThat(getIds(deletes.get(1), 1)).containsExactly(1L, 2L);
+    assertThat(getIds(deletes.get(2), 1)).containsExactly(3L);
+  }
+
+  @Test
+  public void testJoinTableOfOtherColumnsIsDeletedWithExists() throws SQLException {
+    int deleted = executeUpdate("delete from Truck where name = :name", 10);
+
+    assertThat(deleted).isEqualTo(3);
+    List<MockPreparedStatement> deletes = getUpdateStatements();
+    assertThat(deletes).extracting(MockPreparedStatement::getSQL).containsExactly(
+        "delete from Truck_Driver where exists (select 1 from Truck tmp "
+            + "where tmp.plate = Truck_Driver.truck_plate and tmp.id in unnest(?))",
+        "delete from Truck where id in unnest(?)",
+        "delete from Vehicle where id in unnest(?)");
+    assertThat(getIds(deletes.get(0), 1)).containsExactly(1L, 2L, 3L);
+  }
+
+  private int executeUpdate(String hql, int chunkSize) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.BULK_ID_CHUNK_SIZE, chunkSize);
+
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Vehicle.class)
+        .addAnnotatedClass(Car.class)
+        .addAnnotatedClass(Truck.class)
+        .addAnnotatedClass(Driver.class)
+        .buildMetadata()
+        .buildSessionFactory();
+        Session session = sessionFactory.openSession()) {
+      session.beginTransaction();
+      Query<?> query = session.createQuery(hql).setParameter("name", "Mini");
+      if (hql.contains(":seats")) {
+        query.setParameter("seats", 5);
+      }
+      int result = query.executeUpdate();
+      session.getTransaction().commit();
+      return result;
+    }
+  }
+
+  private List<MockPreparedStatement> getUpdateStatements() {
+    return this.connection.getPreparedStatementResultSetHandler().getPreparedStatements().stream()
+        .filter(statement -> !statement.getSQL().startsWith("select"))
+        .collect(Collectors.toList());
+  }
+
+  private static List<Object> getIds(MockPreparedStatement statement, int index)
+      throws SQLException {
+    Object[] ids = (Object[]) ((Array) statement.getParameter(index)).getArray();
+    return Arrays.asList(ids);
+  }
+
+  /**
+   * The root entity of a joined inheritance hierarchy.
+   */
+  @Entity(name = "Vehicle")
+  @Inheritance(strategy = InheritanceType.JOINED)
+  public static class Vehicle {
+
+    @Id
+    public long id;
+
+    public String name;
+  }
+
+  /**
+   * A subclass entity which is stored in its own table.
+   */
+  @Entity(name = "Car")
+  public static class Car extends Vehicle {
+
+    public int seats;
+  }
+
+  /**
+   * A subclass entity whose join table references a column other than its identifier.
+   */
+  @Entity(name = "Truck")
+  public static class Truck extends Vehicle {
+
+    @Column(unique = true)
+    public String plate;
+
+    @ManyToMany
+    @JoinTable(name = "Truck_Driver",
+        joinColumns = @JoinColumn(name = "truck_plate", referencedColumnName = "plate"))
+    public Set<Driver> drivers;
+  }
+
+  /**
+   * The other side of the many-to-many association of {@link Truck}.
+   */
+  @Entity(name = "Driver")
+  public static class Driver {
+
+    @Id
+    public long id;
+  }
+}
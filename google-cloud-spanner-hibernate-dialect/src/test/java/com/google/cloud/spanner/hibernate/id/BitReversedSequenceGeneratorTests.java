@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.entities.Employee;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import org.hibernate.MappingException;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.PooledOptimizer;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BitReversedSequenceGenerator}.
+ */
+public class BitReversedSequenceGeneratorTests {
+
+  private JDBCMockObjectFactory jdbcMockObjectFactory;
+
+  /**
+   * Set up the mock JDBC driver.
+   */
+  @Before
+  public void setup() throws SQLException {
+    this.jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    this.jdbcMockObjectFactory.registerMockDriver();
+
+    MockConnection connection = this.jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    this.jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+  }
+
+  @Test
+  public void testReverseSpreadsConsecutiveValues() {
+    assertThat(BitReversedSequenceGenerator.reverse(1L)).isEqualTo(1L << 62);
+    assertThat(BitReversedSequenceGenerator.reverse(2L)).isEqualTo(1L << 61);
+    assertThat(BitReversedSequenceGenerator.reverse(3L)).isEqualTo((1L << 62) | (1L << 61));
+    assertThat(BitReversedSequenceGenerator.reverse(1)).isEqualTo(1 << 30);
+    assertThat(BitReversedSequenceGenerator.reverse("abc")).isEqualTo("abc");
+  }
+
+  @Test
+  public void testReverseIsUniqueAndPositive() {
+    Set<Long> values = new HashSet<>();
+    for (long i = 0; i < 10000; i++) {
+      long reversed = (Long) BitReversedSequenceGenerator.reverse(i);
+      assertThat(reversed).isNotNegative();
+      values.add(reversed);
+    }
+    assertThat(values).hasSize(10000);
+    assertThat(BitReversedSequenceGenerator.reverse(Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testGeneratorIsRegisteredForAutoGeneration() {
+    IdentifierGenerator generator = getEmployeeIdGenerator(true);
+
+    assertThat(generator).isInstanceOf(BitReversedSequenceGenerator.class);
+    SequenceStyleGenerator sequenceGenerator = (SequenceStyleGenerator) generator;
+    assertThat(sequenceGenerator.getOptimizer()).isInstanceOf(PooledOptimizer.class);
+    assertThat(sequenceGenerator.getOptimizer().getIncrementSize())
+        .isEqualTo(BitReversedSequenceGenerator.DEFAULT_POOL_SIZE);
+    assertThat(sequenceGenerator.getDatabaseStructure().getName())
+        .isEqualTo("hibernate_sequence");
+  }
+
+  @Test
+  public void testGeneratorCanBeDisabled() {
+    IdentifierGenerator generator = getEmployeeIdGenerator(false);
+
+    assertThat(generator).isNotInstanceOf(BitReversedSequenceGenerator.class);
+    assertThat(generator).isInstanceOf(SequenceStyleGenerator.class);
+  }
+
+  @Test
+  public void testLowWaterMarkMustBeLessThanIncrementSize() {
+    assertThatThrownBy(() -> getEmployeeIdGenerator(true, 1000))
+        .hasRootCauseInstanceOf(MappingException.class)
+        .getRootCause()
+        .hasMessageContaining("The low-water mark [1000]");
+
+    BitReversedSequenceGenerator generator =
+        (BitReversedSequenceGenerator) getEmployeeIdGenerator(true, 100);
+    assertThat(generator.getPrefetchStatistics().getRefillCount()).isZero();
+  }
+
+  private IdentifierGenerator getEmployeeIdGenerator(boolean useBitReversedSequence) {
+    return getEmployeeIdGenerator(useBitReversedSequence, 0);
+  }
+
+  private IdentifierGenerator getEmployeeIdGenerator(
+      boolean useBitReversedSequence, int lowWaterMark) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_BIT_REVERSED_SEQUENCE, useBitReversedSequence)
+        .applySetting(SpannerSettings.ID_PREFETCH_LOW_WATER_MARK, lowWaterMark);
+
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata()
+        .buildSessionFactory()) {
+      return sessionFactory.unwrap(SessionFactoryImplementor.class)
+          .getMetamodel()
+          .entityPersister(Employee.class)
+          .getIdentifierGenerator();
+    }
+  }
+}
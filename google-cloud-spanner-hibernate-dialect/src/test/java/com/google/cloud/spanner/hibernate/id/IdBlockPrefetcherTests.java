@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.SQLException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IdBlockPrefetcher}.
+ */
+public class IdBlockPrefetcherTests {
+
+  private MockConnection connection;
+
+  private IdPrefetchStatistics statistics;
+
+  private IdBlockPrefetcher prefetcher;
+
+  /**
+   * Sets up a sequence table which always returns the hi value 2000.
+   */
+  @Before
+  public void setup() throws SQLException {
+    this.connection = new MockConnection();
+    MockResultSet resultSet = new MockResultSet("sequence");
+    resultSet.addColumn("next_val");
+    resultSet.addRow(new Object[]{2000L});
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareResultSet("select next_val from hibernate_sequence", resultSet);
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareUpdateCount("update hibernate_sequence", 1);
+
+    ConnectionProvider connectionProvider = mock(ConnectionProvider.class);
+    when(connectionProvider.getConnection()).thenReturn(this.connection);
+    JdbcServices jdbcServices = mock(JdbcServices.class);
+    when(jdbcServices.getSqlStatementLogger()).thenReturn(new SqlStatementLogger());
+
+    this.statistics = new IdPrefetchStatistics();
+    this.prefetcher = new IdBlockPrefetcher(
+        connectionProvider, jdbcServices, "hibernate_sequence", "next_val", 1000, 100,
+        this.statistics);
+  }
+
+  @Test
+  public void testFirstBlockIsReservedByPooledProtocol() {
+    assertThat(this.prefetcher.next()).isEqualTo(1001L);
+    assertThat(this.prefetcher.next()).isEqualTo(1002L);
+
+    assertThat(this.statistics.getRefillCount()).isEqualTo(1);
+    assertThat(this.statistics.getExhaustionCount()).isZero();
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .containsExactly(
+            "select next_val from hibernate_sequence",
+            "update hibernate_sequence set next_val=? where next_val=?");
+    MockPreparedStatement update = this.connection.getPreparedStatementResultSetHandler()
+        .getPreparedStatements().get(1);
+    assertThat(update.getParameter(1)).isEqualTo(3000L);
+    assertThat(update.getParameter(2)).isEqualTo(2000L);
+  }
+
+  @Test
+  public void testNextBlockIsFetchedAtLowWaterMark() throws InterruptedException {
+    for (int i = 0; i < 899; i++) {
+      this.prefetcher.next();
+    }
+    assertThat(this.statistics.getRefillCount()).isEqualTo(1);
+
+    // Reaching the low-water mark of 100 remaining values starts the background fetch of the next
+    // block.
+    assertThat(this.prefetcher.next()).isEqualTo(1900L);
+    for (int i = 0; i < 100 && this.statistics.getRefillCount() < 2; i++) {
+      Thread.sleep(50L);
+    }
+    assertThat(this.statistics.getRefillCount()).isEqualTo(2);
+
+    for (int i = 0; i < 100; i++) {
+      this.prefetcher.next();
+    }
+    // The mock table returns the same hi value again, so the next block restarts at 1001.
+    assertThat(this.prefetcher.next()).isEqualTo(1001L);
+    assertThat(this.statistics.getExhaustionCount()).isZero();
+    assertThat(this.statistics.getAverageRefillLatencyMillis()).isPositive();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.entities.Ticket;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ShardedTableGenerator}.
+ */
+public class ShardedTableGeneratorTests {
+
+  private MockConnection connection;
+
+  /**
+   * Set up the mock JDBC driver.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+  }
+
+  @Test
+  public void testCreateAndSeedShardedTable() {
+    SessionFactoryImplementor sessionFactory = buildSessionFactory(false, Ticket.class);
+    sessionFactory.openSession().close();
+
+    List<String> sqlStrings =
+        this.connection.getStatementResultSetHandler().getExecutedStatements();
+
+    assertThat(sqlStrings).containsExactly(
+        "START BATCH DDL",
+        "RUN BATCH",
+        "START BATCH DDL",
+        "create table hibernate_sharded_sequences (sequence_name STRING(255) not null,"
+            + "shard_id INT64 not null,next_val INT64) PRIMARY KEY (sequence_name,shard_id)",
+        "create table Ticket (id INT64 not null,seat STRING(255)) PRIMARY KEY (id)",
+        "RUN BATCH",
+        "insert into hibernate_sharded_sequences (sequence_name, shard_id, next_val) "
+            + "values ('default', 0, 1)",
+        "insert into hibernate_sharded_sequences (sequence_name, shard_id, next_val) "
+            + "values ('default', 1, 1)",
+        "insert into hibernate_sharded_sequences (sequence_name, shard_id, next_val) "
+            + "values ('default', 2, 1)",
+        "insert into hibernate_sharded_sequences (sequence_name, shard_id, next_val) "
+            + "values ('default', 3, 1)"
+    );
+  }
+
+  @Test
+  public void testGenerateFromShardRange() {
+    MockResultSet resultSet = new MockResultSet("shard");
+    resultSet.addColumn("next_val");
+    resultSet.addRow(new Object[]{10L});
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareResultSet("select next_val from hibernate_sharded_sequences", resultSet);
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareUpdateCount("update hibernate_sharded_sequences", 1);
+
+    SessionFactoryImplementor sessionFactory = buildSessionFactory(false, Ticket.class);
+    ShardedTableGenerator generator = (ShardedTableGenerator) sessionFactory.getMetamodel()
+        .entityPersister(Ticket.class)
+        .getIdentifierGenerator();
+
+    try (Session session = sessionFactory.openSession()) {
+      long first = (Long) generator.generate((SharedSessionContractImplementor) session, null);
+      long second = (Long) generator.generate((SharedSessionContractImplementor) session, null);
+
+      int shard = (int) (first % 4);
+      assertThat(first).isEqualTo(10 * 4 + shard);
+      assertThat(second).isEqualTo(11 * 4 + shard);
+    }
+
+    // Only the first value required a block to be reserved.
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .filteredOn(sql -> sql.startsWith("update"))
+        .containsExactly("update hibernate_sharded_sequences set next_val=? "
+            + "where sequence_name=? and shard_id=? and next_val=?");
+  }
+
+  @Test
+  public void testShardedGeneratorForGenerationTypeTable() {
+    SessionFactoryImplementor sessionFactory = buildSessionFactory(true, TableIdEntity.class);
+
+    assertThat(sessionFactory.getMetamodel().entityPersister(TableIdEntity.class)
+        .getIdentifierGenerator()).isInstanceOf(ShardedTableGenerator.class);
+  }
+
+  private SessionFactoryImplementor buildSessionFactory(
+      boolean useShardedTableGenerator, Class<?> entityClass) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting("hibernate.hbm2ddl.auto", "create")
+        .applySetting(SpannerSettings.USE_SHARDED_TABLE_GENERATOR, useShardedTableGenerator);
+
+    return (SessionFactoryImplementor) new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(entityClass)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  /**
+   * An entity which uses the standard JPA table generation strategy.
+   */
+  @Entity
+  public static class TableIdEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE)
+    public Long id;
+  }
+}
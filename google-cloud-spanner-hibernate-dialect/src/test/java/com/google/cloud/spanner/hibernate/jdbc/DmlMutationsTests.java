@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import com.google.cloud.spanner.hibernate.jdbc.DmlMutations.DmlStatement;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DmlMutations}.
+ */
+public class DmlMutationsTests {
+
+  @Test
+  public void testInsert() throws Exception {
+    Mutation mutation = DmlMutations.toMutation(
+        "/* insert Employee */ insert into Employee (manager_id, name, id) values (?, ?, ?)",
+        parameters(
+            param("setNull", int.class, Types.BIGINT),
+            param("setString", String.class, "Alice"),
+            param("setLong", long.class, 7L)));
+
+    assertThat(mutation).isEqualTo(Mutation.newInsertBuilder("Employee")
+        .set("manager_id").to((Long) null)
+        .set("name").to("Alice")
+        .set("id").to(7L)
+        .build());
+  }
+
+  @Test
+  public void testInsertWithLiteral() throws Exception {
+    Mutation mutation = DmlMutations.toMutation(
+        "insert into `Account` (`name`, DTYPE, id) values (?, 'Savings', ?)",
+        parameters(
+            param("setString", String.class, "main"),
+            param("setLong", long.class, 1L)));
+
+    assertThat(mutation).isEqualTo(Mutation.newInsertBuilder("Account")
+        .set("name").to("main")
+        .set("DTYPE").to("Savings")
+        .set("id").to(1L)
+        .build());
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    Mutation mutation = DmlMutations.toMutation(
+        "update Employee set manager_id=?, name=? where id=?",
+        parameters(
+            param("setLong", long.class, 2L),
+            param("setString", String.class, "Bob"),
+            param("setLong", long.class, 7L)));
+
+    assertThat(mutation).isEqualTo(Mutation.newUpdateBuilder("Employee")
+        .set("manager_id").to(2L)
+        .set("name").to("Bob")
+        .set("id").to(7L)
+        .build());
+  }
+
+  @Test
+  public void testCommitTimestamp() throws Exception {
+    Mutation insert = DmlMutations.toMutation(
+        "insert into Singer (name, id, updatedAt) values (?, ?, PENDING_COMMIT_TIMESTAMP())",
+        parameters(
+            param("setString", String.class, "Alice"),
+            param("setLong", long.class, 7L)));
+    Mutation update = DmlMutations.toMutation(
+        "update Singer set name=?, updatedAt=PENDING_COMMIT_TIMESTAMP() where id=?",
+        parameters(
+            param("setString", String.class, "Bob"),
+            param("setLong", long.class, 7L)));
+
+    assertThat(insert).isEqualTo(Mutation.newInsertBuilder("Singer")
+        .set("name").to("Alice")
+        .set("id").to(7L)
+        .set("updatedAt").to(Value.COMMIT_TIMESTAMP)
+        .build());
+    assertThat(update).isEqualTo(Mutation.newUpdateBuilder("Singer")
+        .set("name").to("Bob")
+        .set("updatedAt").to(Value.COMMIT_TIMESTAMP)
+        .set("id").to(7L)
+        .build());
+  }
+
+  @Test
+  public void testDeleteWithCompositeKey() throws Exception {
+    // Hibernate lists the columns of an embedded id in alphabetical order, while the key of the
+    // interleaved table starts with the key columns of its parents.
+    String sql = "delete from Child where childId=? and grandParentId=? and parentId=?";
+    Map<Integer, RecordedParameter> parameters = parameters(
+        param("setLong", long.class, 3L),
+        param("setLong", long.class, 1L),
+        param("setString", String.class, "a"));
+    Map<String, List<String>> keyColumns = Collections.singletonMap(
+        "Child", Arrays.asList("grandParentId", "parentId", "childId"));
+
+    assertThat(DmlMutations.toMutation(sql, parameters, keyColumns::get))
+        .isEqualTo(Mutation.delete("Child", Key.of(1L, "a", 3L)));
+    // The delete is not converted if the order of the key columns is not known.
+    assertThat(DmlMutations.toMutation(sql, parameters)).isNull();
+    assertThat(DmlMutations.toMutation(sql, parameters,
+        table -> Arrays.asList("grandParentId", "parentId"))).isNull();
+  }
+
+  @Test
+  public void testUnsupportedStatements() throws Exception {
+    assertThat(DmlMutations.toMutation(
+        "update Employee set name=upper(?) where id=?",
+        parameters(
+            param("setString", String.class, "Bob"),
+            param("setLong", long.class, 7L)))).isNull();
+    assertThat(DmlMutations.toMutation(
+        "delete from Employee where id=?",
+        parameters(param("setObject", Object.class, new Object())))).isNull();
+    assertThat(DmlMutations.toMutation(
+        "delete from Employee where id=?", new TreeMap<>())).isNull();
+    assertThat(DmlMutations.toMutation(
+        "select * from Employee where id=?",
+        parameters(param("setLong", long.class, 7L)))).isNull();
+  }
+
+  @Test
+  public void testInsertOrUpdate() throws Exception {
+    Mutation insert = Mutation.newInsertBuilder("Employee")
+        .set("name").to("Alice").set("id").to(7L).build();
+
+    assertThat(DmlMutations.toInsertOrUpdate(insert)).isEqualTo(
+        Mutation.newInsertOrUpdateBuilder("Employee")
+            .set("name").to("Alice").set("id").to(7L).build());
+  }
+
+  @Test
+  public void testInsertOrUpdateStatements() throws Exception {
+    List<DmlStatement> statements = DmlMutations.toInsertOrUpdateStatements(
+        "insert into `Account` (`name`, DTYPE, id) values (?, 'Savings', ?)",
+        parameters(
+            param("setString", String.class, "main"),
+            param("setLong", long.class, 1L)),
+        Collections.singletonList("id"));
+
+    assertThat(statements).extracting(DmlStatement::getSql).containsExactly(
+        "update `Account` set `name`=?, DTYPE='Savings' where id=?",
+        "insert into `Account` (`name`, DTYPE, id) select ?, 'Savings', ? from unnest([1]) "
+            + "where not exists (select 1 from `Account` where id=?)");
+    assertThat(values(statements.get(0))).containsExactly(Value.string("main"), Value.int64(1L));
+    assertThat(values(statements.get(1)))
+        .containsExactly(Value.string("main"), Value.int64(1L), Value.int64(1L));
+  }
+
+  @Test
+  public void testInsertOrUpdateStatementsOfKeyOnlyRow() throws Exception {
+    List<DmlStatement> statements = DmlMutations.toInsertOrUpdateStatements(
+        "insert into Child (childId, grandParentId) values (?, ?)",
+        parameters(
+            param("setLong", long.class, 2L),
+            param("setLong", long.class, 1L)),
+        Arrays.asList("grandParentId", "childId"));
+
+    assertThat(statements).extracting(DmlStatement::getSql).containsExactly(
+        "insert into Child (childId, grandParentId) select ?, ? from unnest([1]) "
+            + "where not exists (select 1 from Child where grandParentId=? and childId=?)");
+    assertThat(values(statements.get(0))).containsExactly(
+        Value.int64(2L), Value.int64(1L), Value.int64(1L), Value.int64(2L));
+  }
+
+  @Test
+  public void testParameterValues() throws Exception {
+    assertThat(param("setBoolean", boolean.class, true).toValue()).isEqualTo(Value.bool(true));
+    assertThat(param("setInt", int.class, 3).toValue()).isEqualTo(Value.int64(3L));
+    assertThat(param("setDouble", double.class, 1.5d).toValue()).isEqualTo(Value.float64(1.5d));
+    assertThat(param("setDate", java.sql.Date.class, java.sql.Date.valueOf("2021-07-07"))
+        .toValue()).isEqualTo(Value.date(com.google.cloud.Date.fromYearMonthDay(2021, 7, 7)));
+    assertThat(param("setNull", int.class, Types.ARRAY).toValue()).isNull();
+  }
+
+  private static List<Value> values(DmlStatement statement) throws SQLException {
+    List<Value> values = new ArrayList<>();
+    for (Map.Entry<Integer, RecordedParameter> parameter : statement.getParameters().entrySet()) {
+      assertThat(parameter.getKey()).isEqualTo(values.size() + 1);
+      values.add(parameter.getValue().toValue());
+    }
+    return values;
+  }
+
+  private static Map<Integer, RecordedParameter> parameters(RecordedParameter... parameters) {
+    Map<Integer, RecordedParameter> result = new TreeMap<>();
+    for (int i = 0; i < parameters.length; i++) {
+      result.put(i + 1, parameters[i]);
+    }
+    return result;
+  }
+
+  private static RecordedParameter param(String setter, Class<?> type, Object value)
+      throws NoSuchMethodException {
+    Method method = PreparedStatement.class.getMethod(setter, int.class, type);
+    return new RecordedParameter(method, new Object[] {1, value});
+  }
+}
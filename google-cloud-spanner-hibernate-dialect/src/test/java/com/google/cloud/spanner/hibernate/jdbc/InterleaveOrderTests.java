@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.entities.Child;
+import com.google.cloud.spanner.hibernate.entities.Employee;
+import com.google.cloud.spanner.hibernate.entities.GrandParent;
+import com.google.cloud.spanner.hibernate.entities.Parent;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InterleaveOrder}.
+ */
+public class InterleaveOrderTests {
+
+  private InterleaveOrder interleaveOrder;
+
+  /**
+   * Registers the interleaved GrandParent, Parent and Child tables, and the Employee table.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused");
+
+    this.interleaveOrder = new InterleaveOrder();
+    this.interleaveOrder.registerTables(new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(GrandParent.class)
+        .addAnnotatedClass(Parent.class)
+        .addAnnotatedClass(Child.class)
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata());
+  }
+
+  @Test
+  public void testInsertsAreWrittenParentFirstInKeyOrder() {
+    Mutation child = insertChild(1L, 1L, 1L);
+    Mutation employee = Mutation.newInsertBuilder("Employee").set("id").to(5L).build();
+    Mutation parent = Mutation.newInsertBuilder("Parent")
+        .set("name").to("p").set("parentId").to(1L).set("grandParentId").to(1L).build();
+    Mutation firstGrandParent = insertGrandParent(1L);
+    Mutation secondGrandParent = insertGrandParent(2L);
+
+    List<Mutation> mutations = new ArrayList<>(
+        Arrays.asList(child, employee, secondGrandParent, parent, firstGrandParent));
+    this.interleaveOrder.sort(mutations, mutation -> mutation);
+
+    // The Employee table is not interleaved, so it keeps its position.
+    assertThat(mutations).containsExactly(
+        firstGrandParent, employee, parent, child, secondGrandParent);
+  }
+
+  @Test
+  public void testDeletesAreWrittenChildFirst() throws Exception {
+    Mutation firstGrandParent = deleteGrandParent(1L);
+    Mutation secondGrandParent = deleteGrandParent(2L);
+    Mutation firstParent = deleteParent(1L, 5L);
+    Mutation secondParent = deleteParent(2L, 3L);
+    Mutation firstChild = deleteChild(1L, 5L, 9L);
+    Mutation secondChild = deleteChild(2L, 3L, 4L);
+    Mutation thirdChild = deleteChild(2L, 3L, 7L);
+    assertThat(secondChild).isEqualTo(Mutation.delete("Child", Key.of(2L, 3L, 4L)));
+
+    List<Mutation> mutations = new ArrayList<>(Arrays.asList(firstGrandParent, secondChild,
+        firstParent, thirdChild, secondGrandParent, firstChild, secondParent));
+    this.interleaveOrder.sort(mutations, mutation -> mutation);
+
+    assertThat(mutations).containsExactly(thirdChild, secondChild, secondParent,
+        secondGrandParent, firstChild, firstParent, firstGrandParent);
+  }
+
+  @Test
+  public void testKeyColumnsAreInSchemaOrder() {
+    assertThat(this.interleaveOrder.getKeyColumns("Child"))
+        .containsExactly("grandParentId", "parentId", "childId");
+    assertThat(this.interleaveOrder.getKeyColumns("Employee")).containsExactly("id");
+    assertThat(this.interleaveOrder.getKeyColumns("Unknown")).isNull();
+  }
+
+  @Test
+  public void testWritesAreNotMovedAcrossOtherOperations() {
+    Mutation child = insertChild(1L, 1L, 1L);
+    Mutation update = Mutation.newUpdateBuilder("GrandParent")
+        .set("grandParentId").to(3L).set("name").to("g").build();
+    Mutation grandParent = insertGrandParent(1L);
+
+    List<Mutation> mutations = new ArrayList<>(Arrays.asList(child, update, grandParent));
+    this.interleaveOrder.sort(mutations, mutation -> mutation);
+
+    assertThat(mutations).containsExactly(child, update, grandParent);
+  }
+
+  private static Mutation insertGrandParent(long grandParentId) {
+    return Mutation.newInsertBuilder("GrandParent")
+        .set("name").to("g").set("grandParentId").to(grandParentId).build();
+  }
+
+  private Mutation deleteGrandParent(long grandParentId) throws Exception {
+    return delete("delete from GrandParent where grandParentId=?", grandParentId);
+  }
+
+  private Mutation deleteParent(long grandParentId, long parentId) throws Exception {
+    return delete(
+        "delete from Parent where grandParentId=? and parentId=?", grandParentId, parentId);
+  }
+
+  /**
+   * Returns the delete of a child row as Hibernate generates it, with the columns of the
+   * embedded id in alphabetical order.
+   */
+  private Mutation deleteChild(long grandParentId, long parentId, long childId)
+      throws Exception {
+    return delete("delete from Child where childId=? and grandParentId=? and parentId=?",
+        childId, grandParentId, parentId);
+  }
+
+  private Mutation delete(String sql, long... ids) throws Exception {
+    Method setLong = PreparedStatement.class.getMethod("setLong", int.class, long.class);
+    Map<Integer, RecordedParameter> parameters = new TreeMap<>();
+    for (int i = 0; i < ids.length; i++) {
+      parameters.put(i + 1, new RecordedParameter(setLong, new Object[] {i + 1, ids[i]}));
+    }
+    return DmlMutations.toMutation(sql, parameters, this.interleaveOrder::getKeyColumns);
+  }
+
+  private static Mutation insertChild(long grandParentId, long parentId, long childId) {
+    return Mutation.newInsertBuilder("Child")
+        .set("name").to("c")
+        .set("childId").to(childId)
+        .set("grandParentId").to(grandParentId)
+        .set("parentId").to(parentId)
+        .build();
+  }
+}
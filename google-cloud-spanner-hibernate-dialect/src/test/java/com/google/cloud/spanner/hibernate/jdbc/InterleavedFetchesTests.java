@@ -0,0 +1,240 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.hibernate.Interleaved;
+import com.google.cloud.spanner.hibernate.InterleavedFetch;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.jdbc.InterleavedFetches.Query;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockArray;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import org.hibernate.MappingException;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InterleavedFetches} and {@link InterleavedResultSet}.
+ */
+public class InterleavedFetchesTests {
+
+  private static final String FETCH_QUERY = "select singer0_.id as id1_1_0_, "
+      + "albums1_.id as id1_0_1_, singer0_.name as name2_1_0_, "
+      + "albums1_.singer_id as singer_i3_0_1_, albums1_.title as title2_0_1_ "
+      + "from Singer singer0_ left outer join Album albums1_ on singer0_.id=albums1_.singer_id "
+      + "where singer0_.id=?";
+
+  private StandardServiceRegistry registry;
+
+  /**
+   * Sets up a service registry on a mock connection.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    this.registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .build();
+  }
+
+  @Test
+  public void testFetchJoinIsRewrittenToArray() {
+    Query query = interleavedFetches().rewrite(FETCH_QUERY);
+
+    assertThat(query.getSql()).isEqualTo("select singer0_.id as id1_1_0_, "
+        + "singer0_.name as name2_1_0_, array(select as struct albums1_.id as id1_0_1_, "
+        + "albums1_.singer_id as singer_i3_0_1_, albums1_.title as title2_0_1_ "
+        + "from Album albums1_ where singer0_.id=albums1_.singer_id) as albums1_interleaved "
+        + "from Singer singer0_ where singer0_.id=?");
+    assertThat(query.getArrays()).hasSize(1);
+    assertThat(query.getArrays().get(0).getLabel()).isEqualTo("albums1_interleaved");
+    assertThat(query.getArrays().get(0).getFields())
+        .containsExactly("id1_0_1_", "singer_i3_0_1_", "title2_0_1_");
+    assertThat(query.getArrays().get(0).isInnerJoin()).isFalse();
+  }
+
+  @Test
+  public void testOrderByChildIsMovedToArray() {
+    Query query = interleavedFetches().rewrite(FETCH_QUERY
+        + " order by singer0_.name asc, albums1_.title desc");
+
+    assertThat(query.getSql()).isEqualTo("select singer0_.id as id1_1_0_, "
+        + "singer0_.name as name2_1_0_, array(select as struct albums1_.id as id1_0_1_, "
+        + "albums1_.singer_id as singer_i3_0_1_, albums1_.title as title2_0_1_ "
+        + "from Album albums1_ where singer0_.id=albums1_.singer_id "
+        + "order by albums1_.title desc) as albums1_interleaved "
+        + "from Singer singer0_ where singer0_.id=? order by singer0_.name asc");
+  }
+
+  @Test
+  public void testJoinIsNotRewrittenIfChildIsReferenced() {
+    InterleavedFetches interleavedFetches = interleavedFetches();
+
+    assertThat(interleavedFetches.rewrite(FETCH_QUERY + " and albums1_.title=?")).isNull();
+    assertThat(interleavedFetches.rewrite(
+        "select singer0_.id as id1_1_0_, singer0_.name as name2_1_0_ from Singer singer0_"))
+        .isNull();
+  }
+
+  @Test
+  public void testLimitedQueryIsNotRewritten() {
+    InterleavedFetches interleavedFetches = interleavedFetches();
+
+    // The limit applies to the rows of the join, and would apply to the singers instead.
+    assertThat(interleavedFetches.rewrite(FETCH_QUERY + " limit ?")).isNull();
+    assertThat(interleavedFetches.rewrite(FETCH_QUERY + " limit ? offset ?")).isNull();
+  }
+
+  @Test
+  public void testOtherJoinsWithChildTableAreNotRewritten() {
+    InterleavedFetches interleavedFetches = interleavedFetches();
+
+    // A join of the child table from another entity.
+    assertThat(interleavedFetches.rewrite("select review0_.id as id1_2_0_, "
+        + "album1_.id as id1_0_1_, album1_.title as title2_0_1_ from Review review0_ "
+        + "left outer join Album album1_ on review0_.album_id=album1_.id")).isNull();
+    // A join of the child table on other columns than the foreign key of the association.
+    assertThat(interleavedFetches.rewrite("select singer0_.id as id1_1_0_, "
+        + "albums1_.id as id1_0_1_, albums1_.title as title2_0_1_ from Singer singer0_ "
+        + "left outer join Album albums1_ on singer0_.id=albums1_.id")).isNull();
+  }
+
+  @Test
+  public void testAssociationWithNonInterleavedEntityIsRejected() {
+    InterleavedFetches interleavedFetches = new InterleavedFetches();
+
+    assertThatThrownBy(() -> interleavedFetches.registerTables(new MetadataSources(this.registry)
+        .addAnnotatedClass(Label.class)
+        .addAnnotatedClass(Song.class)
+        .buildMetadata()))
+        .isInstanceOf(MappingException.class)
+        .hasMessageContaining("songs");
+  }
+
+  @Test
+  public void testArraysAreExpandedToRows() throws SQLException {
+    MockResultSet singers = new MockResultSet("singers");
+    singers.addColumn("id1_1_0_", new Object[] {1L, 2L});
+    singers.addColumn("name2_1_0_", new Object[] {"a", "b"});
+    singers.addColumn("albums1_interleaved", new Object[] {
+        new MockArray(new Struct[] {album(10L, 1L, "x"), album(11L, 1L, "y")}),
+        new MockArray(new Struct[0])});
+    Query query = interleavedFetches().rewrite(FETCH_QUERY);
+
+    ResultSet resultSet = InterleavedResultSet.wrap(singers, query.getArrays());
+    List<String> rows = new ArrayList<>();
+    while (resultSet.next()) {
+      String title = resultSet.getString("title2_0_1_");
+      rows.add(resultSet.getLong("id1_1_0_") + " " + resultSet.getString("name2_1_0_") + " "
+          + resultSet.getLong("id1_0_1_") + " " + title);
+    }
+
+    assertThat(rows).containsExactly("1 a 10 x", "1 a 11 y", "2 b 0 null");
+  }
+
+  private InterleavedFetches interleavedFetches() {
+    InterleavedFetches interleavedFetches = new InterleavedFetches();
+    interleavedFetches.registerTables(new MetadataSources(this.registry)
+        .addAnnotatedClass(Singer.class)
+        .addAnnotatedClass(Album.class)
+        .buildMetadata());
+    return interleavedFetches;
+  }
+
+  private static Struct album(long id, long singerId, String title) {
+    return Struct.newBuilder()
+        .set("id1_0_1_").to(id)
+        .set("singer_i3_0_1_").to(singerId)
+        .set("title2_0_1_").to(title)
+        .build();
+  }
+
+  @Entity(name = "Singer")
+  static class Singer {
+
+    @Id
+    Long id;
+
+    String name;
+
+    @OneToMany(mappedBy = "singer")
+    @InterleavedFetch
+    Set<Album> albums;
+  }
+
+  @Entity(name = "Album")
+  @Interleaved(parentEntity = Singer.class)
+  static class Album {
+
+    @Id
+    Long id;
+
+    @ManyToOne
+    Singer singer;
+
+    String title;
+  }
+
+  @Entity(name = "Label")
+  static class Label {
+
+    @Id
+    Long id;
+
+    @OneToMany(mappedBy = "label")
+    @InterleavedFetch
+    Set<Song> songs;
+  }
+
+  @Entity(name = "Song")
+  static class Song {
+
+    @Id
+    Long id;
+
+    @ManyToOne
+    Label label;
+  }
+}
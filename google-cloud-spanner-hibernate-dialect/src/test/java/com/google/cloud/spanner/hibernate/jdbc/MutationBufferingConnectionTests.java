@@ -0,0 +1,350 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.entities.Employee;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Tests for {@link MutationBufferingConnection} and {@link SpannerConnectionProvider}.
+ */
+public class MutationBufferingConnectionTests {
+
+  private static final String INSERT = "insert into Employee (name, id) values (?, ?)";
+
+  private static final String DELETE = "delete from Employee where id=?";
+
+  private CloudSpannerJdbcConnection spannerConnection;
+
+  private PreparedStatement spannerStatement;
+
+  private Connection connection;
+
+  /**
+   * Sets up a mock Spanner connection in a read/write transaction.
+   */
+  @Before
+  public void setup() throws SQLException {
+    this.spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    this.spannerStatement = mock(PreparedStatement.class);
+    when(this.spannerConnection.getAutoCommit()).thenReturn(false);
+    when(this.spannerConnection.isWrapperFor(CloudSpannerJdbcConnection.class)).thenReturn(true);
+    when(this.spannerConnection.unwrap(CloudSpannerJdbcConnection.class))
+        .thenReturn(this.spannerConnection);
+    when(this.spannerConnection.prepareStatement(anyString())).thenReturn(this.spannerStatement);
+    when(this.spannerStatement.executeUpdate()).thenReturn(1);
+
+    this.connection = MutationBufferingConnection.wrap(this.spannerConnection,
+        new HashSet<>(Arrays.asList(INSERT, DELETE)), new MutationCostEstimator(),
+        new InterleaveOrder(), 0);
+  }
+
+  @Test
+  public void testWritesAreSentWithCommit() throws SQLException {
+    try (PreparedStatement statement = this.connection.prepareStatement(INSERT)) {
+      statement.setString(1, "Alice");
+      statement.setLong(2, 1L);
+      statement.addBatch();
+      statement.setString(1, "Bob");
+      statement.setLong(2, 2L);
+      statement.addBatch();
+      assertThat(statement.executeBatch()).containsExactly(1, 1);
+    }
+    try (PreparedStatement statement = this.connection.prepareStatement(DELETE)) {
+      statement.setLong(1, 3L);
+      assertThat(statement.executeUpdate()).isEqualTo(1);
+    }
+    this.connection.commit();
+
+    verify(this.spannerConnection, never()).prepareStatement(anyString());
+    InOrder order = inOrder(this.spannerConnection);
+    order.verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Employee").set("name").to("Alice").set("id").to(1L).build(),
+        Mutation.newInsertBuilder("Employee").set("name").to("Bob").set("id").to(2L).build(),
+        Mutation.delete("Employee", Key.of(3L))));
+    order.verify(this.spannerConnection).commit();
+  }
+
+  @Test
+  public void testWritesAreCommittedInChunks() throws SQLException {
+    // Each insert writes two columns, so two inserts fit into a commit of at most five mutations.
+    this.connection = MutationBufferingConnection.wrap(this.spannerConnection,
+        Collections.singleton(INSERT), new MutationCostEstimator(), new InterleaveOrder(), 5);
+    try (PreparedStatement statement = this.connection.prepareStatement(INSERT)) {
+      for (long id = 1; id <= 3; id++) {
+        MutationBufferingConnection.startAction(this.connection);
+        statement.setString(1, "Singer " + id);
+        statement.setLong(2, id);
+        statement.addBatch();
+      }
+      assertThat(statement.executeBatch()).containsExactly(1, 1, 1);
+    }
+    this.connection.commit();
+
+    InOrder order = inOrder(this.spannerConnection);
+    order.verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Employee")
+            .set("name").to("Singer 1").set("id").to(1L).build(),
+        Mutation.newInsertBuilder("Employee")
+            .set("name").to("Singer 2").set("id").to(2L).build()));
+    order.verify(this.spannerConnection).commit();
+    order.verify(this.spannerConnection).bufferedWrite(Collections.singletonList(
+        Mutation.newInsertBuilder("Employee")
+            .set("name").to("Singer 3").set("id").to(3L).build()));
+    order.verify(this.spannerConnection).commit();
+  }
+
+  @Test
+  public void testChunksEndBetweenActions() throws SQLException {
+    // The inserts of an entity which is mapped to two tables are batched per table. The inserts
+    // of one entity fit into a commit of at most six mutations, but not those of two entities.
+    String insertDetails = "insert into EmployeeDetails (title, id) values (?, ?)";
+    this.connection = MutationBufferingConnection.wrap(this.spannerConnection,
+        new HashSet<>(Arrays.asList(INSERT, insertDetails)), new MutationCostEstimator(),
+        new InterleaveOrder(), 6);
+    try (PreparedStatement employees = this.connection.prepareStatement(INSERT);
+        PreparedStatement details = this.connection.prepareStatement(insertDetails)) {
+      for (long id = 1; id <= 2; id++) {
+        MutationBufferingConnection.startAction(this.connection);
+        employees.setString(1, "Employee " + id);
+        employees.setLong(2, id);
+        employees.addBatch();
+        details.setString(1, "Title " + id);
+        details.setLong(2, id);
+        details.addBatch();
+      }
+      MutationBufferingConnection.startAction(this.connection);
+      employees.executeBatch();
+      details.executeBatch();
+    }
+    this.connection.commit();
+
+    InOrder order = inOrder(this.spannerConnection);
+    order.verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Employee")
+            .set("name").to("Employee 1").set("id").to(1L).build(),
+        Mutation.newInsertBuilder("EmployeeDetails")
+            .set("title").to("Title 1").set("id").to(1L).build()));
+    order.verify(this.spannerConnection).commit();
+    order.verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Employee")
+            .set("name").to("Employee 2").set("id").to(2L).build(),
+        Mutation.newInsertBuilder("EmployeeDetails")
+            .set("title").to("Title 2").set("id").to(2L).build()));
+    order.verify(this.spannerConnection).commit();
+  }
+
+  @Test
+  public void testWritesAreExecutedAsDmlBeforeQuery() throws SQLException {
+    try (PreparedStatement statement = this.connection.prepareStatement(INSERT)) {
+      statement.setString(1, "Alice");
+      statement.setLong(2, 1L);
+      statement.executeUpdate();
+    }
+    this.connection.prepareStatement("select name from Employee where id=?");
+    this.connection.commit();
+
+    InOrder order = inOrder(this.spannerConnection, this.spannerStatement);
+    order.verify(this.spannerConnection).prepareStatement(INSERT);
+    order.verify(this.spannerStatement).setString(1, "Alice");
+    order.verify(this.spannerStatement).setLong(2, 1L);
+    order.verify(this.spannerStatement).executeUpdate();
+    order.verify(this.spannerConnection)
+        .prepareStatement("select name from Employee where id=?");
+    order.verify(this.spannerConnection).commit();
+    verify(this.spannerConnection, never()).bufferedWrite(any(Iterable.class));
+  }
+
+  @Test
+  public void testUpsertsAreSentAsInsertOrUpdate() throws SQLException {
+    writeUpsert("Alice", 1L);
+    this.connection.commit();
+
+    verify(this.spannerConnection).bufferedWrite(Collections.singletonList(
+        Mutation.newInsertOrUpdateBuilder("Employee")
+            .set("name").to("Alice").set("id").to(1L).build()));
+  }
+
+  @Test
+  public void testUpsertsAreExecutedAsUpdateAndInsertBeforeQuery() throws SQLException {
+    when(this.spannerStatement.executeUpdate()).thenReturn(0, 1);
+    writeUpsert("Alice", 1L);
+    this.connection.createStatement();
+
+    InOrder order = inOrder(this.spannerConnection, this.spannerStatement);
+    order.verify(this.spannerConnection)
+        .prepareStatement("update Employee set name=? where id=?");
+    order.verify(this.spannerStatement).setString(1, "Alice");
+    order.verify(this.spannerStatement).setLong(2, 1L);
+    order.verify(this.spannerStatement).executeUpdate();
+    order.verify(this.spannerConnection).prepareStatement(
+        "insert into Employee (name, id) select ?, ? from unnest([1]) "
+            + "where not exists (select 1 from Employee where id=?)");
+    order.verify(this.spannerStatement).setString(1, "Alice");
+    order.verify(this.spannerStatement).setLong(2, 1L);
+    order.verify(this.spannerStatement).setLong(3, 1L);
+    order.verify(this.spannerStatement).executeUpdate();
+    order.verify(this.spannerConnection).createStatement();
+  }
+
+  @Test
+  public void testMissingRowIsReportedWhenExecutedAsDml() throws SQLException {
+    when(this.spannerStatement.executeUpdate()).thenReturn(0);
+    try (PreparedStatement statement = this.connection.prepareStatement(DELETE)) {
+      statement.setLong(1, 3L);
+      statement.executeUpdate();
+    }
+
+    assertThatThrownBy(() -> this.connection.createStatement())
+        .isInstanceOf(StaleStateException.class);
+  }
+
+  @Test
+  public void testNothingIsBufferedInAutocommit() throws SQLException {
+    when(this.spannerConnection.getAutoCommit()).thenReturn(true);
+    try (PreparedStatement statement = this.connection.prepareStatement(DELETE)) {
+      statement.setLong(1, 3L);
+      statement.executeUpdate();
+    }
+
+    verify(this.spannerConnection).prepareStatement(DELETE);
+    verify(this.spannerStatement).setLong(1, 3L);
+    verify(this.spannerStatement).executeUpdate();
+  }
+
+  @Test
+  public void testRollbackDiscardsWrites() throws SQLException {
+    try (PreparedStatement statement = this.connection.prepareStatement(DELETE)) {
+      statement.setLong(1, 3L);
+      statement.executeUpdate();
+    }
+    this.connection.rollback();
+    this.connection.commit();
+
+    verify(this.spannerConnection, never()).bufferedWrite(any(Iterable.class));
+    verify(this.spannerConnection, never()).prepareStatement(anyString());
+  }
+
+  @Test
+  public void testProviderRegistersEntityStatements() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection mockConnection = jdbcMockObjectFactory.getMockConnection();
+    mockConnection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(mockConnection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_MUTATIONS, true);
+
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata()
+        .buildSessionFactory()) {
+      SpannerConnectionProvider connectionProvider = sessionFactory.getSessionFactoryOptions()
+          .getServiceRegistry()
+          .getService(ConnectionProvider.class)
+          .unwrap(SpannerConnectionProvider.class);
+
+      assertThat(connectionProvider.getMutationStatements()).contains(
+          "insert into Employee (manager_id, name, id) values (?, ?, ?)",
+          "update Employee set manager_id=?, name=? where id=?",
+          "delete from Employee where id=?");
+    }
+  }
+
+  @Test
+  public void testProviderDelimitsActionsOfChunkedCommits() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection mockConnection = jdbcMockObjectFactory.getMockConnection();
+    mockConnection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(mockConnection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_MUTATIONS, true)
+        .applySetting(SpannerSettings.MAX_MUTATIONS_PER_COMMIT, 1000);
+
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata()
+        .buildSessionFactory()) {
+      EventListenerRegistry eventListenerRegistry = sessionFactory
+          .unwrap(SessionFactoryImplementor.class)
+          .getServiceRegistry()
+          .getService(EventListenerRegistry.class);
+
+      assertThat(eventListenerRegistry.getEventListenerGroup(EventType.PRE_INSERT).listeners())
+          .contains(WriteActionListener.INSTANCE);
+      assertThat(eventListenerRegistry
+          .getEventListenerGroup(EventType.PRE_COLLECTION_UPDATE).listeners())
+          .contains(WriteActionListener.INSTANCE);
+    }
+  }
+
+  private void writeUpsert(String name, long id) throws SQLException {
+    ParameterRecorder recorder = new ParameterRecorder(null);
+    recorder.getProxy().setString(1, name);
+    recorder.getProxy().setLong(2, id);
+    MutationBufferingConnection.writeUpsert(this.connection, INSERT, recorder.getParameters(),
+        DmlMutations.toInsertOrUpdate(DmlMutations.toMutation(INSERT, recorder.getParameters())),
+        Collections.singletonList("id"));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.entities.Employee;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MutationCostEstimator}.
+ */
+public class MutationCostEstimatorTests {
+
+  private MutationCostEstimator costEstimator;
+
+  /**
+   * Registers the tables of the {@link Employee} entity, which has an index on its name.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused");
+
+    this.costEstimator = new MutationCostEstimator();
+    this.costEstimator.registerTables(new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata());
+  }
+
+  @Test
+  public void testInsertCountsColumnsAndIndexes() {
+    Mutation insert = Mutation.newInsertBuilder("Employee")
+        .set("manager_id").to(2L)
+        .set("name").to("Alice")
+        .set("id").to(1L)
+        .build();
+
+    assertThat(this.costEstimator.estimate(insert)).isEqualTo(4L);
+  }
+
+  @Test
+  public void testUpdateOnlyCountsAffectedIndexes() {
+    Mutation updateManager = Mutation.newUpdateBuilder("Employee")
+        .set("manager_id").to(2L)
+        .set("id").to(1L)
+        .build();
+    Mutation updateName = Mutation.newUpdateBuilder("Employee")
+        .set("name").to("Bob")
+        .set("id").to(1L)
+        .build();
+
+    assertThat(this.costEstimator.estimate(updateManager)).isEqualTo(2L);
+    assertThat(this.costEstimator.estimate(updateName)).isEqualTo(3L);
+  }
+
+  @Test
+  public void testDeleteCountsRowAndIndexes() {
+    assertThat(this.costEstimator.estimate(Mutation.delete("Employee", Key.of(1L))))
+        .isEqualTo(2L);
+    assertThat(this.costEstimator.estimate(Mutation.delete("Unknown", Key.of(1L))))
+        .isEqualTo(1L);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SingleUseReadConnection} and {@link SpannerTransactionCoordinatorBuilder}.
+ */
+public class SingleUseReadConnectionTests {
+
+  private MockConnection connection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory which executes the queries of read-only transactions as single-use
+   * read-only transactions.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_SINGLE_USE_READS, "true")
+        .build())
+        .addAnnotatedClass(Singer.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testReadOnlyTransactionRunsInAutocommitMode() throws SQLException {
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+      session.beginTransaction();
+      session.doWork(connection -> {
+        assertThat(connection.isReadOnly()).isTrue();
+        assertThat(connection.getAutoCommit()).isFalse();
+      });
+      assertThat(this.connection.isReadOnly()).isTrue();
+      assertThat(this.connection.getAutoCommit()).isTrue();
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getNumberCommits()).isEqualTo(0);
+    assertThat(this.connection.isReadOnly()).isFalse();
+  }
+
+  @Test
+  public void testReadWriteSessionRunsInTransaction() throws SQLException {
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      assertThat(this.connection.isReadOnly()).isFalse();
+      assertThat(this.connection.getAutoCommit()).isFalse();
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getNumberCommits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReadOnlyByDefaultSessionRunsInTransaction() throws SQLException {
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setDefaultReadOnly(true);
+      session.beginTransaction();
+      assertThat(this.connection.isReadOnly()).isFalse();
+      assertThat(this.connection.getAutoCommit()).isFalse();
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getNumberCommits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReadOnlyTransactionFallsBackToReadWriteForWrites() throws SQLException {
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalUpdateCount(1);
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+      session.beginTransaction();
+      assertThat(this.connection.isReadOnly()).isTrue();
+
+      Singer singer = new Singer();
+      singer.id = 1L;
+      session.persist(singer);
+      session.flush();
+      assertThat(this.connection.isReadOnly()).isFalse();
+      assertThat(this.connection.getAutoCommit()).isFalse();
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .containsExactly("insert into Singer (name, id) values (?, ?)");
+    assertThat(this.connection.getNumberCommits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReadOnlyConnectionEmulatesTransaction() throws SQLException {
+    this.connection.setAutoCommit(false);
+    Connection connection = SingleUseReadConnection.wrap(this.connection);
+
+    connection.setReadOnly(true);
+    assertThat(connection.getAutoCommit()).isFalse();
+    assertThat(this.connection.getAutoCommit()).isTrue();
+    connection.commit();
+    connection.rollback();
+    assertThat(this.connection.getNumberCommits()).isEqualTo(0);
+    assertThat(this.connection.getNumberRollbacks()).isEqualTo(0);
+
+    connection.setReadOnly(false);
+    assertThat(this.connection.isReadOnly()).isFalse();
+    assertThat(this.connection.getAutoCommit()).isFalse();
+    connection.commit();
+    assertThat(this.connection.getNumberCommits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReleaseEndsEmulatedTransaction() throws SQLException {
+    this.connection.setAutoCommit(false);
+    Connection connection = SingleUseReadConnection.wrap(this.connection);
+    connection.setReadOnly(true);
+
+    assertThat(SingleUseReadConnection.release(connection)).isSameAs(this.connection);
+    assertThat(this.connection.isReadOnly()).isTrue();
+    assertThat(this.connection.getAutoCommit()).isFalse();
+  }
+
+  /**
+   * An entity with an assigned identifier.
+   */
+  @Entity(name = "Singer")
+  public static class Singer {
+
+    @Id
+    public long id;
+
+    public String name;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerBlindWriteSession}.
+ */
+public class SpannerBlindWriteSessionTests {
+
+  private MockConnection connection;
+
+  private CloudSpannerJdbcConnection spannerConnection;
+
+  /**
+   * Sets up a mock JDBC connection which unwraps to a mock Spanner connection.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    this.connection = new MockConnection() {
+      @Override
+      public boolean isWrapperFor(Class<?> iface) {
+        return iface == CloudSpannerJdbcConnection.class;
+      }
+
+      @Override
+      public <T> T unwrap(Class<T> iface) {
+        return iface.cast(spannerConnection);
+      }
+    };
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+  }
+
+  @Test
+  public void testInsertsAreCommittedAsMutations() throws SQLException {
+    writeEvents("0");
+
+    verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Event").set("payload").to("a").set("id").to(1L).build(),
+        Mutation.newInsertBuilder("Event").set("payload").to("b").set("id").to(2L).build()));
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .isEmpty();
+  }
+
+  @Test
+  public void testBatchedInsertsAreNotSentAsDmlBatch() throws SQLException {
+    writeEvents("10");
+
+    verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertBuilder("Event").set("payload").to("a").set("id").to(1L).build(),
+        Mutation.newInsertBuilder("Event").set("payload").to("b").set("id").to(2L).build()));
+    assertThat(this.connection.getStatementResultSetHandler().getExecutedStatements()).isEmpty();
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .isEmpty();
+  }
+
+  @Test
+  public void testConnectionProviderIsRegisteredWithSessionFactory() {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_INTERLEAVED_FETCH, false);
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Event.class)
+        .buildMetadata()
+        .buildSessionFactory()) {
+      SpannerConnectionProvider connectionProvider = sessionFactory.getSessionFactoryOptions()
+          .getServiceRegistry()
+          .getService(ConnectionProvider.class)
+          .unwrap(SpannerConnectionProvider.class);
+      SpannerConnectionProvider blindWrites = connectionProvider.getBlindWriteProvider();
+
+      assertThat(blindWrites).isNotSameAs(connectionProvider);
+      assertThat(connectionProvider.getBlindWriteProvider()).isSameAs(blindWrites);
+      assertThat(connectionProvider.getMutationStatements()).isEmpty();
+      assertThat(blindWrites.getMutationStatements()).containsExactlyInAnyOrder(
+          "insert into Event (payload, id) values (?, ?)",
+          "update Event set payload=? where id=?",
+          "delete from Event where id=?");
+    }
+  }
+
+  private void writeEvents(String batchSize) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting("hibernate.jdbc.batch_size", batchSize)
+        .applySetting(SpannerSettings.USE_BATCH_DML, true);
+    try (SessionFactory sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Event.class)
+        .buildMetadata()
+        .buildSessionFactory()) {
+      StatelessSession session = SpannerBlindWriteSession.open(sessionFactory);
+      try {
+        session.beginTransaction();
+        session.insert(event(1L, "a"));
+        session.insert(event(2L, "b"));
+        session.getTransaction().commit();
+      } finally {
+        session.close();
+      }
+      assertThat(session.isOpen()).isFalse();
+    }
+  }
+
+  private static Event event(long id, String payload) {
+    Event event = new Event();
+    event.id = id;
+    event.payload = payload;
+    return event;
+  }
+
+  /**
+   * An entity which is only ever inserted.
+   */
+  @Entity(name = "Event")
+  public static class Event {
+
+    @Id
+    public long id;
+
+    public String payload;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.entities.Account;
+import com.google.cloud.spanner.hibernate.entities.Child;
+import com.google.cloud.spanner.hibernate.entities.GrandParent;
+import com.google.cloud.spanner.hibernate.entities.Parent;
+import com.mockrunner.jdbc.ParameterSets;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockArray;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.OptimisticLockException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerDmlBatch}.
+ */
+public class SpannerDmlBatchTests {
+
+  private MockConnection connection;
+
+  /**
+   * Set up the mock JDBC driver.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+  }
+
+  @Test
+  public void testFlushIsSentAsOneBatch() {
+    prepareUpdateCounts(1L, 1L, 1L);
+
+    try (SessionFactory sessionFactory = buildSessionFactory(true);
+        Session session = sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(new Account(1L, "Alice", BigDecimal.ONE));
+      session.persist(new Note(1L, "first"));
+      session.persist(new Account(2L, "Bob", BigDecimal.TEN));
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getStatementResultSetHandler().getExecutedStatements())
+        .containsExactly(SpannerDmlBatch.START_BATCH_DML, SpannerDmlBatch.RUN_BATCH);
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .containsExactly(
+            "insert into Account (amount, name, id) values (?, ?, ?)",
+            "insert into Note (text, id) values (?, ?)",
+            "insert into Account (amount, name, id) values (?, ?, ?)");
+  }
+
+  @Test
+  public void testNonInterleavedWritesKeepTheirOrder() {
+    prepareUpdateCounts(1L, 1L, 1L);
+
+    // The interleaved tables of the mapping are ordered by key, the other tables are not.
+    try (SessionFactory sessionFactory = buildSessionFactory(
+        true, GrandParent.class, Parent.class, Child.class);
+        Session session = sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(new Account(3L, "Carol", BigDecimal.ONE));
+      session.persist(new Note(2L, "second"));
+      session.persist(new Account(1L, "Alice", BigDecimal.TEN));
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .containsExactly(
+            "insert into Account (amount, name, id) values (?, ?, ?)",
+            "insert into Note (text, id) values (?, ?)",
+            "insert into Account (amount, name, id) values (?, ?, ?)");
+    ParameterSets accounts = this.connection.getPreparedStatementResultSetHandler()
+        .getParametersForExecutedStatement(
+            "insert into Account (amount, name, id) values (?, ?, ?)");
+    assertThat(accounts.getNumberParameterSets()).isEqualTo(2);
+    assertThat(accounts.getParameterSet(0).get(3)).isEqualTo(3L);
+    assertThat(accounts.getParameterSet(1).get(3)).isEqualTo(1L);
+  }
+
+  @Test
+  public void testUpdateCountsAreVerified() {
+    prepareUpdateCounts(1L, 0L);
+
+    try (SessionFactory sessionFactory = buildSessionFactory(true);
+        Session session = sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.update(new Account(1L, "Alice", BigDecimal.ONE));
+      session.update(new Note(1L, "missing"));
+
+      assertThatThrownBy(session::flush).isInstanceOf(OptimisticLockException.class);
+      session.getTransaction().rollback();
+    }
+  }
+
+  @Test
+  public void testStandardBatchesWhenDisabled() {
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalUpdateCount(1);
+
+    try (SessionFactory sessionFactory = buildSessionFactory(false);
+        Session session = sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(new Account(1L, "Alice", BigDecimal.ONE));
+      session.persist(new Note(1L, "first"));
+      session.getTransaction().commit();
+    }
+
+    assertThat(this.connection.getStatementResultSetHandler().getExecutedStatements()).isEmpty();
+  }
+
+  private void prepareUpdateCounts(Long... updateCounts) {
+    MockResultSet resultSet = new MockResultSet("updateCounts");
+    resultSet.addColumn(SpannerDmlBatch.UPDATE_COUNTS);
+    resultSet.addRow(new Object[] {new MockArray(updateCounts)});
+    this.connection.getStatementResultSetHandler()
+        .prepareResultSet(SpannerDmlBatch.RUN_BATCH, resultSet);
+  }
+
+  private SessionFactory buildSessionFactory(boolean useBatchDml, Class<?>... entityClasses) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting("hibernate.jdbc.batch_size", 10)
+        .applySetting(SpannerSettings.USE_BATCH_DML, useBatchDml);
+
+    MetadataSources metadataSources = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Account.class)
+        .addAnnotatedClass(Note.class);
+    for (Class<?> entityClass : entityClasses) {
+      metadataSources.addAnnotatedClass(entityClass);
+    }
+    return metadataSources.buildMetadata().buildSessionFactory();
+  }
+
+  /**
+   * A second entity to batch together with {@link Account}.
+   */
+  @Entity(name = "Note")
+  public static class Note {
+
+    @Id
+    public long id;
+
+    public String text;
+
+    public Note() {
+    }
+
+    Note(long id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.connection.AutocommitDmlMode;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import java.sql.SQLException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Tests for {@link SpannerPartitionedDml}.
+ */
+public class SpannerPartitionedDmlTests {
+
+  private CloudSpannerJdbcConnection connection;
+
+  private Session session;
+
+  private Query<?> query;
+
+  /**
+   * Sets up a session in a transaction which has not yet executed any statements.
+   */
+  @Before
+  public void setup() throws SQLException {
+    this.connection = mock(CloudSpannerJdbcConnection.class);
+    when(this.connection.unwrap(CloudSpannerJdbcConnection.class)).thenReturn(this.connection);
+    when(this.connection.getAutoCommit()).thenReturn(false);
+    when(this.connection.getAutocommitDmlMode()).thenReturn(AutocommitDmlMode.TRANSACTIONAL);
+
+    this.session = mock(Session.class);
+    doAnswer(invocation -> {
+      invocation.<Work>getArgument(0).execute(this.connection);
+      return null;
+    }).when(this.session).doWork(any(Work.class));
+
+    this.query = mock(Query.class);
+    when(this.query.executeUpdate()).thenReturn(42);
+  }
+
+  @Test
+  public void testExecuteUpdateAsPartitionedDml() throws SQLException {
+    assertThat(SpannerPartitionedDml.executeUpdate(this.session, this.query)).isEqualTo(42);
+
+    InOrder order = inOrder(this.session, this.connection, this.query);
+    order.verify(this.session).flush();
+    order.verify(this.connection).setAutoCommit(true);
+    order.verify(this.connection)
+        .setAutocommitDmlMode(AutocommitDmlMode.PARTITIONED_NON_ATOMIC);
+    order.verify(this.query).executeUpdate();
+    order.verify(this.connection).setAutocommitDmlMode(AutocommitDmlMode.TRANSACTIONAL);
+    order.verify(this.connection).setAutoCommit(false);
+  }
+
+  @Test
+  public void testModeIsRestoredAfterFailure() throws SQLException {
+    when(this.query.executeUpdate()).thenThrow(new IllegalStateException("failed"));
+
+    assertThatThrownBy(() -> SpannerPartitionedDml.executeUpdate(this.session, this.query))
+        .hasMessage("failed");
+    verify(this.connection).setAutocommitDmlMode(AutocommitDmlMode.TRANSACTIONAL);
+    verify(this.connection).setAutoCommit(false);
+  }
+
+  @Test
+  public void testStartedTransactionIsRejected() throws SQLException {
+    when(this.connection.isTransactionStarted()).thenReturn(true);
+
+    assertThatThrownBy(() -> SpannerPartitionedDml.executeUpdate(this.session, this.query))
+        .isInstanceOf(IllegalStateException.class);
+    verify(this.query, never()).executeUpdate();
+    verify(this.connection, never()).setAutoCommit(true);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.BatchClient;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.PartitionOptions;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.ResultSets;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.query.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerPartitionedQuery}.
+ */
+public class SpannerPartitionedQueryTests {
+
+  private static final Function<Session, Query<Customer>> QUERY =
+      session -> session.createQuery("from Customer c where c.name <> :name", Customer.class)
+          .setParameter("name", "unknown");
+
+  private SessionFactory sessionFactory;
+
+  private BatchReadOnlyTransaction transaction;
+
+  private BatchClient batchClient;
+
+  /**
+   * Sets up a session factory on a mock connection, and a batch client with two partitions.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .build())
+        .addAnnotatedClass(Customer.class)
+        .buildMetadata()
+        .buildSessionFactory();
+
+    Partition first = mock(Partition.class);
+    Partition second = mock(Partition.class);
+    this.transaction = mock(BatchReadOnlyTransaction.class);
+    when(this.transaction.partitionQuery(any(PartitionOptions.class), any(Statement.class)))
+        .thenReturn(Arrays.asList(first, second));
+    when(this.transaction.getReadTimestamp()).thenReturn(Timestamp.ofTimeMicroseconds(1000L));
+    when(this.transaction.execute(first)).thenReturn(rows(1L, "Alice", 2L, "Bob"));
+    when(this.transaction.execute(second)).thenReturn(rows(3L, "Carol"));
+    this.batchClient = mock(BatchClient.class);
+    when(this.batchClient.batchReadOnlyTransaction(TimestampBound.strong()))
+        .thenReturn(this.transaction);
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testForEachReadsAllPartitions() {
+    Queue<String> names = new ConcurrentLinkedQueue<>();
+    new SpannerPartitionedQuery(this.sessionFactory, this.batchClient)
+        .forEach(QUERY, customer -> names.add(customer.name));
+
+    assertThat(names).containsExactlyInAnyOrder("Alice", "Bob", "Carol");
+    verify(this.transaction).partitionQuery(PartitionOptions.getDefaultInstance(),
+        Statement.newBuilder("select spannerpar0_.id as id1_0_, spannerpar0_.name as name2_0_ "
+            + "from Customer spannerpar0_ where spannerpar0_.name<>@p1")
+            .bind("p1").to("unknown")
+            .build());
+    verify(this.transaction).close();
+  }
+
+  @Test
+  public void testStream() {
+    List<Long> ids;
+    try (Stream<Customer> customers =
+        new SpannerPartitionedQuery(this.sessionFactory, this.batchClient).stream(QUERY)) {
+      ids = customers.map(customer -> customer.id).collect(Collectors.toList());
+    }
+
+    assertThat(ids).containsExactlyInAnyOrder(1L, 2L, 3L);
+  }
+
+  @Test
+  public void testConsumerFailure() {
+    assertThatThrownBy(() -> new SpannerPartitionedQuery(this.sessionFactory, this.batchClient)
+        .forEach(QUERY, customer -> {
+          throw new IllegalStateException("test");
+        }))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("test");
+  }
+
+  private static ResultSet rows(Object... values) {
+    Type type = Type.struct(
+        StructField.of("id1_0_", Type.int64()), StructField.of("name2_0_", Type.string()));
+    Struct[] rows = new Struct[values.length / 2];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = Struct.newBuilder()
+          .set("id1_0_").to((Long) values[2 * i])
+          .set("name2_0_").to((String) values[2 * i + 1])
+          .build();
+    }
+    return ResultSets.forRows(type, Arrays.asList(rows));
+  }
+
+  @Entity(name = "Customer")
+  static class Customer {
+
+    @Id
+    Long id;
+
+    String name;
+  }
+}
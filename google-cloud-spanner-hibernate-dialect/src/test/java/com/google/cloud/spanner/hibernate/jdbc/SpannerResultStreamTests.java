@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerResultStream}.
+ */
+public class SpannerResultStreamTests {
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory on a mock connection which returns five singers for every query.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection connection = jdbcMockObjectFactory.getMockConnection();
+    connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(connection);
+
+    MockResultSet singers = new MockResultSet("singers");
+    singers.addColumn("id1_0_", new Object[] {1L, 2L, 3L, 4L, 5L});
+    singers.addColumn("name2_0_", new Object[] {"a", "b", "c", "d", "e"});
+    connection.getPreparedStatementResultSetHandler().prepareGlobalResultSet(singers);
+    MockResultSet singer = new MockResultSet("singer");
+    singer.addColumn("id1_0_0_", new Object[] {1L});
+    singer.addColumn("name2_0_0_", new Object[] {"a"});
+    connection.getPreparedStatementResultSetHandler().prepareResultSet(".id=?", singer);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .build())
+        .addAnnotatedClass(Singer.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testEntitiesAreEvictedPerBatch() {
+    try (Session session = this.sessionFactory.openSession()) {
+      List<Singer> singers = new ArrayList<>();
+      try (Stream<Singer> stream = SpannerResultStream.stream(
+          session, session.createQuery("from Singer", Singer.class), 2)) {
+        Iterator<Singer> iterator = stream.iterator();
+        singers.add(iterator.next());
+        singers.add(iterator.next());
+        assertThat(session.contains(singers.get(0))).isTrue();
+        assertThat(session.isReadOnly(singers.get(0))).isTrue();
+
+        singers.add(iterator.next());
+        assertThat(session.contains(singers.get(0))).isFalse();
+        assertThat(session.contains(singers.get(1))).isFalse();
+        assertThat(session.contains(singers.get(2))).isTrue();
+
+        iterator.forEachRemaining(singers::add);
+      }
+
+      assertThat(singers).extracting(singer -> singer.name)
+          .containsExactly("a", "b", "c", "d", "e");
+      assertThat(session.contains(singers.get(4))).isFalse();
+    }
+  }
+
+  @Test
+  public void testManagedEntitiesAreNotEvicted() {
+    try (Session session = this.sessionFactory.openSession()) {
+      Singer managed = session.get(Singer.class, 1L);
+      List<Singer> singers = new ArrayList<>();
+      try (Stream<Singer> stream = SpannerResultStream.stream(
+          session, session.createQuery("from Singer", Singer.class), 2)) {
+        stream.forEach(singers::add);
+      }
+
+      assertThat(singers.get(0)).isSameAs(managed);
+      assertThat(session.contains(managed)).isTrue();
+      assertThat(session.contains(singers.get(1))).isFalse();
+    }
+  }
+
+  @Test
+  public void testInvalidBatchSize() {
+    try (Session session = this.sessionFactory.openSession()) {
+      assertThatThrownBy(() -> SpannerResultStream.stream(
+          session, session.createQuery("from Singer", Singer.class), 0))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @Entity(name = "Singer")
+  static class Singer {
+
+    @Id
+    Long id;
+
+    String name;
+  }
+}
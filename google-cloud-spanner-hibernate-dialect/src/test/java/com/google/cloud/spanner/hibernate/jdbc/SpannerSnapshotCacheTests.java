@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.TimestampBound.Mode;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerSnapshotCache}.
+ */
+public class SpannerSnapshotCacheTests {
+
+  // A granularity of an hour, so that the tests do not cross into the next snapshot.
+  private static final String HINT = SpannerSnapshotCache.hint("3600s");
+
+  private MockConnection connection;
+
+  private CloudSpannerJdbcConnection spannerConnection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory with single-use reads on a mock Spanner connection, which returns
+   * one venue for every query.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    when(this.spannerConnection.getReadOnlyStaleness()).thenReturn(TimestampBound.strong());
+    this.connection = new MockConnection() {
+      @Override
+      public boolean isWrapperFor(Class<?> iface) {
+        return iface == CloudSpannerJdbcConnection.class;
+      }
+
+      @Override
+      public <T> T unwrap(Class<T> iface) {
+        return iface.cast(spannerConnection);
+      }
+    };
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    MockResultSet venues = new MockResultSet("venues");
+    venues.addColumn("id1_0_", new Object[] {1L});
+    venues.addColumn("name2_0_", new Object[] {"Hall"});
+    this.connection.getPreparedStatementResultSetHandler().prepareGlobalResultSet(venues);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_SINGLE_USE_READS, "true")
+        .build())
+        .addAnnotatedClass(Venue.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testParse() {
+    assertThat(SpannerSnapshotCache.parse("5s")).isEqualTo(5000L);
+    assertThat(SpannerSnapshotCache.parse("250ms")).isEqualTo(250L);
+    assertThatThrownBy(() -> SpannerSnapshotCache.hint("0s"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> SpannerSnapshotCache.hint("max:5s"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testHintIsPutInComment() {
+    assertThat(new SpannerDialect().getQueryHintString(
+        "select id from Venue", Arrays.asList(SpannerSnapshotCache.hint("5s"))))
+        .isEqualTo("/* org.hibernate.spanner.snapshot=5s */ select id from Venue");
+  }
+
+  @Test
+  public void testSnapshotTimestampIsRoundedDown() {
+    AtomicLong clock = new AtomicLong(12345L);
+    SpannerSnapshotCache cache = new SpannerSnapshotCache(10, clock::get);
+
+    assertThat(cache.getSnapshotTimestamp(5000L)).isEqualTo(10000L);
+    assertThat(cache.getSnapshotTimestamp(1000L)).isEqualTo(12000L);
+  }
+
+  @Test
+  public void testResultsExpireWithTheirSnapshot() throws SQLException {
+    AtomicLong clock = new AtomicLong(12345L);
+    SpannerSnapshotCache cache = new SpannerSnapshotCache(1, clock::get);
+    List<Object> key = Arrays.asList("select 1", Collections.emptyList(), 10000L);
+    CachedResultSet results = CachedResultSet.read(new MockResultSet("empty"));
+
+    cache.put(key, results, 15000L);
+    assertThat(cache.get(key)).isSameAs(results);
+
+    cache.put(Arrays.asList("select 2", Collections.emptyList(), 10000L), results, 15000L);
+    assertThat(cache.get(key)).isNull();
+
+    clock.set(15000L);
+    assertThat(cache.get(Arrays.asList("select 2", Collections.emptyList(), 10000L))).isNull();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void testQueryIsReadOnceFromSnapshot() throws SQLException {
+    singleUseReads(true);
+    for (int i = 0; i < 2; i++) {
+      try (Session session = this.sessionFactory.openSession()) {
+        session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+        session.beginTransaction();
+        List<Venue> venues = session.createQuery("from Venue v where v.name = :name", Venue.class)
+            .setParameter("name", "Hall")
+            .addQueryHint(HINT)
+            .list();
+        assertThat(venues).extracting(venue -> venue.name).containsExactly("Hall");
+        session.getTransaction().commit();
+      }
+    }
+
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .filteredOn(sql -> sql.startsWith("/* org.hibernate.spanner.snapshot=3600s */ select"))
+        .hasSize(1);
+    verify(this.spannerConnection).setReadOnlyStaleness(
+        argThat(staleness -> staleness.getMode() == Mode.READ_TIMESTAMP));
+  }
+
+  @Test
+  public void testResultsAreCachedByParameters() throws SQLException {
+    singleUseReads(true);
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+      session.beginTransaction();
+      for (String name : Arrays.asList("Hall", "Arena", "Hall")) {
+        session.createQuery("from Venue v where v.name = :name", Venue.class)
+            .setParameter("name", name)
+            .addQueryHint(HINT)
+            .list();
+      }
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection, times(2)).setReadOnlyStaleness(
+        argThat(staleness -> staleness.getMode() == Mode.READ_TIMESTAMP));
+  }
+
+  @Test
+  public void testReadWriteTransactionIsNotCached() throws SQLException {
+    singleUseReads(false);
+    for (int i = 0; i < 2; i++) {
+      try (Session session = this.sessionFactory.openSession()) {
+        session.beginTransaction();
+        session.createQuery("from Venue", Venue.class).addQueryHint(HINT).list();
+        session.getTransaction().commit();
+      }
+    }
+
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .filteredOn(sql -> sql.startsWith("/* org.hibernate.spanner.snapshot=3600s */ select"))
+        .hasSize(2);
+    verify(this.spannerConnection, never()).setReadOnlyStaleness(any());
+  }
+
+  private void singleUseReads(boolean singleUseReads) throws SQLException {
+    when(this.spannerConnection.getAutoCommit()).thenReturn(singleUseReads);
+    when(this.spannerConnection.isReadOnly()).thenReturn(singleUseReads);
+  }
+
+  @Entity(name = "Venue")
+  static class Venue {
+
+    @Id
+    Long id;
+
+    String name;
+  }
+}
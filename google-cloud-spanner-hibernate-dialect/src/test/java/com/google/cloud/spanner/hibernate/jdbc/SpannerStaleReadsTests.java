@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.StaleRead;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Tests for {@link SpannerStaleReads}.
+ */
+public class SpannerStaleReadsTests {
+
+  private MockConnection connection;
+
+  private CloudSpannerJdbcConnection spannerConnection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory with single-use reads on a mock Spanner connection.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    when(this.spannerConnection.getReadOnlyStaleness()).thenReturn(TimestampBound.strong());
+    this.connection = new MockConnection() {
+      @Override
+      public boolean isWrapperFor(Class<?> iface) {
+        return iface == CloudSpannerJdbcConnection.class;
+      }
+
+      @Override
+      public <T> T unwrap(Class<T> iface) {
+        return iface.cast(spannerConnection);
+      }
+    };
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    this.sessionFactory = new MetadataSources(new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_SINGLE_USE_READS, "true")
+        .build())
+        .addAnnotatedClass(Venue.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void tearDown() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testParse() {
+    assertThat(SpannerStaleReads.parse("max:10s"))
+        .isEqualTo(TimestampBound.ofMaxStaleness(10, TimeUnit.SECONDS));
+    assertThat(SpannerStaleReads.parse("exact:500ms"))
+        .isEqualTo(TimestampBound.ofExactStaleness(500, TimeUnit.MILLISECONDS));
+    assertThatThrownBy(() -> SpannerStaleReads.hint("10s"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testHintIsPutInComment() {
+    assertThat(new SpannerDialect().getQueryHintString(
+        "select id from Venue", Arrays.asList(SpannerStaleReads.hint("max:10s"))))
+        .isEqualTo("/* org.hibernate.spanner.staleness=max:10s */ select id from Venue");
+  }
+
+  @Test
+  public void testStaleQueryInReadOnlyTransaction() throws SQLException {
+    singleUseReads(true);
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+      session.beginTransaction();
+      session.createQuery("from Venue", Venue.class)
+          .addQueryHint(SpannerStaleReads.hint("max:10s"))
+          .list();
+      session.createQuery("from Venue", Venue.class).list();
+      session.getTransaction().commit();
+    }
+
+    InOrder inOrder = inOrder(this.spannerConnection);
+    inOrder.verify(this.spannerConnection)
+        .setReadOnlyStaleness(TimestampBound.ofMaxStaleness(10, TimeUnit.SECONDS));
+    inOrder.verify(this.spannerConnection).setReadOnlyStaleness(TimestampBound.strong());
+    inOrder.verifyNoMoreInteractions();
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .anyMatch(sql -> sql.startsWith("/* org.hibernate.spanner.staleness=max:10s */ select"));
+  }
+
+  @Test
+  public void testStaleEntityLoadInReadOnlyTransaction() throws SQLException {
+    singleUseReads(true);
+    try (Session session = this.sessionFactory.openSession()) {
+      session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
+      session.beginTransaction();
+      session.get(Venue.class, 1L);
+      session.getTransaction().commit();
+    }
+
+    InOrder inOrder = inOrder(this.spannerConnection);
+    inOrder.verify(this.spannerConnection)
+        .setReadOnlyStaleness(TimestampBound.ofExactStaleness(15, TimeUnit.SECONDS));
+    inOrder.verify(this.spannerConnection).setReadOnlyStaleness(TimestampBound.strong());
+  }
+
+  @Test
+  public void testStrongReadsInReadWriteTransaction() throws SQLException {
+    singleUseReads(false);
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.get(Venue.class, 1L);
+      session.createQuery("from Venue", Venue.class)
+          .addQueryHint(SpannerStaleReads.hint("max:10s"))
+          .list();
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection, never()).setReadOnlyStaleness(any());
+  }
+
+  private void singleUseReads(boolean singleUseReads) throws SQLException {
+    when(this.spannerConnection.getAutoCommit()).thenReturn(singleUseReads);
+    when(this.spannerConnection.isReadOnly()).thenReturn(singleUseReads);
+  }
+
+  @Entity(name = "Venue")
+  @StaleRead("exact:15s")
+  static class Venue {
+
+    @Id
+    Long id;
+
+    String name;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.entities.Employee;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.jdbc.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpannerUpsert}.
+ */
+public class SpannerUpsertTests {
+
+  private SessionFactory sessionFactory;
+
+  private Session hibernateSession;
+
+  private CloudSpannerJdbcConnection connection;
+
+  private Session session;
+
+  /**
+   * Sets up a session whose work is executed on a mock Spanner connection.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+    MockConnection mockConnection = jdbcMockObjectFactory.getMockConnection();
+    mockConnection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(mockConnection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused");
+    this.sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Employee.class)
+        .buildMetadata()
+        .buildSessionFactory();
+    this.hibernateSession = this.sessionFactory.openSession();
+
+    this.connection = mock(CloudSpannerJdbcConnection.class);
+    when(this.connection.unwrap(CloudSpannerJdbcConnection.class)).thenReturn(this.connection);
+    when(this.connection.getAutoCommit()).thenReturn(false);
+
+    this.session = mock(Session.class);
+    when(this.session.unwrap(SharedSessionContractImplementor.class))
+        .thenReturn((SharedSessionContractImplementor) this.hibernateSession);
+    when(this.session.getSessionFactory()).thenReturn(this.sessionFactory);
+    doAnswer(invocation -> {
+      invocation.<Work>getArgument(0).execute(this.connection);
+      return null;
+    }).when(this.session).doWork(any(Work.class));
+  }
+
+  @After
+  public void cleanup() {
+    this.hibernateSession.close();
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testUpsertIsBufferedInTransaction() throws SQLException {
+    SpannerUpsert.upsert(this.session, employee(7L, "Alice"));
+
+    verify(this.connection).bufferedWrite(Mutation.newInsertOrUpdateBuilder("Employee")
+        .set("manager_id").to((Long) null)
+        .set("name").to("Alice")
+        .set("id").to(7L)
+        .build());
+    verify(this.connection, never()).prepareStatement(any());
+  }
+
+  @Test
+  public void testUpsertIsWrittenInAutocommit() throws SQLException {
+    when(this.connection.getAutoCommit()).thenReturn(true);
+
+    SpannerUpsert.upsert(this.session, employee(7L, "Alice"));
+
+    verify(this.connection).write(Mutation.newInsertOrUpdateBuilder("Employee")
+        .set("manager_id").to((Long) null)
+        .set("name").to("Alice")
+        .set("id").to(7L)
+        .build());
+  }
+
+  @Test
+  public void testEntityWithoutIdentifierIsRejected() throws SQLException {
+    assertThatThrownBy(() -> SpannerUpsert.upsert(this.session, employee(null, "Alice")))
+        .isInstanceOf(IllegalArgumentException.class);
+    verify(this.connection, never()).bufferedWrite(any(Mutation.class));
+  }
+
+  private static Employee employee(Long id, String name) {
+    Employee employee = new Employee();
+    employee.id = id;
+    employee.name = name;
+    return employee;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link UpsertEventListener}.
+ */
+public class UpsertEventListenerTests {
+
+  private MockConnection connection;
+
+  private CloudSpannerJdbcConnection spannerConnection;
+
+  private SessionFactory sessionFactory;
+
+  /**
+   * Sets up a session factory which writes entities as mutations and upserts, on a mock JDBC
+   * connection which unwraps to a mock Spanner connection.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.spannerConnection = mock(CloudSpannerJdbcConnection.class);
+    this.connection = new MockConnection() {
+      @Override
+      public boolean isWrapperFor(Class<?> iface) {
+        return iface == CloudSpannerJdbcConnection.class;
+      }
+
+      @Override
+      public <T> T unwrap(Class<T> iface) {
+        return iface.cast(spannerConnection);
+      }
+    };
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(SpannerSettings.USE_MUTATIONS, true)
+        .applySetting(SpannerSettings.USE_UPSERT, true);
+    this.sessionFactory = new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Singer.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  @After
+  public void cleanup() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void testSaveOrUpdateIsUpsertedWithoutSelect() throws SQLException {
+    Singer singer = singer(1L, "Alice");
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.saveOrUpdate(singer);
+      assertThat(session.contains(singer)).isTrue();
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection).bufferedWrite(Collections.singletonList(
+        Mutation.newInsertOrUpdateBuilder("Singer")
+            .set("name").to("Alice").set("id").to(1L).build()));
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .isEmpty();
+  }
+
+  @Test
+  public void testMergeIsUpsertedWithoutSelect() throws SQLException {
+    Singer singer = singer(1L, "Alice");
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      Singer merged = (Singer) session.merge(singer);
+      assertThat(merged).isNotSameAs(singer);
+      assertThat(merged.name).isEqualTo("Alice");
+      assertThat(session.contains(merged)).isTrue();
+      assertThat(session.contains(singer)).isFalse();
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection).bufferedWrite(Collections.singletonList(
+        Mutation.newInsertOrUpdateBuilder("Singer")
+            .set("name").to("Alice").set("id").to(1L).build()));
+    assertThat(this.connection.getPreparedStatementResultSetHandler().getExecutedStatements())
+        .isEmpty();
+  }
+
+  @Test
+  public void testChangesOfUpsertedEntityAreFlushed() throws SQLException {
+    Singer singer = singer(1L, "Alice");
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.saveOrUpdate(singer);
+      singer.name = "Bob";
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection).bufferedWrite(Arrays.asList(
+        Mutation.newInsertOrUpdateBuilder("Singer")
+            .set("name").to("Alice").set("id").to(1L).build(),
+        Mutation.newUpdateBuilder("Singer").set("name").to("Bob").set("id").to(1L).build()));
+  }
+
+  @Test
+  public void testPersistIsInserted() throws SQLException {
+    try (Session session = this.sessionFactory.openSession()) {
+      session.beginTransaction();
+      session.persist(singer(1L, "Alice"));
+      session.getTransaction().commit();
+    }
+
+    verify(this.spannerConnection).bufferedWrite(Collections.singletonList(
+        Mutation.newInsertBuilder("Singer").set("name").to("Alice").set("id").to(1L).build()));
+  }
+
+  private static Singer singer(long id, String name) {
+    Singer singer = new Singer();
+    singer.id = id;
+    singer.name = name;
+    return singer;
+  }
+
+  /**
+   * An entity with an assigned identifier.
+   */
+  @Entity(name = "Singer")
+  public static class Singer {
+
+    @Id
+    public long id;
+
+    public String name;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019-2020 Google LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.google.cloud.spanner.hibernate.loader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.spanner.hibernate.MockJdbcUtils;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import com.google.cloud.spanner.hibernate.SpannerSettings;
+import com.google.cloud.spanner.hibernate.persister.SpannerOneToManyPersister;
+import com.google.cloud.spanner.hibernate.persister.SpannerSingleTableEntityPersister;
+import com.mockrunner.mock.jdbc.JDBCMockObjectFactory;
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ArrayIdsBatchingEntityLoaderBuilder} and
+ * {@link ArrayIdsBatchingCollectionInitializerBuilder}.
+ */
+public class ArrayIdsBatchingEntityLoaderBuilderTests {
+
+  private MockConnection connection;
+
+  /**
+   * Set up the mock JDBC driver, which finds no rows for any query.
+   */
+  @Before
+  public void setup() throws SQLException {
+    JDBCMockObjectFactory jdbcMockObjectFactory = new JDBCMockObjectFactory();
+    jdbcMockObjectFactory.registerMockDriver();
+
+    this.connection = jdbcMockObjectFactory.getMockConnection();
+    this.connection.setMetaData(MockJdbcUtils.metaDataBuilder().build());
+    jdbcMockObjectFactory.getMockDriver().setupConnection(this.connection);
+    this.connection.getPreparedStatementResultSetHandler()
+        .prepareGlobalResultSet(new MockResultSet("empty"));
+  }
+
+  @Test
+  public void testEntityBatchBindsIdsAsArray() throws SQLException {
+    try (SessionFactory sessionFactory = buildSessionFactory(true);
+        Session session = sessionFactory.openSession()) {
+      assertThat(sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel()
+          .entityPersister(Singer.class)).isInstanceOf(SpannerSingleTableEntityPersister.class);
+
+      // The proxies are fetched together with the next entity which is loaded.
+      session.load(Singer.class, 2L);
+      session.load(Singer.class, 3L);
+      assertThat(session.get(Singer.class, 1L)).isNull();
+
+      MockPreparedStatement statement = getLastStatement();
+      assertThat(statement.getSQL()).startsWith("select").endsWith(".id in unnest(?)");
+      assertThat(getIds(statement)).containsExactly(1L, 2L, 3L);
+    }
+  }
+
+  @Test
+  public void testCollectionBatchBindsKeysAsArray() throws SQLException {
+    try (SessionFactory sessionFactory = buildSessionFactory(true);
+        Session session = sessionFactory.openSession()) {
+      CollectionPersister persister = sessionFactory.unwrap(SessionFactoryImplementor.class)
+          .getMetamodel().collectionPersister(Singer.class.getName() + ".albums");
+      assertThat(persister).isInstanceOf(SpannerOneToManyPersister.class);
+
+      persister.initialize(4L, session.unwrap(SharedSessionContractImplementor.class));
+
+      MockPreparedStatement statement = getLastStatement();
+      assertThat(statement.getSQL()).startsWith("select").endsWith(".singer_id in unnest(?)");
+      assertThat(getIds(statement)).containsExactly(4L);
+    }
+  }
+
+  @Test
+  public void testArrayBatchFetchCanBeDisabled() {
+    try (SessionFactory sessionFactory = buildSessionFactory(false)) {
+      assertThat(sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel()
+          .entityPersister(Singer.class)).isExactlyInstanceOf(SingleTableEntityPersister.class);
+    }
+  }
+
+  private static SessionFactory buildSessionFactory(boolean arrayBatchFetch) {
+    StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", SpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", "unused")
+        .applySetting("hibernate.connection.username", "unused")
+        .applySetting("hibernate.connection.password", "unused")
+        .applySetting(AvailableSettings.DEFAULT_BATCH_FETCH_SIZE, 10)
+        .applySetting(SpannerSettings.USE_ARRAY_BATCH_FETCH, arrayBatchFetch);
+
+    return new MetadataSources(registryBuilder.build())
+        .addAnnotatedClass(Singer.class)
+        .addAnnotatedClass(Album.class)
+        .buildMetadata()
+        .buildSessionFactory();
+  }
+
+  private MockPreparedStatement getLastStatement() {
+    List<MockPreparedStatement> statements =
+        this.connection.getPreparedStatementResultSetHandler().getPreparedStatements();
+    return statements.get(statements.size() - 1);
+  }
+
+  private static List<Object> getIds(MockPreparedStatement statement) throws SQLException {
+    Object[] ids = (Object[]) ((Array) statement.getParameter(1)).getArray();
+    return Arrays.asList(ids);
+  }
+
+  /**
+   * A singer, which is fetched in batches by default.
+   */
+  @Entity(name = "Singer")
+  public static class Singer {
+
+    @Id
+    public long id;
+
+    public String name;
+
+    @OneToMany(mappedBy = "singer")
+    public List<Album> albums;
+  }
+
+  /**
+   * An album of a singer.
+   */
+  @Entity(name = "Album")
+  public static class Album {
+
+    @Id
+    public long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    public Singer singer;
+  }
+}
@@ -18,8 +18,11 @@
 
 package com.example;
 
+import com.google.cloud.spanner.hibernate.jdbc.SpannerBlindWriteSession;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerTransactionCoordinatorBuilder;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 
 /**
  * A wrapper class for the {@link org.hibernate.SessionFactory} class to help access different
@@ -51,17 +54,28 @@ public class SessionHelper {
   }
 
   /**
-   * Creates a read-only session.
+   * Creates a read-only session. With {@code hibernate.spanner.use_single_use_reads} enabled, the
+   * queries of its transactions are executed as single-use read-only transactions.
    */
   public Session createReadOnlySession() {
     Session session = sessionFactory.openSession();
     session.doWork(conn -> {
-      conn.setReadOnly(true);
+      // Pooled connections may still use the staleness of a stale read session.
       conn.createStatement().execute("SET READ_ONLY_STALENESS = 'STRONG'");
     });
+    session.setDefaultReadOnly(true);
+    session.setProperty(SpannerTransactionCoordinatorBuilder.READ_ONLY_HINT, true);
     return session;
   }
 
+  /**
+   * Creates a session for write-only workloads, which sends its writes as mutations with the
+   * commit and does not keep snapshots of the written entities.
+   */
+  public StatelessSession createBlindWriteSession() {
+    return SpannerBlindWriteSession.open(sessionFactory);
+  }
+
   /**
    * Create a session for exact stale reads at {@code stalenessSeconds} in the past.
    */
@@ -19,6 +19,7 @@
 package com.example;
 
 import com.example.entities.Book;
+import com.google.cloud.spanner.hibernate.jdbc.SpannerStaleReads;
 import java.util.List;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -79,6 +80,20 @@ public class StaleReadsDemo {
               + booksInTable);
     }
 
+    try (Session session = sessionHelper.createReadOnlySession()) {
+      // The queries of read-only transactions can be made stale with a query hint.
+      session.beginTransaction();
+      List<Book> booksInTable =
+          session.createQuery("from Book b where b.id = :id", Book.class)
+              .setParameter("id", book.getId())
+              .addQueryHint(SpannerStaleReads.hint("exact:600s"))
+              .list();
+      session.getTransaction().commit();
+      System.out.println(
+          "Executing a stale read with a query hint (no books should be found): "
+              + booksInTable);
+    }
+
     System.out.println("==========================");
   }
 }